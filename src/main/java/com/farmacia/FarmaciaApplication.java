@@ -6,6 +6,9 @@ import com.farmacia.service.ClienteService;
 import com.farmacia.service.ProveedorService;
 import com.farmacia.service.PedidoService;
 import com.farmacia.service.AlertaService;
+import com.farmacia.service.ImportacionProductosService;
+import com.farmacia.service.ReintentosConcurrencia;
+import com.farmacia.service.ReposicionService;
 import com.farmacia.ui.InventarioPanel;
 import com.farmacia.ui.VentasPanel;
 import com.farmacia.ui.ClientesPanel;
@@ -13,6 +16,8 @@ import com.farmacia.ui.ReportesPanel;
 import com.farmacia.ui.ProveedoresPanel;
 import com.farmacia.ui.AlertasPanel;
 import com.farmacia.ui.SplashScreen;
+import com.farmacia.ui.BusquedaUI;
+import com.farmacia.ui.TareaUI;
 import javafx.application.Application;
 import javafx.application.Platform;
 import javafx.scene.Scene;
@@ -23,12 +28,14 @@ import javafx.geometry.Insets;
 import javafx.geometry.Pos;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 import org.springframework.context.ConfigurableApplicationContext;
 
 import java.awt.Desktop;
 import java.net.URI;
 
 @SpringBootApplication
+@EnableScheduling
 public class FarmaciaApplication extends Application {
 
     private ConfigurableApplicationContext springContext;
@@ -41,8 +48,10 @@ public class FarmaciaApplication extends Application {
 
     @Override
     public void init() {
-        // Iniciar Spring Boot en segundo plano
-        springContext = SpringApplication.run(FarmaciaApplication.class);
+        // Iniciar Spring Boot en segundo plano, con los argumentos de la línea de órdenes
+        // (por ejemplo --reconstruir-resumen)
+        springContext = SpringApplication.run(FarmaciaApplication.class,
+                getParameters().getRaw().toArray(new String[0]));
     }
 
     @Override
@@ -125,7 +134,8 @@ public class FarmaciaApplication extends Application {
         // Pestaña 2: Inventario
         Tab tabInventario = new Tab();
         tabInventario.setGraphic(crearTabConTextoEstilizado("I", "Inventario"));
-        InventarioPanel inventarioPanel = new InventarioPanel(productoService);
+        InventarioPanel inventarioPanel = new InventarioPanel(productoService, springContext.getBean(ImportacionProductosService.class),
+                alertaService);
         tabInventario.setContent(inventarioPanel.getContent());
 
         // Pestaña 3: Ventas (PASAR USUARIO ACTUAL)
@@ -143,13 +153,14 @@ public class FarmaciaApplication extends Application {
         // Pestaña 5: Proveedores
         Tab tabProveedores = new Tab();
         tabProveedores.setGraphic(crearTabConTextoEstilizado("P", "Proveedores"));
-        ProveedoresPanel proveedoresPanel = new ProveedoresPanel(proveedorService, pedidoService, productoService);
+        ProveedoresPanel proveedoresPanel = new ProveedoresPanel(proveedorService, pedidoService, productoService,
+                springContext.getBean(ReposicionService.class));
         tabProveedores.setContent(proveedoresPanel.getContent());
 
         // Pestaña 6: Reportes
         Tab tabReportes = new Tab();
         tabReportes.setGraphic(crearTabConTextoEstilizado("R", "Reportes"));
-        ReportesPanel reportesPanel = new ReportesPanel(ventaService, productoService, clienteService);
+        ReportesPanel reportesPanel = new ReportesPanel(ventaService, productoService, clienteService, alertaService);
         tabReportes.setContent(reportesPanel);
 
         // Pestaña 7: Alertas
@@ -196,6 +207,14 @@ public class FarmaciaApplication extends Application {
     @Override
     public void stop() {
         System.out.println(">>> MÉTODO stop() LLAMADO - Aplicación cerrándose");
+        // Resumen de las búsquedas mientras se escribe de cada panel
+        for (BusquedaUI.Metricas metricas : BusquedaUI.obtenerTodasLasMetricas()) {
+            System.out.println("Búsqueda " + metricas);
+        }
+        // Reintentos por conflictos de concurrencia en las operaciones de stock
+        for (ReintentosConcurrencia.Metricas metricas : springContext.getBean(ReintentosConcurrencia.class).obtenerTodasLasMetricas()) {
+            System.out.println("Reintentos " + metricas);
+        }
         springContext.close();
     }
 
@@ -334,17 +353,24 @@ public class FarmaciaApplication extends Application {
         container.setAlignment(Pos.CENTER);
         
         Label label = new Label(texto);
+        container.getChildren().add(label);
         
-        int numCriticas = alertaService.obtenerAlertasCriticas().size();
-        if (numCriticas > 0) {
-            Label badge = new Label(String.valueOf(numCriticas));
-            badge.setStyle("-fx-background-color: #dc3545; -fx-text-fill: white; " +
-                    "-fx-padding: 2 6; -fx-background-radius: 10; -fx-font-size: 10px; " +
-                    "-fx-font-weight: bold; -fx-min-width: 18px; -fx-alignment: center;");
-            container.getChildren().addAll(label, badge);
-        } else {
-            container.getChildren().add(label);
-        }
+        // El contador de alertas críticas se actualiza con cada instantánea del evaluador de alertas
+        Label badge = new Label();
+        badge.setStyle("-fx-background-color: #dc3545; -fx-text-fill: white; " +
+                "-fx-padding: 2 6; -fx-background-radius: 10; -fx-font-size: 10px; " +
+                "-fx-font-weight: bold; -fx-min-width: 18px; -fx-alignment: center;");
+        badge.setVisible(false);
+        badge.managedProperty().bind(badge.visibleProperty());
+        container.getChildren().add(badge);
+
+        alertaService.registrarObservador(instantanea -> {
+            int numCriticas = instantanea.getEstadisticas().criticas;
+            Platform.runLater(() -> {
+                badge.setText(String.valueOf(numCriticas));
+                badge.setVisible(numCriticas > 0);
+            });
+        });
         
         return container;
     }
@@ -360,9 +386,22 @@ public class FarmaciaApplication extends Application {
         Label titulo = new Label("⚠️ Resumen de Alertas del Sistema");
         titulo.setStyle("-fx-font-size: 18px; -fx-font-weight: bold;");
 
-        // Obtener estadísticas
-        AlertaService.EstadisticasAlertas stats = alertaService.obtenerEstadisticas();
+        // Primero los recuentos (consultas agregadas, sin crear las alertas); después cada
+        // instantánea del evaluador de alertas los sustituye, y la carga inicial ya no se aplica
+        VBox contenido = new VBox();
+        TareaUI carga = new TareaUI();
+        contenido.getChildren().add(carga.crearIndicador());
+        container.getChildren().addAll(titulo, contenido);
+
+        carga.ejecutar(alertaService::contarAlertas, stats -> contenido.getChildren().setAll(crearEstadisticasAlertas(stats)));
+        alertaService.registrarObservador(instantanea -> Platform.runLater(() -> {
+            carga.cancelar();
+            contenido.getChildren().setAll(crearEstadisticasAlertas(instantanea.getEstadisticas()));
+        }));
+        return container;
+    }
 
+    private VBox crearEstadisticasAlertas(AlertaService.EstadisticasAlertas stats) {
         // Crear grid con estadísticas
         GridPane grid = new GridPane();
         grid.setHgap(20);
@@ -388,8 +427,7 @@ public class FarmaciaApplication extends Application {
             mensaje.setStyle("-fx-font-size: 14px; -fx-text-fill: #28a745; -fx-font-weight: bold;");
         }
 
-        container.getChildren().addAll(titulo, grid, mensaje);
-        return container;
+        return new VBox(15, grid, mensaje);
     }
 
     private void agregarEstadistica(GridPane grid, int col, String titulo, int valor, String color) {
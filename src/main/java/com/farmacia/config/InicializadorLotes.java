@@ -0,0 +1,29 @@
+package com.farmacia.config;
+
+import com.farmacia.service.LoteService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+/**
+ * Crea el lote sin número con el stock actual de los productos que aún no tienen
+ * lotes (bases de datos anteriores a la tabla lotes), así la suma de los lotes
+ * cuadra con el stock desde el arranque.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 3)
+public class InicializadorLotes implements CommandLineRunner {
+
+    @Autowired
+    private LoteService loteService;
+
+    @Override
+    public void run(String... args) {
+        int productos = loteService.crearLotesIniciales();
+        if (productos > 0) {
+            System.out.println("✓ Lotes iniciales creados para " + productos + " productos");
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.farmacia.config;
+
+import com.farmacia.service.MovimientoStockService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+/**
+ * Apunta el saldo inicial en el libro de movimientos de stock para los productos
+ * que aún no tienen movimientos (bases de datos anteriores a la tabla
+ * movimientos_stock), así el libro cuadra con el stock actual desde el arranque.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 2)
+public class InicializadorMovimientosStock implements CommandLineRunner {
+
+    @Autowired
+    private MovimientoStockService movimientoStockService;
+
+    @Override
+    public void run(String... args) {
+        int productos = movimientoStockService.registrarSaldosIniciales();
+        if (productos > 0) {
+            System.out.println("✓ Saldo inicial de stock apuntado para " + productos + " productos");
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.farmacia.config;
+
+import com.farmacia.service.VentaService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+
+/**
+ * Rellena las tablas resumen_ventas_diario y ventas_producto_diarias a partir
+ * del histórico de ventas.
+ *
+ * Cada tabla se reconstruye automáticamente si está vacía (bases de datos
+ * anteriores a ella) o siempre que se arranque con --reconstruir-resumen.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 1)
+public class InicializadorResumenVentas implements CommandLineRunner {
+
+    public static final String ARG_RECONSTRUIR = "--reconstruir-resumen";
+
+    @Autowired
+    private VentaService ventaService;
+
+    @Override
+    public void run(String... args) {
+        boolean forzar = Arrays.asList(args).contains(ARG_RECONSTRUIR);
+        if (forzar || ventaService.isResumenDiarioVacio()) {
+            ventaService.reconstruirResumenDiario();
+            System.out.println("✓ Resumen diario de ventas reconstruido");
+        }
+        if (forzar || ventaService.isVentasPorProductoVacio()) {
+            ventaService.reconstruirVentasPorProducto();
+            System.out.println("✓ Ventas diarias por producto reconstruidas");
+        }
+    }
+}
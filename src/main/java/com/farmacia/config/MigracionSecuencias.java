@@ -0,0 +1,77 @@
+package com.farmacia.config;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.sql.Connection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Ajusta las secuencias de IDs en bases de datos H2 creadas cuando las
+ * entidades usaban GenerationType.IDENTITY.
+ *
+ * Hibernate crea las secuencias empezando en 1, pero las tablas ya tienen
+ * filas. Antes de cualquier inserción, cada secuencia cuyo siguiente bloque
+ * pisaría IDs existentes se reinicia por encima del máximo actual.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class MigracionSecuencias implements CommandLineRunner {
+
+    // Debe coincidir con el allocationSize de los @SequenceGenerator
+    private static final int TAMANO_BLOQUE = 50;
+
+    // Tabla -> secuencia que genera sus IDs
+    private static final Map<String, String> SECUENCIAS = new LinkedHashMap<>();
+
+    static {
+        SECUENCIAS.put("clientes", "clientes_seq");
+        SECUENCIAS.put("detalle_pedidos", "detalle_pedidos_seq");
+        SECUENCIAS.put("detalle_ventas", "detalle_ventas_seq");
+        SECUENCIAS.put("pedidos", "pedidos_seq");
+        SECUENCIAS.put("productos", "productos_seq");
+        SECUENCIAS.put("proveedores", "proveedores_seq");
+        SECUENCIAS.put("usuario", "usuario_seq");
+        SECUENCIAS.put("ventas", "ventas_seq");
+    }
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Override
+    public void run(String... args) {
+        String baseDatos = jdbcTemplate.execute((Connection con) -> con.getMetaData().getDatabaseProductName());
+        if (!"H2".equalsIgnoreCase(baseDatos)) {
+            return;
+        }
+
+        for (Map.Entry<String, String> entry : SECUENCIAS.entrySet()) {
+            ajustarSecuencia(entry.getKey(), entry.getValue());
+        }
+    }
+
+    private void ajustarSecuencia(String tabla, String secuencia) {
+        List<Long> valores = jdbcTemplate.queryForList(
+                "SELECT BASE_VALUE FROM INFORMATION_SCHEMA.SEQUENCES WHERE UPPER(SEQUENCE_NAME) = ?",
+                Long.class, secuencia.toUpperCase());
+        if (valores.isEmpty()) {
+            return;
+        }
+
+        Long maxId = jdbcTemplate.queryForObject("SELECT COALESCE(MAX(id), 0) FROM " + tabla, Long.class);
+        long siguienteValor = valores.get(0);
+
+        // El optimizador "pooled" entrega IDs desde (valor - bloque + 1) hasta valor
+        if (maxId != null && maxId > 0 && siguienteValor - TAMANO_BLOQUE < maxId) {
+            long reinicio = maxId + TAMANO_BLOQUE;
+            jdbcTemplate.execute("ALTER SEQUENCE " + secuencia + " RESTART WITH " + reinicio);
+            System.out.println("✓ Secuencia " + secuencia + " ajustada a " + reinicio + " (máximo ID en " + tabla + ": " + maxId + ")");
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.farmacia.config;
+
+import com.farmacia.model.UmbralAlertas;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Crea la fila global de umbrales de alertas con su ID fijo (UmbralAlertas.ID_GLOBAL).
+ *
+ * Antes la fila global era la de categoría NULL y se creaba con un ID de la secuencia
+ * la primera vez que se pedía; dos terminales que arrancaban a la vez podían crear
+ * una cada uno. Si hay filas así, la más antigua pasa sus valores a la fila fija y
+ * todas se borran. Si otro terminal la crea a la vez, la clave primaria lo impide y
+ * se usa la suya.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 4)
+public class MigracionUmbralGlobal implements CommandLineRunner {
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Override
+    public void run(String... args) {
+        Integer existe = jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM umbrales_alertas WHERE id = ?", Integer.class, UmbralAlertas.ID_GLOBAL);
+        if (existe == null || existe == 0) {
+            crearFilaGlobal();
+        }
+
+        int sobrantes = jdbcTemplate.update(
+                "DELETE FROM umbrales_alertas WHERE categoria IS NULL AND id <> ?", UmbralAlertas.ID_GLOBAL);
+        if (sobrantes > 0) {
+            System.out.println("✓ Umbrales globales duplicados eliminados: " + sobrantes);
+        }
+    }
+
+    private void crearFilaGlobal() {
+        // Valores de la fila global anterior (la más antigua), o los de por defecto
+        List<Map<String, Object>> anteriores = jdbcTemplate.queryForList(
+                "SELECT stock_minimo, dias_aviso_caducidad, dias_pedido_retrasado FROM umbrales_alertas "
+                        + "WHERE categoria IS NULL ORDER BY id FETCH FIRST 1 ROWS ONLY");
+        Map<String, Object> anterior = anteriores.isEmpty() ? Map.of() : anteriores.get(0);
+        try {
+            jdbcTemplate.update("INSERT INTO umbrales_alertas (id, categoria, stock_minimo, dias_aviso_caducidad, "
+                            + "dias_pedido_retrasado) VALUES (?, NULL, ?, ?, ?)",
+                    UmbralAlertas.ID_GLOBAL,
+                    valor(anterior.get("STOCK_MINIMO"), UmbralAlertas.STOCK_MINIMO_POR_DEFECTO),
+                    valor(anterior.get("DIAS_AVISO_CADUCIDAD"), UmbralAlertas.DIAS_AVISO_CADUCIDAD_POR_DEFECTO),
+                    valor(anterior.get("DIAS_PEDIDO_RETRASADO"), UmbralAlertas.DIAS_PEDIDO_RETRASADO_POR_DEFECTO));
+            System.out.println("✓ Fila global de umbrales creada");
+        } catch (DuplicateKeyException e) {
+            // Otro terminal la ha creado a la vez
+        }
+    }
+
+    private static Object valor(Object valor, int porDefecto) {
+        return valor != null ? valor : porDefecto;
+    }
+}
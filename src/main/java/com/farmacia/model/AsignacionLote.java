@@ -0,0 +1,39 @@
+package com.farmacia.model;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Unidades de una línea de venta servidas desde un lote. Permite devolver las
+ * unidades a su lote al anular la venta y saber a quién se vendió cada lote.
+ */
+@Entity
+@Table(name = "asignaciones_lote", indexes = {
+    @Index(name = "idx_asignaciones_detalle", columnList = "detalle_venta_id"),
+    @Index(name = "idx_asignaciones_lote", columnList = "lote_id")
+})
+@Data
+@NoArgsConstructor
+public class AsignacionLote {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "asignaciones_lote_seq")
+    @SequenceGenerator(name = "asignaciones_lote_seq", sequenceName = "asignaciones_lote_seq", allocationSize = 50)
+    private Long id;
+
+    @Column(name = "detalle_venta_id", nullable = false, updatable = false)
+    private Long detalleVentaId;
+
+    @Column(name = "lote_id", nullable = false, updatable = false)
+    private Long loteId;
+
+    @Column(nullable = false, updatable = false)
+    private Integer cantidad;
+
+    public AsignacionLote(Long detalleVentaId, Long loteId, int cantidad) {
+        this.detalleVentaId = detalleVentaId;
+        this.loteId = loteId;
+        this.cantidad = cantidad;
+    }
+}
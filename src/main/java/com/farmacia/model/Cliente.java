@@ -18,7 +18,8 @@ import java.time.LocalDateTime;
 public class Cliente {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "clientes_seq")
+    @SequenceGenerator(name = "clientes_seq", sequenceName = "clientes_seq", allocationSize = 50)
     private Long id;
 
     @Column(nullable = false, length = 100)
@@ -6,6 +6,7 @@ import jakarta.validation.constraints.NotNull;
 import lombok.Data;
 
 import java.math.BigDecimal;
+import java.time.LocalDate;
 
 @Entity
 @Table(name = "detalle_pedidos")
@@ -13,7 +14,8 @@ import java.math.BigDecimal;
 public class DetallePedido {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "detalle_pedidos_seq")
+    @SequenceGenerator(name = "detalle_pedidos_seq", sequenceName = "detalle_pedidos_seq", allocationSize = 50)
     private Long id;
 
     @ManyToOne
@@ -54,6 +56,13 @@ public class DetallePedido {
 
     private Integer cantidadRecibida = 0; // Cantidad realmente recibida
 
+    // Lote del proveedor y su vencimiento; si faltan, al recibir se usan el número
+    // del pedido y el vencimiento del producto
+    @Column(length = 50)
+    private String numeroLote;
+
+    private LocalDate fechaVencimientoLote;
+
     @PrePersist
     @PreUpdate
     protected void calcularSubtotal() {
@@ -10,14 +10,15 @@ import java.math.BigDecimal;
 public class DetalleVenta {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "detalle_ventas_seq")
+    @SequenceGenerator(name = "detalle_ventas_seq", sequenceName = "detalle_ventas_seq", allocationSize = 50)
     private Long id;
 
     @ManyToOne
     @JoinColumn(name = "venta_id", nullable = false)
     private Venta venta;
 
-    @ManyToOne
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "producto_id", nullable = false)
     private Producto producto;
 
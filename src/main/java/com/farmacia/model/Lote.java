@@ -0,0 +1,62 @@
+package com.farmacia.model;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+/**
+ * Lote de un producto: unidades con un mismo número de lote y fecha de vencimiento.
+ * La suma de los lotes de un producto es su stock (Producto.stock) y las ventas
+ * descuentan de los lotes por orden de vencimiento (FEFO).
+ */
+@Entity
+@Table(name = "lotes", uniqueConstraints = {
+    @UniqueConstraint(name = "uk_lote_producto_numero", columnNames = {"producto_id", "numero_lote"})
+}, indexes = {
+    @Index(name = "idx_lotes_producto_vencimiento", columnList = "producto_id, fecha_vencimiento")
+})
+@Data
+@NoArgsConstructor
+public class Lote {
+
+    // Lote al que van las entradas sin número de lote (altas, ajustes, importaciones)
+    public static final String SIN_NUMERO = "S/N";
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "lotes_seq")
+    @SequenceGenerator(name = "lotes_seq", sequenceName = "lotes_seq", allocationSize = 50)
+    private Long id;
+
+    @Column(name = "producto_id", nullable = false, updatable = false)
+    private Long productoId;
+
+    @Column(name = "numero_lote", nullable = false, length = 50, updatable = false)
+    private String numeroLote;
+
+    @Column(name = "fecha_vencimiento")
+    private LocalDate fechaVencimiento;
+
+    // Unidades que quedan del lote
+    @Column(nullable = false)
+    private Integer cantidad;
+
+    @Column(name = "fecha_entrada", nullable = false, updatable = false)
+    private LocalDateTime fechaEntrada;
+
+    public Lote(Long productoId, String numeroLote, LocalDate fechaVencimiento, int cantidad) {
+        this.productoId = productoId;
+        this.numeroLote = numeroLote;
+        this.fechaVencimiento = fechaVencimiento;
+        this.cantidad = cantidad;
+    }
+
+    @PrePersist
+    protected void onCreate() {
+        if (fechaEntrada == null) {
+            fechaEntrada = LocalDateTime.now();
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.farmacia.model;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * Apunte del libro de movimientos de stock. Solo se insertan, nunca se modifican:
+ * el stock de un producto en cualquier fecha es la suma de sus movimientos
+ * (partiendo del último snapshot en SnapshotStock).
+ */
+@Entity
+@Table(name = "movimientos_stock", indexes = {
+    @Index(name = "idx_movimientos_producto_fecha", columnList = "producto_id, fecha"),
+    @Index(name = "idx_movimientos_fecha", columnList = "fecha")
+})
+@Data
+@NoArgsConstructor
+public class MovimientoStock {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "movimientos_stock_seq")
+    @SequenceGenerator(name = "movimientos_stock_seq", sequenceName = "movimientos_stock_seq", allocationSize = 50)
+    private Long id;
+
+    @Column(name = "producto_id", nullable = false, updatable = false)
+    private Long productoId;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 20, updatable = false)
+    private TipoMovimiento tipo;
+
+    // Unidades con signo: positivo si entra stock, negativo si sale
+    @Column(nullable = false, updatable = false)
+    private Integer cantidad;
+
+    @Column(nullable = false, updatable = false)
+    private LocalDateTime fecha;
+
+    // Documento de origen (venta, pedido...) para poder rastrear el apunte
+    @Column(length = 100, updatable = false)
+    private String referencia;
+
+    public MovimientoStock(Long productoId, TipoMovimiento tipo, int cantidad, String referencia) {
+        this.productoId = productoId;
+        this.tipo = tipo;
+        this.cantidad = cantidad;
+        this.referencia = referencia;
+    }
+
+    @PrePersist
+    protected void onCreate() {
+        if (fecha == null) {
+            fecha = LocalDateTime.now();
+        }
+    }
+
+    public enum TipoMovimiento {
+        VENTA("Venta"),
+        DEVOLUCION("Devolución"),
+        RECEPCION("Recepción de pedido"),
+        AJUSTE("Ajuste");
+
+        private final String descripcion;
+
+        TipoMovimiento(String descripcion) {
+            this.descripcion = descripcion;
+        }
+
+        public String getDescripcion() {
+            return descripcion;
+        }
+
+        @Override
+        public String toString() {
+            return descripcion;
+        }
+    }
+}
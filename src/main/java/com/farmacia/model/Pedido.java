@@ -3,6 +3,7 @@ package com.farmacia.model;
 import jakarta.persistence.*;
 import jakarta.validation.constraints.NotNull;
 import lombok.Data;
+import org.hibernate.annotations.ColumnDefault;
 
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
@@ -10,12 +11,21 @@ import java.util.ArrayList;
 import java.util.List;
 
 @Entity
+@NamedEntityGraph(
+    name = "Pedido.conDetalles",
+    attributeNodes = {
+        @NamedAttributeNode("proveedor"),
+        @NamedAttributeNode(value = "detalles", subgraph = "detalles")
+    },
+    subgraphs = @NamedSubgraph(name = "detalles", attributeNodes = @NamedAttributeNode("producto"))
+)
 @Table(name = "pedidos")
 @Data
 public class Pedido {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "pedidos_seq")
+    @SequenceGenerator(name = "pedidos_seq", sequenceName = "pedidos_seq", allocationSize = 50)
     private Long id;
 
     @ManyToOne
@@ -70,6 +80,12 @@ public class Pedido {
     @Column(length = 100)
     private String aprobadoPor; // Usuario que aprobó el pedido
 
+    // Bloqueo optimista: dos terminales no pueden cambiar el mismo pedido a la vez sin enterarse
+    @Version
+    @ColumnDefault("0")
+    @Column(nullable = false)
+    private Long version;
+
     @PrePersist
     protected void onCreate() {
         fechaCreacion = LocalDateTime.now();
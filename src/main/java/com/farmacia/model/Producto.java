@@ -5,19 +5,29 @@ import jakarta.validation.constraints.*;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
+import org.hibernate.annotations.ColumnDefault;
 
 import java.math.BigDecimal;
 import java.time.LocalDate;
 
 @Entity
-@Table(name = "productos")
+@Table(name = "productos", indexes = {
+    @Index(name = "idx_productos_activo_nombre", columnList = "activo, nombre"),
+    @Index(name = "idx_productos_activo_categoria", columnList = "activo, categoria"),
+    @Index(name = "idx_productos_activo_laboratorio", columnList = "activo, laboratorio"),
+    @Index(name = "idx_productos_activo_vencimiento", columnList = "activo, fecha_vencimiento"),
+    @Index(name = "idx_productos_activo_stock", columnList = "activo, stock"),
+    @Index(name = "idx_productos_stock_minimo", columnList = "stock_minimo"),
+    @Index(name = "idx_productos_dias_aviso", columnList = "dias_aviso_caducidad")
+})
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
 public class Producto {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "productos_seq")
+    @SequenceGenerator(name = "productos_seq", sequenceName = "productos_seq", allocationSize = 50)
     private Long id;
 
     @NotBlank(message = "El nombre es obligatorio")
@@ -41,10 +51,16 @@ public class Producto {
     @Column(nullable = false)
     private Integer stock;
 
+    // Umbral propio del producto; null usa el de su categoría o el global (UmbralAlertas)
     @Min(value = 0, message = "El stock mínimo no puede ser negativo")
     @Column(name = "stock_minimo")
     private Integer stockMinimo;
 
+    // Días de antelación del aviso de caducidad; null usa el de su categoría o el global
+    @Min(value = 0, message = "Los días de aviso de caducidad no pueden ser negativos")
+    @Column(name = "dias_aviso_caducidad")
+    private Integer diasAvisoCaducidad;
+
     @Column(length = 100)
     private String laboratorio;
 
@@ -66,6 +82,13 @@ public class Producto {
     @Column(name = "fecha_actualizacion")
     private LocalDate fechaActualizacion;
 
+    // Bloqueo optimista: las ediciones y los UPDATE de stock la incrementan, así un
+    // guardado hecho sobre datos desfasados falla en lugar de pisar el cambio ajeno
+    @Version
+    @ColumnDefault("0")
+    @Column(nullable = false)
+    private Long version;
+
     @PrePersist
     protected void onCreate() {
         fechaCreacion = LocalDate.now();
@@ -76,9 +99,6 @@ public class Producto {
         if (requiereReceta == null) {
             requiereReceta = false;
         }
-        if (stockMinimo == null) {
-            stockMinimo = 10;
-        }
     }
 
     @PreUpdate
@@ -86,20 +106,31 @@ public class Producto {
         fechaActualizacion = LocalDate.now();
     }
 
-    // Método auxiliar para verificar si el stock está bajo
+    // Método auxiliar para verificar si el stock está bajo (solo con stock mínimo propio; el de
+    // la categoría o el global los aplican las consultas de stock bajo y AlertaService.Umbrales)
     public boolean isStockBajo() {
         return stock != null && stockMinimo != null && stock <= stockMinimo;
     }
 
     // Método auxiliar para verificar si el producto está vencido
     public boolean isVencido() {
-        return fechaVencimiento != null && fechaVencimiento.isBefore(LocalDate.now());
+        return isVencido(LocalDate.now());
     }
 
-    // Método auxiliar para verificar si el producto está próximo a vencer (30 días)
+    // Vencido respecto a una fecha dada (para recorrer muchos productos con una sola fecha de hoy)
+    public boolean isVencido(LocalDate hoy) {
+        return fechaVencimiento != null && fechaVencimiento.isBefore(hoy);
+    }
+
+    // Método auxiliar para verificar si el producto está próximo a vencer (30 días fijos; con
+    // los días de aviso del producto, su categoría o los globales: AlertaService.Umbrales)
     public boolean isProximoAVencer() {
+        return isProximoAVencer(LocalDate.now());
+    }
+
+    public boolean isProximoAVencer(LocalDate hoy) {
         return fechaVencimiento != null && 
-               fechaVencimiento.isAfter(LocalDate.now()) &&
-               fechaVencimiento.isBefore(LocalDate.now().plusDays(30));
+               fechaVencimiento.isAfter(hoy) &&
+               fechaVencimiento.isBefore(hoy.plusDays(30));
     }
 }
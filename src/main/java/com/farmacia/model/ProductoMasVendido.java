@@ -0,0 +1,21 @@
+package com.farmacia.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.math.BigDecimal;
+
+/**
+ * Fila del ranking de productos más vendidos (proyección agregada, no es entidad)
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ProductoMasVendido {
+
+    private Long productoId;
+    private String nombre;
+    private Long cantidadVendida;
+    private BigDecimal importe;
+}
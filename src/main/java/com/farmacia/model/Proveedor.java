@@ -13,7 +13,8 @@ import java.time.LocalDateTime;
 public class Proveedor {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "proveedores_seq")
+    @SequenceGenerator(name = "proveedores_seq", sequenceName = "proveedores_seq", allocationSize = 50)
     private Long id;
 
     @NotBlank(message = "El nombre es obligatorio")
@@ -0,0 +1,22 @@
+package com.farmacia.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.math.BigDecimal;
+
+/**
+ * Indicadores del inventario calculados en la base de datos
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ResumenInventario {
+
+    private long totalProductos;
+    private long stockTotal;
+    private BigDecimal valorTotal;
+    private long productosStockBajo;
+    private long productosVencidos;
+}
@@ -0,0 +1,45 @@
+package com.farmacia.model;
+
+import jakarta.persistence.*;
+import lombok.Data;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+
+/**
+ * Resumen de ventas acumulado por día, método de pago y usuario.
+ * Se mantiene en la misma transacción que crea o anula cada venta.
+ */
+@Entity
+@Table(name = "resumen_ventas_diario", uniqueConstraints = {
+    @UniqueConstraint(name = "uk_resumen_dia_metodo_usuario", columnNames = {"fecha", "metodo_pago", "usuario_id"})
+})
+@Data
+public class ResumenVentaDiario {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "resumen_ventas_diario_seq")
+    @SequenceGenerator(name = "resumen_ventas_diario_seq", sequenceName = "resumen_ventas_diario_seq", allocationSize = 50)
+    private Long id;
+
+    @Column(nullable = false)
+    private LocalDate fecha;
+
+    @Column(name = "metodo_pago", nullable = false, length = 50)
+    private String metodoPago = ""; // Vacío si la venta no indicó método
+
+    @Column(name = "usuario_id", nullable = false)
+    private Long usuarioId = 0L; // 0 si la venta no tiene usuario
+
+    @Column(nullable = false, precision = 14, scale = 2)
+    private BigDecimal total = BigDecimal.ZERO;
+
+    @Column(name = "numero_ventas", nullable = false)
+    private Long numeroVentas = 0L;
+
+    @Column(name = "unidades_vendidas", nullable = false)
+    private Long unidadesVendidas = 0L;
+
+    @Column(nullable = false, precision = 14, scale = 2)
+    private BigDecimal descuento = BigDecimal.ZERO;
+}
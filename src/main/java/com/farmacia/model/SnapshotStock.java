@@ -0,0 +1,42 @@
+package com.farmacia.model;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * Snapshot periódico del stock de un producto calculado a partir del libro de movimientos.
+ * Incluye todos los movimientos con fecha anterior a la del corte, así el stock en
+ * una fecha es el último snapshot más los movimientos desde él hasta esa fecha.
+ */
+@Entity
+@Table(name = "snapshots_stock", uniqueConstraints = {
+    @UniqueConstraint(name = "uk_snapshot_producto_fecha", columnNames = {"producto_id", "fecha"})
+})
+@Data
+@NoArgsConstructor
+public class SnapshotStock {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "snapshots_stock_seq")
+    @SequenceGenerator(name = "snapshots_stock_seq", sequenceName = "snapshots_stock_seq", allocationSize = 50)
+    private Long id;
+
+    @Column(name = "producto_id", nullable = false)
+    private Long productoId;
+
+    // Corte: el snapshot incluye los movimientos con fecha < corte
+    @Column(nullable = false)
+    private LocalDateTime fecha;
+
+    @Column(nullable = false)
+    private Integer stock;
+
+    public SnapshotStock(Long productoId, LocalDateTime fecha, int stock) {
+        this.productoId = productoId;
+        this.fecha = fecha;
+        this.stock = stock;
+    }
+}
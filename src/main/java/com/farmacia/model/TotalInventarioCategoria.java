@@ -0,0 +1,21 @@
+package com.farmacia.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.math.BigDecimal;
+
+/**
+ * Productos, stock y valor del inventario agrupados por categoría
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class TotalInventarioCategoria {
+
+    private String categoria;
+    private Long numeroProductos;
+    private Long stock;
+    private BigDecimal valor;
+}
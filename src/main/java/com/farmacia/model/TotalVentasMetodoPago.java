@@ -0,0 +1,20 @@
+package com.farmacia.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.math.BigDecimal;
+
+/**
+ * Total de ventas agrupado por método de pago
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class TotalVentasMetodoPago {
+
+    private String metodoPago;
+    private BigDecimal total;
+    private Long numeroVentas;
+}
@@ -0,0 +1,21 @@
+package com.farmacia.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+
+/**
+ * Total de ventas de un periodo (día, semana o mes) identificado por su primer día
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class TotalVentasPeriodo {
+
+    private LocalDate inicio;
+    private BigDecimal total;
+    private Long numeroVentas;
+}
@@ -0,0 +1,53 @@
+package com.farmacia.model;
+
+import jakarta.persistence.*;
+import jakarta.validation.constraints.Min;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Umbrales de las alertas: una fila global (sin categoría, con el ID fijo ID_GLOBAL) y,
+ * si hace falta, una por categoría de producto. Cada umbral se busca primero en el producto (stockMinimo,
+ * diasAvisoCaducidad), después en su categoría y por último en el global; un valor
+ * null pasa al siguiente.
+ */
+@Entity
+@Table(name = "umbrales_alertas")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class UmbralAlertas {
+
+    // Valores de la fila global cuando aún no existe
+    public static final int STOCK_MINIMO_POR_DEFECTO = 10;
+    public static final int DIAS_AVISO_CADUCIDAD_POR_DEFECTO = 30;
+    public static final int DIAS_PEDIDO_RETRASADO_POR_DEFECTO = 7;
+
+    // ID de la fila global. La secuencia empieza en 1, así que nunca lo genera, y la clave
+    // primaria impide que dos terminales creen cada uno la suya (unique no lo hace con NULL).
+    // La crea MigracionUmbralGlobal al arrancar
+    public static final long ID_GLOBAL = 0L;
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "umbrales_alertas_seq")
+    @SequenceGenerator(name = "umbrales_alertas_seq", sequenceName = "umbrales_alertas_seq", allocationSize = 50)
+    private Long id;
+
+    // null en la fila global
+    @Column(unique = true, length = 100)
+    private String categoria;
+
+    @Min(value = 0, message = "El stock mínimo no puede ser negativo")
+    @Column(name = "stock_minimo")
+    private Integer stockMinimo;
+
+    @Min(value = 0, message = "Los días de aviso de caducidad no pueden ser negativos")
+    @Column(name = "dias_aviso_caducidad")
+    private Integer diasAvisoCaducidad;
+
+    // Solo se usa el de la fila global (los pedidos no tienen categoría)
+    @Min(value = 0, message = "Los días de retraso de pedidos no pueden ser negativos")
+    @Column(name = "dias_pedido_retrasado")
+    private Integer diasPedidoRetrasado;
+}
@@ -10,7 +10,8 @@ import java.time.LocalDateTime;
 public class Usuario {
     
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "usuario_seq")
+    @SequenceGenerator(name = "usuario_seq", sequenceName = "usuario_seq", allocationSize = 50)
     private Long id;
     
     @Column(unique = true, nullable = false, length = 50)
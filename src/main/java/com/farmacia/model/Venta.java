@@ -8,12 +8,23 @@ import java.util.ArrayList;
 import java.util.List;
 
 @Entity
-@Table(name = "ventas")
+@NamedEntityGraph(
+    name = "Venta.conDetalles",
+    attributeNodes = {
+        @NamedAttributeNode("usuario"),
+        @NamedAttributeNode(value = "detalles", subgraph = "detalles")
+    },
+    subgraphs = @NamedSubgraph(name = "detalles", attributeNodes = @NamedAttributeNode("producto"))
+)
+@Table(name = "ventas", indexes = {
+    @Index(name = "idx_ventas_activo_fecha", columnList = "activo, fecha")
+})
 @Data
 public class Venta {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "ventas_seq")
+    @SequenceGenerator(name = "ventas_seq", sequenceName = "ventas_seq", allocationSize = 50)
     private Long id;
 
     @Column(nullable = false)
@@ -37,7 +48,7 @@ public class Venta {
     @Column(length = 500)
     private String observaciones;
 
-    @ManyToOne(fetch = FetchType.EAGER)
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "usuario_id")
     private Usuario usuario; // Usuario que realizó la venta
 
@@ -0,0 +1,33 @@
+package com.farmacia.model;
+
+import jakarta.persistence.*;
+import lombok.Data;
+
+import java.time.LocalDate;
+
+/**
+ * Unidades vendidas de cada producto por día.
+ * Se mantiene en la misma transacción que crea o anula cada venta y es la base
+ * de la velocidad de ventas que usa la reposición automática.
+ */
+@Entity
+@Table(name = "ventas_producto_diarias", uniqueConstraints = {
+    @UniqueConstraint(name = "uk_venta_producto_dia", columnNames = {"fecha", "producto_id"})
+})
+@Data
+public class VentaProductoDiaria {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "ventas_producto_diarias_seq")
+    @SequenceGenerator(name = "ventas_producto_diarias_seq", sequenceName = "ventas_producto_diarias_seq", allocationSize = 50)
+    private Long id;
+
+    @Column(nullable = false)
+    private LocalDate fecha;
+
+    @Column(name = "producto_id", nullable = false)
+    private Long productoId;
+
+    @Column(nullable = false)
+    private Long unidades = 0L;
+}
@@ -0,0 +1,17 @@
+package com.farmacia.repository;
+
+import com.farmacia.model.AsignacionLote;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface AsignacionLoteRepository extends JpaRepository<AsignacionLote, Long> {
+
+    List<AsignacionLote> findByDetalleVentaIdIn(Collection<Long> detalleVentaIds);
+
+    // Líneas de venta servidas desde un lote (retiradas de lotes)
+    List<AsignacionLote> findByLoteId(Long loteId);
+}
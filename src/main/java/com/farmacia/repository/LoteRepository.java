@@ -0,0 +1,34 @@
+package com.farmacia.repository;
+
+import com.farmacia.model.Lote;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface LoteRepository extends JpaRepository<Lote, Long> {
+
+    // Lotes de un producto que aún tienen unidades, como filas [id, fechaVencimiento, cantidad]
+    @Query("SELECT l.id, l.fechaVencimiento, l.cantidad FROM Lote l WHERE l.productoId = :productoId AND l.cantidad > 0")
+    List<Object[]> findDisponiblesByProductoId(@Param("productoId") Long productoId);
+
+    // Todos los lotes de un producto, del que vence antes al que vence después
+    List<Lote> findByProductoIdOrderByFechaVencimientoAscIdAsc(Long productoId);
+
+    // Lotes con un número dado de varios productos, como filas [id, productoId, numeroLote]
+    // (para entradas agrupadas)
+    @Query("SELECT l.id, l.productoId, l.numeroLote FROM Lote l " +
+           "WHERE l.productoId IN :productoIds AND l.numeroLote IN :numerosLote")
+    List<Object[]> findIdsByProductoIdInAndNumeroLoteIn(@Param("productoIds") Collection<Long> productoIds,
+                                                        @Param("numerosLote") Collection<String> numerosLote);
+
+    // Productos con stock que aún no tienen lotes, como filas [id, stock, fechaVencimiento]
+    // (bases de datos anteriores a la tabla de lotes)
+    @Query("SELECT p.id, p.stock, p.fechaVencimiento FROM Producto p WHERE p.stock > 0 " +
+           "AND NOT EXISTS (SELECT 1 FROM Lote l WHERE l.productoId = p.id)")
+    List<Object[]> findProductosSinLotes();
+}
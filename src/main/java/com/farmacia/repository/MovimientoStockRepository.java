@@ -0,0 +1,44 @@
+package com.farmacia.repository;
+
+import com.farmacia.model.MovimientoStock;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Repository
+public interface MovimientoStockRepository extends JpaRepository<MovimientoStock, Long> {
+
+    // Movimientos de un producto en [desde, hasta), en orden cronológico
+    @Query("SELECT m FROM MovimientoStock m WHERE m.productoId = :productoId " +
+           "AND m.fecha >= :desde AND m.fecha < :hasta ORDER BY m.fecha, m.id")
+    List<MovimientoStock> findMovimientosEntre(@Param("productoId") Long productoId,
+                                               @Param("desde") LocalDateTime desde,
+                                               @Param("hasta") LocalDateTime hasta);
+
+    // Suma de los movimientos de un producto en [desde, hasta) (idx_movimientos_producto_fecha)
+    @Query("SELECT COALESCE(SUM(m.cantidad), 0) FROM MovimientoStock m WHERE m.productoId = :productoId " +
+           "AND m.fecha >= :desde AND m.fecha < :hasta")
+    long sumarEntre(@Param("productoId") Long productoId,
+                    @Param("desde") LocalDateTime desde,
+                    @Param("hasta") LocalDateTime hasta);
+
+    // Por producto, suma de los movimientos en [ultimoCorte, corte) como filas [productoId, suma].
+    // Cada corte hace snapshot de todos los productos con movimientos desde el anterior, así que
+    // estos son justo los posteriores al último snapshot de cada producto; el rango por fecha
+    // usa idx_movimientos_fecha en vez de recorrer todo el histórico.
+    // Solo aparecen los productos con movimientos en ese tramo
+    @Query("SELECT m.productoId, SUM(m.cantidad) FROM MovimientoStock m " +
+           "WHERE m.fecha >= :ultimoCorte AND m.fecha < :corte GROUP BY m.productoId")
+    List<Object[]> sumarDesdeUltimoSnapshot(@Param("ultimoCorte") LocalDateTime ultimoCorte,
+                                            @Param("corte") LocalDateTime corte);
+
+    // Productos con stock que aún no tienen ningún movimiento, como filas [id, stock]
+    // (bases de datos anteriores al libro de movimientos)
+    @Query("SELECT p.id, p.stock FROM Producto p WHERE p.stock <> 0 " +
+           "AND NOT EXISTS (SELECT 1 FROM MovimientoStock m WHERE m.productoId = p.id)")
+    List<Object[]> findProductosSinMovimientos();
+}
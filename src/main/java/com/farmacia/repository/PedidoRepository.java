@@ -3,8 +3,10 @@ package com.farmacia.repository;
 import com.farmacia.model.Pedido;
 import com.farmacia.model.Pedido.EstadoPedido;
 import com.farmacia.model.Proveedor;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.time.LocalDateTime;
@@ -15,15 +17,19 @@ import java.util.Optional;
 public interface PedidoRepository extends JpaRepository<Pedido, Long> {
 
     // Buscar por número de pedido
+    @EntityGraph("Pedido.conDetalles")
     Optional<Pedido> findByNumeroPedido(String numeroPedido);
 
     // Buscar pedidos activos
+    @EntityGraph("Pedido.conDetalles")
     List<Pedido> findByActivoTrueOrderByFechaPedidoDesc();
 
     // Buscar por proveedor
+    @EntityGraph("Pedido.conDetalles")
     List<Pedido> findByProveedorAndActivoTrueOrderByFechaPedidoDesc(Proveedor proveedor);
 
     // Buscar por estado
+    @EntityGraph("Pedido.conDetalles")
     List<Pedido> findByEstadoAndActivoTrueOrderByFechaPedidoDesc(EstadoPedido estado);
 
     // Buscar por rango de fechas
@@ -32,10 +38,47 @@ public interface PedidoRepository extends JpaRepository<Pedido, Long> {
         LocalDateTime fechaFin
     );
 
-    // Buscar pedidos pendientes (no recibidos ni cancelados)
+    // Buscar pedidos pendientes (no recibidos ni cancelados), solo con su proveedor
+    @EntityGraph(attributePaths = "proveedor")
     @Query("SELECT p FROM Pedido p WHERE p.estado NOT IN ('RECIBIDO', 'CANCELADO') AND p.activo = true ORDER BY p.fechaPedido DESC")
     List<Pedido> findPedidosPendientes();
 
+    // Versión de cada pedido pendiente como filas [id, version] (cambios de otros terminales en las alertas)
+    @Query("SELECT p.id, p.version FROM Pedido p WHERE p.estado NOT IN ('RECIBIDO', 'CANCELADO') AND p.activo = true")
+    List<Object[]> findVersionesPendientes();
+
+    // Pedidos pendientes hechos antes de una fecha (retrasados), solo con su proveedor
+    @EntityGraph(attributePaths = "proveedor")
+    @Query("SELECT p FROM Pedido p WHERE p.estado NOT IN ('RECIBIDO', 'CANCELADO') AND p.activo = true " +
+           "AND p.fechaPedido < :limite ORDER BY p.fechaPedido DESC")
+    List<Pedido> findPedidosPendientesAntesDe(@Param("limite") LocalDateTime limite);
+
+    // Recuentos de las alertas de pedidos en una sola pasada:
+    // [pendientes (no recibidos ni cancelados), pendientes pedidos antes del límite]
+    @Query("SELECT COUNT(p), COALESCE(SUM(CASE WHEN p.fechaPedido < :limiteRetraso THEN 1 ELSE 0 END), 0) " +
+           "FROM Pedido p WHERE p.estado NOT IN ('RECIBIDO', 'CANCELADO') AND p.activo = true")
+    List<Object[]> contarAlertas(@Param("limiteRetraso") LocalDateTime limiteRetraso);
+
+    // Buscar pedidos pendientes con detalles y productos
+    @EntityGraph("Pedido.conDetalles")
+    @Query("SELECT p FROM Pedido p WHERE p.estado NOT IN ('RECIBIDO', 'CANCELADO') AND p.activo = true ORDER BY p.fechaPedido DESC")
+    List<Pedido> findPedidosPendientesConDetalles();
+
+    // Líneas de pedido de productos del sistema en pedidos no cancelados, de la más antigua
+    // a la más reciente: [productoId, proveedorId, precioUnitario] (la última fila de cada
+    // producto es su compra más reciente)
+    @Query("SELECT d.producto.id, p.proveedor.id, d.precioUnitario FROM DetallePedido d JOIN d.pedido p " +
+           "WHERE d.producto IS NOT NULL AND p.estado <> 'CANCELADO' AND p.activo = true " +
+           "ORDER BY p.fechaPedido, p.id")
+    List<Object[]> findComprasPorProducto();
+
+    // Unidades pedidas y aún no recibidas de cada producto (pedidos pendientes, borradores incluidos):
+    // [productoId, unidades]
+    @Query("SELECT d.producto.id, SUM(d.cantidad) FROM DetallePedido d JOIN d.pedido p " +
+           "WHERE d.producto IS NOT NULL AND p.estado NOT IN ('RECIBIDO', 'CANCELADO') AND p.activo = true " +
+           "GROUP BY d.producto.id")
+    List<Object[]> sumarUnidadesPendientesPorProducto();
+
     // Buscar últimos pedidos
     List<Pedido> findTop10ByActivoTrueOrderByFechaPedidoDesc();
 
@@ -45,4 +88,8 @@ public interface PedidoRepository extends JpaRepository<Pedido, Long> {
     // Calcular total de pedidos en un período
     @Query("SELECT COALESCE(SUM(p.total), 0) FROM Pedido p WHERE p.fechaPedido BETWEEN :fechaInicio AND :fechaFin AND p.activo = true")
     Double calcularTotalPedidosPorPeriodo(LocalDateTime fechaInicio, LocalDateTime fechaFin);
+
+    // Obtener un pedido con proveedor, detalles y productos
+    @EntityGraph("Pedido.conDetalles")
+    Optional<Pedido> findConDetallesById(Long id);
 }
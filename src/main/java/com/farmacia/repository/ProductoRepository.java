@@ -1,17 +1,38 @@
 package com.farmacia.repository;
 
 import com.farmacia.model.Producto;
+import com.farmacia.model.TotalInventarioCategoria;
+import com.farmacia.model.UmbralAlertas;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.time.LocalDate;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
 @Repository
 public interface ProductoRepository extends JpaRepository<Producto, Long> {
 
+    // Umbrales de cada producto: el suyo, el de su categoría o el global (ver UmbralAlertas)
+    String UMBRAL_STOCK = "COALESCE(p.stockMinimo, " +
+        "(SELECT uc.stockMinimo FROM UmbralAlertas uc WHERE uc.categoria = p.categoria), " +
+        "(SELECT ug.stockMinimo FROM UmbralAlertas ug WHERE ug.id = " + UmbralAlertas.ID_GLOBAL + "))";
+    String UMBRAL_DIAS_AVISO = "COALESCE(p.diasAvisoCaducidad, " +
+        "(SELECT uc.diasAvisoCaducidad FROM UmbralAlertas uc WHERE uc.categoria = p.categoria), " +
+        "(SELECT ug.diasAvisoCaducidad FROM UmbralAlertas ug WHERE ug.id = " + UmbralAlertas.ID_GLOBAL + "))";
+
+    // Filtro de la tabla paginada del inventario. Cada condición se ignora si su parámetro
+    // es null/false: solo stock bajo, vencidos antes de una fecha. Las búsquedas de texto
+    // no pasan por aquí: usan el índice de trigramas de ProductoService
+    String FILTRO_INVENTARIO = "WHERE p.activo = true " +
+        "AND (:soloStockBajo = false OR p.stock <= " + UMBRAL_STOCK + ") " +
+        "AND (:vencidosAntesDe IS NULL OR p.fechaVencimiento < :vencidosAntesDe)";
+
     // Buscar por código
     Optional<Producto> findByCodigo(String codigo);
 
@@ -28,9 +49,19 @@ public interface ProductoRepository extends JpaRepository<Producto, Long> {
     List<Producto> findByLaboratorioAndActivoTrue(String laboratorio);
 
     // Buscar productos con stock bajo
-    @Query("SELECT p FROM Producto p WHERE p.stock <= p.stockMinimo AND p.activo = true")
+    @Query("SELECT p FROM Producto p WHERE p.stock <= " + UMBRAL_STOCK + " AND p.activo = true")
     List<Producto> findProductosConStockBajo();
 
+    // Productos activos con stock bajo según su umbral. stockMaximo (el mayor umbral posible)
+    // acota el tramo del índice (activo, stock) que se recorre
+    @Query("SELECT p FROM Producto p WHERE p.activo = true AND p.stock <= :stockMaximo AND p.stock <= " + UMBRAL_STOCK)
+    List<Producto> findAlertasStockBajo(@Param("stockMaximo") int stockMaximo);
+
+    // Mayores umbrales propios de los productos como fila [stockMinimo, diasAvisoCaducidad]
+    // (se leen directamente de sus índices)
+    @Query("SELECT MAX(p.stockMinimo), MAX(p.diasAvisoCaducidad) FROM Producto p")
+    List<Object[]> findMaximosUmbrales();
+
     // Buscar productos vencidos
     @Query("SELECT p FROM Producto p WHERE p.fechaVencimiento < :fecha AND p.activo = true")
     List<Producto> findProductosVencidos(LocalDate fecha);
@@ -53,4 +84,85 @@ public interface ProductoRepository extends JpaRepository<Producto, Long> {
     
     // Buscar por fecha de vencimiento entre
     List<Producto> findByFechaVencimientoBetween(LocalDate desde, LocalDate hasta);
+
+    // Descontar stock de forma atómica: solo se aplica si hay unidades suficientes.
+    // Devuelve 0 si el stock no alcanza (otro terminal lo vendió antes).
+    // Incrementa la versión para que una edición abierta sobre el stock anterior falle al guardar
+    @Modifying
+    @Query("UPDATE Producto p SET p.stock = p.stock - :cantidad, p.version = p.version + 1 " +
+           "WHERE p.id = :id AND p.stock >= :cantidad")
+    int descontarStock(@Param("id") Long id, @Param("cantidad") int cantidad);
+
+    // Versión de cada producto activo como filas [id, version] (revalidación de la caché del catálogo)
+    @Query("SELECT p.id, p.version FROM Producto p WHERE p.activo = true")
+    List<Object[]> findVersionesActivos();
+
+    // Stock, versión y vencimiento actuales de varios productos como filas
+    // [id, stock, version, fechaVencimiento] (siempre lee la base de datos)
+    @Query("SELECT p.id, p.stock, p.version, p.fechaVencimiento FROM Producto p WHERE p.id IN :ids")
+    List<Object[]> findStockByIdIn(@Param("ids") Collection<Long> ids);
+
+    // Página de la tabla del inventario; el orden y el tramo de filas vienen en el Pageable
+    @Query("SELECT p FROM Producto p " + FILTRO_INVENTARIO)
+    List<Producto> findPaginaInventario(@Param("soloStockBajo") boolean soloStockBajo,
+                                        @Param("vencidosAntesDe") LocalDate vencidosAntesDe,
+                                        Pageable pageable);
+
+    // De unos IDs (resultado de una búsqueda de texto), los de productos con stock bajo
+    @Query("SELECT p.id FROM Producto p WHERE p.id IN :ids AND p.stock <= " + UMBRAL_STOCK)
+    List<Long> findIdsStockBajoIn(@Param("ids") Collection<Long> ids);
+
+    // Total de filas de la tabla del inventario con el mismo filtro
+    @Query("SELECT COUNT(p) FROM Producto p " + FILTRO_INVENTARIO)
+    long countInventario(@Param("soloStockBajo") boolean soloStockBajo,
+                         @Param("vencidosAntesDe") LocalDate vencidosAntesDe);
+
+    // Recuentos de las alertas de productos activos en una sola pasada, cada uno con el umbral
+    // del producto: [stock bajo, caducados antes de hoy, vencen entre hoy y hoy + días de aviso].
+    // stockMaximo y limite (los mayores umbrales posibles) evitan calcular el umbral de casi todas las filas
+    @Query("SELECT COALESCE(SUM(CASE WHEN p.stock <= :stockMaximo AND p.stock <= " + UMBRAL_STOCK + " THEN 1 ELSE 0 END), 0), " +
+           "COALESCE(SUM(CASE WHEN p.fechaVencimiento < :hoy THEN 1 ELSE 0 END), 0), " +
+           "COALESCE(SUM(CASE WHEN p.fechaVencimiento BETWEEN :hoy AND :limite " +
+           "AND (p.fechaVencimiento - :hoy) BY DAY <= " + UMBRAL_DIAS_AVISO + " THEN 1 ELSE 0 END), 0) " +
+           "FROM Producto p WHERE p.activo = true")
+    List<Object[]> contarAlertas(@Param("stockMaximo") int stockMaximo,
+                                 @Param("hoy") LocalDate hoy,
+                                 @Param("limite") LocalDate limite);
+
+    // Indicadores de todos los productos (también inactivos, como el reporte de inventario) en
+    // una sola pasada: [productos, stock total, valor total, con stock bajo, vencidos antes de hoy]
+    @Query("SELECT COUNT(p), COALESCE(SUM(p.stock), 0), COALESCE(SUM(p.precio * p.stock), 0), " +
+           "COALESCE(SUM(CASE WHEN p.stock <= " + UMBRAL_STOCK + " THEN 1 ELSE 0 END), 0), " +
+           "COALESCE(SUM(CASE WHEN p.fechaVencimiento < :hoy THEN 1 ELSE 0 END), 0) FROM Producto p")
+    List<Object[]> resumirInventario(@Param("hoy") LocalDate hoy);
+
+    // Productos, stock y valor por categoría, de la categoría con más productos a la que menos
+    @Query("SELECT new com.farmacia.model.TotalInventarioCategoria(p.categoria, COUNT(p), " +
+           "COALESCE(SUM(p.stock), 0), COALESCE(SUM(p.precio * p.stock), 0)) " +
+           "FROM Producto p GROUP BY p.categoria ORDER BY COUNT(p) DESC, p.categoria")
+    List<TotalInventarioCategoria> sumarInventarioPorCategoria();
+
+    // Stock de todos los productos (también inactivos) como filas [id, stock]
+    @Query("SELECT p.id, p.stock FROM Producto p")
+    List<Object[]> findIdYStock();
+
+    // Código e ID de todos los productos (también inactivos) como filas [codigo, id]
+    @Query("SELECT p.codigo, p.id FROM Producto p")
+    List<Object[]> findCodigosEIds();
+
+    // Reponer stock de forma atómica (anulaciones, recepción de pedidos); también incrementa la versión
+    @Modifying
+    @Query("UPDATE Producto p SET p.stock = p.stock + :cantidad, p.version = p.version + 1 WHERE p.id = :id")
+    int reponerStock(@Param("id") Long id, @Param("cantidad") int cantidad);
+
+    // Poner como fecha de vencimiento del producto la del lote con unidades que vence antes,
+    // solo si ha cambiado; también incrementa la versión
+    @Modifying
+    @Query("UPDATE Producto p SET p.fechaVencimiento = " +
+           "(SELECT MIN(l.fechaVencimiento) FROM Lote l WHERE l.productoId = p.id AND l.cantidad > 0), " +
+           "p.version = p.version + 1 WHERE p.id IN :ids " +
+           "AND EXISTS (SELECT 1 FROM Lote l2 WHERE l2.productoId = p.id AND l2.cantidad > 0 AND l2.fechaVencimiento IS NOT NULL) " +
+           "AND (p.fechaVencimiento IS NULL OR p.fechaVencimiento <> " +
+           "(SELECT MIN(l3.fechaVencimiento) FROM Lote l3 WHERE l3.productoId = p.id AND l3.cantidad > 0))")
+    int actualizarVencimientoDesdeLotes(@Param("ids") Collection<Long> ids);
 }
@@ -0,0 +1,70 @@
+package com.farmacia.repository;
+
+import com.farmacia.model.ResumenVentaDiario;
+import com.farmacia.model.TotalVentasMetodoPago;
+import com.farmacia.model.TotalVentasPeriodo;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.List;
+
+@Repository
+public interface ResumenVentaDiarioRepository extends JpaRepository<ResumenVentaDiario, Long> {
+
+    // Sumar (o restar, con valores negativos) una venta a la fila de su día/método/usuario.
+    // Devuelve 0 si la fila todavía no existe
+    @Modifying
+    @Query("UPDATE ResumenVentaDiario r SET r.total = r.total + :total, " +
+           "r.numeroVentas = r.numeroVentas + :numeroVentas, " +
+           "r.unidadesVendidas = r.unidadesVendidas + :unidades, " +
+           "r.descuento = r.descuento + :descuento " +
+           "WHERE r.fecha = :fecha AND r.metodoPago = :metodoPago AND r.usuarioId = :usuarioId")
+    int acumular(@Param("fecha") LocalDate fecha,
+                 @Param("metodoPago") String metodoPago,
+                 @Param("usuarioId") Long usuarioId,
+                 @Param("total") BigDecimal total,
+                 @Param("numeroVentas") long numeroVentas,
+                 @Param("unidades") long unidades,
+                 @Param("descuento") BigDecimal descuento);
+
+    // Totales de un rango de días (ambos incluidos): [total, número de ventas, unidades, descuento]
+    @Query("SELECT COALESCE(SUM(r.total), 0), COALESCE(SUM(r.numeroVentas), 0), " +
+           "COALESCE(SUM(r.unidadesVendidas), 0), COALESCE(SUM(r.descuento), 0) " +
+           "FROM ResumenVentaDiario r WHERE r.fecha BETWEEN :desde AND :hasta")
+    List<Object[]> sumarEntre(@Param("desde") LocalDate desde, @Param("hasta") LocalDate hasta);
+
+    // Totales por día en un rango (ambos incluidos); solo devuelve los días con ventas
+    @Query("SELECT new com.farmacia.model.TotalVentasPeriodo(r.fecha, SUM(r.total), SUM(r.numeroVentas)) " +
+           "FROM ResumenVentaDiario r WHERE r.fecha BETWEEN :desde AND :hasta " +
+           "GROUP BY r.fecha ORDER BY r.fecha")
+    List<TotalVentasPeriodo> sumarPorDia(@Param("desde") LocalDate desde, @Param("hasta") LocalDate hasta);
+
+    // Totales por mes en un rango: [año, mes, total, número de ventas]
+    @Query("SELECT YEAR(r.fecha), MONTH(r.fecha), SUM(r.total), SUM(r.numeroVentas) " +
+           "FROM ResumenVentaDiario r WHERE r.fecha BETWEEN :desde AND :hasta " +
+           "GROUP BY YEAR(r.fecha), MONTH(r.fecha) ORDER BY YEAR(r.fecha), MONTH(r.fecha)")
+    List<Object[]> sumarPorMes(@Param("desde") LocalDate desde, @Param("hasta") LocalDate hasta);
+
+    // Totales por método de pago de todas las ventas activas
+    @Query("SELECT new com.farmacia.model.TotalVentasMetodoPago(r.metodoPago, SUM(r.total), SUM(r.numeroVentas)) " +
+           "FROM ResumenVentaDiario r GROUP BY r.metodoPago HAVING SUM(r.numeroVentas) > 0 " +
+           "ORDER BY SUM(r.total) DESC")
+    List<TotalVentasMetodoPago> sumarPorMetodoPago();
+
+    // Reconstrucción: totales de ventas activas agrupados por día, método y usuario
+    @Query("SELECT CAST(v.fecha AS LocalDate), v.metodoPago, u.id, SUM(v.total), COUNT(v), SUM(v.descuento) " +
+           "FROM Venta v LEFT JOIN v.usuario u WHERE v.activo = true " +
+           "GROUP BY CAST(v.fecha AS LocalDate), v.metodoPago, u.id")
+    List<Object[]> agruparVentasActivas();
+
+    // Reconstrucción: unidades vendidas agrupadas por día, método y usuario
+    @Query("SELECT CAST(v.fecha AS LocalDate), v.metodoPago, u.id, SUM(d.cantidad) " +
+           "FROM DetalleVenta d JOIN d.venta v LEFT JOIN v.usuario u WHERE v.activo = true " +
+           "GROUP BY CAST(v.fecha AS LocalDate), v.metodoPago, u.id")
+    List<Object[]> agruparUnidadesVendidas();
+}
@@ -0,0 +1,26 @@
+package com.farmacia.repository;
+
+import com.farmacia.model.SnapshotStock;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface SnapshotStockRepository extends JpaRepository<SnapshotStock, Long> {
+
+    // Último snapshot de un producto con corte no posterior a la fecha
+    Optional<SnapshotStock> findFirstByProductoIdAndFechaLessThanEqualOrderByFechaDesc(Long productoId, LocalDateTime fecha);
+
+    // Último snapshot de cada producto
+    @Query("SELECT s FROM SnapshotStock s WHERE s.fecha = " +
+           "(SELECT MAX(s2.fecha) FROM SnapshotStock s2 WHERE s2.productoId = s.productoId)")
+    List<SnapshotStock> findUltimosPorProducto();
+
+    // Corte más reciente (null si aún no hay snapshots)
+    @Query("SELECT MAX(s.fecha) FROM SnapshotStock s")
+    LocalDateTime findUltimoCorte();
+}
@@ -0,0 +1,13 @@
+package com.farmacia.repository;
+
+import com.farmacia.model.UmbralAlertas;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.Optional;
+
+@Repository
+public interface UmbralAlertasRepository extends JpaRepository<UmbralAlertas, Long> {
+
+    Optional<UmbralAlertas> findByCategoria(String categoria);
+}
@@ -0,0 +1,43 @@
+package com.farmacia.repository;
+
+import com.farmacia.model.VentaProductoDiaria;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDate;
+import java.util.List;
+
+@Repository
+public interface VentaProductoDiariaRepository extends JpaRepository<VentaProductoDiaria, Long> {
+
+    // Sumar (o restar, con valores negativos) unidades a la fila del producto y día.
+    // Devuelve 0 si la fila todavía no existe
+    @Modifying
+    @Query("UPDATE VentaProductoDiaria v SET v.unidades = v.unidades + :unidades " +
+           "WHERE v.fecha = :fecha AND v.productoId = :productoId")
+    int acumular(@Param("fecha") LocalDate fecha,
+                 @Param("productoId") Long productoId,
+                 @Param("unidades") long unidades);
+
+    // Unidades vendidas por producto en tres ventanas que acaban hoy, en una sola pasada:
+    // [productoId, unidades desde desdeCorta, desde desdeMedia, desde desdeLarga]
+    // (desdeLarga debe ser la fecha más antigua de las tres)
+    @Query("SELECT v.productoId, " +
+           "SUM(CASE WHEN v.fecha >= :desdeCorta THEN v.unidades ELSE 0 END), " +
+           "SUM(CASE WHEN v.fecha >= :desdeMedia THEN v.unidades ELSE 0 END), " +
+           "SUM(v.unidades) " +
+           "FROM VentaProductoDiaria v WHERE v.fecha >= :desdeLarga " +
+           "GROUP BY v.productoId")
+    List<Object[]> sumarVentanas(@Param("desdeCorta") LocalDate desdeCorta,
+                                 @Param("desdeMedia") LocalDate desdeMedia,
+                                 @Param("desdeLarga") LocalDate desdeLarga);
+
+    // Reconstrucción: unidades de ventas activas agrupadas por día y producto
+    @Query("SELECT CAST(v.fecha AS LocalDate), d.producto.id, SUM(d.cantidad) " +
+           "FROM DetalleVenta d JOIN d.venta v WHERE v.activo = true " +
+           "GROUP BY CAST(v.fecha AS LocalDate), d.producto.id")
+    List<Object[]> agruparUnidadesVendidas();
+}
@@ -1,41 +1,93 @@
 package com.farmacia.repository;
 
+import com.farmacia.model.ProductoMasVendido;
 import com.farmacia.model.Venta;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
 
 @Repository
 public interface VentaRepository extends JpaRepository<Venta, Long> {
 
-    // Buscar ventas activas
+    // Buscar ventas activas (con usuario, detalles y productos en una sola consulta)
+    @EntityGraph("Venta.conDetalles")
     List<Venta> findByActivoTrue();
 
     // Buscar ventas por rango de fechas
+    @EntityGraph(attributePaths = "usuario")
     List<Venta> findByFechaBetweenAndActivoTrueOrderByFechaDesc(LocalDateTime fechaInicio, LocalDateTime fechaFin);
 
-    // Buscar ventas del día actual
-    @Query("SELECT v FROM Venta v WHERE CAST(v.fecha AS date) = CURRENT_DATE AND v.activo = true ORDER BY v.fecha DESC")
-    List<Venta> findVentasDelDia();
+    // Buscar ventas en un intervalo semiabierto [desde, hasta) (usa el índice activo+fecha)
+    @EntityGraph("Venta.conDetalles")
+    @Query("SELECT v FROM Venta v WHERE v.activo = true AND v.fecha >= :desde AND v.fecha < :hasta ORDER BY v.fecha DESC")
+    List<Venta> findVentasEntre(@Param("desde") LocalDateTime desde, @Param("hasta") LocalDateTime hasta);
 
     // Buscar ventas por método de pago
+    @EntityGraph(attributePaths = "usuario")
     List<Venta> findByMetodoPagoAndActivoTrue(String metodoPago);
 
     // Buscar ventas por cliente
+    @EntityGraph(attributePaths = "usuario")
     List<Venta> findByClienteContainingIgnoreCaseAndActivoTrue(String cliente);
 
     // Obtener últimas ventas
+    @EntityGraph(attributePaths = "usuario")
     List<Venta> findTop10ByActivoTrueOrderByFechaDesc();
 
-    // Calcular total de ventas del día
-    @Query("SELECT COALESCE(SUM(v.total), 0) FROM Venta v WHERE CAST(v.fecha AS date) = CURRENT_DATE AND v.activo = true")
-    Double calcularTotalVentasDelDia();
+    // Calcular total de ventas en un intervalo semiabierto [desde, hasta)
+    @Query("SELECT COALESCE(SUM(v.total), 0) FROM Venta v WHERE v.activo = true AND v.fecha >= :desde AND v.fecha < :hasta")
+    Double calcularTotalVentasEntre(@Param("desde") LocalDateTime desde, @Param("hasta") LocalDateTime hasta);
 
-    // Contar ventas del día
-    @Query("SELECT COUNT(v) FROM Venta v WHERE CAST(v.fecha AS date) = CURRENT_DATE AND v.activo = true")
-    Long contarVentasDelDia();
+    // Contar ventas en un intervalo semiabierto [desde, hasta)
+    @Query("SELECT COUNT(v) FROM Venta v WHERE v.activo = true AND v.fecha >= :desde AND v.fecha < :hasta")
+    Long contarVentasEntre(@Param("desde") LocalDateTime desde, @Param("hasta") LocalDateTime hasta);
+
+    // Marcar una venta como anulada solo si sigue activa. Devuelve 0 si ya estaba anulada
+    // (otro terminal, o un reintento, se ha adelantado)
+    @Modifying
+    @Query("UPDATE Venta v SET v.activo = false WHERE v.id = :id AND v.activo = true")
+    int desactivar(@Param("id") Long id);
+
+    // Obtener una venta con usuario, detalles y productos
+    @EntityGraph("Venta.conDetalles")
+    Optional<Venta> findConDetallesById(Long id);
+
+    // Paginación por clave (keyset): primera página del historial, de más reciente a más antigua
+    @Query("SELECT v.id FROM Venta v WHERE v.activo = true ORDER BY v.fecha DESC, v.id DESC")
+    List<Long> findIdsPrimeraPagina(Limit limite);
+
+    // Paginación por clave (keyset): página siguiente a la venta (fecha, id) ya mostrada
+    @Query("SELECT v.id FROM Venta v WHERE v.activo = true " +
+           "AND (v.fecha < :fecha OR (v.fecha = :fecha AND v.id < :id)) " +
+           "ORDER BY v.fecha DESC, v.id DESC")
+    List<Long> findIdsPaginaSiguiente(@Param("fecha") LocalDateTime fecha, @Param("id") Long id, Limit limite);
+
+    // Cargar las ventas de una página con usuario, detalles y productos
+    @EntityGraph("Venta.conDetalles")
+    @Query("SELECT v FROM Venta v WHERE v.id IN :ids ORDER BY v.fecha DESC, v.id DESC")
+    List<Venta> findConDetallesByIdIn(@Param("ids") Collection<Long> ids);
+
+    // Ranking de productos más vendidos en todas las ventas activas
+    @Query("SELECT new com.farmacia.model.ProductoMasVendido(p.id, p.nombre, SUM(d.cantidad), SUM(d.subtotal)) " +
+           "FROM DetalleVenta d JOIN d.venta v JOIN d.producto p WHERE v.activo = true " +
+           "GROUP BY p.id, p.nombre ORDER BY SUM(d.cantidad) DESC")
+    List<ProductoMasVendido> findProductosMasVendidos(Limit limite);
+
+    // Ranking de productos más vendidos en un intervalo semiabierto [desde, hasta)
+    @Query("SELECT new com.farmacia.model.ProductoMasVendido(p.id, p.nombre, SUM(d.cantidad), SUM(d.subtotal)) " +
+           "FROM DetalleVenta d JOIN d.venta v JOIN d.producto p " +
+           "WHERE v.activo = true AND v.fecha >= :desde AND v.fecha < :hasta " +
+           "GROUP BY p.id, p.nombre ORDER BY SUM(d.cantidad) DESC")
+    List<ProductoMasVendido> findProductosMasVendidosEntre(@Param("desde") LocalDateTime desde,
+                                                            @Param("hasta") LocalDateTime hasta,
+                                                            Limit limite);
 }
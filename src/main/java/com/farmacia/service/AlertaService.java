@@ -3,228 +3,913 @@ package com.farmacia.service;
 import com.farmacia.model.Alerta;
 import com.farmacia.model.Alerta.TipoAlerta;
 import com.farmacia.model.Pedido;
+import com.farmacia.model.Pedido.EstadoPedido;
 import com.farmacia.model.Producto;
+import com.farmacia.model.UmbralAlertas;
 import com.farmacia.repository.PedidoRepository;
 import com.farmacia.repository.ProductoRepository;
+import com.farmacia.repository.UmbralAlertasRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import java.time.Duration;
 import java.time.LocalDate;
+import java.time.LocalDateTime;
 import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Collectors;
 
 /**
  * Servicio para gestión de alertas del sistema
+ *
+ * Las alertas se guardan en memoria por producto y por pedido. La primera lectura, y
+ * la primera de cada día (caducados y retrasos dependen de la fecha), las calcula
+ * todas; después, cuando se confirma un cambio en un producto (edición, venta,
+ * recepción...) o en un pedido, en la siguiente lectura solo se recalculan las
+ * alertas de ese producto o pedido.
+ *
+ * Lista, críticas y estadísticas salen de la misma instantánea, que no cambia una vez
+ * publicada: quien la lee no necesita cerrojos y nunca ve una mezcla de dos estados.
+ *
+ * Un hilo propio evalúa las alertas en segundo plano y entrega cada instantánea nueva a
+ * los observadores (panel de alertas, resumen del inicio): cada cierto intervalo
+ * (farmacia.alertas.intervalo), poco después de cada cambio confirmado y justo después de
+ * medianoche, cuando productos y pedidos pasan a caducados o retrasados sin que cambie nada.
+ * La evaluación periódica recoge los cambios de otros terminales comparando las versiones
+ * de productos y pedidos con las de la evaluación anterior, y solo recalcula los que han
+ * cambiado; la de medianoche lo recalcula todo.
+ *
+ * Los umbrales (stock mínimo, días de aviso de caducidad, días de retraso de pedidos) se
+ * guardan en la tabla umbrales_alertas: uno global y, si hace falta, uno por categoría; el
+ * stock mínimo y los días de aviso propios del producto tienen prioridad sobre ambos.
  */
 @Service
-public class AlertaService {
-    
+public class AlertaService implements ProductoService.ObservadorProductos {
+
     @Autowired
     private ProductoRepository productoRepository;
-    
+
     @Autowired
     private PedidoRepository pedidoRepository;
-    
-    // Umbrales configurables
-    private static final int STOCK_MINIMO = 10;
-    private static final int DIAS_AVISO_CADUCIDAD = 30;
-    private static final int DIAS_PEDIDO_RETRASADO = 7;
-    
+
+    @Autowired
+    private ProductoService productoService;
+
+    @Autowired
+    private UmbralAlertasRepository umbralRepository;
+
+    // Umbrales guardados; null hasta la primera lectura y tras cada cambio
+    private volatile Umbrales umbrales;
+    private final Object cerrojoUmbrales = new Object();
+
+    // Espera tras un cambio antes de evaluar (agrupa los cambios seguidos) y margen tras medianoche
+    private static final Duration ESPERA_CAMBIOS = Duration.ofSeconds(2);
+    private static final Duration MARGEN_MEDIANOCHE = Duration.ofSeconds(5);
+
+    @Value("${farmacia.alertas.intervalo:PT1M}")
+    private Duration intervaloEvaluacion;
+
+    // Alertas vigentes de cada producto y de cada pedido (solo con el cerrojo)
+    private final Map<Long, List<Alerta>> alertasPorProducto = new HashMap<>();
+    private final Map<Long, List<Alerta>> alertasPorPedido = new HashMap<>();
+    private final Object cerrojo = new Object();
+
+    // Cambios confirmados desde la última instantánea
+    private final Set<Long> productosPorRevisar = ConcurrentHashMap.newKeySet();
+    private final Set<Long> pedidosPorRevisar = ConcurrentHashMap.newKeySet();
+    private volatile boolean recalcularTodo = true;
+
+    private volatile InstantaneaAlertas instantanea;
+
+    // Evaluación en segundo plano y última instantánea entregada a los observadores
+    private final List<ObservadorAlertas> observadores = new CopyOnWriteArrayList<>();
+    private final AtomicBoolean evaluacionProgramada = new AtomicBoolean(false);
+    private volatile ScheduledExecutorService evaluador;
+    private volatile InstantaneaAlertas publicada;
+
+    // Versiones vistas en la última evaluación periódica (solo desde el hilo del evaluador)
+    private Map<Long, Long> versionesProductos;
+    private Map<Long, Long> versionesPedidos;
+
+    @PostConstruct
+    void seguirCambiosDeProductos() {
+        productoService.registrarObservador(this);
+    }
+
+    // El evaluador arranca cuando la aplicación está lista (después de los inicializadores)
+    @EventListener(ApplicationReadyEvent.class)
+    void iniciarEvaluador() {
+        evaluador = Executors.newSingleThreadScheduledExecutor(tarea -> {
+            Thread hilo = new Thread(tarea, "evaluador-alertas");
+            hilo.setDaemon(true);
+            return hilo;
+        });
+        evaluador.scheduleWithFixedDelay(this::evaluarPeriodicamente, 0, intervaloEvaluacion.toMillis(), TimeUnit.MILLISECONDS);
+        programarMedianoche();
+        System.out.println("✓ Evaluador de alertas iniciado (cada " + intervaloEvaluacion.toSeconds() + " s)");
+    }
+
+    @PreDestroy
+    void detenerEvaluador() {
+        if (evaluador != null) {
+            evaluador.shutdownNow();
+        }
+    }
+
+    @Override
+    public void productosCambiados(Collection<Long> ids) {
+        productosPorRevisar.addAll(ids);
+        programarEvaluacion();
+    }
+
+    @Override
+    public void catalogoInvalidado() {
+        recalcularTodo = true;
+        programarEvaluacion();
+    }
+
+    /**
+     * Recibir cada instantánea nueva que calcula el evaluador. Se llama desde el hilo del
+     * evaluador (la interfaz debe pasar a su hilo con Platform.runLater); si ya hay una
+     * instantánea publicada, el observador la recibe enseguida
+     */
+    public void registrarObservador(ObservadorAlertas observador) {
+        observadores.add(observador);
+        ScheduledExecutorService hilo = evaluador;
+        if (hilo != null && !hilo.isShutdown()) {
+            // En el hilo del evaluador, así nunca llega después de otra más reciente
+            hilo.execute(() -> {
+                InstantaneaAlertas actual = publicada;
+                if (actual != null) {
+                    avisar(observador, actual);
+                }
+            });
+        }
+    }
+
+    /**
+     * Evaluar ya en segundo plano y publicar la instantánea aunque no haya cambiado
+     */
+    public void evaluarAhora() {
+        ScheduledExecutorService hilo = evaluador;
+        if (hilo != null && !hilo.isShutdown()) {
+            hilo.execute(() -> evaluar(true));
+        }
+    }
+
+    /**
+     * Avisa de un cambio en un pedido; cuenta cuando la transacción actual se confirma
+     */
+    public void pedidoCambiado(Long pedidoId) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            pedidosPorRevisar.add(pedidoId);
+            programarEvaluacion();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                pedidosPorRevisar.add(pedidoId);
+                programarEvaluacion();
+            }
+        });
+    }
+
+    /**
+     * Instantánea de las alertas vigentes: lista ordenada, críticas y estadísticas
+     */
+    public InstantaneaAlertas obtenerInstantanea() {
+        InstantaneaAlertas actual = instantanea;
+        if (actual != null && !hayCambios(actual)) {
+            return actual;
+        }
+        synchronized (cerrojo) {
+            actual = instantanea;
+            if (actual != null && !hayCambios(actual)) {
+                return actual;
+            }
+            LocalDate hoy = LocalDate.now();
+            Umbrales umbrales = obtenerUmbrales();
+            if (recalcularTodo || actual == null || !actual.dia.equals(hoy)) {
+                recalcularTodas(hoy, umbrales);
+            } else {
+                recalcularProductos(tomar(productosPorRevisar), hoy, umbrales);
+                recalcularPedidos(tomar(pedidosPorRevisar), hoy, umbrales);
+            }
+            instantanea = new InstantaneaAlertas(hoy, alertasPorProducto.values(), alertasPorPedido.values());
+            return instantanea;
+        }
+    }
+
     /**
      * Obtiene todas las alertas activas del sistema
      */
     public List<Alerta> obtenerTodasLasAlertas() {
-        List<Alerta> alertas = new ArrayList<>();
-        
-        alertas.addAll(detectarStockBajo());
-        alertas.addAll(detectarProductosCaducados());
-        alertas.addAll(detectarProximosCaducar());
-        alertas.addAll(detectarPedidosPendientes());
-        alertas.addAll(detectarPedidosRetrasados());
-        
-        // Ordenar por criticidad y fecha
-        alertas.sort((a1, a2) -> {
-            if (a1.isCritica() != a2.isCritica()) {
-                return a1.isCritica() ? -1 : 1;
-            }
-            return a2.getFecha().compareTo(a1.getFecha());
-        });
-        
-        return alertas;
+        return obtenerInstantanea().getAlertas();
     }
-    
+
     /**
      * Obtiene solo las alertas críticas
      */
     public List<Alerta> obtenerAlertasCriticas() {
-        return obtenerTodasLasAlertas().stream()
-                .filter(Alerta::isCritica)
-                .collect(Collectors.toList());
+        return obtenerInstantanea().getCriticas();
+    }
+
+    /**
+     * Umbrales vigentes de las alertas: el global y los de cada categoría
+     */
+    public Umbrales obtenerUmbrales() {
+        Umbrales actuales = umbrales;
+        if (actuales != null) {
+            return actuales;
+        }
+        synchronized (cerrojoUmbrales) {
+            if (umbrales == null) {
+                umbrales = new Umbrales(umbralRepository.findAll());
+            }
+            return umbrales;
+        }
     }
-    
+
+    /**
+     * Guarda los umbrales globales y recalcula todas las alertas
+     */
+    public void guardarUmbralGlobal(int stockMinimo, int diasAvisoCaducidad, int diasPedidoRetrasado) {
+        validarUmbral(stockMinimo, "El stock mínimo");
+        validarUmbral(diasAvisoCaducidad, "Los días de aviso de caducidad");
+        validarUmbral(diasPedidoRetrasado, "Los días de retraso de pedidos");
+
+        synchronized (cerrojoUmbrales) {
+            UmbralAlertas global = umbralRepository.findById(UmbralAlertas.ID_GLOBAL)
+                    .orElseThrow(() -> new IllegalStateException("No existe la fila global de umbrales"));
+            global.setStockMinimo(stockMinimo);
+            global.setDiasAvisoCaducidad(diasAvisoCaducidad);
+            global.setDiasPedidoRetrasado(diasPedidoRetrasado);
+            umbralRepository.save(global);
+            umbralesCambiados();
+        }
+    }
+
+    /**
+     * Guarda los umbrales de una categoría (null: se usa el global) y recalcula todas las
+     * alertas. Sin ningún umbral, la categoría vuelve a usar los globales
+     */
+    public void guardarUmbralCategoria(String categoria, Integer stockMinimo, Integer diasAvisoCaducidad) {
+        if (categoria == null || categoria.isBlank()) {
+            throw new IllegalArgumentException("La categoría es obligatoria");
+        }
+        if (stockMinimo != null) {
+            validarUmbral(stockMinimo, "El stock mínimo");
+        }
+        if (diasAvisoCaducidad != null) {
+            validarUmbral(diasAvisoCaducidad, "Los días de aviso de caducidad");
+        }
+
+        synchronized (cerrojoUmbrales) {
+            Optional<UmbralAlertas> existente = umbralRepository.findByCategoria(categoria);
+            if (stockMinimo == null && diasAvisoCaducidad == null) {
+                existente.ifPresent(umbralRepository::delete);
+            } else {
+                UmbralAlertas umbral = existente.orElseGet(UmbralAlertas::new);
+                umbral.setCategoria(categoria);
+                umbral.setStockMinimo(stockMinimo);
+                umbral.setDiasAvisoCaducidad(diasAvisoCaducidad);
+                umbralRepository.save(umbral);
+            }
+            umbralesCambiados();
+        }
+    }
+
     /**
      * Detecta productos con stock bajo
      */
     public List<Alerta> detectarStockBajo() {
-        List<Producto> productosStockBajo = productoRepository.findByStockLessThan(STOCK_MINIMO);
-        
-        return productosStockBajo.stream()
-                .filter(p -> p.getActivo() != null && p.getActivo())
-                .map(producto -> {
-                    String mensaje = String.format("Stock bajo: %s", producto.getNombre());
-                    String detalle = String.format("Stock actual: %d unidades (Mínimo: %d)", 
-                            producto.getStock(), STOCK_MINIMO);
-                    
-                    return new Alerta(
-                            TipoAlerta.STOCK_BAJO,
-                            mensaje,
-                            detalle,
-                            producto,
-                            producto.getId()
-                    );
-                })
+        Umbrales umbrales = obtenerUmbrales();
+        // Filtrado en la consulta (activos, stock hasta el umbral de cada producto) sobre el índice de stock
+        return productoRepository.findAlertasStockBajo(stockMaximo(umbrales)).stream()
+                .map(producto -> crearAlertaStockBajo(producto, umbrales.stockMinimo(producto)))
                 .collect(Collectors.toList());
     }
-    
+
     /**
      * Detecta productos ya caducados
      */
     public List<Alerta> detectarProductosCaducados() {
         LocalDate hoy = LocalDate.now();
-        List<Producto> productosCaducados = productoRepository.findByFechaVencimientoBefore(hoy);
-        
-        return productosCaducados.stream()
-                .filter(p -> p.getActivo() != null && p.getActivo())
-                .map(producto -> {
-                    long diasCaducado = ChronoUnit.DAYS.between(producto.getFechaVencimiento(), hoy);
-                    String mensaje = String.format("Producto caducado: %s", producto.getNombre());
-                    String detalle = String.format("Caducado hace %d días (Fecha: %s)", 
-                            diasCaducado, producto.getFechaVencimiento());
-                    
-                    Alerta alerta = new Alerta(
-                            TipoAlerta.PRODUCTO_CADUCADO,
-                            mensaje,
-                            detalle,
-                            producto,
-                            producto.getId()
-                    );
-                    alerta.setCritica(true);
-                    
-                    return alerta;
-                })
+        // Productos activos vencidos, desde el índice de vencimientos del catálogo
+        return productoService.obtenerProductosVencidos().stream()
+                .map(producto -> crearAlertaCaducado(producto, hoy))
                 .collect(Collectors.toList());
     }
-    
+
     /**
      * Detecta productos próximos a caducar
      */
     public List<Alerta> detectarProximosCaducar() {
         LocalDate hoy = LocalDate.now();
-        LocalDate fechaLimite = hoy.plusDays(DIAS_AVISO_CADUCIDAD);
-        
-        List<Producto> proximosCaducar = productoRepository
-                .findByFechaVencimientoBetween(hoy, fechaLimite);
-        
-        return proximosCaducar.stream()
-                .filter(p -> p.getActivo() != null && p.getActivo())
-                .map(producto -> {
-                    long diasRestantes = ChronoUnit.DAYS.between(hoy, producto.getFechaVencimiento());
-                    String mensaje = String.format("Próximo a caducar: %s", producto.getNombre());
-                    String detalle = String.format("Caduca en %d días (Fecha: %s)", 
-                            diasRestantes, producto.getFechaVencimiento());
-                    
-                    return new Alerta(
-                            TipoAlerta.PROXIMO_CADUCAR,
-                            mensaje,
-                            detalle,
-                            producto,
-                            producto.getId()
-                    );
-                })
+        return proximosCaducar(obtenerUmbrales(), hoy).stream()
+                .map(producto -> crearAlertaProximoCaducar(producto, hoy))
                 .collect(Collectors.toList());
     }
-    
+
     /**
      * Detecta pedidos pendientes de recibir
      */
     public List<Alerta> detectarPedidosPendientes() {
-        List<Pedido> pedidosPendientes = pedidoRepository.findPedidosPendientes();
-        
-        return pedidosPendientes.stream()
-                .map(pedido -> {
-                    String mensaje = String.format("Pedido pendiente: %s", pedido.getNumeroPedido());
-                    String detalle = String.format("Proveedor: %s | Estado: %s | Total: €%.2f", 
-                            pedido.getProveedor().getEmpresa(),
-                            pedido.getEstado().getDescripcion(),
-                            pedido.getTotal());
-                    
-                    return new Alerta(
-                            TipoAlerta.PEDIDO_PENDIENTE,
-                            mensaje,
-                            detalle,
-                            pedido,
-                            pedido.getId()
-                    );
-                })
+        return pedidoRepository.findPedidosPendientes().stream()
+                .map(this::crearAlertaPedidoPendiente)
                 .collect(Collectors.toList());
     }
-    
+
     /**
      * Detecta pedidos retrasados
      */
     public List<Alerta> detectarPedidosRetrasados() {
-        List<Pedido> pedidosPendientes = pedidoRepository.findPedidosPendientes();
-        LocalDate fechaLimite = LocalDate.now().minusDays(DIAS_PEDIDO_RETRASADO);
-        
-        return pedidosPendientes.stream()
-                .filter(pedido -> pedido.getFechaPedido().toLocalDate().isBefore(fechaLimite))
-                .map(pedido -> {
-                    long diasRetraso = ChronoUnit.DAYS.between(pedido.getFechaPedido().toLocalDate(), LocalDate.now());
-                    String mensaje = String.format("Pedido retrasado: %s", pedido.getNumeroPedido());
-                    String detalle = String.format("Proveedor: %s | Pedido hace %d días | Total: €%.2f", 
-                            pedido.getProveedor().getEmpresa(),
-                            diasRetraso,
-                            pedido.getTotal());
-                    
-                    Alerta alerta = new Alerta(
-                            TipoAlerta.PEDIDO_RETRASADO,
-                            mensaje,
-                            detalle,
-                            pedido,
-                            pedido.getId()
-                    );
-                    alerta.setCritica(true);
-                    
-                    return alerta;
-                })
+        LocalDate hoy = LocalDate.now();
+        LocalDateTime limite = limiteRetraso(obtenerUmbrales(), hoy);
+        return pedidoRepository.findPedidosPendientesAntesDe(limite).stream()
+                .map(pedido -> crearAlertaPedidoRetrasado(pedido, hoy))
                 .collect(Collectors.toList());
     }
-    
+
     /**
      * Obtiene el conteo de alertas por tipo
      */
     public EstadisticasAlertas obtenerEstadisticas() {
-        List<Alerta> alertas = obtenerTodasLasAlertas();
-        
+        return obtenerInstantanea().getEstadisticas();
+    }
+
+    /**
+     * Solo los recuentos de alertas (inicio y contador de la pestaña), sin crear las alertas.
+     * Si la instantánea está al día se usan sus estadísticas; si no, una consulta agregada
+     * sobre productos y otra sobre pedidos
+     */
+    public EstadisticasAlertas contarAlertas() {
+        InstantaneaAlertas actual = instantanea;
+        if (actual != null && !hayCambios(actual)) {
+            return actual.getEstadisticas();
+        }
+        LocalDate hoy = LocalDate.now();
+        Umbrales umbrales = obtenerUmbrales();
+        Object[] productos = productoRepository.contarAlertas(stockMaximo(umbrales), hoy,
+                hoy.plusDays(diasAvisoMaximo(umbrales))).get(0);
+        Object[] pedidos = pedidoRepository.contarAlertas(limiteRetraso(umbrales, hoy)).get(0);
+
         EstadisticasAlertas stats = new EstadisticasAlertas();
-        stats.total = alertas.size();
-        stats.criticas = (int) alertas.stream().filter(Alerta::isCritica).count();
-        stats.stockBajo = (int) alertas.stream()
-                .filter(a -> a.getTipo() == TipoAlerta.STOCK_BAJO).count();
-        stats.caducados = (int) alertas.stream()
-                .filter(a -> a.getTipo() == TipoAlerta.PRODUCTO_CADUCADO).count();
-        stats.proximosCaducar = (int) alertas.stream()
-                .filter(a -> a.getTipo() == TipoAlerta.PROXIMO_CADUCAR).count();
-        stats.pedidosPendientes = (int) alertas.stream()
-                .filter(a -> a.getTipo() == TipoAlerta.PEDIDO_PENDIENTE).count();
-        stats.pedidosRetrasados = (int) alertas.stream()
-                .filter(a -> a.getTipo() == TipoAlerta.PEDIDO_RETRASADO).count();
-        
+        stats.stockBajo = ((Number) productos[0]).intValue();
+        stats.caducados = ((Number) productos[1]).intValue();
+        stats.proximosCaducar = ((Number) productos[2]).intValue();
+        stats.pedidosPendientes = ((Number) pedidos[0]).intValue();
+        stats.pedidosRetrasados = ((Number) pedidos[1]).intValue();
+        // Caducados y retrasados son las alertas críticas (nivel "error")
+        stats.criticas = stats.caducados + stats.pedidosRetrasados;
+        stats.total = stats.stockBajo + stats.caducados + stats.proximosCaducar
+                + stats.pedidosPendientes + stats.pedidosRetrasados;
         return stats;
     }
-    
+
+    // Evaluación periódica. Este proceso solo se entera al momento de sus propios cambios; las
+    // ventas, recepciones y ediciones de los otros terminales se recogen aquí
+    private void evaluarPeriodicamente() {
+        try {
+            revisarCambiosExternos();
+        } catch (Exception e) {
+            // Sin la revisión, al menos se publican los cambios propios
+            System.out.println("⚠ Error al revisar los cambios de otros terminales: " + e.getMessage());
+        }
+        evaluar(false);
+    }
+
+    // Apuntar para recalcular los productos y pedidos cuya versión ha cambiado desde la última
+    // revisión (también los que han dejado de estar activos o pendientes) y recargar los umbrales
+    // solo si alguna fila ha cambiado. La primera revisión solo toma las versiones: las alertas
+    // aún no se han calculado y la primera lectura las calcula todas
+    private void revisarCambiosExternos() {
+        Umbrales actuales = umbrales;
+        if (actuales != null) {
+            List<UmbralAlertas> filas = umbralRepository.findAll();
+            if (!actuales.mismasFilas(filas)) {
+                synchronized (cerrojoUmbrales) {
+                    // Si se acaban de guardar aquí, ya están descartados y se leen de nuevo
+                    if (umbrales == actuales) {
+                        umbrales = new Umbrales(filas);
+                    }
+                }
+                recalcularTodo = true;
+            }
+        }
+
+        Map<Long, Long> productos = versiones(productoRepository.findVersionesActivos());
+        List<Long> productosCambiados = cambiados(versionesProductos, productos);
+        versionesProductos = productos;
+        if (!productosCambiados.isEmpty()) {
+            // Las alertas de producto se leen del catálogo: primero se pone al día
+            productoService.revalidarCatalogo();
+            productosPorRevisar.addAll(productosCambiados);
+        }
+
+        Map<Long, Long> pedidos = versiones(pedidoRepository.findVersionesPendientes());
+        pedidosPorRevisar.addAll(cambiados(versionesPedidos, pedidos));
+        versionesPedidos = pedidos;
+    }
+
+    private static Map<Long, Long> versiones(List<Object[]> filas) {
+        Map<Long, Long> versiones = new HashMap<>();
+        for (Object[] fila : filas) {
+            versiones.put((Long) fila[0], (Long) fila[1]);
+        }
+        return versiones;
+    }
+
+    // IDs nuevos, con otra versión o que ya no están (ninguno si no había versiones anteriores)
+    private static List<Long> cambiados(Map<Long, Long> anteriores, Map<Long, Long> actuales) {
+        List<Long> ids = new ArrayList<>();
+        if (anteriores == null) {
+            return ids;
+        }
+        for (Map.Entry<Long, Long> version : actuales.entrySet()) {
+            if (!version.getValue().equals(anteriores.get(version.getKey()))) {
+                ids.add(version.getKey());
+            }
+        }
+        for (Long id : anteriores.keySet()) {
+            if (!actuales.containsKey(id)) {
+                ids.add(id);
+            }
+        }
+        return ids;
+    }
+
+    // Publicar la instantánea si es nueva y sus alertas han cambiado (o si se fuerza)
+    private void evaluar(boolean forzar) {
+        try {
+            InstantaneaAlertas actual = obtenerInstantanea();
+            InstantaneaAlertas anterior = publicada;
+            if (forzar || (actual != anterior && (anterior == null || !actual.mismasAlertas(anterior)))) {
+                publicada = actual;
+                for (ObservadorAlertas observador : observadores) {
+                    avisar(observador, actual);
+                }
+            }
+        } catch (Exception e) {
+            // Un fallo no debe parar el evaluador: se reintenta en la siguiente evaluación
+            System.out.println("⚠ Error al evaluar las alertas: " + e.getMessage());
+        }
+    }
+
+    private static void avisar(ObservadorAlertas observador, InstantaneaAlertas instantanea) {
+        try {
+            observador.alertasActualizadas(instantanea);
+        } catch (Exception e) {
+            System.out.println("⚠ Error al avisar de las alertas: " + e.getMessage());
+        }
+    }
+
+    // Evaluar poco después de un cambio; los cambios que llegan mientras tanto van en la misma evaluación
+    private void programarEvaluacion() {
+        ScheduledExecutorService hilo = evaluador;
+        if (hilo != null && !hilo.isShutdown() && evaluacionProgramada.compareAndSet(false, true)) {
+            hilo.schedule(() -> {
+                evaluacionProgramada.set(false);
+                evaluar(false);
+            }, ESPERA_CAMBIOS.toMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // Evaluar justo después de la próxima medianoche y volver a programarse para la siguiente
+    private void programarMedianoche() {
+        LocalDateTime siguiente = LocalDate.now().plusDays(1).atStartOfDay().plus(MARGEN_MEDIANOCHE);
+        long espera = Duration.between(LocalDateTime.now(), siguiente).toMillis();
+        evaluador.schedule(() -> {
+            // Una vez al día se recalcula todo desde la base de datos, umbrales incluidos
+            umbrales = null;
+            recalcularTodo = true;
+            evaluar(false);
+            programarMedianoche();
+        }, espera, TimeUnit.MILLISECONDS);
+    }
+
+    private void umbralesCambiados() {
+        umbrales = null;
+        recalcularTodo = true;
+        programarEvaluacion();
+    }
+
+    private static void validarUmbral(int valor, String nombre) {
+        if (valor < 0) {
+            throw new IllegalArgumentException(nombre + " no puede ser negativo");
+        }
+    }
+
+    // Mayor umbral de stock posible (productos, categorías y global): acota las consultas de stock bajo
+    private int stockMaximo(Umbrales umbrales) {
+        Object maximoProductos = productoRepository.findMaximosUmbrales().get(0)[0];
+        return Math.max(umbrales.mayorStockMinimo(), maximoProductos != null ? ((Number) maximoProductos).intValue() : 0);
+    }
+
+    // Mayor número de días de aviso posible: acota el tramo del índice de vencimientos que se recorre
+    private int diasAvisoMaximo(Umbrales umbrales) {
+        Object maximoProductos = productoRepository.findMaximosUmbrales().get(0)[1];
+        return Math.max(umbrales.mayorDiasAvisoCaducidad(), maximoProductos != null ? ((Number) maximoProductos).intValue() : 0);
+    }
+
+    private static LocalDateTime limiteRetraso(Umbrales umbrales, LocalDate hoy) {
+        return hoy.minusDays(umbrales.getDiasPedidoRetrasado()).atStartOfDay();
+    }
+
+    // Productos activos que vencen entre hoy y hoy + sus días de aviso: el índice de vencimientos
+    // da los que vencen dentro del mayor aviso posible y se descartan los que aún no entran en el suyo
+    private List<Producto> proximosCaducar(Umbrales umbrales, LocalDate hoy) {
+        List<Producto> proximos = new ArrayList<>();
+        for (Producto producto : productoService.obtenerProductosProximosVencer(diasAvisoMaximo(umbrales))) {
+            if (!producto.getFechaVencimiento().isAfter(hoy.plusDays(umbrales.diasAvisoCaducidad(producto)))) {
+                proximos.add(producto);
+            }
+        }
+        return proximos;
+    }
+
+    private boolean hayCambios(InstantaneaAlertas actual) {
+        return recalcularTodo || !productosPorRevisar.isEmpty() || !pedidosPorRevisar.isEmpty()
+                || !actual.dia.equals(LocalDate.now());
+    }
+
+    // Sacar los IDs apuntados hasta ahora (los que lleguen mientras se recalcula quedan para la siguiente)
+    private static List<Long> tomar(Set<Long> porRevisar) {
+        List<Long> ids = new ArrayList<>(porRevisar);
+        porRevisar.removeAll(ids);
+        return ids;
+    }
+
+    // Calcular todas las alertas: tres lecturas de productos y una sola de pedidos pendientes
+    private void recalcularTodas(LocalDate hoy, Umbrales umbrales) {
+        // Lo que se confirme a partir de aquí se vuelve a revisar en la siguiente lectura
+        recalcularTodo = false;
+        productosPorRevisar.clear();
+        pedidosPorRevisar.clear();
+        alertasPorProducto.clear();
+        alertasPorPedido.clear();
+
+        for (Producto producto : productoRepository.findAlertasStockBajo(stockMaximo(umbrales))) {
+            agregar(alertasPorProducto, producto.getId(), crearAlertaStockBajo(producto, umbrales.stockMinimo(producto)));
+        }
+        for (Producto producto : productoService.obtenerProductosVencidos()) {
+            agregar(alertasPorProducto, producto.getId(), crearAlertaCaducado(producto, hoy));
+        }
+        for (Producto producto : proximosCaducar(umbrales, hoy)) {
+            agregar(alertasPorProducto, producto.getId(), crearAlertaProximoCaducar(producto, hoy));
+        }
+        for (Pedido pedido : pedidoRepository.findPedidosPendientes()) {
+            alertasPorPedido.put(pedido.getId(), alertasDePedido(pedido, hoy, umbrales));
+        }
+    }
+
+    private void recalcularProductos(List<Long> ids, LocalDate hoy, Umbrales umbrales) {
+        for (Long id : ids) {
+            List<Alerta> alertas = alertasDeProducto(productoService.obtenerPorId(id).orElse(null), hoy, umbrales);
+            if (alertas.isEmpty()) {
+                alertasPorProducto.remove(id);
+            } else {
+                alertasPorProducto.put(id, alertas);
+            }
+        }
+    }
+
+    private void recalcularPedidos(List<Long> ids, LocalDate hoy, Umbrales umbrales) {
+        if (ids.isEmpty()) {
+            return;
+        }
+        ids.forEach(alertasPorPedido::remove);
+        for (Pedido pedido : pedidoRepository.findAllById(ids)) {
+            List<Alerta> alertas = alertasDePedido(pedido, hoy, umbrales);
+            if (!alertas.isEmpty()) {
+                alertasPorPedido.put(pedido.getId(), alertas);
+            }
+        }
+    }
+
+    // Las mismas reglas que detectarStockBajo, detectarProductosCaducados y detectarProximosCaducar
+    private List<Alerta> alertasDeProducto(Producto producto, LocalDate hoy, Umbrales umbrales) {
+        List<Alerta> alertas = new ArrayList<>();
+        if (producto == null || !Boolean.TRUE.equals(producto.getActivo())) {
+            return alertas;
+        }
+        int stockMinimo = umbrales.stockMinimo(producto);
+        if (producto.getStock() != null && producto.getStock() <= stockMinimo) {
+            alertas.add(crearAlertaStockBajo(producto, stockMinimo));
+        }
+        LocalDate vencimiento = producto.getFechaVencimiento();
+        if (vencimiento != null) {
+            if (vencimiento.isBefore(hoy)) {
+                alertas.add(crearAlertaCaducado(producto, hoy));
+            } else if (!vencimiento.isAfter(hoy.plusDays(umbrales.diasAvisoCaducidad(producto)))) {
+                alertas.add(crearAlertaProximoCaducar(producto, hoy));
+            }
+        }
+        return alertas;
+    }
+
+    // Las mismas reglas que findPedidosPendientes y detectarPedidosRetrasados
+    private List<Alerta> alertasDePedido(Pedido pedido, LocalDate hoy, Umbrales umbrales) {
+        List<Alerta> alertas = new ArrayList<>();
+        if (!Boolean.TRUE.equals(pedido.getActivo())
+                || pedido.getEstado() == EstadoPedido.RECIBIDO || pedido.getEstado() == EstadoPedido.CANCELADO) {
+            return alertas;
+        }
+        alertas.add(crearAlertaPedidoPendiente(pedido));
+        if (pedido.getFechaPedido().isBefore(limiteRetraso(umbrales, hoy))) {
+            alertas.add(crearAlertaPedidoRetrasado(pedido, hoy));
+        }
+        return alertas;
+    }
+
+    private static void agregar(Map<Long, List<Alerta>> alertas, Long id, Alerta alerta) {
+        alertas.computeIfAbsent(id, k -> new ArrayList<>()).add(alerta);
+    }
+
+    private Alerta crearAlertaStockBajo(Producto producto, int stockMinimo) {
+        String mensaje = String.format("Stock bajo: %s", producto.getNombre());
+        String detalle = String.format("Stock actual: %d unidades (Mínimo: %d)",
+                producto.getStock(), stockMinimo);
+
+        return new Alerta(
+                TipoAlerta.STOCK_BAJO,
+                mensaje,
+                detalle,
+                producto,
+                producto.getId()
+        );
+    }
+
+    private Alerta crearAlertaCaducado(Producto producto, LocalDate hoy) {
+        long diasCaducado = ChronoUnit.DAYS.between(producto.getFechaVencimiento(), hoy);
+        String mensaje = String.format("Producto caducado: %s", producto.getNombre());
+        String detalle = String.format("Caducado hace %d días (Fecha: %s)",
+                diasCaducado, producto.getFechaVencimiento());
+
+        Alerta alerta = new Alerta(
+                TipoAlerta.PRODUCTO_CADUCADO,
+                mensaje,
+                detalle,
+                producto,
+                producto.getId()
+        );
+        alerta.setCritica(true);
+
+        return alerta;
+    }
+
+    private Alerta crearAlertaProximoCaducar(Producto producto, LocalDate hoy) {
+        long diasRestantes = ChronoUnit.DAYS.between(hoy, producto.getFechaVencimiento());
+        String mensaje = String.format("Próximo a caducar: %s", producto.getNombre());
+        String detalle = String.format("Caduca en %d días (Fecha: %s)",
+                diasRestantes, producto.getFechaVencimiento());
+
+        return new Alerta(
+                TipoAlerta.PROXIMO_CADUCAR,
+                mensaje,
+                detalle,
+                producto,
+                producto.getId()
+        );
+    }
+
+    private Alerta crearAlertaPedidoPendiente(Pedido pedido) {
+        String mensaje = String.format("Pedido pendiente: %s", pedido.getNumeroPedido());
+        String detalle = String.format("Proveedor: %s | Estado: %s | Total: €%.2f",
+                pedido.getProveedor().getEmpresa(),
+                pedido.getEstado().getDescripcion(),
+                pedido.getTotal());
+
+        return new Alerta(
+                TipoAlerta.PEDIDO_PENDIENTE,
+                mensaje,
+                detalle,
+                pedido,
+                pedido.getId()
+        );
+    }
+
+    private Alerta crearAlertaPedidoRetrasado(Pedido pedido, LocalDate hoy) {
+        long diasRetraso = ChronoUnit.DAYS.between(pedido.getFechaPedido().toLocalDate(), hoy);
+        String mensaje = String.format("Pedido retrasado: %s", pedido.getNumeroPedido());
+        String detalle = String.format("Proveedor: %s | Pedido hace %d días | Total: €%.2f",
+                pedido.getProveedor().getEmpresa(),
+                diasRetraso,
+                pedido.getTotal());
+
+        Alerta alerta = new Alerta(
+                TipoAlerta.PEDIDO_RETRASADO,
+                mensaje,
+                detalle,
+                pedido,
+                pedido.getId()
+        );
+        alerta.setCritica(true);
+
+        return alerta;
+    }
+
+    /**
+     * Umbrales guardados: el global y los de cada categoría. No se modifica una vez cargado
+     */
+    public static class Umbrales {
+        private final UmbralAlertas global;
+        private final Map<String, UmbralAlertas> porCategoria = new HashMap<>();
+        // Filas de las que se cargó, para saber si han cambiado
+        private final Set<UmbralAlertas> filas;
+
+        Umbrales(List<UmbralAlertas> todos) {
+            UmbralAlertas filaGlobal = null;
+            for (UmbralAlertas umbral : todos) {
+                if (UmbralAlertas.ID_GLOBAL == umbral.getId()) {
+                    filaGlobal = umbral;
+                } else if (umbral.getCategoria() != null) {
+                    porCategoria.put(umbral.getCategoria(), umbral);
+                }
+            }
+            // La fila global la crea MigracionUmbralGlobal al arrancar; sin ella, los valores por defecto
+            this.global = filaGlobal != null ? filaGlobal : new UmbralAlertas(UmbralAlertas.ID_GLOBAL, null,
+                    UmbralAlertas.STOCK_MINIMO_POR_DEFECTO,
+                    UmbralAlertas.DIAS_AVISO_CADUCIDAD_POR_DEFECTO,
+                    UmbralAlertas.DIAS_PEDIDO_RETRASADO_POR_DEFECTO);
+            this.filas = new HashSet<>(todos);
+        }
+
+        boolean mismasFilas(List<UmbralAlertas> otras) {
+            return filas.equals(new HashSet<>(otras));
+        }
+
+        // Stock mínimo del producto: el suyo, el de su categoría o el global
+        public int stockMinimo(Producto producto) {
+            if (producto.getStockMinimo() != null) {
+                return producto.getStockMinimo();
+            }
+            UmbralAlertas categoria = porCategoria.get(producto.getCategoria());
+            return categoria != null && categoria.getStockMinimo() != null ? categoria.getStockMinimo() : getStockMinimo();
+        }
+
+        // Días de aviso antes del vencimiento: los del producto, los de su categoría o los globales
+        public int diasAvisoCaducidad(Producto producto) {
+            if (producto.getDiasAvisoCaducidad() != null) {
+                return producto.getDiasAvisoCaducidad();
+            }
+            UmbralAlertas categoria = porCategoria.get(producto.getCategoria());
+            return categoria != null && categoria.getDiasAvisoCaducidad() != null
+                    ? categoria.getDiasAvisoCaducidad() : getDiasAvisoCaducidad();
+        }
+
+        // Stock bajo con el umbral efectivo del producto (el mismo criterio que las consultas de stock bajo)
+        public boolean isStockBajo(Producto producto) {
+            return producto.getStock() != null && producto.getStock() <= stockMinimo(producto);
+        }
+
+        // Vence entre hoy y los días de aviso efectivos del producto, ambos incluidos (como las alertas)
+        public boolean isProximoAVencer(Producto producto, LocalDate hoy) {
+            LocalDate vencimiento = producto.getFechaVencimiento();
+            return vencimiento != null && !vencimiento.isBefore(hoy)
+                    && !vencimiento.isAfter(hoy.plusDays(diasAvisoCaducidad(producto)));
+        }
+
+        public int getStockMinimo() {
+            return valor(global.getStockMinimo(), UmbralAlertas.STOCK_MINIMO_POR_DEFECTO);
+        }
+
+        public int getDiasAvisoCaducidad() {
+            return valor(global.getDiasAvisoCaducidad(), UmbralAlertas.DIAS_AVISO_CADUCIDAD_POR_DEFECTO);
+        }
+
+        public int getDiasPedidoRetrasado() {
+            return valor(global.getDiasPedidoRetrasado(), UmbralAlertas.DIAS_PEDIDO_RETRASADO_POR_DEFECTO);
+        }
+
+        // Umbrales de las categorías que los tienen, por nombre de categoría
+        public List<UmbralAlertas> getCategorias() {
+            List<UmbralAlertas> categorias = new ArrayList<>(porCategoria.values());
+            categorias.sort(Comparator.comparing(UmbralAlertas::getCategoria));
+            return categorias;
+        }
+
+        int mayorStockMinimo() {
+            int mayor = getStockMinimo();
+            for (UmbralAlertas umbral : porCategoria.values()) {
+                mayor = Math.max(mayor, valor(umbral.getStockMinimo(), 0));
+            }
+            return mayor;
+        }
+
+        int mayorDiasAvisoCaducidad() {
+            int mayor = getDiasAvisoCaducidad();
+            for (UmbralAlertas umbral : porCategoria.values()) {
+                mayor = Math.max(mayor, valor(umbral.getDiasAvisoCaducidad(), 0));
+            }
+            return mayor;
+        }
+
+        private static int valor(Integer valor, int porDefecto) {
+            return valor != null ? valor : porDefecto;
+        }
+    }
+
+    // Instantáneas nuevas del evaluador de alertas, en su hilo: la implementación debe ser rápida
+    public interface ObservadorAlertas {
+        void alertasActualizadas(InstantaneaAlertas instantanea);
+    }
+
+    /**
+     * Alertas vigentes en un momento dado. Las listas no se pueden modificar
+     */
+    public static class InstantaneaAlertas {
+        private final LocalDate dia;
+        private final List<Alerta> alertas;
+        private final List<Alerta> criticas;
+        private final EstadisticasAlertas estadisticas = new EstadisticasAlertas();
+
+        InstantaneaAlertas(LocalDate dia, Collection<List<Alerta>> deProductos, Collection<List<Alerta>> dePedidos) {
+            this.dia = dia;
+            List<Alerta> todas = new ArrayList<>();
+            deProductos.forEach(todas::addAll);
+            dePedidos.forEach(todas::addAll);
+
+            // Ordenar por criticidad y fecha
+            todas.sort((a1, a2) -> {
+                if (a1.isCritica() != a2.isCritica()) {
+                    return a1.isCritica() ? -1 : 1;
+                }
+                return a2.getFecha().compareTo(a1.getFecha());
+            });
+
+            List<Alerta> soloCriticas = new ArrayList<>();
+            for (Alerta alerta : todas) {
+                if (alerta.isCritica()) {
+                    soloCriticas.add(alerta);
+                    estadisticas.criticas++;
+                }
+                switch (alerta.getTipo()) {
+                    case STOCK_BAJO -> estadisticas.stockBajo++;
+                    case PRODUCTO_CADUCADO -> estadisticas.caducados++;
+                    case PROXIMO_CADUCAR -> estadisticas.proximosCaducar++;
+                    case PEDIDO_PENDIENTE -> estadisticas.pedidosPendientes++;
+                    case PEDIDO_RETRASADO -> estadisticas.pedidosRetrasados++;
+                }
+            }
+            estadisticas.total = todas.size();
+            this.alertas = Collections.unmodifiableList(todas);
+            this.criticas = Collections.unmodifiableList(soloCriticas);
+        }
+
+        public List<Alerta> getAlertas() {
+            return alertas;
+        }
+
+        // Mismas alertas que otra instantánea (tipo, entidad, textos y criticidad), sin contar
+        // la hora a la que se calculó cada una
+        boolean mismasAlertas(InstantaneaAlertas otra) {
+            return dia.equals(otra.dia) && claves(alertas).equals(claves(otra.alertas));
+        }
+
+        private static Set<List<Object>> claves(List<Alerta> alertas) {
+            Set<List<Object>> claves = new HashSet<>();
+            for (Alerta alerta : alertas) {
+                claves.add(Arrays.asList(alerta.getTipo(), alerta.getEntidadId(), alerta.getMensaje(),
+                        alerta.getDetalle(), alerta.isCritica()));
+            }
+            return claves;
+        }
+
+        public List<Alerta> getCriticas() {
+            return criticas;
+        }
+
+        // Compartidas por todos los lectores de la instantánea: solo lectura
+        public EstadisticasAlertas getEstadisticas() {
+            return estadisticas;
+        }
+    }
+
     /**
      * Clase interna para estadísticas de alertas
      */
@@ -0,0 +1,610 @@
+package com.farmacia.service;
+
+import com.farmacia.model.MovimientoStock.TipoMovimiento;
+import com.farmacia.model.Producto;
+import com.farmacia.repository.ProductoRepository;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Importación masiva del catálogo de productos desde un archivo CSV o TSV.
+ *
+ * El archivo se lee línea a línea y se guarda en lotes: cada lote se vuelca con
+ * flush (inserciones y actualizaciones agrupadas en lotes JDBC) y se vacía el
+ * contexto de persistencia, así la memoria no crece con el tamaño del archivo.
+ * Los códigos existentes se cargan una sola vez en memoria para decidir si cada
+ * fila crea o actualiza un producto sin una consulta por fila.
+ *
+ * Cada lote va en su propia transacción. Así los bloqueos de las filas de productos
+ * duran lo que tarda un lote y no toda la importación, y las ventas de los demás
+ * terminales (descontarStock) no esperan a que termine el archivo. A cambio, si la
+ * importación se corta, los lotes anteriores ya quedan guardados; la importación se
+ * puede repetir con el mismo archivo, porque los códigos existentes se actualizan.
+ * Las filas con datos no válidos no detienen la importación, se devuelven en el
+ * resultado con su número de línea.
+ */
+@Service
+public class ImportacionProductosService {
+
+    // Filas por lote y por transacción (múltiplo del tamaño de lote JDBC)
+    static final int TAMANO_LOTE = 500;
+    // Rechazos que se guardan con detalle; del resto solo se cuentan
+    private static final int MAX_RECHAZOS_DETALLE = 1000;
+
+    private static final DateTimeFormatter FORMATO_FECHA = DateTimeFormatter.ofPattern("d/M/yyyy");
+
+    // Nombres de columna admitidos (normalizados) -> campo del producto
+    private static final Map<String, Campo> COLUMNAS = new HashMap<>();
+
+    static {
+        COLUMNAS.put("codigo", Campo.CODIGO);
+        COLUMNAS.put("codigo barras", Campo.CODIGO);
+        COLUMNAS.put("codigo de barras", Campo.CODIGO);
+        COLUMNAS.put("ean", Campo.CODIGO);
+        COLUMNAS.put("nombre", Campo.NOMBRE);
+        COLUMNAS.put("producto", Campo.NOMBRE);
+        COLUMNAS.put("descripcion", Campo.DESCRIPCION);
+        COLUMNAS.put("precio", Campo.PRECIO);
+        COLUMNAS.put("pvp", Campo.PRECIO);
+        COLUMNAS.put("stock", Campo.STOCK);
+        COLUMNAS.put("existencias", Campo.STOCK);
+        COLUMNAS.put("stock minimo", Campo.STOCK_MINIMO);
+        COLUMNAS.put("laboratorio", Campo.LABORATORIO);
+        COLUMNAS.put("categoria", Campo.CATEGORIA);
+        COLUMNAS.put("fecha vencimiento", Campo.FECHA_VENCIMIENTO);
+        COLUMNAS.put("vencimiento", Campo.FECHA_VENCIMIENTO);
+        COLUMNAS.put("caducidad", Campo.FECHA_VENCIMIENTO);
+        COLUMNAS.put("fecha caducidad", Campo.FECHA_VENCIMIENTO);
+        COLUMNAS.put("requiere receta", Campo.REQUIERE_RECETA);
+        COLUMNAS.put("receta", Campo.REQUIERE_RECETA);
+    }
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Autowired
+    private ReintentosConcurrencia reintentos;
+
+    @Autowired
+    private ProductoRepository productoRepository;
+
+    @Autowired
+    private MovimientoStockService movimientoStockService;
+
+    @Autowired
+    private ProductoService productoService;
+
+    @Autowired
+    private LoteService loteService;
+
+    // Importar el archivo: crea los productos con código nuevo y actualiza los existentes
+    // (también los dados de baja, que se reactivan). El observador puede ser null
+    public ResultadoImportacion importar(File archivo, ObservadorProgreso observador) {
+        long inicio = System.currentTimeMillis();
+        ResultadoImportacion resultado;
+        try {
+            resultado = leerYGuardar(archivo, observador);
+        } catch (IOException e) {
+            throw new UncheckedIOException("No se pudo leer el archivo: " + e.getMessage(), e);
+        } finally {
+            // La caché del catálogo y su índice de búsqueda se reconstruyen en la siguiente lectura
+            // (también si la importación se corta: los lotes anteriores ya están guardados)
+            productoService.invalidarCatalogo();
+        }
+        resultado.milisegundos = System.currentTimeMillis() - inicio;
+        System.out.println("✓ Importación de " + archivo.getName() + ": " + resultado);
+        return resultado;
+    }
+
+    private ResultadoImportacion leerYGuardar(File archivo, ObservadorProgreso observador) throws IOException {
+        ResultadoImportacion resultado = new ResultadoImportacion();
+        long tamano = Math.max(1, archivo.length());
+        String referencia = "Importación " + archivo.getName();
+
+        try (EntradaContada entrada = new EntradaContada(new FileInputStream(archivo));
+             BufferedReader lector = new BufferedReader(new InputStreamReader(entrada, StandardCharsets.UTF_8))) {
+            String cabecera = lector.readLine();
+            if (cabecera == null) {
+                throw new IllegalArgumentException("El archivo está vacío");
+            }
+            if (cabecera.startsWith("\uFEFF")) {
+                cabecera = cabecera.substring(1);
+            }
+            char separador = detectarSeparador(cabecera);
+            Campo[] campos = leerCabecera(cabecera, separador);
+
+            Map<String, Long> idPorCodigo = new HashMap<>();
+            for (Object[] fila : productoRepository.findCodigosEIds()) {
+                idPorCodigo.put((String) fila[0], (Long) fila[1]);
+            }
+            Set<String> codigosEnArchivo = new HashSet<>();
+            List<FilaProducto> lote = new ArrayList<>(TAMANO_LOTE);
+
+            int[] numeroLinea = {1};
+            List<String> valores;
+            while ((valores = leerRegistro(lector, separador, numeroLinea)) != null) {
+                int linea = numeroLinea[0];
+                if (valores.size() == 1 && valores.get(0).isBlank()) {
+                    continue;
+                }
+                resultado.filasLeidas++;
+                try {
+                    FilaProducto fila = FilaProducto.desde(campos, valores);
+                    if (codigosEnArchivo.contains(fila.codigo)) {
+                        throw new IllegalArgumentException("Código repetido en el archivo");
+                    }
+                    boolean existe = idPorCodigo.containsKey(fila.codigo);
+                    if (!existe && (fila.nombre == null || fila.precio == null)) {
+                        throw new IllegalArgumentException("Un producto nuevo necesita nombre y precio");
+                    }
+                    // Solo cuenta como visto si la fila entra: una fila rechazada no bloquea
+                    // otra válida con el mismo código más abajo
+                    codigosEnArchivo.add(fila.codigo);
+                    lote.add(fila);
+                } catch (IllegalArgumentException e) {
+                    resultado.rechazar(linea, valorDe(campos, valores, Campo.CODIGO), e.getMessage());
+                }
+
+                if (lote.size() == TAMANO_LOTE) {
+                    guardarLoteEnTransaccion(lote, idPorCodigo, referencia, resultado);
+                    if (observador != null) {
+                        observador.progreso(resultado.filasLeidas, Math.min(1.0, (double) entrada.leidos / tamano));
+                    }
+                }
+            }
+            guardarLoteEnTransaccion(lote, idPorCodigo, referencia, resultado);
+            if (observador != null) {
+                observador.progreso(resultado.filasLeidas, 1.0);
+            }
+        }
+        return resultado;
+    }
+
+    // Guardar el lote en su propia transacción. Una venta de otro terminal puede cambiar un
+    // producto del lote a la vez (bloqueo optimista): el lote se repite entero, volviendo a leer
+    // los productos. Si aun así falla, la importación se detiene y el error indica cuántos
+    // productos de los lotes anteriores ya están guardados
+    private void guardarLoteEnTransaccion(List<FilaProducto> lote, Map<String, Long> idPorCodigo, String referencia,
+                                          ResultadoImportacion resultado) {
+        if (lote.isEmpty()) {
+            return;
+        }
+        int guardados = resultado.creados + resultado.actualizados;
+        Map<String, Long> creados;
+        try {
+            creados = reintentos.obtener("ImportacionProductosService.guardarLote",
+                    () -> guardarLote(lote, idPorCodigo, referencia));
+        } catch (RuntimeException e) {
+            throw new IllegalStateException("La importación se ha detenido: " + e.getMessage()
+                    + ". Ya se habían guardado " + guardados + " productos", e);
+        }
+        // Solo tras confirmar: un intento deshecho no deja IDs ni recuentos
+        idPorCodigo.putAll(creados);
+        resultado.creados += creados.size();
+        resultado.actualizados += lote.size() - creados.size();
+        lote.clear();
+    }
+
+    // Crear o actualizar los productos del lote, apuntar los cambios de stock en el libro
+    // de movimientos y en los lotes de stock de cada producto, y volcar el lote (flush + clear).
+    // Devuelve el ID de cada producto creado por su código
+    private Map<String, Long> guardarLote(List<FilaProducto> lote, Map<String, Long> idPorCodigo, String referencia) {
+        Map<String, Long> creados = new HashMap<>();
+        List<Long> idsExistentes = new ArrayList<>();
+        for (FilaProducto fila : lote) {
+            Long id = idPorCodigo.get(fila.codigo);
+            if (id != null) {
+                idsExistentes.add(id);
+            }
+        }
+        Map<Long, Producto> existentes = new HashMap<>();
+        for (Producto producto : productoRepository.findAllById(idsExistentes)) {
+            existentes.put(producto.getId(), producto);
+        }
+
+        List<LoteService.AjusteLote> ajustesLotes = new ArrayList<>();
+        Set<Long> idsLote = new HashSet<>();
+        for (FilaProducto fila : lote) {
+            Long id = idPorCodigo.get(fila.codigo);
+            Producto producto;
+            int stockAnterior;
+            LocalDate vencimientoAnterior = null;
+            if (id == null) {
+                producto = new Producto();
+                producto.setStock(0);
+                stockAnterior = 0;
+                fila.aplicar(producto);
+                entityManager.persist(producto);
+                creados.put(fila.codigo, producto.getId());
+            } else {
+                producto = existentes.get(id);
+                stockAnterior = producto.getStock();
+                vencimientoAnterior = producto.getFechaVencimiento();
+                fila.aplicar(producto);
+                producto.setActivo(true);
+            }
+            movimientoStockService.registrar(producto.getId(), TipoMovimiento.AJUSTE,
+                    producto.getStock() - stockAnterior, referencia);
+            // Al lote sin número solo va una fecha nueva del archivo, no la que ya tenía el producto
+            LocalDate vencimientoEntrada = Objects.equals(producto.getFechaVencimiento(), vencimientoAnterior)
+                    ? null : producto.getFechaVencimiento();
+            ajustesLotes.add(new LoteService.AjusteLote(producto.getId(), producto.getStock() - stockAnterior,
+                    vencimientoEntrada));
+            idsLote.add(producto.getId());
+        }
+        loteService.ajustarStock(ajustesLotes);
+
+        // El vencimiento de cada producto vuelve a ser el de su lote con unidades que vence antes
+        entityManager.flush();
+        loteService.sincronizarVencimientos(idsLote);
+        entityManager.clear();
+        return creados;
+    }
+
+    // Tabulador si la cabecera lo tiene; si no, el que más aparezca entre ';' y ','
+    private static char detectarSeparador(String cabecera) {
+        if (cabecera.indexOf('\t') >= 0) {
+            return '\t';
+        }
+        long puntoYComa = cabecera.chars().filter(c -> c == ';').count();
+        long comas = cabecera.chars().filter(c -> c == ',').count();
+        return puntoYComa > comas ? ';' : ',';
+    }
+
+    // Campo de cada columna (null en las columnas que no se importan, como "Estado")
+    private static Campo[] leerCabecera(String cabecera, char separador) {
+        List<String> nombres = separarCampos(cabecera, separador);
+        Campo[] campos = new Campo[nombres.size()];
+        Set<Campo> encontrados = new HashSet<>();
+        for (int i = 0; i < nombres.size(); i++) {
+            Campo campo = COLUMNAS.get(IndiceTrigramas.normalizar(nombres.get(i)));
+            if (campo != null && encontrados.add(campo)) {
+                campos[i] = campo;
+            }
+        }
+        if (!encontrados.contains(Campo.CODIGO)) {
+            throw new IllegalArgumentException("El archivo no tiene una columna de código en la cabecera");
+        }
+        return campos;
+    }
+
+    // Leer un registro completo; un campo entre comillas puede ocupar varias líneas.
+    // numeroLinea queda en la última línea leída (null al final del archivo)
+    private static List<String> leerRegistro(BufferedReader lector, char separador, int[] numeroLinea) throws IOException {
+        String linea = lector.readLine();
+        if (linea == null) {
+            return null;
+        }
+        numeroLinea[0]++;
+        StringBuilder registro = new StringBuilder(linea);
+        while (comillasAbiertas(registro)) {
+            String siguiente = lector.readLine();
+            if (siguiente == null) {
+                break;
+            }
+            numeroLinea[0]++;
+            registro.append('\n').append(siguiente);
+        }
+        return separarCampos(registro.toString(), separador);
+    }
+
+    private static boolean comillasAbiertas(CharSequence texto) {
+        boolean abiertas = false;
+        for (int i = 0; i < texto.length(); i++) {
+            if (texto.charAt(i) == '"') {
+                abiertas = !abiertas;
+            }
+        }
+        return abiertas;
+    }
+
+    // Separar un registro en campos; las comillas dobles agrupan y "" es una comilla literal
+    private static List<String> separarCampos(String registro, char separador) {
+        List<String> campos = new ArrayList<>();
+        StringBuilder actual = new StringBuilder();
+        boolean entreComillas = false;
+        for (int i = 0; i < registro.length(); i++) {
+            char c = registro.charAt(i);
+            if (entreComillas) {
+                if (c == '"') {
+                    if (i + 1 < registro.length() && registro.charAt(i + 1) == '"') {
+                        actual.append('"');
+                        i++;
+                    } else {
+                        entreComillas = false;
+                    }
+                } else {
+                    actual.append(c);
+                }
+            } else if (c == '"') {
+                entreComillas = true;
+            } else if (c == separador) {
+                campos.add(actual.toString());
+                actual.setLength(0);
+            } else {
+                actual.append(c);
+            }
+        }
+        campos.add(actual.toString());
+        return campos;
+    }
+
+    private static String valorDe(Campo[] campos, List<String> valores, Campo buscado) {
+        for (int i = 0; i < campos.length && i < valores.size(); i++) {
+            if (campos[i] == buscado) {
+                return valores.get(i).trim();
+            }
+        }
+        return null;
+    }
+
+    // Columnas que se pueden importar
+    private enum Campo {
+        CODIGO, NOMBRE, DESCRIPCION, PRECIO, STOCK, STOCK_MINIMO, LABORATORIO, CATEGORIA,
+        FECHA_VENCIMIENTO, REQUIERE_RECETA
+    }
+
+    // Fila del archivo ya validada. Solo se aplican las columnas presentes en el archivo:
+    // al actualizar, lo que no viene se conserva
+    private static class FilaProducto {
+        private final Set<Campo> presentes = new HashSet<>();
+        private String codigo;
+        private String nombre;
+        private String descripcion;
+        private BigDecimal precio;
+        private Integer stock;
+        private Integer stockMinimo;
+        private String laboratorio;
+        private String categoria;
+        private LocalDate fechaVencimiento;
+        private Boolean requiereReceta;
+
+        static FilaProducto desde(Campo[] campos, List<String> valores) {
+            FilaProducto fila = new FilaProducto();
+            for (int i = 0; i < campos.length; i++) {
+                Campo campo = campos[i];
+                if (campo == null) {
+                    continue;
+                }
+                String valor = i < valores.size() ? valores.get(i).trim() : "";
+                fila.presentes.add(campo);
+                switch (campo) {
+                    case CODIGO -> fila.codigo = texto(valor, 50, "El código", true);
+                    case NOMBRE -> fila.nombre = texto(valor, 200, "El nombre", false);
+                    case DESCRIPCION -> fila.descripcion = texto(valor, 500, "La descripción", false);
+                    case PRECIO -> fila.precio = precio(valor);
+                    case STOCK -> fila.stock = entero(valor, "El stock");
+                    case STOCK_MINIMO -> fila.stockMinimo = entero(valor, "El stock mínimo");
+                    case LABORATORIO -> fila.laboratorio = texto(valor, 100, "El laboratorio", false);
+                    case CATEGORIA -> fila.categoria = texto(valor, 100, "La categoría", false);
+                    case FECHA_VENCIMIENTO -> fila.fechaVencimiento = fecha(valor);
+                    case REQUIERE_RECETA -> fila.requiereReceta = siNo(valor);
+                }
+            }
+            // Las columnas obligatorias presentes no pueden venir vacías al actualizar
+            if (fila.presentes.contains(Campo.NOMBRE) && fila.nombre == null) {
+                throw new IllegalArgumentException("El nombre es obligatorio");
+            }
+            if (fila.presentes.contains(Campo.PRECIO) && fila.precio == null) {
+                throw new IllegalArgumentException("El precio es obligatorio");
+            }
+            return fila;
+        }
+
+        void aplicar(Producto producto) {
+            producto.setCodigo(codigo);
+            if (presentes.contains(Campo.NOMBRE)) producto.setNombre(nombre);
+            if (presentes.contains(Campo.DESCRIPCION)) producto.setDescripcion(descripcion);
+            if (presentes.contains(Campo.PRECIO)) producto.setPrecio(precio);
+            if (presentes.contains(Campo.STOCK) && stock != null) producto.setStock(stock);
+            if (presentes.contains(Campo.STOCK_MINIMO)) producto.setStockMinimo(stockMinimo);
+            if (presentes.contains(Campo.LABORATORIO)) producto.setLaboratorio(laboratorio);
+            if (presentes.contains(Campo.CATEGORIA)) producto.setCategoria(categoria);
+            if (presentes.contains(Campo.FECHA_VENCIMIENTO)) producto.setFechaVencimiento(fechaVencimiento);
+            if (presentes.contains(Campo.REQUIERE_RECETA)) producto.setRequiereReceta(requiereReceta);
+        }
+
+        private static String texto(String valor, int maximo, String nombre, boolean obligatorio) {
+            if (valor.isEmpty()) {
+                if (obligatorio) {
+                    throw new IllegalArgumentException(nombre + " es obligatorio");
+                }
+                return null;
+            }
+            if (valor.length() > maximo) {
+                throw new IllegalArgumentException(nombre + " supera los " + maximo + " caracteres");
+            }
+            return valor;
+        }
+
+        // Admite "12.50", "12,50", "1.234,50" y el símbolo del euro
+        private static BigDecimal precio(String valor) {
+            String limpio = valor.replace("€", "").replace("EUR", "").trim();
+            if (limpio.isEmpty()) {
+                return null;
+            }
+            if (limpio.contains(",")) {
+                limpio = limpio.replace(".", "").replace(',', '.');
+            }
+            try {
+                BigDecimal precio = new BigDecimal(limpio).setScale(2, RoundingMode.HALF_UP);
+                if (precio.compareTo(new BigDecimal("0.01")) < 0) {
+                    throw new IllegalArgumentException("El precio debe ser mayor a 0");
+                }
+                return precio;
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Precio no válido: " + valor);
+            }
+        }
+
+        private static Integer entero(String valor, String nombre) {
+            if (valor.isEmpty()) {
+                return null;
+            }
+            try {
+                int numero = Integer.parseInt(valor);
+                if (numero < 0) {
+                    throw new IllegalArgumentException(nombre + " no puede ser negativo");
+                }
+                return numero;
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException(nombre + " debe ser un número entero: " + valor);
+            }
+        }
+
+        // Fecha en formato dd/MM/yyyy o yyyy-MM-dd; vacía o "N/A" si no tiene
+        private static LocalDate fecha(String valor) {
+            if (valor.isEmpty() || valor.equalsIgnoreCase("N/A")) {
+                return null;
+            }
+            try {
+                return valor.contains("/") ? LocalDate.parse(valor, FORMATO_FECHA) : LocalDate.parse(valor);
+            } catch (DateTimeParseException e) {
+                throw new IllegalArgumentException("Fecha de vencimiento no válida: " + valor);
+            }
+        }
+
+        private static Boolean siNo(String valor) {
+            return switch (IndiceTrigramas.normalizar(valor)) {
+                case "", "no", "n", "false", "0" -> false;
+                case "si", "s", "true", "1", "x", "yes" -> true;
+                default -> throw new IllegalArgumentException("Valor de receta no válido: " + valor);
+            };
+        }
+    }
+
+    // Bytes leídos del archivo, para calcular el progreso sin conocer el número de filas
+    private static class EntradaContada extends FilterInputStream {
+        private volatile long leidos;
+
+        EntradaContada(InputStream entrada) {
+            super(entrada);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                leidos++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int desde, int cantidad) throws IOException {
+            int n = super.read(b, desde, cantidad);
+            if (n > 0) {
+                leidos += n;
+            }
+            return n;
+        }
+    }
+
+    // Avance de la importación (se llama desde el hilo que importa)
+    @FunctionalInterface
+    public interface ObservadorProgreso {
+        void progreso(int filasLeidas, double fraccion);
+    }
+
+    // Fila del archivo que no se ha importado
+    public static class FilaRechazada {
+        private final int linea;
+        private final String codigo;
+        private final String motivo;
+
+        public FilaRechazada(int linea, String codigo, String motivo) {
+            this.linea = linea;
+            this.codigo = codigo;
+            this.motivo = motivo;
+        }
+
+        public int getLinea() {
+            return linea;
+        }
+
+        public String getCodigo() {
+            return codigo;
+        }
+
+        public String getMotivo() {
+            return motivo;
+        }
+
+        @Override
+        public String toString() {
+            return "Línea " + linea + (codigo != null && !codigo.isEmpty() ? " (" + codigo + ")" : "") + ": " + motivo;
+        }
+    }
+
+    // Resumen de una importación
+    public static class ResultadoImportacion {
+        private int filasLeidas;
+        private int creados;
+        private int actualizados;
+        private int rechazadas;
+        private long milisegundos;
+        private final List<FilaRechazada> detalleRechazos = new ArrayList<>();
+
+        private void rechazar(int linea, String codigo, String motivo) {
+            rechazadas++;
+            if (detalleRechazos.size() < MAX_RECHAZOS_DETALLE) {
+                detalleRechazos.add(new FilaRechazada(linea, codigo, motivo));
+            }
+        }
+
+        public int getFilasLeidas() {
+            return filasLeidas;
+        }
+
+        public int getCreados() {
+            return creados;
+        }
+
+        public int getActualizados() {
+            return actualizados;
+        }
+
+        public int getRechazadas() {
+            return rechazadas;
+        }
+
+        public long getMilisegundos() {
+            return milisegundos;
+        }
+
+        // Primeras filas rechazadas (como mucho 1000)
+        public List<FilaRechazada> getDetalleRechazos() {
+            return detalleRechazos;
+        }
+
+        @Override
+        public String toString() {
+            return filasLeidas + " filas, " + creados + " creados, " + actualizados + " actualizados, "
+                    + rechazadas + " rechazadas en " + milisegundos + " ms";
+        }
+    }
+}
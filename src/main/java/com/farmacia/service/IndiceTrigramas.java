@@ -0,0 +1,302 @@
+package com.farmacia.service;
+
+import com.farmacia.model.Producto;
+
+import java.text.Normalizer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Índice de trigramas en memoria para buscar productos por subcadena en nombre,
+ * código, laboratorio y categoría, sin distinguir mayúsculas ni acentos.
+ *
+ * Cada producto es un documento con un número interno; cada trigrama guarda la
+ * lista ordenada de documentos que lo contienen. Una búsqueda intersecta las
+ * listas de los trigramas de la consulta, comprueba los candidatos contra el
+ * texto y ordena el resultado por calidad de la coincidencia.
+ *
+ * No es seguro para hilos: ProductoService lo usa siempre bajo el mismo cerrojo
+ * que la caché del catálogo.
+ */
+class IndiceTrigramas {
+
+    private final Map<String, ListaDocumentos> trigramas = new HashMap<>();
+    private final List<Documento> documentos = new ArrayList<>();
+    private final Map<Long, Integer> documentoPorProducto = new HashMap<>();
+    private final Deque<Integer> documentosLibres = new ArrayDeque<>();
+
+    // Añadir o reemplazar un producto en el índice
+    void indexar(Producto producto) {
+        quitar(producto.getId());
+
+        Documento doc = new Documento(producto);
+        int numero = documentosLibres.isEmpty() ? documentos.size() : documentosLibres.poll();
+        if (numero == documentos.size()) {
+            documentos.add(doc);
+        } else {
+            documentos.set(numero, doc);
+        }
+        documentoPorProducto.put(producto.getId(), numero);
+
+        for (String trigrama : doc.trigramas) {
+            trigramas.computeIfAbsent(trigrama, t -> new ListaDocumentos()).insertar(numero);
+        }
+    }
+
+    // Quitar un producto del índice (si no está no hace nada)
+    void quitar(Long productoId) {
+        Integer numero = documentoPorProducto.remove(productoId);
+        if (numero == null) {
+            return;
+        }
+        for (String trigrama : documentos.get(numero).trigramas) {
+            ListaDocumentos lista = trigramas.get(trigrama);
+            lista.eliminar(numero);
+            if (lista.tamano == 0) {
+                trigramas.remove(trigrama);
+            }
+        }
+        documentos.set(numero, null);
+        documentosLibres.add(numero);
+    }
+
+    void vaciar() {
+        trigramas.clear();
+        documentos.clear();
+        documentoPorProducto.clear();
+        documentosLibres.clear();
+    }
+
+    // Buscar productos que contengan todas las palabras de la consulta (en cualquiera
+    // de los campos). Devuelve los IDs de producto ordenados de mejor a peor coincidencia
+    List<Long> buscar(String texto) {
+        String consulta = normalizar(texto);
+        if (consulta.isEmpty()) {
+            return new ArrayList<>();
+        }
+        String[] palabras = consulta.split(" ");
+
+        // Candidatos: intersección de las listas de todos los trigramas de la consulta.
+        // Las palabras de menos de 3 letras no aportan trigramas y se comprueban al puntuar
+        List<ListaDocumentos> listas = new ArrayList<>();
+        for (String palabra : palabras) {
+            for (String trigrama : trigramasDe(palabra)) {
+                ListaDocumentos lista = trigramas.get(trigrama);
+                if (lista == null) {
+                    return new ArrayList<>();
+                }
+                listas.add(lista);
+            }
+        }
+
+        List<Coincidencia> coincidencias = new ArrayList<>();
+        if (listas.isEmpty()) {
+            // Consulta muy corta: se recorren todos los documentos
+            for (Documento doc : documentos) {
+                puntuarYAnadir(doc, consulta, palabras, coincidencias);
+            }
+        } else {
+            // Empezar por la lista más corta para que la intersección sea mínima
+            listas.sort(Comparator.comparingInt(l -> l.tamano));
+            int[] candidatos = Arrays.copyOf(listas.get(0).numeros, listas.get(0).tamano);
+            for (int i = 1; i < listas.size() && candidatos.length > 0; i++) {
+                candidatos = listas.get(i).intersectar(candidatos);
+            }
+            for (int numero : candidatos) {
+                puntuarYAnadir(documentos.get(numero), consulta, palabras, coincidencias);
+            }
+        }
+
+        coincidencias.sort(Comparator.comparingInt((Coincidencia c) -> -c.puntuacion)
+                .thenComparing(c -> c.documento.nombre));
+
+        List<Long> ids = new ArrayList<>(coincidencias.size());
+        for (Coincidencia c : coincidencias) {
+            ids.add(c.documento.productoId);
+        }
+        return ids;
+    }
+
+    private void puntuarYAnadir(Documento doc, String consulta, String[] palabras, List<Coincidencia> coincidencias) {
+        if (doc == null) {
+            return;
+        }
+        int puntuacion = puntuar(doc, consulta, palabras);
+        if (puntuacion > 0) {
+            coincidencias.add(new Coincidencia(doc, puntuacion));
+        }
+    }
+
+    // Puntuación de un documento: 0 si alguna palabra no aparece. Pesan más el código
+    // exacto, el nombre que empieza por la consulta y las palabras al inicio de una palabra
+    private int puntuar(Documento doc, String consulta, String[] palabras) {
+        int total = 0;
+        for (String palabra : palabras) {
+            int puntos = puntuarPalabra(doc, palabra);
+            if (puntos == 0) {
+                return 0;
+            }
+            total += puntos;
+        }
+
+        if (doc.codigo.equals(consulta)) {
+            total += 1000;
+        } else if (doc.codigo.startsWith(consulta)) {
+            total += 300;
+        }
+        if (doc.nombre.startsWith(consulta)) {
+            total += 200;
+        } else if (doc.nombre.contains(consulta)) {
+            total += 100;
+        }
+        return total;
+    }
+
+    private int puntuarPalabra(Documento doc, String palabra) {
+        int puntos = Math.max(puntuarCampo(doc.nombre, palabra, 60), puntuarCampo(doc.codigo, palabra, 40));
+        puntos = Math.max(puntos, puntuarCampo(doc.laboratorio, palabra, 20));
+        return Math.max(puntos, puntuarCampo(doc.categoria, palabra, 10));
+    }
+
+    // Peso completo al inicio del campo, algo menos al inicio de una palabra
+    // y la mitad si aparece en mitad de una palabra. Las palabras de menos de
+    // 3 letras solo cuentan al inicio de una palabra (con "p" no basta cualquier "p")
+    private int puntuarCampo(String campo, String palabra, int peso) {
+        int posicion = campo.indexOf(palabra);
+        if (posicion < 0) {
+            return 0;
+        }
+        if (posicion == 0) {
+            return peso;
+        }
+        if (palabra.length() < 3) {
+            posicion = campo.indexOf(" " + palabra, posicion - 1);
+            return posicion < 0 ? 0 : peso * 3 / 4;
+        }
+        if (campo.charAt(posicion - 1) == ' ') {
+            return peso * 3 / 4;
+        }
+        return peso / 2;
+    }
+
+    // Minúsculas, sin acentos y con cualquier separador convertido en un espacio
+    static String normalizar(String texto) {
+        if (texto == null) {
+            return "";
+        }
+        String descompuesto = Normalizer.normalize(texto, Normalizer.Form.NFD).toLowerCase(Locale.ROOT);
+        StringBuilder sb = new StringBuilder(descompuesto.length());
+        boolean separador = false;
+        for (int i = 0; i < descompuesto.length(); i++) {
+            char c = descompuesto.charAt(i);
+            if ((c >= 'a' && c <= 'z') || (c >= '0' && c <= '9')) {
+                if (separador && sb.length() > 0) {
+                    sb.append(' ');
+                }
+                sb.append(c);
+                separador = false;
+            } else if (Character.getType(c) != Character.NON_SPACING_MARK) {
+                // Las tildes sueltas tras NFD se descartan sin partir la palabra
+                separador = true;
+            }
+        }
+        return sb.toString();
+    }
+
+    private static Set<String> trigramasDe(String texto) {
+        Set<String> resultado = new LinkedHashSet<>();
+        for (int i = 0; i + 3 <= texto.length(); i++) {
+            resultado.add(texto.substring(i, i + 3));
+        }
+        return resultado;
+    }
+
+    private static class Documento {
+        final Long productoId;
+        final String nombre;
+        final String codigo;
+        final String laboratorio;
+        final String categoria;
+        final String[] trigramas;
+
+        Documento(Producto producto) {
+            productoId = producto.getId();
+            nombre = normalizar(producto.getNombre());
+            codigo = normalizar(producto.getCodigo());
+            laboratorio = normalizar(producto.getLaboratorio());
+            categoria = normalizar(producto.getCategoria());
+
+            Set<String> todos = new LinkedHashSet<>();
+            for (String campo : new String[]{nombre, codigo, laboratorio, categoria}) {
+                todos.addAll(trigramasDe(campo));
+            }
+            trigramas = todos.toArray(new String[0]);
+        }
+    }
+
+    private static class Coincidencia {
+        final Documento documento;
+        final int puntuacion;
+
+        Coincidencia(Documento documento, int puntuacion) {
+            this.documento = documento;
+            this.puntuacion = puntuacion;
+        }
+    }
+
+    // Lista ordenada de números de documento (sin objetos Integer por cada entrada)
+    private static class ListaDocumentos {
+        int[] numeros = new int[4];
+        int tamano = 0;
+
+        void insertar(int numero) {
+            int posicion = Arrays.binarySearch(numeros, 0, tamano, numero);
+            if (posicion >= 0) {
+                return;
+            }
+            posicion = -posicion - 1;
+            if (tamano == numeros.length) {
+                numeros = Arrays.copyOf(numeros, tamano * 2);
+            }
+            System.arraycopy(numeros, posicion, numeros, posicion + 1, tamano - posicion);
+            numeros[posicion] = numero;
+            tamano++;
+        }
+
+        void eliminar(int numero) {
+            int posicion = Arrays.binarySearch(numeros, 0, tamano, numero);
+            if (posicion < 0) {
+                return;
+            }
+            System.arraycopy(numeros, posicion + 1, numeros, posicion, tamano - posicion - 1);
+            tamano--;
+        }
+
+        // Números presentes a la vez en esta lista y en candidatos (ambos ordenados)
+        int[] intersectar(int[] candidatos) {
+            int[] resultado = new int[Math.min(candidatos.length, tamano)];
+            int i = 0, j = 0, n = 0;
+            while (i < candidatos.length && j < tamano) {
+                if (candidatos[i] < numeros[j]) {
+                    i++;
+                } else if (candidatos[i] > numeros[j]) {
+                    j++;
+                } else {
+                    resultado[n++] = candidatos[i];
+                    i++;
+                    j++;
+                }
+            }
+            return Arrays.copyOf(resultado, n);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.farmacia.service;
+
+import com.farmacia.model.Producto;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Índice en memoria de los productos del catálogo por fecha de vencimiento: un
+ * cubo por día con los IDs de los productos que vencen ese día.
+ *
+ * "Vencidos", "vencen en los próximos N días" y sus recuentos recorren solo los
+ * cubos del rango pedido, no el catálogo entero. Los cubos van por fecha absoluta,
+ * así el cambio de día no obliga a reconstruir nada: basta con consultar con la
+ * fecha de hoy.
+ *
+ * No es seguro para hilos: ProductoService lo usa siempre bajo el mismo cerrojo
+ * que la caché del catálogo.
+ */
+class IndiceVencimientos {
+
+    private final NavigableMap<LocalDate, Set<Long>> productosPorDia = new TreeMap<>();
+    private final Map<Long, LocalDate> fechaPorProducto = new HashMap<>();
+
+    // Añadir o reemplazar un producto en el índice (sin fecha de vencimiento no se indexa)
+    void indexar(Producto producto) {
+        quitar(producto.getId());
+        if (producto.getFechaVencimiento() == null) {
+            return;
+        }
+        fechaPorProducto.put(producto.getId(), producto.getFechaVencimiento());
+        productosPorDia.computeIfAbsent(producto.getFechaVencimiento(), f -> new TreeSet<>()).add(producto.getId());
+    }
+
+    // Quitar un producto del índice (si no está no hace nada)
+    void quitar(Long productoId) {
+        LocalDate fecha = fechaPorProducto.remove(productoId);
+        if (fecha == null) {
+            return;
+        }
+        Set<Long> cubo = productosPorDia.get(fecha);
+        cubo.remove(productoId);
+        if (cubo.isEmpty()) {
+            productosPorDia.remove(fecha);
+        }
+    }
+
+    void vaciar() {
+        productosPorDia.clear();
+        fechaPorProducto.clear();
+    }
+
+    // IDs de los productos que vencen antes de la fecha (sin incluirla), por fecha de vencimiento
+    List<Long> venceAntesDe(LocalDate fecha) {
+        return ids(productosPorDia.headMap(fecha, false));
+    }
+
+    // IDs de los productos que vencen entre las dos fechas (ambas incluidas), por fecha de vencimiento
+    List<Long> venceEntre(LocalDate desde, LocalDate hasta) {
+        if (hasta.isBefore(desde)) {
+            return new ArrayList<>();
+        }
+        return ids(productosPorDia.subMap(desde, true, hasta, true));
+    }
+
+    int contarAntesDe(LocalDate fecha) {
+        return contar(productosPorDia.headMap(fecha, false));
+    }
+
+    int contarEntre(LocalDate desde, LocalDate hasta) {
+        if (hasta.isBefore(desde)) {
+            return 0;
+        }
+        return contar(productosPorDia.subMap(desde, true, hasta, true));
+    }
+
+    private static List<Long> ids(Map<LocalDate, Set<Long>> cubos) {
+        List<Long> resultado = new ArrayList<>();
+        for (Set<Long> cubo : cubos.values()) {
+            resultado.addAll(cubo);
+        }
+        return resultado;
+    }
+
+    private static int contar(Map<LocalDate, Set<Long>> cubos) {
+        int total = 0;
+        for (Set<Long> cubo : cubos.values()) {
+            total += cubo.size();
+        }
+        return total;
+    }
+}
@@ -0,0 +1,492 @@
+package com.farmacia.service;
+
+import com.farmacia.model.AsignacionLote;
+import com.farmacia.model.DetalleVenta;
+import com.farmacia.model.Lote;
+import com.farmacia.model.Venta;
+import com.farmacia.repository.AsignacionLoteRepository;
+import com.farmacia.repository.LoteRepository;
+import com.farmacia.repository.ProductoRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.ConcurrencyFailureException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.LocalDate;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Stock por lotes y asignación FEFO (primero en vencer, primero en salir).
+ *
+ * Producto.stock sigue siendo el total y lo descuentan las ventas con su UPDATE
+ * condicional; este servicio reparte esas mismas unidades entre los lotes.
+ *
+ * Los lotes con unidades de cada producto se guardan en memoria en orden FEFO, así
+ * asignar una venta solo recorre los lotes que consume. La memoria es una vista: la
+ * venta se escribe con un único lote JDBC de UPDATE condicionales (cantidad >= n) y,
+ * si alguno no se aplica porque otra venta se llevó esas unidades, se releen de la
+ * base de datos los lotes de ese producto y se reparte lo que falta. Los cambios
+ * pasan a la memoria al confirmar la transacción; si se revierte, los productos
+ * afectados se descartan y se vuelven a leer cuando hagan falta. Los productos que
+ * cambian desde otro equipo (lotes recibidos o vendidos allí) también se descartan
+ * cuando ProductoService.revalidarCatalogo ve su versión nueva.
+ *
+ * Si los lotes de un producto no cubren lo que se descuenta de su stock, la operación
+ * falla y se revierte entera: nunca sale stock del producto sin salir de un lote.
+ */
+@Service
+@Transactional
+public class LoteService {
+
+    private static final String SQL_DESCONTAR = "UPDATE lotes SET cantidad = cantidad - ? WHERE id = ? AND cantidad >= ?";
+    private static final String SQL_REPONER = "UPDATE lotes SET cantidad = cantidad + ? WHERE id = ?";
+    private static final String SQL_ENTRADA =
+            "UPDATE lotes SET cantidad = cantidad + ?, fecha_vencimiento = COALESCE(CAST(? AS DATE), fecha_vencimiento) WHERE id = ?";
+
+    // Vueltas de relectura cuando otra venta se ha llevado las unidades de un lote
+    private static final int MAX_RELECTURAS = 3;
+
+    // Vencimiento más cercano primero; los lotes sin fecha al final
+    private static final Comparator<LoteDisponible> ORDEN_FEFO = Comparator
+            .comparing((LoteDisponible l) -> l.fechaVencimiento, Comparator.nullsLast(Comparator.naturalOrder()))
+            .thenComparing(l -> l.id);
+
+    // Clave de los cambios de lotes de la transacción en curso
+    private static final Object CLAVE_CAMBIOS = new Object();
+
+    // Lotes con unidades de cada producto, en orden FEFO (se cargan la primera vez que se piden)
+    private final Map<Long, TreeSet<LoteDisponible>> lotesPorProducto = new ConcurrentHashMap<>();
+
+    @Autowired
+    private LoteRepository loteRepository;
+
+    @Autowired
+    private AsignacionLoteRepository asignacionRepository;
+
+    @Autowired
+    private ProductoRepository productoRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    // Repartir por FEFO las unidades de una venta ya guardada (sus líneas deben tener ID)
+    // y apuntar de qué lote sale cada línea
+    public void asignarVenta(Venta venta) {
+        Map<Long, Integer> cantidades = new LinkedHashMap<>();
+        for (DetalleVenta detalle : venta.getDetalles()) {
+            cantidades.merge(detalle.getProducto().getId(), detalle.getCantidad(), Integer::sum);
+        }
+        Map<Long, Deque<Asignacion>> asignaciones = descontarFefo(cantidades);
+
+        // Las asignaciones de un producto se reparten entre sus líneas por orden
+        List<AsignacionLote> registros = new ArrayList<>();
+        for (DetalleVenta detalle : venta.getDetalles()) {
+            Deque<Asignacion> cola = asignaciones.getOrDefault(detalle.getProducto().getId(), new ArrayDeque<>());
+            int pendiente = detalle.getCantidad();
+            while (pendiente > 0 && !cola.isEmpty()) {
+                Asignacion asignacion = cola.peek();
+                int unidades = Math.min(pendiente, asignacion.restante);
+                registros.add(new AsignacionLote(detalle.getId(), asignacion.loteId, unidades));
+                asignacion.restante -= unidades;
+                pendiente -= unidades;
+                if (asignacion.restante == 0) {
+                    cola.poll();
+                }
+            }
+        }
+        asignacionRepository.saveAll(registros);
+
+        // Si la venta ha agotado un lote el vencimiento del producto pasa al siguiente. Se
+        // comprueba en la base de datos: con ventas a la vez, el plan en memoria no sabe
+        // cuál de ellas deja el lote a cero (el UPDATE solo escribe si la fecha cambia)
+        sincronizarVencimientos(asignaciones.keySet());
+    }
+
+    // Devolver a sus lotes las unidades de una venta anulada. Las líneas sin asignaciones
+    // (ventas anteriores a los lotes) vuelven al lote sin número del producto sin cambiar
+    // su vencimiento
+    public void devolverVenta(Venta venta) {
+        Map<Long, DetalleVenta> detalles = new HashMap<>();
+        for (DetalleVenta detalle : venta.getDetalles()) {
+            detalles.put(detalle.getId(), detalle);
+        }
+        Map<Long, Integer> devuelto = new HashMap<>();
+        List<Object[]> reposiciones = new ArrayList<>();
+        for (AsignacionLote asignacion : asignacionRepository.findByDetalleVentaIdIn(detalles.keySet())) {
+            reposiciones.add(new Object[]{asignacion.getCantidad(), asignacion.getLoteId()});
+            devuelto.merge(asignacion.getDetalleVentaId(), asignacion.getCantidad(), Integer::sum);
+        }
+        if (!reposiciones.isEmpty()) {
+            jdbcTemplate.batchUpdate(SQL_REPONER, reposiciones);
+        }
+
+        List<EntradaLote> sinAsignar = new ArrayList<>();
+        Set<Long> productos = new HashSet<>();
+        for (DetalleVenta detalle : venta.getDetalles()) {
+            Long productoId = detalle.getProducto().getId();
+            productos.add(productoId);
+            int resto = detalle.getCantidad() - devuelto.getOrDefault(detalle.getId(), 0);
+            if (resto > 0) {
+                sinAsignar.add(new EntradaLote(productoId, Lote.SIN_NUMERO, null, resto));
+            }
+        }
+        registrarEntradas(sinAsignar);
+        cambiosDeLaTransaccion().descartar.addAll(productos);
+        sincronizarVencimientos(productos);
+    }
+
+    // Entradas de unidades en lotes (recepción de pedidos, ajustes): si el producto ya tiene un
+    // lote con ese número se suman a él (y se actualiza su vencimiento si viene), si no se crea
+    public void registrarEntradas(List<EntradaLote> entradas) {
+        if (entradas.isEmpty()) {
+            return;
+        }
+        Set<Long> productos = new HashSet<>();
+        Set<String> numeros = new HashSet<>();
+        for (EntradaLote entrada : entradas) {
+            productos.add(entrada.productoId);
+            numeros.add(entrada.numeroLote);
+        }
+        Map<String, Long> existentes = new HashMap<>();
+        for (Object[] fila : loteRepository.findIdsByProductoIdInAndNumeroLoteIn(productos, numeros)) {
+            existentes.put(clave((Long) fila[1], (String) fila[2]), (Long) fila[0]);
+        }
+
+        // Los lotes existentes se incrementan en la base de datos (no sobre entidades leídas
+        // antes), así no se pisan las ventas que se confirmen mientras tanto
+        List<Object[]> incrementos = new ArrayList<>();
+        Map<String, Lote> nuevos = new LinkedHashMap<>();
+        for (EntradaLote entrada : entradas) {
+            Long id = existentes.get(clave(entrada.productoId, entrada.numeroLote));
+            if (id != null) {
+                incrementos.add(new Object[]{entrada.cantidad, entrada.fechaVencimiento, id});
+            } else if (entrada.cantidad > 0) {
+                Lote lote = nuevos.computeIfAbsent(clave(entrada.productoId, entrada.numeroLote),
+                        k -> new Lote(entrada.productoId, entrada.numeroLote, entrada.fechaVencimiento, 0));
+                lote.setCantidad(lote.getCantidad() + entrada.cantidad);
+                if (entrada.fechaVencimiento != null) {
+                    lote.setFechaVencimiento(entrada.fechaVencimiento);
+                }
+            }
+        }
+        if (!incrementos.isEmpty()) {
+            jdbcTemplate.batchUpdate(SQL_ENTRADA, incrementos);
+        }
+        if (!nuevos.isEmpty()) {
+            loteRepository.saveAll(nuevos.values());
+            loteRepository.flush();
+        }
+        cambiosDeLaTransaccion().descartar.addAll(productos);
+    }
+
+    // Reflejar en los lotes ajustes manuales de stock (altas, ediciones, importaciones):
+    // las entradas van al lote sin número del producto y, si traen fecha de vencimiento,
+    // se la ponen; las salidas se descuentan por FEFO. Sin entrada no se toca ningún lote.
+    // La fecha debe ser la que ha escrito el usuario, nunca el vencimiento del producto
+    // (es el mínimo de sus lotes). No toca el producto: quien hace el ajuste guarda su
+    // versión y después llama a sincronizarVencimientos
+    public void ajustarStock(List<AjusteLote> ajustes) {
+        List<EntradaLote> entradas = new ArrayList<>();
+        Map<Long, Integer> salidas = new LinkedHashMap<>();
+        for (AjusteLote ajuste : ajustes) {
+            if (ajuste.diferencia > 0) {
+                entradas.add(new EntradaLote(ajuste.productoId, Lote.SIN_NUMERO, ajuste.fechaVencimiento,
+                        ajuste.diferencia));
+            }
+            if (ajuste.diferencia < 0) {
+                salidas.merge(ajuste.productoId, -ajuste.diferencia, Integer::sum);
+            }
+        }
+        registrarEntradas(entradas);
+        if (!salidas.isEmpty()) {
+            descontarFefo(salidas);
+        }
+    }
+
+    public void ajustarStock(Long productoId, int diferencia, LocalDate fechaVencimiento) {
+        ajustarStock(List.of(new AjusteLote(productoId, diferencia, fechaVencimiento)));
+    }
+
+    // Poner en cada producto el vencimiento de su lote con unidades que vence antes
+    public void sincronizarVencimientos(Collection<Long> productoIds) {
+        if (!productoIds.isEmpty()) {
+            productoRepository.actualizarVencimientoDesdeLotes(productoIds);
+        }
+    }
+
+    // Descartar la vista en memoria de productos cambiados desde otro equipo: la memoria no
+    // conoce los lotes que se hayan creado allí y el orden FEFO podría saltarse uno que vence antes
+    public void descartarVistas(Collection<Long> productoIds) {
+        lotesPorProducto.keySet().removeAll(productoIds);
+    }
+
+    // Lotes de un producto (también los agotados), del que vence antes al que vence después
+    public List<Lote> obtenerLotes(Long productoId) {
+        return loteRepository.findByProductoIdOrderByFechaVencimientoAscIdAsc(productoId);
+    }
+
+    // Crear el lote sin número con el stock actual de los productos que aún no tienen lotes,
+    // para que la suma de los lotes cuadre con Producto.stock. Devuelve el número de productos
+    public int crearLotesIniciales() {
+        List<Lote> lotes = new ArrayList<>();
+        for (Object[] fila : loteRepository.findProductosSinLotes()) {
+            lotes.add(new Lote((Long) fila[0], Lote.SIN_NUMERO, (LocalDate) fila[2], (Integer) fila[1]));
+        }
+        loteRepository.saveAll(lotes);
+        return lotes.size();
+    }
+
+    // Descontar por FEFO las unidades pedidas de cada producto con un lote JDBC de UPDATE
+    // condicionales. Devuelve, por producto, de qué lotes han salido. Falla (y la transacción
+    // se revierte) si los lotes leídos de la base de datos no cubren la cantidad, o si otras
+    // ventas se siguen llevando las unidades tras todas las relecturas
+    private Map<Long, Deque<Asignacion>> descontarFefo(Map<Long, Integer> cantidades) {
+        CambiosLotes cambios = cambiosDeLaTransaccion();
+        Map<Long, Deque<Asignacion>> resultado = new HashMap<>();
+        Map<Long, Integer> pendientes = new LinkedHashMap<>(cantidades);
+
+        for (int vuelta = 0; !pendientes.isEmpty() && vuelta <= MAX_RELECTURAS; vuelta++) {
+            List<Asignacion> plan = new ArrayList<>();
+            Map<Long, Integer> faltan = new LinkedHashMap<>();
+            for (Map.Entry<Long, Integer> pendiente : pendientes.entrySet()) {
+                Long productoId = pendiente.getKey();
+                // La primera vuelta usa la memoria; las siguientes releen la base de datos
+                // (que ya incluye lo descontado en esta transacción)
+                int sinLote = vuelta == 0
+                        ? planificarDesdeMemoria(productoId, pendiente.getValue(), cambios, plan)
+                        : planificar(productoId, cargarLotes(productoId), pendiente.getValue(), null, plan);
+                if (sinLote > 0) {
+                    faltan.put(productoId, sinLote);
+                }
+            }
+
+            // Orden por ID de lote: dos ventas a la vez bloquean las filas en el mismo orden
+            plan.sort(Comparator.comparing(a -> a.loteId));
+            List<Object[]> argumentos = new ArrayList<>(plan.size());
+            for (Asignacion asignacion : plan) {
+                argumentos.add(new Object[]{asignacion.cantidad, asignacion.loteId, asignacion.cantidad});
+            }
+            int[] filas = plan.isEmpty() ? new int[0] : jdbcTemplate.batchUpdate(SQL_DESCONTAR, argumentos);
+
+            pendientes = new LinkedHashMap<>();
+            for (int i = 0; i < plan.size(); i++) {
+                Asignacion asignacion = plan.get(i);
+                if (filas[i] == 0) {
+                    // Otra transacción se ha llevado esas unidades: releer el producto
+                    pendientes.merge(asignacion.productoId, asignacion.cantidad, Integer::sum);
+                    cambios.descartar.add(asignacion.productoId);
+                    continue;
+                }
+                resultado.computeIfAbsent(asignacion.productoId, k -> new ArrayDeque<>()).add(asignacion);
+                if (asignacion.lote != null) {
+                    cambios.descontado.merge(asignacion.lote, asignacion.cantidad, Integer::sum);
+                }
+            }
+            for (Map.Entry<Long, Integer> falta : faltan.entrySet()) {
+                if (vuelta == 0) {
+                    // La memoria puede no tener lotes creados desde otro equipo
+                    pendientes.merge(falta.getKey(), falta.getValue(), Integer::sum);
+                    cambios.descartar.add(falta.getKey());
+                } else {
+                    // Los lotes no cuadran con el stock del producto: no se descuenta sin lote
+                    throw new IllegalStateException("Lotes insuficientes para el producto " + falta.getKey()
+                            + ": faltan " + falta.getValue() + " unidades en sus lotes");
+                }
+            }
+        }
+        if (!pendientes.isEmpty()) {
+            // Conflicto con otras ventas: quien reintenta (ReintentosConcurrencia) lo vuelve a probar
+            throw new ConcurrencyFailureException("No se pudieron asignar lotes tras " + MAX_RELECTURAS
+                    + " relecturas: " + pendientes);
+        }
+        return resultado;
+    }
+
+    // Planificar desde la vista en memoria del producto, descontando lo ya asignado en esta
+    // transacción (la memoria no cambia hasta confirmar). Devuelve las unidades sin lote
+    private int planificarDesdeMemoria(Long productoId, int cantidad, CambiosLotes cambios, List<Asignacion> plan) {
+        TreeSet<LoteDisponible> lotes = cambios.vistas.get(productoId);
+        if (lotes == null) {
+            lotes = lotesPorProducto.get(productoId);
+            if (lotes == null) {
+                lotes = new TreeSet<>(ORDEN_FEFO);
+                lotes.addAll(cargarLotes(productoId));
+                // Si esta transacción ya ha tocado los lotes del producto, lo leído incluye
+                // cambios sin confirmar y no se comparte
+                if (!cambios.descartar.contains(productoId)) {
+                    TreeSet<LoteDisponible> previos = lotesPorProducto.putIfAbsent(productoId, lotes);
+                    if (previos != null) {
+                        lotes = previos;
+                    }
+                }
+            }
+            cambios.vistas.put(productoId, lotes);
+        }
+        synchronized (lotes) {
+            return planificar(productoId, lotes, cantidad, cambios.descontado, plan);
+        }
+    }
+
+    // Recorrer los lotes en orden FEFO hasta cubrir la cantidad. Devuelve las unidades sin lote
+    private static int planificar(Long productoId, Collection<LoteDisponible> lotes, int cantidad,
+                                  Map<LoteDisponible, Integer> yaDescontado, List<Asignacion> plan) {
+        int pendiente = cantidad;
+        for (LoteDisponible lote : lotes) {
+            if (pendiente == 0) {
+                break;
+            }
+            int disponible = lote.cantidad - (yaDescontado != null ? yaDescontado.getOrDefault(lote, 0) : 0);
+            if (disponible <= 0) {
+                continue;
+            }
+            int unidades = Math.min(pendiente, disponible);
+            plan.add(new Asignacion(productoId, yaDescontado != null ? lote : null, lote.id, unidades));
+            pendiente -= unidades;
+        }
+        return pendiente;
+    }
+
+    // Lotes con unidades de un producto leídos de la base de datos, en orden FEFO.
+    // Se leen como valores y no como entidades: las entidades ya cargadas en la sesión
+    // no verían los UPDATE hechos por JDBC
+    private List<LoteDisponible> cargarLotes(Long productoId) {
+        List<LoteDisponible> lotes = new ArrayList<>();
+        for (Object[] fila : loteRepository.findDisponiblesByProductoId(productoId)) {
+            lotes.add(new LoteDisponible((Long) fila[0], (LocalDate) fila[1], (Integer) fila[2]));
+        }
+        lotes.sort(ORDEN_FEFO);
+        return lotes;
+    }
+
+    // Cambios de lotes de la transacción en curso; se aplican a la memoria al terminar
+    private CambiosLotes cambiosDeLaTransaccion() {
+        CambiosLotes cambios = (CambiosLotes) TransactionSynchronizationManager.getResource(CLAVE_CAMBIOS);
+        if (cambios != null) {
+            return cambios;
+        }
+        CambiosLotes nuevos = new CambiosLotes();
+        TransactionSynchronizationManager.bindResource(CLAVE_CAMBIOS, nuevos);
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int estado) {
+                TransactionSynchronizationManager.unbindResourceIfPossible(CLAVE_CAMBIOS);
+                aplicar(nuevos, estado == STATUS_COMMITTED);
+            }
+        });
+        return nuevos;
+    }
+
+    // Al confirmar, restar lo descontado de las vistas que siguen en memoria; si la vista ha
+    // cambiado mientras tanto, o la transacción se ha revertido, descartar el producto
+    private void aplicar(CambiosLotes cambios, boolean confirmada) {
+        Set<Long> afectados = new HashSet<>(cambios.descartar);
+        afectados.addAll(cambios.vistas.keySet());
+        for (Long productoId : afectados) {
+            TreeSet<LoteDisponible> vista = cambios.vistas.get(productoId);
+            TreeSet<LoteDisponible> actual = lotesPorProducto.get(productoId);
+            if (!confirmada || cambios.descartar.contains(productoId) || vista == null || actual != vista) {
+                lotesPorProducto.remove(productoId);
+                continue;
+            }
+            synchronized (vista) {
+                for (Map.Entry<LoteDisponible, Integer> descontado : cambios.descontado.entrySet()) {
+                    LoteDisponible lote = descontado.getKey();
+                    if (vista.contains(lote)) {
+                        lote.cantidad -= descontado.getValue();
+                        if (lote.cantidad <= 0) {
+                            vista.remove(lote);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static String clave(Long productoId, String numeroLote) {
+        return productoId + "|" + numeroLote;
+    }
+
+    // Lote con unidades en la vista en memoria (la cantidad cambia; la fecha y el ID, que
+    // fijan su posición en el orden FEFO, no)
+    private static class LoteDisponible {
+        private final Long id;
+        private final LocalDate fechaVencimiento;
+        private int cantidad;
+
+        LoteDisponible(Long id, LocalDate fechaVencimiento, int cantidad) {
+            this.id = id;
+            this.fechaVencimiento = fechaVencimiento;
+            this.cantidad = cantidad;
+        }
+    }
+
+    // Unidades de un producto que salen de un lote
+    private static class Asignacion {
+        private final Long productoId;
+        private final LoteDisponible lote;
+        private final Long loteId;
+        private final int cantidad;
+        private int restante;
+
+        Asignacion(Long productoId, LoteDisponible lote, Long loteId, int cantidad) {
+            this.productoId = productoId;
+            this.lote = lote;
+            this.loteId = loteId;
+            this.cantidad = cantidad;
+            this.restante = cantidad;
+        }
+    }
+
+    // Lo que una transacción ha hecho con los lotes
+    private static class CambiosLotes {
+        // Vista en memoria usada por cada producto (para comprobar al confirmar que sigue siendo la misma)
+        private final Map<Long, TreeSet<LoteDisponible>> vistas = new HashMap<>();
+        // Unidades descontadas de cada lote de las vistas
+        private final Map<LoteDisponible, Integer> descontado = new HashMap<>();
+        // Productos que hay que volver a leer de la base de datos al terminar
+        private final Set<Long> descartar = new HashSet<>();
+    }
+
+    // Entrada de unidades en un lote
+    public static class EntradaLote {
+        private final Long productoId;
+        private final String numeroLote;
+        private final LocalDate fechaVencimiento;
+        private final int cantidad;
+
+        public EntradaLote(Long productoId, String numeroLote, LocalDate fechaVencimiento, int cantidad) {
+            this.productoId = productoId;
+            this.numeroLote = numeroLote;
+            this.fechaVencimiento = fechaVencimiento;
+            this.cantidad = cantidad;
+        }
+    }
+
+    // Ajuste manual del stock de un producto (diferencia con signo)
+    public static class AjusteLote {
+        private final Long productoId;
+        private final int diferencia;
+        private final LocalDate fechaVencimiento;
+
+        public AjusteLote(Long productoId, int diferencia, LocalDate fechaVencimiento) {
+            this.productoId = productoId;
+            this.diferencia = diferencia;
+            this.fechaVencimiento = fechaVencimiento;
+        }
+    }
+}
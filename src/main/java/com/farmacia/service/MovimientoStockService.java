@@ -0,0 +1,183 @@
+package com.farmacia.service;
+
+import com.farmacia.model.MovimientoStock;
+import com.farmacia.model.MovimientoStock.TipoMovimiento;
+import com.farmacia.model.SnapshotStock;
+import com.farmacia.repository.MovimientoStockRepository;
+import com.farmacia.repository.ProductoRepository;
+import com.farmacia.repository.SnapshotStockRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Libro de movimientos de stock (solo inserciones) y sus snapshots periódicos.
+ *
+ * Producto.stock sigue siendo el nivel actual que usan ventas y pedidos (con sus
+ * UPDATE atómicos); cada cambio apunta además un movimiento en la misma transacción.
+ * Los snapshots permiten calcular el stock en una fecha y conciliar sin recorrer todo
+ * el histórico: último snapshot + movimientos desde él. La conciliación se hace tras
+ * cada snapshot programado.
+ */
+@Service
+@Transactional
+public class MovimientoStockService {
+
+    // Los snapshots se toman con un corte algo anterior al momento actual, para que los
+    // movimientos de transacciones todavía abiertas no queden fuera del snapshot
+    private static final Duration MARGEN_CORTE = Duration.ofMinutes(5);
+
+    // Anterior a cualquier movimiento (se fechan al insertarse)
+    private static final LocalDateTime SIN_SNAPSHOTS = LocalDateTime.of(2000, 1, 1, 0, 0);
+
+    @Autowired
+    private MovimientoStockRepository movimientoRepository;
+
+    @Autowired
+    private SnapshotStockRepository snapshotRepository;
+
+    @Autowired
+    private ProductoRepository productoRepository;
+
+    // Apuntar un movimiento (cantidad con signo: positiva si entra stock)
+    public void registrar(Long productoId, TipoMovimiento tipo, int cantidad, String referencia) {
+        if (cantidad == 0) {
+            return;
+        }
+        movimientoRepository.save(new MovimientoStock(productoId, tipo, cantidad, referencia));
+    }
+
+    // Movimientos de un producto en [desde, hasta)
+    public List<MovimientoStock> obtenerMovimientos(Long productoId, LocalDateTime desde, LocalDateTime hasta) {
+        return movimientoRepository.findMovimientosEntre(productoId, desde, hasta);
+    }
+
+    // Stock de un producto justo antes de una fecha: último snapshot con corte no posterior
+    // más los movimientos desde él hasta la fecha (dos lecturas por rango, sin recorrer el histórico)
+    @Transactional(readOnly = true)
+    public int obtenerStockEnFecha(Long productoId, LocalDateTime fecha) {
+        Optional<SnapshotStock> snapshot = snapshotRepository
+                .findFirstByProductoIdAndFechaLessThanEqualOrderByFechaDesc(productoId, fecha);
+        LocalDateTime desde = snapshot.map(SnapshotStock::getFecha).orElse(SIN_SNAPSHOTS);
+        int base = snapshot.map(SnapshotStock::getStock).orElse(0);
+        return base + (int) movimientoRepository.sumarEntre(productoId, desde, fecha);
+    }
+
+    // Snapshot periódico del stock (cada hora, empezando un minuto después del arranque),
+    // seguido de la conciliación con el stock de los productos
+    @Scheduled(initialDelayString = "PT1M", fixedDelayString = "${farmacia.stock.intervalo-snapshots:PT1H}")
+    public void crearSnapshotsProgramados() {
+        int creados = crearSnapshots(LocalDateTime.now().minus(MARGEN_CORTE));
+        if (creados > 0) {
+            System.out.println("✓ Snapshots de stock creados: " + creados);
+        }
+        List<DiferenciaStock> diferencias = conciliar();
+        if (!diferencias.isEmpty()) {
+            DiferenciaStock primera = diferencias.get(0);
+            System.out.println("⚠ " + diferencias.size() + " productos no cuadran con el libro de movimientos"
+                    + " (producto " + primera.getProductoId() + ": stock " + primera.getStockProducto()
+                    + ", libro " + primera.getStockLibro() + ")");
+        }
+    }
+
+    // Crear un snapshot con el corte indicado para cada producto con movimientos desde el último.
+    // Devuelve el número de snapshots creados
+    public int crearSnapshots(LocalDateTime corte) {
+        LocalDateTime ultimoCorte = snapshotRepository.findUltimoCorte();
+        if (ultimoCorte != null && !corte.isAfter(ultimoCorte)) {
+            throw new IllegalArgumentException("El corte debe ser posterior al último snapshot: " + ultimoCorte);
+        }
+
+        Map<Long, Integer> ultimosSnapshots = stockEnUltimosSnapshots();
+        List<SnapshotStock> nuevos = new ArrayList<>();
+        for (Object[] fila : movimientoRepository.sumarDesdeUltimoSnapshot(desdeCorte(ultimoCorte), corte)) {
+            Long productoId = (Long) fila[0];
+            int stock = ultimosSnapshots.getOrDefault(productoId, 0) + ((Number) fila[1]).intValue();
+            nuevos.add(new SnapshotStock(productoId, corte, stock));
+        }
+        snapshotRepository.saveAll(nuevos);
+        return nuevos.size();
+    }
+
+    // Comparar el stock de cada producto con el que resulta del libro de movimientos.
+    // Devuelve solo los productos que no cuadran
+    public List<DiferenciaStock> conciliar() {
+        Map<Long, Long> segunLibro = new HashMap<>();
+        stockEnUltimosSnapshots().forEach((id, stock) -> segunLibro.put(id, stock.longValue()));
+        // Ningún movimiento tiene fecha futura: el corte de mañana los incluye todos
+        LocalDateTime ultimoCorte = snapshotRepository.findUltimoCorte();
+        for (Object[] fila : movimientoRepository.sumarDesdeUltimoSnapshot(desdeCorte(ultimoCorte),
+                LocalDateTime.now().plusDays(1))) {
+            segunLibro.merge((Long) fila[0], ((Number) fila[1]).longValue(), Long::sum);
+        }
+
+        List<DiferenciaStock> diferencias = new ArrayList<>();
+        for (Object[] fila : productoRepository.findIdYStock()) {
+            Long productoId = (Long) fila[0];
+            long stockProducto = (Integer) fila[1];
+            long stockLibro = segunLibro.getOrDefault(productoId, 0L);
+            if (stockProducto != stockLibro) {
+                diferencias.add(new DiferenciaStock(productoId, stockProducto, stockLibro));
+            }
+        }
+        return diferencias;
+    }
+
+    // Apuntar un ajuste con el stock actual de los productos que aún no tienen movimientos,
+    // para que el libro cuadre con Producto.stock. Devuelve el número de productos
+    public int registrarSaldosIniciales() {
+        List<MovimientoStock> saldos = new ArrayList<>();
+        for (Object[] fila : movimientoRepository.findProductosSinMovimientos()) {
+            saldos.add(new MovimientoStock((Long) fila[0], TipoMovimiento.AJUSTE, (Integer) fila[1], "Saldo inicial"));
+        }
+        movimientoRepository.saveAll(saldos);
+        return saldos.size();
+    }
+
+    // Inicio del tramo sin snapshot: el último corte, o todo el libro si aún no hay snapshots
+    private static LocalDateTime desdeCorte(LocalDateTime ultimoCorte) {
+        return ultimoCorte != null ? ultimoCorte : SIN_SNAPSHOTS;
+    }
+
+    private Map<Long, Integer> stockEnUltimosSnapshots() {
+        Map<Long, Integer> stock = new HashMap<>();
+        for (SnapshotStock snapshot : snapshotRepository.findUltimosPorProducto()) {
+            stock.put(snapshot.getProductoId(), snapshot.getStock());
+        }
+        return stock;
+    }
+
+    // Producto cuyo stock no coincide con el libro de movimientos
+    public static class DiferenciaStock {
+        private final Long productoId;
+        private final long stockProducto;
+        private final long stockLibro;
+
+        public DiferenciaStock(Long productoId, long stockProducto, long stockLibro) {
+            this.productoId = productoId;
+            this.stockProducto = stockProducto;
+            this.stockLibro = stockLibro;
+        }
+
+        public Long getProductoId() {
+            return productoId;
+        }
+
+        public long getStockProducto() {
+            return stockProducto;
+        }
+
+        public long getStockLibro() {
+            return stockLibro;
+        }
+    }
+}
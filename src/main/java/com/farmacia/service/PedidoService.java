@@ -1,6 +1,7 @@
 package com.farmacia.service;
 
 import com.farmacia.model.DetallePedido;
+import com.farmacia.model.MovimientoStock.TipoMovimiento;
 import com.farmacia.model.Pedido;
 import com.farmacia.model.Pedido.EstadoPedido;
 import com.farmacia.model.Producto;
@@ -9,11 +10,16 @@ import com.farmacia.repository.PedidoRepository;
 import com.farmacia.repository.ProductoRepository;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 
 @Service
 @Transactional
@@ -25,96 +31,115 @@ public class PedidoService {
     @Autowired
     private ProductoRepository productoRepository;
 
+    @Autowired
+    private ProductoService productoService;
+
+    @Autowired
+    private MovimientoStockService movimientoStockService;
+
+    @Autowired
+    private ReintentosConcurrencia reintentos;
+
+    @Autowired
+    private LoteService loteService;
+
+    @Autowired
+    private AlertaService alertaService;
+
     // Crear pedido
     public Pedido crearPedido(Pedido pedido) {
         validarPedido(pedido);
         pedido.setEstado(EstadoPedido.BORRADOR);
         pedido.calcularTotal();
-        return pedidoRepository.save(pedido);
+        Pedido guardado = pedidoRepository.save(pedido);
+        alertaService.pedidoCambiado(guardado.getId());
+        return guardado;
     }
 
     // Actualizar pedido
     public Pedido actualizar(Pedido pedido) {
         validarPedido(pedido);
         pedido.calcularTotal();
-        return pedidoRepository.save(pedido);
+        Pedido guardado = pedidoRepository.save(pedido);
+        alertaService.pedidoCambiado(guardado.getId());
+        return guardado;
     }
 
     // Obtener todos los pedidos activos
     public List<Pedido> obtenerTodosActivos() {
-        List<Pedido> pedidos = pedidoRepository.findByActivoTrueOrderByFechaPedidoDesc();
-        // Inicializar detalles
-        pedidos.forEach(p -> p.getDetalles().size());
-        return pedidos;
+        // Proveedor, detalles y productos llegan en la misma consulta (grafo Pedido.conDetalles)
+        return pedidoRepository.findByActivoTrueOrderByFechaPedidoDesc();
     }
 
     // Obtener pedido por ID
     public Optional<Pedido> obtenerPorId(Long id) {
-        Optional<Pedido> pedidoOpt = pedidoRepository.findById(id);
-        pedidoOpt.ifPresent(p -> p.getDetalles().size()); // Inicializar detalles
-        return pedidoOpt;
+        return pedidoRepository.findConDetallesById(id);
     }
 
     // Obtener por número de pedido
     public Optional<Pedido> obtenerPorNumeroPedido(String numeroPedido) {
-        Optional<Pedido> pedidoOpt = pedidoRepository.findByNumeroPedido(numeroPedido);
-        pedidoOpt.ifPresent(p -> p.getDetalles().size());
-        return pedidoOpt;
+        return pedidoRepository.findByNumeroPedido(numeroPedido);
     }
 
     // Obtener pedidos por proveedor
     public List<Pedido> obtenerPorProveedor(Proveedor proveedor) {
-        List<Pedido> pedidos = pedidoRepository.findByProveedorAndActivoTrueOrderByFechaPedidoDesc(proveedor);
-        pedidos.forEach(p -> p.getDetalles().size());
-        return pedidos;
+        return pedidoRepository.findByProveedorAndActivoTrueOrderByFechaPedidoDesc(proveedor);
     }
 
     // Obtener pedidos por estado
     public List<Pedido> obtenerPorEstado(EstadoPedido estado) {
-        List<Pedido> pedidos = pedidoRepository.findByEstadoAndActivoTrueOrderByFechaPedidoDesc(estado);
-        pedidos.forEach(p -> p.getDetalles().size());
-        return pedidos;
+        return pedidoRepository.findByEstadoAndActivoTrueOrderByFechaPedidoDesc(estado);
     }
 
     // Obtener pedidos pendientes
     public List<Pedido> obtenerPendientes() {
-        List<Pedido> pedidos = pedidoRepository.findPedidosPendientes();
-        pedidos.forEach(p -> p.getDetalles().size());
-        return pedidos;
+        return pedidoRepository.findPedidosPendientesConDetalles();
     }
 
     // Obtener últimos pedidos
     public List<Pedido> obtenerUltimosPedidos() {
         List<Pedido> pedidos = pedidoRepository.findTop10ByActivoTrueOrderByFechaPedidoDesc();
+        // Con LIMIT no se usa el grafo; los detalles se cargan por lotes (default_batch_fetch_size)
         pedidos.forEach(p -> p.getDetalles().size());
         return pedidos;
     }
 
-    // Cambiar estado del pedido
+    // Cambiar estado del pedido. Al recibirlo se repone stock, así que cada intento va en su
+    // propia transacción y se reintenta si choca con otra escritura sobre el pedido
+    @Transactional(propagation = Propagation.SUPPORTS)
     public void cambiarEstado(Long id, EstadoPedido nuevoEstado) {
-        Optional<Pedido> pedidoOpt = pedidoRepository.findById(id);
-        if (pedidoOpt.isPresent()) {
-            Pedido pedido = pedidoOpt.get();
-            pedido.setEstado(nuevoEstado);
-            
-            // Si el estado es RECIBIDO, actualizar el stock
-            if (nuevoEstado == EstadoPedido.RECIBIDO) {
-                pedido.setFechaEntregaReal(LocalDateTime.now());
-                actualizarStockAlRecibir(pedido);
+        reintentos.ejecutar("PedidoService.cambiarEstado", () -> {
+            Optional<Pedido> pedidoOpt = pedidoRepository.findById(id);
+            if (pedidoOpt.isPresent()) {
+                Pedido pedido = pedidoOpt.get();
+                // Tras un reintento el pedido puede haberlo recibido ya otro usuario
+                if (nuevoEstado == EstadoPedido.RECIBIDO && pedido.getEstado() == EstadoPedido.RECIBIDO) {
+                    throw new IllegalStateException("El pedido " + pedido.getNumeroPedido() + " ya está recibido");
+                }
+                pedido.setEstado(nuevoEstado);
+
+                // Si el estado es RECIBIDO, actualizar el stock
+                if (nuevoEstado == EstadoPedido.RECIBIDO) {
+                    pedido.setFechaEntregaReal(LocalDateTime.now());
+                    actualizarStockAlRecibir(pedido);
+                }
+
+                pedidoRepository.save(pedido);
+                alertaService.pedidoCambiado(id);
+            } else {
+                throw new IllegalArgumentException("Pedido no encontrado con ID: " + id);
             }
-            
-            pedidoRepository.save(pedido);
-        } else {
-            throw new IllegalArgumentException("Pedido no encontrado con ID: " + id);
-        }
+        });
     }
 
     // Marcar pedido como enviado
+    @Transactional(propagation = Propagation.SUPPORTS)
     public void marcarComoEnviado(Long id) {
         cambiarEstado(id, EstadoPedido.ENVIADO);
     }
 
     // Marcar pedido como recibido
+    @Transactional(propagation = Propagation.SUPPORTS)
     public void marcarComoRecibido(Long id) {
         cambiarEstado(id, EstadoPedido.RECIBIDO);
     }
@@ -133,6 +158,7 @@ public class PedidoService {
                 pedido.setObservaciones(obsActual + "CANCELADO: " + motivo);
             }
             pedidoRepository.save(pedido);
+            alertaService.pedidoCambiado(id);
         } else {
             throw new IllegalArgumentException("Pedido no encontrado con ID: " + id);
         }
@@ -140,6 +166,8 @@ public class PedidoService {
 
     // Actualizar stock al recibir pedido
     private void actualizarStockAlRecibir(Pedido pedido) {
+        Set<Long> idsProductos = new HashSet<>();
+        List<LoteService.EntradaLote> entradas = new ArrayList<>();
         for (DetallePedido detalle : pedido.getDetalles()) {
             if (detalle.getProducto() != null) {
                 Producto producto = detalle.getProducto();
@@ -147,13 +175,29 @@ public class PedidoService {
                     ? detalle.getCantidadRecibida() 
                     : detalle.getCantidad();
                 
-                producto.setStock(producto.getStock() + cantidadRecibida);
-                productoRepository.save(producto);
+                // Incremento atómico en la base de datos y apunte en el libro de movimientos
+                productoRepository.reponerStock(producto.getId(), cantidadRecibida);
+                movimientoStockService.registrar(producto.getId(), TipoMovimiento.RECEPCION,
+                        cantidadRecibida, "Pedido " + pedido.getNumeroPedido());
                 
+                // Lote de la entrada: si la línea no trae número ni vencimiento, el número del
+                // pedido y el vencimiento que tenga el producto
+                String numeroLote = detalle.getNumeroLote() != null && !detalle.getNumeroLote().isBlank()
+                    ? detalle.getNumeroLote()
+                    : pedido.getNumeroPedido();
+                LocalDate vencimiento = detalle.getFechaVencimientoLote() != null
+                    ? detalle.getFechaVencimientoLote()
+                    : producto.getFechaVencimiento();
+                entradas.add(new LoteService.EntradaLote(producto.getId(), numeroLote, vencimiento, cantidadRecibida));
+
                 detalle.setRecibido(true);
                 detalle.setCantidadRecibida(cantidadRecibida);
+                idsProductos.add(producto.getId());
             }
         }
+        loteService.registrarEntradas(entradas);
+        loteService.sincronizarVencimientos(idsProductos);
+        productoService.sincronizarStockEnCatalogo(idsProductos);
     }
 
     // Desactivar pedido (soft delete)
@@ -163,6 +207,7 @@ public class PedidoService {
             Pedido pedido = pedidoOpt.get();
             pedido.setActivo(false);
             pedidoRepository.save(pedido);
+            alertaService.pedidoCambiado(id);
         } else {
             throw new IllegalArgumentException("Pedido no encontrado con ID: " + id);
         }
@@ -1,14 +1,38 @@
 package com.farmacia.service;
 
+import com.farmacia.model.MovimientoStock.TipoMovimiento;
 import com.farmacia.model.Producto;
+import com.farmacia.model.ResumenInventario;
+import com.farmacia.model.TotalInventarioCategoria;
 import com.farmacia.repository.ProductoRepository;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import java.math.BigDecimal;
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
 
 @Service
 @Transactional
@@ -17,6 +41,51 @@ public class ProductoService {
     @Autowired
     private ProductoRepository productoRepository;
 
+    @Autowired
+    private MovimientoStockService movimientoStockService;
+
+    @Autowired
+    private ReintentosConcurrencia reintentos;
+
+    @Autowired
+    private LoteService loteService;
+
+    // Propiedades por las que la tabla paginada del inventario puede ordenar en SQL
+    private static final Set<String> COLUMNAS_ORDENABLES = Set.of(
+            "id", "codigo", "nombre", "categoria", "precio", "stock", "stockMinimo", "fechaVencimiento", "laboratorio");
+
+    // Las mismas columnas para las búsquedas de texto, que se ordenan en memoria
+    private static final Map<String, Comparator<Producto>> ORDEN_COLUMNAS = Map.of(
+            "id", columna(Producto::getId),
+            "codigo", columna(Producto::getCodigo),
+            "nombre", columna(Producto::getNombre),
+            "categoria", columna(Producto::getCategoria),
+            "precio", columna(Producto::getPrecio),
+            "stock", columna(Producto::getStock),
+            "stockMinimo", columna(Producto::getStockMinimo),
+            "fechaVencimiento", columna(Producto::getFechaVencimiento),
+            "laboratorio", columna(Producto::getLaboratorio));
+
+    // Caché del catálogo de productos activos, por ID (ordenado) y por código.
+    // Se carga la primera vez que se pide y después se mantiene con cada escritura
+    // confirmada de este proceso; las de otros terminales llegan con revalidarCatalogo.
+    // Guarda copias propias y devuelve copias, así los cambios que haga la interfaz
+    // sobre un producto no llegan a la caché hasta que se guardan
+    private final Map<Long, Producto> catalogoPorId = new ConcurrentSkipListMap<>();
+    private final Map<String, Producto> catalogoPorCodigo = new ConcurrentHashMap<>();
+    private final AtomicLong versionCatalogo = new AtomicLong();
+    private volatile boolean catalogoCargado = false;
+
+    // Índice de trigramas para la búsqueda de texto; se mantiene junto con la caché
+    // y bajo el mismo cerrojo (catalogoPorId)
+    private final IndiceTrigramas indiceBusqueda = new IndiceTrigramas();
+
+    // Índice por día de vencimiento para vencidos y próximos a vencer (mismo cerrojo)
+    private final IndiceVencimientos indiceVencimientos = new IndiceVencimientos();
+
+    // Quienes siguen los cambios confirmados en los productos (el motor de alertas)
+    private final List<ObservadorProductos> observadores = new CopyOnWriteArrayList<>();
+
     // Crear o actualizar producto
     public Producto guardarProducto(Producto producto) {
         // Validar código único
@@ -29,29 +98,122 @@ public class ProductoService {
                 throw new IllegalArgumentException("Ya existe un producto con el código: " + producto.getCodigo());
             }
         }
-        return productoRepository.save(producto);
+        // Stock y vencimiento guardados antes del cambio, para apuntar la diferencia como ajuste
+        boolean nuevo = producto.getId() == null;
+        int stockAnterior = 0;
+        LocalDate vencimientoAnterior = null;
+        if (!nuevo) {
+            List<Object[]> filas = productoRepository.findStockByIdIn(List.of(producto.getId()));
+            if (!filas.isEmpty()) {
+                stockAnterior = (Integer) filas.get(0)[1];
+                vencimientoAnterior = (LocalDate) filas.get(0)[3];
+            }
+        }
+        // Solo una fecha escrita en el formulario va al lote; la que venía es la del lote que vence antes
+        LocalDate vencimientoEntrada = Objects.equals(producto.getFechaVencimiento(), vencimientoAnterior)
+                ? null : producto.getFechaVencimiento();
+        Producto guardado;
+        try {
+            // Con flush el UPDATE (y su comprobación de versión) se hace aquí y no al confirmar
+            guardado = productoRepository.saveAndFlush(producto);
+        } catch (OptimisticLockingFailureException e) {
+            // El formulario trabaja sobre una copia: si el producto ha cambiado desde que se
+            // abrió no se reintenta, se avisa para no pisar el cambio del otro
+            throw new IllegalStateException("El producto ha sido modificado por otro usuario o por una venta mientras se editaba. "
+                    + "Ciérralo y vuelve a abrirlo para ver los datos actuales.");
+        }
+        movimientoStockService.registrar(guardado.getId(), TipoMovimiento.AJUSTE, guardado.getStock() - stockAnterior,
+                nuevo ? "Alta de producto" : "Edición de producto");
+        // La diferencia entra o sale de los lotes y el vencimiento del producto vuelve a ser el
+        // del lote con unidades que vence antes (cambia la versión: se relee)
+        loteService.ajustarStock(guardado.getId(), guardado.getStock() - stockAnterior, vencimientoEntrada);
+        loteService.sincronizarVencimientos(List.of(guardado.getId()));
+        alConfirmar(() -> ponerEnCatalogo(guardado));
+        sincronizarStockEnCatalogo(List.of(guardado.getId()));
+        return guardado;
     }
 
-    // Obtener todos los productos activos
+    // Obtener todos los productos activos (desde la caché del catálogo)
     public List<Producto> obtenerTodosActivos() {
-        return productoRepository.findByActivoTrue();
+        cargarCatalogoSiHaceFalta();
+        List<Producto> productos = new ArrayList<>(catalogoPorId.size());
+        for (Producto producto : catalogoPorId.values()) {
+            productos.add(copiar(producto));
+        }
+        return productos;
     }
 
-    // Obtener producto por ID
+    // Obtener producto por ID (los inactivos no están en caché y se leen de la base de datos)
     public Optional<Producto> obtenerPorId(Long id) {
+        cargarCatalogoSiHaceFalta();
+        Producto enCatalogo = catalogoPorId.get(id);
+        if (enCatalogo != null) {
+            return Optional.of(copiar(enCatalogo));
+        }
         return productoRepository.findById(id);
     }
 
-    // Buscar por código
+    // Buscar por código (los inactivos no están en caché y se leen de la base de datos)
     public Optional<Producto> buscarPorCodigo(String codigo) {
+        cargarCatalogoSiHaceFalta();
+        Producto enCatalogo = catalogoPorCodigo.get(codigo);
+        if (enCatalogo != null) {
+            return Optional.of(copiar(enCatalogo));
+        }
         return productoRepository.findByCodigo(codigo);
     }
 
+    // Buscar un producto activo por código solo en la caché, sin consultar la base de datos
+    // ni abrir transacción (lector de códigos de barras del punto de venta).
+    // Devuelve vacío si el código no existe o si el catálogo aún no se ha cargado
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public Optional<Producto> buscarEnCatalogoPorCodigo(String codigo) {
+        Producto enCatalogo = catalogoPorCodigo.get(codigo);
+        if (enCatalogo == null) {
+            // Los códigos se guardan en mayúsculas desde el formulario de productos
+            enCatalogo = catalogoPorCodigo.get(codigo.toUpperCase());
+        }
+        return enCatalogo != null ? Optional.of(copiar(enCatalogo)) : Optional.empty();
+    }
+
+    // Indica si la caché del catálogo ya está cargada
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public boolean isCatalogoCargado() {
+        return catalogoCargado;
+    }
+
+    // Cargar la caché del catálogo si aún no lo está
+    public void precargarCatalogo() {
+        cargarCatalogoSiHaceFalta();
+    }
+
+    // Versión del catálogo: cambia con cada escritura confirmada. Las vistas guardan
+    // la versión con la que cargaron los productos para saber si han quedado desfasadas
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public long getVersionCatalogo() {
+        return versionCatalogo.get();
+    }
+
     // Buscar por nombre
     public List<Producto> buscarPorNombre(String nombre) {
         return productoRepository.findByNombreContainingIgnoreCaseAndActivoTrue(nombre);
     }
 
+    // Buscar productos activos por texto en nombre, código, laboratorio o categoría
+    // (sin distinguir mayúsculas ni acentos), ordenados por calidad de la coincidencia.
+    // Usa el índice en memoria, sin consultar la base de datos una vez cargado el catálogo
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public List<Producto> buscarEnCatalogo(String texto) {
+        cargarCatalogoSiHaceFalta();
+        List<Producto> productos = new ArrayList<>();
+        synchronized (catalogoPorId) {
+            for (Long id : indiceBusqueda.buscar(texto)) {
+                productos.add(copiar(catalogoPorId.get(id)));
+            }
+        }
+        return productos;
+    }
+
     // Buscar por categoría
     public List<Producto> buscarPorCategoria(String categoria) {
         return productoRepository.findByCategoriaAndActivoTrue(categoria);
@@ -67,16 +229,16 @@ public class ProductoService {
         return productoRepository.findProductosConStockBajo();
     }
 
-    // Obtener productos vencidos
+    // Obtener productos vencidos (desde el índice de vencimientos del catálogo)
+    @Transactional(propagation = Propagation.SUPPORTS)
     public List<Producto> obtenerProductosVencidos() {
-        return productoRepository.findProductosVencidos(LocalDate.now());
+        return productosDelCatalogo(indice -> indice.venceAntesDe(LocalDate.now()));
     }
 
     // Obtener productos próximos a vencer (30 días)
+    @Transactional(propagation = Propagation.SUPPORTS)
     public List<Producto> obtenerProductosProximosAVencer() {
-        LocalDate hoy = LocalDate.now();
-        LocalDate fechaLimite = hoy.plusDays(30);
-        return productoRepository.findProductosProximosAVencer(hoy, fechaLimite);
+        return obtenerProductosProximosVencer(30);
     }
 
     // Eliminar producto (soft delete)
@@ -85,25 +247,47 @@ public class ProductoService {
                 .orElseThrow(() -> new IllegalArgumentException("Producto no encontrado con ID: " + id));
         producto.setActivo(false);
         productoRepository.save(producto);
+        alConfirmar(() -> quitarDelCatalogo(id));
     }
 
-    // Actualizar stock
+    // Actualizar stock (cada intento en su propia transacción, se reintenta si choca con otra escritura)
+    @Transactional(propagation = Propagation.SUPPORTS)
     public void actualizarStock(Long id, int cantidad) {
-        Producto producto = productoRepository.findById(id)
-                .orElseThrow(() -> new IllegalArgumentException("Producto no encontrado con ID: " + id));
-        producto.setStock(producto.getStock() + cantidad);
-        productoRepository.save(producto);
+        reintentos.ejecutar("ProductoService.actualizarStock", () -> {
+            // Primero los lotes y después el producto: entre leer su versión y escribirla pasa
+            // el menor tiempo posible (si el producto no existe se deshace todo)
+            loteService.ajustarStock(id, cantidad, null);
+            Producto producto = productoRepository.findById(id)
+                    .orElseThrow(() -> new IllegalArgumentException("Producto no encontrado con ID: " + id));
+            producto.setStock(producto.getStock() + cantidad);
+            Producto guardado = productoRepository.saveAndFlush(producto);
+            movimientoStockService.registrar(id, TipoMovimiento.AJUSTE, cantidad, null);
+            // Si se agota un lote el vencimiento pasa al siguiente (cambia la versión: se relee)
+            loteService.sincronizarVencimientos(List.of(id));
+            alConfirmar(() -> ponerEnCatalogo(guardado));
+            sincronizarStockEnCatalogo(List.of(id));
+        });
     }
 
-    // Reducir stock (para ventas)
+    // Reducir stock (para ventas; se reintenta igual que actualizarStock)
+    @Transactional(propagation = Propagation.SUPPORTS)
     public void reducirStock(Long id, int cantidad) {
-        Producto producto = productoRepository.findById(id)
-                .orElseThrow(() -> new IllegalArgumentException("Producto no encontrado con ID: " + id));
-        if (producto.getStock() < cantidad) {
-            throw new IllegalArgumentException("Stock insuficiente. Disponible: " + producto.getStock());
-        }
-        producto.setStock(producto.getStock() - cantidad);
-        productoRepository.save(producto);
+        reintentos.ejecutar("ProductoService.reducirStock", () -> {
+            // Lotes antes que el producto, como en actualizarStock
+            loteService.ajustarStock(id, -cantidad, null);
+            Producto producto = productoRepository.findById(id)
+                    .orElseThrow(() -> new IllegalArgumentException("Producto no encontrado con ID: " + id));
+            if (producto.getStock() < cantidad) {
+                throw new IllegalArgumentException("Stock insuficiente. Disponible: " + producto.getStock());
+            }
+            producto.setStock(producto.getStock() - cantidad);
+            Producto guardado = productoRepository.saveAndFlush(producto);
+            movimientoStockService.registrar(id, TipoMovimiento.VENTA, -cantidad, null);
+            // Si se agota un lote el vencimiento pasa al siguiente (cambia la versión: se relee)
+            loteService.sincronizarVencimientos(List.of(id));
+            alConfirmar(() -> ponerEnCatalogo(guardado));
+            sincronizarStockEnCatalogo(List.of(id));
+        });
     }
 
     // Obtener total de productos
@@ -111,9 +295,25 @@ public class ProductoService {
         return productoRepository.countByActivoTrue();
     }
 
+    // Indicadores del reporte de inventario, calculados en la base de datos con una sola consulta
+    public ResumenInventario obtenerResumenInventario() {
+        Object[] fila = productoRepository.resumirInventario(LocalDate.now()).get(0);
+        return new ResumenInventario(
+                ((Number) fila[0]).longValue(),
+                ((Number) fila[1]).longValue(),
+                (BigDecimal) fila[2],
+                ((Number) fila[3]).longValue(),
+                ((Number) fila[4]).longValue());
+    }
+
+    // Productos, stock y valor del inventario por categoría (agrupados en la base de datos)
+    public List<TotalInventarioCategoria> obtenerInventarioPorCategoria() {
+        return productoRepository.sumarInventarioPorCategoria();
+    }
+
     // Validar disponibilidad
     public boolean validarDisponibilidad(Long id, int cantidad) {
-        Optional<Producto> producto = productoRepository.findById(id);
+        Optional<Producto> producto = obtenerPorId(id);
         return producto.isPresent() && producto.get().getStock() >= cantidad;
     }
 
@@ -127,10 +327,340 @@ public class ProductoService {
         return obtenerProductosConStockBajo();
     }
 
-    // Alias para compatibilidad con ReportesPanel
+    // Productos que vencen entre hoy y dentro de N días, ambos incluidos (desde el índice de vencimientos)
+    @Transactional(propagation = Propagation.SUPPORTS)
     public List<Producto> obtenerProductosProximosVencer(int dias) {
         LocalDate hoy = LocalDate.now();
-        LocalDate fechaLimite = hoy.plusDays(dias);
-        return productoRepository.findProductosProximosAVencer(hoy, fechaLimite);
+        return productosDelCatalogo(indice -> indice.venceEntre(hoy, hoy.plusDays(dias)));
+    }
+
+    // Número de productos vencidos
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public int contarProductosVencidos() {
+        cargarCatalogoSiHaceFalta();
+        synchronized (catalogoPorId) {
+            return indiceVencimientos.contarAntesDe(LocalDate.now());
+        }
+    }
+
+    // Número de productos que vencen entre hoy y dentro de N días
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public int contarProductosProximosVencer(int dias) {
+        LocalDate hoy = LocalDate.now();
+        cargarCatalogoSiHaceFalta();
+        synchronized (catalogoPorId) {
+            return indiceVencimientos.contarEntre(hoy, hoy.plusDays(dias));
+        }
+    }
+
+    // IDs de una búsqueda de texto en una vista del inventario, ordenados por calidad de la
+    // coincidencia. El texto se busca en el índice de trigramas (sin distinguir acentos) y
+    // el stock bajo, que depende de los umbrales, se comprueba en la base de datos solo
+    // sobre esos IDs
+    public List<Long> buscarIdsInventario(VistaInventario vista, String texto) {
+        cargarCatalogoSiHaceFalta();
+        LocalDate vencidosAntesDe = vista.vencidosAntesDe();
+        List<Long> ids = new ArrayList<>();
+        synchronized (catalogoPorId) {
+            for (Long id : indiceBusqueda.buscar(texto)) {
+                LocalDate vencimiento = catalogoPorId.get(id).getFechaVencimiento();
+                if (vencidosAntesDe == null || (vencimiento != null && vencimiento.isBefore(vencidosAntesDe))) {
+                    ids.add(id);
+                }
+            }
+        }
+        if (vista == VistaInventario.STOCK_BAJO && !ids.isEmpty()) {
+            Set<Long> conStockBajo = new HashSet<>(productoRepository.findIdsStockBajoIn(ids));
+            ids.removeIf(id -> !conStockBajo.contains(id));
+        }
+        return ids;
+    }
+
+    // Tramo de filas de una búsqueda del inventario (IDs de buscarIdsInventario), desde la
+    // caché del catálogo: en el orden de la búsqueda o, si se pide, por una columna. Los
+    // productos que ya no están en el catálogo se saltan
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public List<Producto> obtenerPaginaBusqueda(List<Long> ids, int desde, int cantidad,
+                                                String ordenarPor, boolean ascendente) {
+        if (ordenarPor != null && !COLUMNAS_ORDENABLES.contains(ordenarPor)) {
+            throw new IllegalArgumentException("No se puede ordenar por: " + ordenarPor);
+        }
+        cargarCatalogoSiHaceFalta();
+        List<Producto> pagina = new ArrayList<>();
+        synchronized (catalogoPorId) {
+            List<Producto> productos = new ArrayList<>(ids.size());
+            for (Long id : ids) {
+                Producto producto = catalogoPorId.get(id);
+                if (producto != null) {
+                    productos.add(producto);
+                }
+            }
+            if (ordenarPor != null) {
+                Comparator<Producto> orden = ORDEN_COLUMNAS.get(ordenarPor);
+                productos.sort((ascendente ? orden : orden.reversed()).thenComparing(Producto::getId));
+            }
+            for (int i = desde; i < Math.min(desde + cantidad, productos.size()); i++) {
+                pagina.add(copiar(productos.get(i)));
+            }
+        }
+        return pagina;
+    }
+
+    // Total de filas de la tabla paginada del inventario para una vista (sin texto)
+    public long contarInventario(VistaInventario vista) {
+        return productoRepository.countInventario(vista == VistaInventario.STOCK_BAJO, vista.vencidosAntesDe());
+    }
+
+    // Tramo de filas de la tabla paginada del inventario. El filtro y el orden se resuelven
+    // en la base de datos, así que solo se cargan las filas pedidas. "desde" debe ser
+    // múltiplo de "cantidad" (la tabla pide páginas completas)
+    public List<Producto> obtenerPaginaInventario(VistaInventario vista, int desde, int cantidad,
+                                                  String ordenarPor, boolean ascendente) {
+        if (ordenarPor != null && !COLUMNAS_ORDENABLES.contains(ordenarPor)) {
+            throw new IllegalArgumentException("No se puede ordenar por: " + ordenarPor);
+        }
+        // El ID como último criterio mantiene el orden estable entre páginas
+        Sort orden = ordenarPor == null
+                ? Sort.by("id")
+                : Sort.by(ascendente ? Sort.Direction.ASC : Sort.Direction.DESC, ordenarPor).and(Sort.by("id"));
+        return productoRepository.findPaginaInventario(vista == VistaInventario.STOCK_BAJO, vista.vencidosAntesDe(),
+                PageRequest.of(desde / cantidad, cantidad, orden));
+    }
+
+
+    // Sincronizar el stock (y el vencimiento) de la caché tras cambios hechos con UPDATE directos
+    // (ventas, anulaciones, recepción de pedidos). El stock se lee dentro de la transacción
+    // actual y se aplica a la caché solo si la transacción se confirma. Como los afterCommit de
+    // dos transacciones pueden ejecutarse en cualquier orden, una fila solo se aplica si su
+    // versión es posterior a la que ya tiene la caché (igual que en revalidarCatalogo)
+    public void sincronizarStockEnCatalogo(Collection<Long> ids) {
+        if (ids.isEmpty()) {
+            return;
+        }
+        List<Object[]> filas = productoRepository.findStockByIdIn(ids);
+        alConfirmar(() -> {
+            synchronized (catalogoPorId) {
+                for (Object[] fila : filas) {
+                    Producto enCatalogo = catalogoPorId.get((Long) fila[0]);
+                    Long version = (Long) fila[2];
+                    if (enCatalogo != null
+                            && (enCatalogo.getVersion() == null || version > enCatalogo.getVersion())) {
+                        enCatalogo.setStock((Integer) fila[1]);
+                        enCatalogo.setVersion(version);
+                        // La recepción de lotes y las ventas pueden mover el vencimiento del producto
+                        enCatalogo.setFechaVencimiento((LocalDate) fila[3]);
+                        indiceVencimientos.indexar(enCatalogo);
+                    }
+                }
+                versionCatalogo.incrementAndGet();
+            }
+            avisarCambios(ids);
+        });
+    }
+
+    // Descartar la caché completa (se recarga en la siguiente lectura)
+    public void invalidarCatalogo() {
+        synchronized (catalogoPorId) {
+            catalogoPorId.clear();
+            catalogoPorCodigo.clear();
+            indiceBusqueda.vaciar();
+            indiceVencimientos.vaciar();
+            catalogoCargado = false;
+            versionCatalogo.incrementAndGet();
+        }
+        for (ObservadorProductos observador : observadores) {
+            observador.catalogoInvalidado();
+        }
+    }
+
+    // Revalidar la caché con la base de datos, que comparten varios terminales: este proceso
+    // solo se entera al momento de sus propias escrituras. Cada escritura de un producto
+    // (también los UPDATE de stock y de vencimiento) incrementa su versión, así que basta con
+    // comparar las versiones y recargar los productos que han cambiado; los que ya no están
+    // activos se quitan. El desfase con otros terminales queda acotado por el intervalo.
+    // Devuelve el número de productos actualizados
+    @Scheduled(initialDelayString = "${farmacia.catalogo.intervalo-revalidacion:PT30S}",
+               fixedDelayString = "${farmacia.catalogo.intervalo-revalidacion:PT30S}")
+    @Transactional(readOnly = true)
+    public int revalidarCatalogo() {
+        if (!catalogoCargado) {
+            return 0;
+        }
+        List<Long> cambiados = new ArrayList<>();
+        // Con el cerrojo durante las consultas, una escritura local que se confirme mientras
+        // tanto entra en la caché después (no se pierde) y no se toma por un producto borrado
+        synchronized (catalogoPorId) {
+            if (!catalogoCargado) {
+                return 0;
+            }
+            Map<Long, Long> versiones = new HashMap<>();
+            for (Object[] fila : productoRepository.findVersionesActivos()) {
+                versiones.put((Long) fila[0], (Long) fila[1]);
+            }
+            List<Long> recargar = new ArrayList<>();
+            for (Map.Entry<Long, Long> version : versiones.entrySet()) {
+                Producto enCatalogo = catalogoPorId.get(version.getKey());
+                if (enCatalogo == null || !Objects.equals(enCatalogo.getVersion(), version.getValue())) {
+                    recargar.add(version.getKey());
+                }
+            }
+            for (Producto producto : productoRepository.findAllById(recargar)) {
+                Producto enCatalogo = catalogoPorId.get(producto.getId());
+                // Nunca se sustituye por una versión anterior a la que ya hay en la caché
+                if (Boolean.TRUE.equals(producto.getActivo())
+                        && (enCatalogo == null || enCatalogo.getVersion() == null || producto.getVersion() > enCatalogo.getVersion())) {
+                    Producto copia = copiar(producto);
+                    if (enCatalogo != null && !enCatalogo.getCodigo().equals(copia.getCodigo())) {
+                        catalogoPorCodigo.remove(enCatalogo.getCodigo());
+                    }
+                    catalogoPorId.put(copia.getId(), copia);
+                    catalogoPorCodigo.put(copia.getCodigo(), copia);
+                    indiceBusqueda.indexar(copia);
+                    indiceVencimientos.indexar(copia);
+                    cambiados.add(copia.getId());
+                }
+            }
+            for (Long id : new ArrayList<>(catalogoPorId.keySet())) {
+                if (!versiones.containsKey(id)) {
+                    Producto anterior = catalogoPorId.remove(id);
+                    catalogoPorCodigo.remove(anterior.getCodigo());
+                    indiceBusqueda.quitar(id);
+                    indiceVencimientos.quitar(id);
+                    cambiados.add(id);
+                }
+            }
+            if (!cambiados.isEmpty()) {
+                versionCatalogo.incrementAndGet();
+            }
+        }
+        if (!cambiados.isEmpty()) {
+            // Los lotes en memoria de esos productos tampoco están al día (recepciones en otro terminal)
+            loteService.descartarVistas(cambiados);
+            avisarCambios(cambiados);
+        }
+        return cambiados.size();
+    }
+
+    // Recibir los cambios de productos después de cada confirmación
+    public void registrarObservador(ObservadorProductos observador) {
+        observadores.add(observador);
+    }
+
+    // Cargar los productos activos en la caché la primera vez que se necesitan
+    private void cargarCatalogoSiHaceFalta() {
+        if (catalogoCargado) {
+            return;
+        }
+        synchronized (catalogoPorId) {
+            if (catalogoCargado) {
+                return;
+            }
+            for (Producto producto : productoRepository.findByActivoTrue()) {
+                Producto copia = copiar(producto);
+                catalogoPorId.put(copia.getId(), copia);
+                catalogoPorCodigo.put(copia.getCodigo(), copia);
+                indiceBusqueda.indexar(copia);
+                indiceVencimientos.indexar(copia);
+            }
+            catalogoCargado = true;
+            versionCatalogo.incrementAndGet();
+        }
+    }
+
+    // Insertar o reemplazar un producto en la caché (si está inactivo se quita)
+    private void ponerEnCatalogo(Producto producto) {
+        if (!Boolean.TRUE.equals(producto.getActivo())) {
+            quitarDelCatalogo(producto.getId());
+            return;
+        }
+        synchronized (catalogoPorId) {
+            if (catalogoCargado) {
+                Producto copia = copiar(producto);
+                Producto anterior = catalogoPorId.put(copia.getId(), copia);
+                if (anterior != null && !anterior.getCodigo().equals(copia.getCodigo())) {
+                    catalogoPorCodigo.remove(anterior.getCodigo());
+                }
+                catalogoPorCodigo.put(copia.getCodigo(), copia);
+                indiceBusqueda.indexar(copia);
+                indiceVencimientos.indexar(copia);
+                versionCatalogo.incrementAndGet();
+            }
+        }
+        avisarCambios(List.of(producto.getId()));
+    }
+
+    private void quitarDelCatalogo(Long id) {
+        synchronized (catalogoPorId) {
+            Producto anterior = catalogoPorId.remove(id);
+            if (anterior != null) {
+                catalogoPorCodigo.remove(anterior.getCodigo());
+            }
+            indiceBusqueda.quitar(id);
+            indiceVencimientos.quitar(id);
+            versionCatalogo.incrementAndGet();
+        }
+        avisarCambios(List.of(id));
+    }
+
+    private void avisarCambios(Collection<Long> ids) {
+        for (ObservadorProductos observador : observadores) {
+            observador.productosCambiados(ids);
+        }
+    }
+
+    // Copias de los productos del catálogo con los IDs que devuelve la consulta al índice de vencimientos
+    private List<Producto> productosDelCatalogo(Function<IndiceVencimientos, List<Long>> consulta) {
+        cargarCatalogoSiHaceFalta();
+        List<Producto> productos = new ArrayList<>();
+        synchronized (catalogoPorId) {
+            for (Long id : consulta.apply(indiceVencimientos)) {
+                productos.add(copiar(catalogoPorId.get(id)));
+            }
+        }
+        return productos;
+    }
+
+    // Ejecutar la acción cuando la transacción actual se confirme (o ya, si no hay transacción).
+    // Si la transacción se revierte la caché no cambia
+    private void alConfirmar(Runnable accion) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            accion.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                accion.run();
+            }
+        });
+    }
+
+    // Cambios confirmados en los productos. Se llama después de la confirmación, en el hilo
+    // que la hizo: la implementación debe ser rápida (apuntar y volver)
+    public interface ObservadorProductos {
+        // Productos creados, modificados, vendidos, repuestos o eliminados
+        void productosCambiados(Collection<Long> ids);
+
+        // La caché se ha descartado entera (importación): puede haber cambiado cualquiera
+        void catalogoInvalidado();
+    }
+
+    // Vistas de la tabla paginada del inventario
+    public enum VistaInventario {
+        TODOS, STOCK_BAJO, VENCIDOS;
+
+        LocalDate vencidosAntesDe() {
+            return this == VENCIDOS ? LocalDate.now() : null;
+        }
+    }
+
+    private static <T extends Comparable<? super T>> Comparator<Producto> columna(Function<Producto, T> valor) {
+        return Comparator.comparing(valor, Comparator.nullsLast(Comparator.naturalOrder()));
+    }
+
+    private static Producto copiar(Producto p) {
+        return new Producto(p.getId(), p.getNombre(), p.getDescripcion(), p.getCodigo(), p.getPrecio(),
+                p.getStock(), p.getStockMinimo(), p.getDiasAvisoCaducidad(), p.getLaboratorio(), p.getCategoria(), p.getFechaVencimiento(),
+                p.getRequiereReceta(), p.getActivo(), p.getFechaCreacion(), p.getFechaActualizacion(), p.getVersion());
     }
 }
@@ -0,0 +1,128 @@
+package com.farmacia.service;
+
+import jakarta.persistence.OptimisticLockException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.ConcurrencyFailureException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Reintentos acotados para las operaciones que modifican stock cuando chocan con otra
+ * escritura concurrente (versión desfasada del bloqueo optimista, bloqueo de fila
+ * agotado o interbloqueo).
+ *
+ * Cada intento va en su propia transacción: tras un conflicto la transacción queda
+ * para deshacer y hay que volver a leer los datos actuales. Entre intentos se espera
+ * un tiempo exponencial con una parte aleatoria, así dos terminales que han chocado
+ * no vuelven a chocar en el mismo instante. Si ya hay una transacción abierta la
+ * operación se ejecuta una sola vez dentro de ella: reintentar le toca a quien la abrió.
+ */
+@Component
+public class ReintentosConcurrencia {
+
+    static final int MAX_INTENTOS = 4;
+    private static final long ESPERA_BASE_MS = 20;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private final Map<String, Metricas> metricas = new ConcurrentHashMap<>();
+
+    // Ejecutar una operación con reintentos y devolver su resultado
+    public <T> T obtener(String operacion, Supplier<T> accion) {
+        if (TransactionSynchronizationManager.isActualTransactionActive()) {
+            return accion.get();
+        }
+        TransactionTemplate plantilla = new TransactionTemplate(transactionManager);
+        Metricas m = metricas.computeIfAbsent(operacion, Metricas::new);
+        m.ejecuciones.incrementAndGet();
+        for (int intento = 1; ; intento++) {
+            try {
+                return plantilla.execute(estado -> accion.get());
+            } catch (ConcurrencyFailureException | OptimisticLockException e) {
+                if (intento >= MAX_INTENTOS) {
+                    m.agotados.incrementAndGet();
+                    System.err.println("✗ " + operacion + ": conflicto de concurrencia tras " + intento + " intentos");
+                    throw e;
+                }
+                m.reintentos.incrementAndGet();
+                esperar(intento);
+            }
+        }
+    }
+
+    // Ejecutar una operación sin resultado con reintentos
+    public void ejecutar(String operacion, Runnable accion) {
+        obtener(operacion, () -> {
+            accion.run();
+            return null;
+        });
+    }
+
+    // Métricas de una operación (null si aún no se ha ejecutado)
+    public Metricas obtenerMetricas(String operacion) {
+        return metricas.get(operacion);
+    }
+
+    // Métricas de todas las operaciones ejecutadas
+    public List<Metricas> obtenerTodasLasMetricas() {
+        return new ArrayList<>(metricas.values());
+    }
+
+    // Espera antes del siguiente intento: base * 2^(intento-1), entre la mitad y vez y media
+    private static void esperar(int intento) {
+        long espera = ESPERA_BASE_MS << (intento - 1);
+        long conJitter = espera / 2 + ThreadLocalRandom.current().nextLong(espera + 1);
+        try {
+            Thread.sleep(conJitter);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Reintento interrumpido", e);
+        }
+    }
+
+    // Contadores de una operación
+    public static class Metricas {
+        private final String operacion;
+        private final AtomicLong ejecuciones = new AtomicLong();
+        private final AtomicLong reintentos = new AtomicLong();
+        private final AtomicLong agotados = new AtomicLong();
+
+        Metricas(String operacion) {
+            this.operacion = operacion;
+        }
+
+        public String getOperacion() {
+            return operacion;
+        }
+
+        public long getEjecuciones() {
+            return ejecuciones.get();
+        }
+
+        public long getReintentos() {
+            return reintentos.get();
+        }
+
+        // Ejecuciones que fallaron tras agotar todos los intentos
+        public long getAgotados() {
+            return agotados.get();
+        }
+
+        @Override
+        public String toString() {
+            return operacion + ": " + getEjecuciones() + " ejecuciones, " + getReintentos()
+                    + " reintentos, " + getAgotados() + " agotadas";
+        }
+    }
+}
@@ -0,0 +1,273 @@
+package com.farmacia.service;
+
+import com.farmacia.model.DetallePedido;
+import com.farmacia.model.Pedido;
+import com.farmacia.model.Producto;
+import com.farmacia.model.Proveedor;
+import com.farmacia.repository.PedidoRepository;
+import com.farmacia.repository.ProveedorRepository;
+import com.farmacia.repository.VentaProductoDiariaRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Propuestas de reposición a partir de la velocidad de ventas.
+ *
+ * La velocidad de cada producto es una media ponderada de las unidades vendidas
+ * al día en los últimos 7, 30 y 90 días (tabla ventas_producto_diarias, que
+ * VentaService mantiene con cada venta). Un producto se propone cuando su stock
+ * más lo ya pedido no cubre las ventas del plazo de entrega del proveedor más su
+ * stock mínimo, y se pide lo necesario para cubrir además los días de cobertura.
+ *
+ * El proveedor y el precio son los de la última compra del producto; los
+ * productos que nunca se han pedido no se proponen.
+ */
+@Service
+@Transactional
+public class ReposicionService {
+
+    // Ventanas de la velocidad de ventas (días) y su peso en la media
+    private static final int VENTANA_CORTA = 7;
+    private static final int VENTANA_MEDIA = 30;
+    private static final int VENTANA_LARGA = 90;
+    private static final double PESO_CORTA = 0.5;
+    private static final double PESO_MEDIA = 0.3;
+    private static final double PESO_LARGA = 0.2;
+
+    // Plazo de entrega si el proveedor no indica el suyo
+    private static final int DIAS_ENTREGA_POR_DEFECTO = 7;
+
+    public static final int DIAS_COBERTURA_POR_DEFECTO = 14;
+
+    private static final DateTimeFormatter FORMATO_NUMERO = DateTimeFormatter.ofPattern("yyyyMMddHHmmss");
+
+    @Autowired
+    private VentaProductoDiariaRepository ventasPorProductoRepository;
+
+    @Autowired
+    private PedidoRepository pedidoRepository;
+
+    @Autowired
+    private ProveedorRepository proveedorRepository;
+
+    @Autowired
+    private ProductoService productoService;
+
+    @Autowired
+    private PedidoService pedidoService;
+
+    @Autowired
+    private AlertaService alertaService;
+
+    // Calcular las propuestas de todo el catálogo, agrupadas por proveedor
+    @Transactional(readOnly = true)
+    public List<PropuestaReposicion> calcularPropuestas(int diasCobertura) {
+        if (diasCobertura < 0) {
+            throw new IllegalArgumentException("Los días de cobertura no pueden ser negativos");
+        }
+
+        // Todas las entradas se cargan antes en mapas: el cálculo por producto no toca la base de datos
+        LocalDate hoy = LocalDate.now();
+        Map<Long, double[]> ventas = new HashMap<>();
+        for (Object[] fila : ventasPorProductoRepository.sumarVentanas(hoy.minusDays(VENTANA_CORTA - 1),
+                hoy.minusDays(VENTANA_MEDIA - 1), hoy.minusDays(VENTANA_LARGA - 1))) {
+            ventas.put((Long) fila[0], new double[] {
+                ((Number) fila[1]).doubleValue(), ((Number) fila[2]).doubleValue(), ((Number) fila[3]).doubleValue()
+            });
+        }
+
+        Map<Long, Object[]> ultimaCompra = new HashMap<>();
+        for (Object[] fila : pedidoRepository.findComprasPorProducto()) {
+            ultimaCompra.put((Long) fila[0], fila);
+        }
+
+        Map<Long, Integer> pendientes = new HashMap<>();
+        for (Object[] fila : pedidoRepository.sumarUnidadesPendientesPorProducto()) {
+            pendientes.put((Long) fila[0], ((Number) fila[1]).intValue());
+        }
+
+        Map<Long, Proveedor> proveedores = new HashMap<>();
+        for (Proveedor proveedor : proveedorRepository.findByActivoTrue()) {
+            proveedores.put(proveedor.getId(), proveedor);
+        }
+
+        AlertaService.Umbrales umbrales = alertaService.obtenerUmbrales();
+
+        return productoService.obtenerTodosActivos().parallelStream()
+            .map(producto -> proponer(producto, diasCobertura, ventas.get(producto.getId()),
+                    ultimaCompra.get(producto.getId()), pendientes.getOrDefault(producto.getId(), 0),
+                    proveedores, umbrales))
+            .filter(Objects::nonNull)
+            .sorted(Comparator.comparing((PropuestaReposicion p) -> p.getProveedor().getNombre(), String.CASE_INSENSITIVE_ORDER)
+                .thenComparing(p -> p.getProveedor().getId())
+                .thenComparing(p -> p.getProducto().getNombre(), String.CASE_INSENSITIVE_ORDER))
+            .toList();
+    }
+
+    // Crear un pedido en borrador por proveedor con las propuestas actuales.
+    // Las unidades de estos borradores cuentan como pendientes, así que repetirlo no duplica pedidos
+    public ResultadoReposicion generarPedidosBorrador(int diasCobertura) {
+        long inicio = System.currentTimeMillis();
+        List<PropuestaReposicion> propuestas = calcularPropuestas(diasCobertura);
+
+        Map<Long, List<PropuestaReposicion>> porProveedor = new LinkedHashMap<>();
+        for (PropuestaReposicion propuesta : propuestas) {
+            porProveedor.computeIfAbsent(propuesta.getProveedor().getId(), id -> new ArrayList<>()).add(propuesta);
+        }
+
+        ResultadoReposicion resultado = new ResultadoReposicion();
+        LocalDateTime ahora = LocalDateTime.now();
+        for (List<PropuestaReposicion> lineas : porProveedor.values()) {
+            Proveedor proveedor = lineas.get(0).getProveedor();
+            Pedido pedido = new Pedido();
+            pedido.setProveedor(proveedor);
+            // Número propio: el aleatorio de Pedido podría repetirse al crear varios a la vez. El
+            // sufijo aleatorio evita que choquen dos generaciones en el mismo segundo (doble clic,
+            // otro terminal), que darían el mismo número al mismo proveedor
+            pedido.setNumeroPedido("REP-" + FORMATO_NUMERO.format(ahora) + "-" + proveedor.getId() + "-" + sufijoAleatorio());
+            pedido.setFechaEntregaEstimada(ahora.plusDays(diasEntrega(proveedor)));
+            pedido.setCreadoPor("Reposición automática");
+            pedido.setObservaciones("Propuesta automática de reposición (cobertura de " + diasCobertura + " días)");
+            for (PropuestaReposicion propuesta : lineas) {
+                DetallePedido detalle = new DetallePedido();
+                detalle.setProducto(propuesta.getProducto());
+                detalle.setNombreProducto(propuesta.getProducto().getNombre());
+                detalle.setCodigoProducto(propuesta.getProducto().getCodigo());
+                detalle.setCantidad(propuesta.getCantidad());
+                detalle.setPrecioUnitario(propuesta.getPrecioUnitario());
+                detalle.setObservaciones(String.format("Venta media: %.2f uds/día; stock: %d; pendiente: %d",
+                        propuesta.getVelocidad(), propuesta.getProducto().getStock(), propuesta.getPendiente()));
+                pedido.agregarDetalle(detalle);
+            }
+            pedidoService.crearPedido(pedido);
+            resultado.pedidosCreados++;
+            resultado.lineas += lineas.size();
+        }
+        resultado.milisegundos = System.currentTimeMillis() - inicio;
+        return resultado;
+    }
+
+    // Propuesta para un producto, o null si no hace falta pedirlo (o no se sabe a quién)
+    private static PropuestaReposicion proponer(Producto producto, int diasCobertura, double[] ventas,
+                                                Object[] ultimaCompra, int pendiente,
+                                                Map<Long, Proveedor> proveedores, AlertaService.Umbrales umbrales) {
+        if (ultimaCompra == null) {
+            return null;
+        }
+        Proveedor proveedor = proveedores.get((Long) ultimaCompra[1]);
+        BigDecimal precio = (BigDecimal) ultimaCompra[2];
+        if (proveedor == null || precio == null || precio.signum() <= 0) {
+            return null;
+        }
+
+        double velocidad = ventas == null ? 0.0
+            : PESO_CORTA * ventas[0] / VENTANA_CORTA
+            + PESO_MEDIA * ventas[1] / VENTANA_MEDIA
+            + PESO_LARGA * ventas[2] / VENTANA_LARGA;
+        int plazo = diasEntrega(proveedor);
+        int stockMinimo = umbrales.stockMinimo(producto);
+        int posicion = (producto.getStock() != null ? producto.getStock() : 0) + pendiente;
+
+        // Punto de pedido: ventas esperadas durante el plazo de entrega más el stock mínimo
+        double puntoPedido = velocidad * plazo + stockMinimo;
+        if (posicion > puntoPedido) {
+            return null;
+        }
+        int objetivo = (int) Math.ceil(velocidad * (plazo + diasCobertura)) + stockMinimo;
+        int cantidad = objetivo - posicion;
+        if (cantidad <= 0) {
+            return null;
+        }
+        return new PropuestaReposicion(producto, proveedor, precio, velocidad, pendiente, cantidad);
+    }
+
+    // Cuatro caracteres en base 36 (1.679.616 combinaciones)
+    private static String sufijoAleatorio() {
+        String sufijo = Integer.toString(ThreadLocalRandom.current().nextInt(36 * 36 * 36 * 36), 36).toUpperCase();
+        return "0".repeat(4 - sufijo.length()) + sufijo;
+    }
+
+    private static int diasEntrega(Proveedor proveedor) {
+        Integer dias = proveedor.getDiasEntrega();
+        return dias != null && dias > 0 ? dias : DIAS_ENTREGA_POR_DEFECTO;
+    }
+
+    // Cantidad propuesta de un producto a su último proveedor
+    public static class PropuestaReposicion {
+        private final Producto producto;
+        private final Proveedor proveedor;
+        private final BigDecimal precioUnitario;
+        private final double velocidad;
+        private final int pendiente;
+        private final int cantidad;
+
+        public PropuestaReposicion(Producto producto, Proveedor proveedor, BigDecimal precioUnitario,
+                                   double velocidad, int pendiente, int cantidad) {
+            this.producto = producto;
+            this.proveedor = proveedor;
+            this.precioUnitario = precioUnitario;
+            this.velocidad = velocidad;
+            this.pendiente = pendiente;
+            this.cantidad = cantidad;
+        }
+
+        public Producto getProducto() {
+            return producto;
+        }
+
+        public Proveedor getProveedor() {
+            return proveedor;
+        }
+
+        public BigDecimal getPrecioUnitario() {
+            return precioUnitario;
+        }
+
+        // Unidades vendidas al día (media ponderada de las tres ventanas)
+        public double getVelocidad() {
+            return velocidad;
+        }
+
+        // Unidades ya pedidas y sin recibir
+        public int getPendiente() {
+            return pendiente;
+        }
+
+        public int getCantidad() {
+            return cantidad;
+        }
+    }
+
+    // Resultado de generar los pedidos en borrador
+    public static class ResultadoReposicion {
+        private int pedidosCreados;
+        private int lineas;
+        private long milisegundos;
+
+        public int getPedidosCreados() {
+            return pedidosCreados;
+        }
+
+        public int getLineas() {
+            return lineas;
+        }
+
+        public long getMilisegundos() {
+            return milisegundos;
+        }
+    }
+}
@@ -1,76 +1,148 @@
 package com.farmacia.service;
 
 import com.farmacia.model.DetalleVenta;
+import com.farmacia.model.MovimientoStock.TipoMovimiento;
 import com.farmacia.model.Producto;
+import com.farmacia.model.ProductoMasVendido;
 import com.farmacia.model.Usuario;
 import com.farmacia.model.Venta;
+import com.farmacia.model.ResumenVentaDiario;
+import com.farmacia.model.TotalVentasMetodoPago;
+import com.farmacia.model.TotalVentasPeriodo;
+import com.farmacia.model.VentaProductoDiaria;
 import com.farmacia.repository.ProductoRepository;
+import com.farmacia.repository.ResumenVentaDiarioRepository;
+import com.farmacia.repository.VentaProductoDiariaRepository;
 import com.farmacia.repository.VentaRepository;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Limit;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.math.BigDecimal;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.IntSupplier;
 
 @Service
 @Transactional
 public class VentaService {
 
+    private static final String SQL_INSERTAR_RESUMEN =
+            "INSERT INTO resumen_ventas_diario (id, fecha, metodo_pago, usuario_id, total, numero_ventas, unidades_vendidas, descuento) " +
+            "VALUES (NEXT VALUE FOR resumen_ventas_diario_seq, ?, ?, ?, ?, ?, ?, ?)";
+    private static final String SQL_INSERTAR_VENTAS_PRODUCTO =
+            "INSERT INTO ventas_producto_diarias (id, fecha, producto_id, unidades) " +
+            "VALUES (NEXT VALUE FOR ventas_producto_diarias_seq, ?, ?, ?)";
+
     @Autowired
     private VentaRepository ventaRepository;
 
     @Autowired
     private ProductoRepository productoRepository;
 
+    @Autowired
+    private ResumenVentaDiarioRepository resumenRepository;
+
+    @Autowired
+    private VentaProductoDiariaRepository ventasPorProductoRepository;
+
+    @Autowired
+    private ProductoService productoService;
+
+    @Autowired
+    private MovimientoStockService movimientoStockService;
+
+    @Autowired
+    private ReintentosConcurrencia reintentos;
+
+    @Autowired
+    private LoteService loteService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
     // Crear venta (versión con usuario)
     public Venta crearVenta(Venta venta, Usuario usuario) {
         // Asociar el usuario que realiza la venta
         venta.setUsuario(usuario);
-        // Validar y actualizar stock
+
+        // Descontar stock con un UPDATE condicional por línea (stock >= cantidad).
+        // Así dos terminales no pueden vender las mismas unidades a la vez
+        List<DetalleVenta> sinStock = new ArrayList<>();
         for (DetalleVenta detalle : venta.getDetalles()) {
             Producto producto = detalle.getProducto();
-            
-            // Verificar stock disponible
-            if (producto.getStock() < detalle.getCantidad()) {
-                throw new IllegalStateException(
-                    "Stock insuficiente para el producto: " + producto.getNombre() + 
-                    ". Disponible: " + producto.getStock() + ", Solicitado: " + detalle.getCantidad()
-                );
+            if (productoRepository.descontarStock(producto.getId(), detalle.getCantidad()) == 0) {
+                sinStock.add(detalle);
             }
-            
-            // Reducir stock
-            producto.setStock(producto.getStock() - detalle.getCantidad());
-            productoRepository.save(producto);
         }
-        
+
+        // Si alguna línea falla se lanza la excepción y la transacción completa se revierte
+        if (!sinStock.isEmpty()) {
+            throw new StockInsuficienteException(sinStock);
+        }
+
+        // Los productos del carrito no se tocan: la venta aún puede revertirse. El stock nuevo
+        // llega a la caché del catálogo al confirmar (sincronizarStockEnCatalogo)
+
         // Calcular totales
         venta.calcularTotal();
         
-        return ventaRepository.save(venta);
+        Venta ventaGuardada = ventaRepository.save(venta);
+        for (DetalleVenta detalle : venta.getDetalles()) {
+            movimientoStockService.registrar(detalle.getProducto().getId(), TipoMovimiento.VENTA,
+                    -detalle.getCantidad(), "Venta #" + ventaGuardada.getId());
+        }
+        acumularEnResumen(ventaGuardada, 1);
+        acumularPorProducto(ventaGuardada, 1);
+        // Repartir las unidades entre los lotes, el que vence antes primero
+        loteService.asignarVenta(ventaGuardada);
+        productoService.sincronizarStockEnCatalogo(idsProductos(venta));
+        return ventaGuardada;
     }
 
     // Obtener todas las ventas activas
     public List<Venta> obtenerTodasActivas() {
-        List<Venta> ventas = ventaRepository.findByActivoTrue();
-        // Inicializar la colección de detalles para evitar LazyInitializationException
-        ventas.forEach(v -> v.getDetalles().size());
-        return ventas;
+        // Detalles, productos y usuario llegan en la misma consulta (grafo Venta.conDetalles)
+        return ventaRepository.findByActivoTrue();
+    }
+
+    // Obtener una página del historial de ventas activas (de más reciente a más antigua).
+    // ultimaVenta es la última venta de la página anterior, o null para la primera página
+    public List<Venta> obtenerPaginaHistorial(Venta ultimaVenta, int tamanoPagina) {
+        List<Long> ids = ultimaVenta == null
+            ? ventaRepository.findIdsPrimeraPagina(Limit.of(tamanoPagina))
+            : ventaRepository.findIdsPaginaSiguiente(ultimaVenta.getFecha(), ultimaVenta.getId(), Limit.of(tamanoPagina));
+        if (ids.isEmpty()) {
+            return new ArrayList<>();
+        }
+        // Segunda consulta sin LIMIT para traer detalles y productos de esa página
+        return ventaRepository.findConDetallesByIdIn(ids);
     }
 
     // Obtener venta por ID
     public Optional<Venta> obtenerPorId(Long id) {
-        return ventaRepository.findById(id);
+        return ventaRepository.findConDetallesById(id);
     }
 
     // Obtener ventas del día
     public List<Venta> obtenerVentasDelDia() {
-        List<Venta> ventas = ventaRepository.findVentasDelDia();
-        // Inicializar la colección de detalles para evitar LazyInitializationException
-        ventas.forEach(v -> v.getDetalles().size());
-        return ventas;
+        LocalDateTime inicioDia = LocalDate.now().atStartOfDay();
+        return ventaRepository.findVentasEntre(inicioDia, inicioDia.plusDays(1));
     }
 
     // Obtener ventas por rango de fechas
@@ -95,75 +167,272 @@ public class VentaService {
 
     // Calcular total de ventas del día
     public Double calcularTotalVentasDelDia() {
-        Double total = ventaRepository.calcularTotalVentasDelDia();
+        LocalDateTime inicioDia = LocalDate.now().atStartOfDay();
+        Double total = ventaRepository.calcularTotalVentasEntre(inicioDia, inicioDia.plusDays(1));
         return total != null ? total : 0.0;
     }
 
     // Contar ventas del día
     public Long contarVentasDelDia() {
-        return ventaRepository.contarVentasDelDia();
+        LocalDateTime inicioDia = LocalDate.now().atStartOfDay();
+        return ventaRepository.contarVentasEntre(inicioDia, inicioDia.plusDays(1));
     }
 
-    // Anular venta (soft delete)
+    // Anular venta (soft delete; cada intento en su propia transacción, con reintentos si choca con otra escritura)
+    @Transactional(propagation = Propagation.SUPPORTS)
     public void anularVenta(Long id) {
-        Optional<Venta> ventaOpt = ventaRepository.findById(id);
-        if (ventaOpt.isPresent()) {
-            Venta venta = ventaOpt.get();
-            
-            // Restaurar stock
-            for (DetalleVenta detalle : venta.getDetalles()) {
-                Producto producto = detalle.getProducto();
-                producto.setStock(producto.getStock() + detalle.getCantidad());
-                productoRepository.save(producto);
+        reintentos.ejecutar("VentaService.anularVenta", () -> {
+            Optional<Venta> ventaOpt = ventaRepository.findById(id);
+            if (ventaOpt.isPresent()) {
+                Venta venta = ventaOpt.get();
+                // El UPDATE condicional decide quién anula: si dos terminales (o un reintento)
+                // anulan la misma venta, solo uno repone el stock y descuenta los resúmenes
+                if (!Boolean.TRUE.equals(venta.getActivo()) || ventaRepository.desactivar(id) == 0) {
+                    throw new IllegalStateException("La venta #" + id + " ya está anulada");
+                }
+                venta.setActivo(false);
+
+                // Restaurar stock
+                for (DetalleVenta detalle : venta.getDetalles()) {
+                    productoRepository.reponerStock(detalle.getProducto().getId(), detalle.getCantidad());
+                    movimientoStockService.registrar(detalle.getProducto().getId(), TipoMovimiento.DEVOLUCION,
+                            detalle.getCantidad(), "Anulación venta #" + venta.getId());
+                }
+
+                acumularEnResumen(venta, -1);
+                acumularPorProducto(venta, -1);
+                loteService.devolverVenta(venta);
+                productoService.sincronizarStockEnCatalogo(idsProductos(venta));
+            } else {
+                throw new IllegalArgumentException("Venta no encontrada con ID: " + id);
             }
-            
-            // Marcar como inactivo
-            venta.setActivo(false);
-            ventaRepository.save(venta);
-        } else {
-            throw new IllegalArgumentException("Venta no encontrada con ID: " + id);
+        });
+    }
+
+    // IDs de los productos de una venta (para sincronizar su stock en el catálogo)
+    private Set<Long> idsProductos(Venta venta) {
+        Set<Long> ids = new HashSet<>();
+        for (DetalleVenta detalle : venta.getDetalles()) {
+            ids.add(detalle.getProducto().getId());
         }
+        return ids;
     }
 
     // Obtener ventas activas
     public List<Venta> obtenerVentasActivas() {
-        List<Venta> ventas = ventaRepository.findByActivoTrue();
-        // Inicializar la colección de detalles para evitar LazyInitializationException
-        ventas.forEach(v -> v.getDetalles().size());
-        return ventas;
+        // Detalles, productos y usuario llegan en la misma consulta (grafo Venta.conDetalles)
+        return ventaRepository.findByActivoTrue();
     }
 
-    // Obtener ventas por rango de fechas
+    // Obtener ventas por rango de fechas [fechaInicio, fechaFin)
     public List<Venta> obtenerVentasPorRango(LocalDateTime fechaInicio, LocalDateTime fechaFin) {
-        List<Venta> ventas = ventaRepository.findByFechaBetweenAndActivoTrueOrderByFechaDesc(fechaInicio, fechaFin);
-        // Inicializar la colección de detalles
-        ventas.forEach(v -> v.getDetalles().size());
-        return ventas;
+        return ventaRepository.findVentasEntre(fechaInicio, fechaFin);
+    }
+
+    // Obtener los productos más vendidos; con desde/hasta null se consideran todas las ventas
+    public List<ProductoMasVendido> obtenerProductosMasVendidos(LocalDateTime desde, LocalDateTime hasta, int limite) {
+        if (desde == null || hasta == null) {
+            return ventaRepository.findProductosMasVendidos(Limit.of(limite));
+        }
+        return ventaRepository.findProductosMasVendidosEntre(desde, hasta, Limit.of(limite));
     }
 
     // Obtener estadísticas del día
     public EstadisticasVentas obtenerEstadisticasDelDia() {
+        LocalDate hoy = LocalDate.now();
+        return obtenerEstadisticasPorRango(hoy, hoy);
+    }
+
+    // Obtener estadísticas de un rango de días (ambos incluidos) desde el resumen diario
+    public EstadisticasVentas obtenerEstadisticasPorRango(LocalDate desde, LocalDate hasta) {
+        Object[] fila = resumenRepository.sumarEntre(desde, hasta).get(0);
+
         EstadisticasVentas stats = new EstadisticasVentas();
-        stats.setTotalVentas(calcularTotalVentasDelDia());
-        stats.setNumeroVentas(contarVentasDelDia());
-        
-        // Calcular promedio y productos vendidos
-        List<Venta> ventasDelDia = obtenerVentasDelDia();
-        // Inicializar detalles
-        ventasDelDia.forEach(v -> v.getDetalles().size());
-        
-        long totalProductos = ventasDelDia.stream()
-            .mapToLong(v -> v.getDetalles().stream()
-                .mapToLong(d -> d.getCantidad().longValue())
-                .sum())
-            .sum();
-        
-        stats.setTotalProductosVendidos(totalProductos);
+        stats.setTotalVentas(((Number) fila[0]).doubleValue());
+        stats.setNumeroVentas(((Number) fila[1]).longValue());
+        stats.setTotalProductosVendidos(((Number) fila[2]).longValue());
         stats.setPromedioVenta(stats.getNumeroVentas() > 0 ? stats.getTotalVentas() / stats.getNumeroVentas() : 0.0);
         
         return stats;
     }
 
+    // Elegir la agrupación adecuada para un rango: por día hasta dos meses, por semana hasta un año
+    public Agrupacion elegirAgrupacion(LocalDate desde, LocalDate hasta) {
+        long dias = ChronoUnit.DAYS.between(desde, hasta) + 1;
+        if (dias <= 62) {
+            return Agrupacion.DIA;
+        }
+        return dias <= 366 ? Agrupacion.SEMANA : Agrupacion.MES;
+    }
+
+    // Totales de ventas por periodo (ambos extremos incluidos), con los periodos sin ventas a cero
+    public List<TotalVentasPeriodo> obtenerVentasAgrupadas(LocalDate desde, LocalDate hasta, Agrupacion agrupacion) {
+        Map<LocalDate, TotalVentasPeriodo> porPeriodo = new HashMap<>();
+        if (agrupacion == Agrupacion.MES) {
+            for (Object[] fila : resumenRepository.sumarPorMes(desde, hasta)) {
+                LocalDate inicio = LocalDate.of(((Number) fila[0]).intValue(), ((Number) fila[1]).intValue(), 1);
+                porPeriodo.put(inicio, new TotalVentasPeriodo(inicio, (BigDecimal) fila[2], ((Number) fila[3]).longValue()));
+            }
+        } else {
+            for (TotalVentasPeriodo dia : resumenRepository.sumarPorDia(desde, hasta)) {
+                LocalDate inicio = agrupacion.inicioPeriodo(dia.getInicio());
+                porPeriodo.merge(inicio, new TotalVentasPeriodo(inicio, dia.getTotal(), dia.getNumeroVentas()),
+                    (a, b) -> new TotalVentasPeriodo(inicio, a.getTotal().add(b.getTotal()), a.getNumeroVentas() + b.getNumeroVentas()));
+            }
+        }
+
+        // Rellenar huecos: un elemento por periodo aunque no haya ventas
+        List<TotalVentasPeriodo> resultado = new ArrayList<>();
+        for (LocalDate inicio = agrupacion.inicioPeriodo(desde); !inicio.isAfter(hasta); inicio = agrupacion.siguiente(inicio)) {
+            TotalVentasPeriodo periodo = porPeriodo.get(inicio);
+            resultado.add(periodo != null ? periodo : new TotalVentasPeriodo(inicio, BigDecimal.ZERO, 0L));
+        }
+        return resultado;
+    }
+
+    // Totales de ventas activas por método de pago
+    public List<TotalVentasMetodoPago> obtenerTotalesPorMetodoPago() {
+        List<TotalVentasMetodoPago> totales = resumenRepository.sumarPorMetodoPago();
+        totales.forEach(t -> {
+            if (t.getMetodoPago().isEmpty()) {
+                t.setMetodoPago("Sin especificar");
+            }
+        });
+        return totales;
+    }
+
+    // Reconstruir el resumen diario a partir de las ventas activas (carga inicial o reparación)
+    public void reconstruirResumenDiario() {
+        resumenRepository.deleteAllInBatch();
+
+        Map<List<Object>, ResumenVentaDiario> resumenes = new LinkedHashMap<>();
+        for (Object[] fila : resumenRepository.agruparVentasActivas()) {
+            ResumenVentaDiario resumen = new ResumenVentaDiario();
+            resumen.setFecha((LocalDate) fila[0]);
+            resumen.setMetodoPago(claveMetodoPago((String) fila[1]));
+            resumen.setUsuarioId(claveUsuario((Long) fila[2]));
+            resumen.setTotal((BigDecimal) fila[3]);
+            resumen.setNumeroVentas(((Number) fila[4]).longValue());
+            resumen.setDescuento(fila[5] != null ? (BigDecimal) fila[5] : BigDecimal.ZERO);
+            resumenes.put(Arrays.asList(resumen.getFecha(), resumen.getMetodoPago(), resumen.getUsuarioId()), resumen);
+        }
+        for (Object[] fila : resumenRepository.agruparUnidadesVendidas()) {
+            List<Object> clave = Arrays.asList(fila[0], claveMetodoPago((String) fila[1]), claveUsuario((Long) fila[2]));
+            ResumenVentaDiario resumen = resumenes.get(clave);
+            if (resumen != null) {
+                resumen.setUnidadesVendidas(((Number) fila[3]).longValue());
+            }
+        }
+
+        resumenRepository.saveAll(resumenes.values());
+    }
+
+    // Indica si el resumen diario está vacío (por ejemplo, tras actualizar una base de datos antigua)
+    public boolean isResumenDiarioVacio() {
+        return resumenRepository.count() == 0;
+    }
+
+    // Reconstruir las unidades vendidas por producto y día a partir de las ventas activas
+    public void reconstruirVentasPorProducto() {
+        ventasPorProductoRepository.deleteAllInBatch();
+
+        List<VentaProductoDiaria> filas = new ArrayList<>();
+        for (Object[] fila : ventasPorProductoRepository.agruparUnidadesVendidas()) {
+            VentaProductoDiaria ventas = new VentaProductoDiaria();
+            ventas.setFecha((LocalDate) fila[0]);
+            ventas.setProductoId((Long) fila[1]);
+            ventas.setUnidades(((Number) fila[2]).longValue());
+            filas.add(ventas);
+        }
+        ventasPorProductoRepository.saveAll(filas);
+    }
+
+    // Indica si las ventas por producto están vacías (por ejemplo, tras actualizar una base de datos antigua)
+    public boolean isVentasPorProductoVacio() {
+        return ventasPorProductoRepository.count() == 0;
+    }
+
+    // Sumar (signo = 1) o restar (signo = -1) las unidades de una venta en la fila de cada producto.
+    // Si un producto aparece en varias líneas se acumula una sola vez
+    private void acumularPorProducto(Venta venta, int signo) {
+        LocalDate fecha = venta.getFecha().toLocalDate();
+        Map<Long, Long> unidadesPorProducto = new LinkedHashMap<>();
+        for (DetalleVenta detalle : venta.getDetalles()) {
+            unidadesPorProducto.merge(detalle.getProducto().getId(), detalle.getCantidad().longValue(), Long::sum);
+        }
+
+        for (Map.Entry<Long, Long> entrada : unidadesPorProducto.entrySet()) {
+            Long productoId = entrada.getKey();
+            long unidades = signo * entrada.getValue();
+            acumularFila(() -> ventasPorProductoRepository.acumular(fecha, productoId, unidades),
+                () -> jdbcTemplate.update(SQL_INSERTAR_VENTAS_PRODUCTO, fecha, productoId, unidades));
+        }
+    }
+
+    // Sumar (signo = 1) o restar (signo = -1) una venta en la fila de su día
+    private void acumularEnResumen(Venta venta, int signo) {
+        LocalDate fecha = venta.getFecha().toLocalDate();
+        String metodoPago = claveMetodoPago(venta.getMetodoPago());
+        Long usuarioId = claveUsuario(venta.getUsuario() != null ? venta.getUsuario().getId() : null);
+
+        BigDecimal factor = BigDecimal.valueOf(signo);
+        BigDecimal total = venta.getTotal().multiply(factor);
+        BigDecimal descuento = (venta.getDescuento() != null ? venta.getDescuento() : BigDecimal.ZERO).multiply(factor);
+        long unidades = signo * venta.getDetalles().stream()
+            .mapToLong(d -> d.getCantidad().longValue())
+            .sum();
+
+        acumularFila(() -> resumenRepository.acumular(fecha, metodoPago, usuarioId, total, signo, unidades, descuento),
+            () -> jdbcTemplate.update(SQL_INSERTAR_RESUMEN, fecha, metodoPago, usuarioId, total, signo, unidades, descuento));
+    }
+
+    // Sumar en una fila de resumen: UPDATE y, si la fila aún no existe, INSERT. Si otra venta
+    // la inserta a la vez, el INSERT choca con la clave única y se repite el UPDATE, que espera
+    // a que la otra transacción confirme y ya encuentra la fila. El INSERT va por JDBC: en H2
+    // un fallo solo deshace esa sentencia, mientras que uno de JPA dejaría toda la venta
+    // marcada para deshacer
+    private void acumularFila(IntSupplier actualizar, Runnable insertar) {
+        if (actualizar.getAsInt() > 0) {
+            return;
+        }
+        try {
+            insertar.run();
+        } catch (DuplicateKeyException e) {
+            if (actualizar.getAsInt() == 0) {
+                throw e;
+            }
+        }
+    }
+
+    private static String claveMetodoPago(String metodoPago) {
+        return metodoPago != null ? metodoPago : "";
+    }
+
+    private static Long claveUsuario(Long usuarioId) {
+        return usuarioId != null ? usuarioId : 0L;
+    }
+
+    // Granularidad de las series de ventas
+    public enum Agrupacion {
+        DIA, SEMANA, MES;
+
+        LocalDate inicioPeriodo(LocalDate fecha) {
+            return switch (this) {
+                case DIA -> fecha;
+                case SEMANA -> fecha.with(DayOfWeek.MONDAY);
+                case MES -> fecha.withDayOfMonth(1);
+            };
+        }
+
+        LocalDate siguiente(LocalDate inicio) {
+            return switch (this) {
+                case DIA -> inicio.plusDays(1);
+                case SEMANA -> inicio.plusWeeks(1);
+                case MES -> inicio.plusMonths(1);
+            };
+        }
+    }
+
     // Clase interna para estadísticas
     public static class EstadisticasVentas {
         private Double totalVentas;
@@ -212,4 +481,27 @@ public class VentaService {
             this.numeroVentas = cantidadVentas;
         }
     }
+
+    // Excepción que indica qué líneas de la venta no tenían stock suficiente
+    public static class StockInsuficienteException extends IllegalStateException {
+        private final List<DetalleVenta> detallesSinStock;
+
+        public StockInsuficienteException(List<DetalleVenta> detallesSinStock) {
+            super(construirMensaje(detallesSinStock));
+            this.detallesSinStock = detallesSinStock;
+        }
+
+        public List<DetalleVenta> getDetallesSinStock() {
+            return detallesSinStock;
+        }
+
+        private static String construirMensaje(List<DetalleVenta> detalles) {
+            StringBuilder sb = new StringBuilder("Stock insuficiente para:");
+            for (DetalleVenta detalle : detalles) {
+                sb.append("\n- ").append(detalle.getProducto().getNombre())
+                  .append(" (Solicitado: ").append(detalle.getCantidad()).append(")");
+            }
+            return sb.toString();
+        }
+    }
 }
@@ -1,6 +1,7 @@
 package com.farmacia.ui;
 
 import com.farmacia.model.Alerta;
+import com.farmacia.model.UmbralAlertas;
 import com.farmacia.service.AlertaService;
 import javafx.application.Platform;
 import javafx.collections.FXCollections;
@@ -15,9 +16,10 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.Map;
+import java.util.function.Consumer;
 
 /**
  * Panel de alertas del sistema
@@ -37,7 +39,10 @@ public class AlertasPanel extends BorderPane {
     private Label lblPedidosPendientes;
     
     private ComboBox<String> filtroTipo;
-    private Timer actualizacionTimer;
+    private ProgressIndicator indicadorCarga;
+
+    // Última instantánea recibida del evaluador de alertas (solo en el hilo de JavaFX)
+    private AlertaService.InstantaneaAlertas instantanea;
 
     public void initialize() {
         setPadding(new Insets(15));
@@ -51,11 +56,8 @@ public class AlertasPanel extends BorderPane {
         VBox centerContainer = crearListaAlertas();
         setCenter(centerContainer);
 
-        // Cargar alertas iniciales
-        cargarAlertas();
-
-        // Actualización automática cada 2 minutos
-        iniciarActualizacionAutomatica();
+        // El evaluador de alertas envía cada instantánea nueva (y la actual al suscribirse)
+        alertaService.registrarObservador(nueva -> Platform.runLater(() -> mostrarInstantanea(nueva)));
     }
 
     private VBox crearResumen() {
@@ -72,12 +74,20 @@ public class AlertasPanel extends BorderPane {
         Button btnRefrescar = new Button("🔄 Actualizar");
         btnRefrescar.setStyle("-fx-background-color: #007bff; -fx-text-fill: white; " +
                 "-fx-padding: 8 15; -fx-cursor: hand;");
-        btnRefrescar.setOnAction(e -> cargarAlertas());
+        btnRefrescar.setOnAction(e -> {
+            indicadorCarga.setVisible(true);
+            alertaService.evaluarAhora();
+        });
+
+        Button btnUmbrales = new Button("⚙ Umbrales");
+        btnUmbrales.setStyle("-fx-background-color: #6c757d; -fx-text-fill: white; " +
+                "-fx-padding: 8 15; -fx-cursor: hand;");
+        btnUmbrales.setOnAction(e -> mostrarDialogoUmbrales());
 
         Region spacer = new Region();
         HBox.setHgrow(spacer, Priority.ALWAYS);
 
-        headerBox.getChildren().addAll(titulo, spacer, btnRefrescar);
+        headerBox.getChildren().addAll(titulo, spacer, btnUmbrales, btnRefrescar);
 
         // Tarjetas de resumen
         HBox tarjetasBox = new HBox(10);
@@ -147,7 +157,13 @@ public class AlertasPanel extends BorderPane {
         filtroTipo.setOnAction(e -> aplicarFiltro());
         filtroTipo.setPrefWidth(200);
 
-        filtrosBox.getChildren().addAll(lblFiltro, filtroTipo);
+        // Visible hasta que llega la primera instantánea (o la pedida con "Actualizar")
+        indicadorCarga = new ProgressIndicator();
+        indicadorCarga.setMaxSize(24, 24);
+        indicadorCarga.setPrefSize(24, 24);
+        indicadorCarga.managedProperty().bind(indicadorCarga.visibleProperty());
+
+        filtrosBox.getChildren().addAll(lblFiltro, filtroTipo, indicadorCarga);
 
         // Lista de alertas
         listaAlertas = new ListView<>();
@@ -158,12 +174,13 @@ public class AlertasPanel extends BorderPane {
         return container;
     }
 
-    private void cargarAlertas() {
-        List<Alerta> alertas = alertaService.obtenerTodasLasAlertas();
-        listaAlertas.setItems(FXCollections.observableArrayList(alertas));
+    private void mostrarInstantanea(AlertaService.InstantaneaAlertas nueva) {
+        // Lista y estadísticas salen de la misma instantánea de alertas
+        instantanea = nueva;
+        indicadorCarga.setVisible(false);
+        aplicarFiltro();
 
-        // Actualizar estadísticas
-        AlertaService.EstadisticasAlertas stats = alertaService.obtenerEstadisticas();
+        AlertaService.EstadisticasAlertas stats = nueva.getEstadisticas();
         lblTotalAlertas.setText(String.valueOf(stats.total));
         lblCriticas.setText(String.valueOf(stats.criticas));
         lblStockBajo.setText(String.valueOf(stats.stockBajo));
@@ -173,9 +190,14 @@ public class AlertasPanel extends BorderPane {
     }
 
     private void aplicarFiltro() {
-        String filtro = filtroTipo.getValue();
-        List<Alerta> alertas = alertaService.obtenerTodasLasAlertas();
+        // Se filtra la instantánea ya recibida, sin volver a pedir las alertas
+        if (instantanea == null) {
+            return;
+        }
+        listaAlertas.setItems(FXCollections.observableArrayList(filtrarAlertas(instantanea.getAlertas(), filtroTipo.getValue())));
+    }
 
+    private List<Alerta> filtrarAlertas(List<Alerta> alertas, String filtro) {
         if (!"Todas".equals(filtro)) {
             alertas = alertas.stream()
                     .filter(a -> {
@@ -192,24 +214,135 @@ public class AlertasPanel extends BorderPane {
                     .toList();
         }
 
-        listaAlertas.setItems(FXCollections.observableArrayList(alertas));
+        return alertas;
     }
 
-    private void iniciarActualizacionAutomatica() {
-        actualizacionTimer = new Timer(true);
-        actualizacionTimer.scheduleAtFixedRate(new TimerTask() {
-            @Override
-            public void run() {
-                Platform.runLater(() -> cargarAlertas());
+    /**
+     * Diálogo para cambiar los umbrales globales y los de cada categoría. Los productos con
+     * stock mínimo o días de aviso propios (formulario del producto) no se ven afectados
+     */
+    private void mostrarDialogoUmbrales() {
+        Dialog<Void> dialog = new Dialog<>();
+        dialog.setTitle("Umbrales de Alertas");
+        dialog.setHeaderText("Umbrales globales y por categoría (vacío en una categoría: se usa el global)");
+        dialog.getDialogPane().getButtonTypes().add(ButtonType.CLOSE);
+
+        GridPane grid = new GridPane();
+        grid.setHgap(10);
+        grid.setVgap(10);
+        grid.setPadding(new Insets(20));
+
+        // Globales
+        Label lblGlobal = new Label("Globales");
+        lblGlobal.setStyle("-fx-font-weight: bold;");
+        TextField txtStockGlobal = new TextField();
+        TextField txtDiasAvisoGlobal = new TextField();
+        TextField txtDiasPedidoGlobal = new TextField();
+        Button btnGuardarGlobal = new Button("💾 Guardar globales");
+
+        // Por categoría
+        Label lblCategoria = new Label("Por categoría");
+        lblCategoria.setStyle("-fx-font-weight: bold;");
+        ComboBox<String> cmbCategoria = new ComboBox<>();
+        cmbCategoria.setEditable(true);
+        cmbCategoria.setPromptText("Categoría");
+        cmbCategoria.setPrefWidth(200);
+        TextField txtStockCategoria = new TextField();
+        txtStockCategoria.setPromptText("Global");
+        TextField txtDiasAvisoCategoria = new TextField();
+        txtDiasAvisoCategoria.setPromptText("Global");
+        Button btnGuardarCategoria = new Button("💾 Guardar categoría");
+
+        TareaUI tareaUmbrales = new TareaUI();
+        btnGuardarGlobal.disableProperty().bind(tareaUmbrales.ocupadoProperty());
+        btnGuardarCategoria.disableProperty().bind(tareaUmbrales.ocupadoProperty());
+
+        // Umbrales leídos (solo en el hilo de JavaFX) para rellenar los campos al elegir categoría
+        Map<String, UmbralAlertas> porCategoria = new HashMap<>();
+        Consumer<AlertaService.Umbrales> mostrar = umbrales -> {
+            txtStockGlobal.setText(String.valueOf(umbrales.getStockMinimo()));
+            txtDiasAvisoGlobal.setText(String.valueOf(umbrales.getDiasAvisoCaducidad()));
+            txtDiasPedidoGlobal.setText(String.valueOf(umbrales.getDiasPedidoRetrasado()));
+            porCategoria.clear();
+            umbrales.getCategorias().forEach(u -> porCategoria.put(u.getCategoria(), u));
+            cmbCategoria.setItems(FXCollections.observableArrayList(porCategoria.keySet()).sorted());
+        };
+        cmbCategoria.valueProperty().addListener((obs, anterior, categoria) -> {
+            UmbralAlertas umbral = porCategoria.get(categoria);
+            txtStockCategoria.setText(umbral != null && umbral.getStockMinimo() != null ? umbral.getStockMinimo().toString() : "");
+            txtDiasAvisoCategoria.setText(umbral != null && umbral.getDiasAvisoCaducidad() != null
+                    ? umbral.getDiasAvisoCaducidad().toString() : "");
+        });
+
+        btnGuardarGlobal.setOnAction(e -> {
+            try {
+                int stockMinimo = Integer.parseInt(txtStockGlobal.getText().trim());
+                int diasAviso = Integer.parseInt(txtDiasAvisoGlobal.getText().trim());
+                int diasPedido = Integer.parseInt(txtDiasPedidoGlobal.getText().trim());
+                tareaUmbrales.escribir(() -> {
+                    alertaService.guardarUmbralGlobal(stockMinimo, diasAviso, diasPedido);
+                    return alertaService.obtenerUmbrales();
+                }, mostrar, error -> mostrarError(error.getMessage()));
+            } catch (NumberFormatException ex) {
+                mostrarError("Los umbrales globales deben ser números enteros válidos");
             }
-        }, 120000, 120000); // Cada 2 minutos
+        });
+        btnGuardarCategoria.setOnAction(e -> {
+            String categoria = cmbCategoria.getValue() != null ? cmbCategoria.getValue().trim() : "";
+            try {
+                Integer stockMinimo = enteroOpcional(txtStockCategoria.getText());
+                Integer diasAviso = enteroOpcional(txtDiasAvisoCategoria.getText());
+                tareaUmbrales.escribir(() -> {
+                    alertaService.guardarUmbralCategoria(categoria, stockMinimo, diasAviso);
+                    return alertaService.obtenerUmbrales();
+                }, mostrar, error -> mostrarError(error.getMessage()));
+            } catch (NumberFormatException ex) {
+                mostrarError("Los umbrales de la categoría deben ser números enteros válidos");
+            }
+        });
+
+        int row = 0;
+        grid.add(lblGlobal, 0, row++, 2, 1);
+        grid.add(new Label("Stock mínimo:"), 0, row);
+        grid.add(txtStockGlobal, 1, row++);
+        grid.add(new Label("Aviso caducidad (días):"), 0, row);
+        grid.add(txtDiasAvisoGlobal, 1, row++);
+        grid.add(new Label("Pedido retrasado (días):"), 0, row);
+        grid.add(txtDiasPedidoGlobal, 1, row++);
+        grid.add(btnGuardarGlobal, 1, row++);
+        grid.add(new Separator(), 0, row++, 2, 1);
+        grid.add(lblCategoria, 0, row++, 2, 1);
+        grid.add(new Label("Categoría:"), 0, row);
+        grid.add(cmbCategoria, 1, row++);
+        grid.add(new Label("Stock mínimo:"), 0, row);
+        grid.add(txtStockCategoria, 1, row++);
+        grid.add(new Label("Aviso caducidad (días):"), 0, row);
+        grid.add(txtDiasAvisoCategoria, 1, row++);
+        grid.add(new HBox(10, btnGuardarCategoria, tareaUmbrales.crearIndicador()), 1, row);
+
+        dialog.getDialogPane().setContent(grid);
+        tareaUmbrales.ejecutar(alertaService::obtenerUmbrales, mostrar, "Error al cargar los umbrales");
+        dialog.showAndWait();
+    }
+
+    // Número entero o null si el campo está vacío
+    private static Integer enteroOpcional(String texto) {
+        return texto == null || texto.trim().isEmpty() ? null : Integer.parseInt(texto.trim());
+    }
+
+    private void mostrarError(String mensaje) {
+        Alert alert = new Alert(Alert.AlertType.ERROR);
+        alert.setTitle("Error");
+        alert.setHeaderText(null);
+        alert.setContentText(mensaje);
+        alert.showAndWait();
     }
 
     /**
      * Obtiene el número total de alertas críticas
      */
     public int getNumeroAlertasCriticas() {
-        return alertaService.obtenerAlertasCriticas().size();
+        return alertaService.contarAlertas().criticas;
     }
 
     /**
@@ -0,0 +1,180 @@
+package com.farmacia.ui;
+
+import javafx.animation.PauseTransition;
+import javafx.util.Duration;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Búsqueda mientras se escribe: cada pulsación reprograma la consulta y solo se
+ * lanza cuando el usuario deja de teclear durante un momento (debounce). La
+ * consulta se ejecuta en la ranura TareaUI del panel, así que una consulta nueva
+ * deja obsoleta la que siga en curso y solo se aplica el resultado más reciente.
+ *
+ * Las cargas que no vienen del teclado (botones, refrescos tras guardar) se lanzan
+ * con ejecutarAhora, que además descarta la búsqueda pendiente.
+ * Cada panel registra sus métricas (pulsaciones, consultas y latencia) por nombre.
+ * Los métodos de instancia deben llamarse desde el hilo de JavaFX.
+ */
+public class BusquedaUI {
+
+    private static final Duration ESPERA_POR_DEFECTO = Duration.millis(300);
+
+    private static final Map<String, Metricas> METRICAS = new ConcurrentHashMap<>();
+
+    private final TareaUI tarea;
+    private final PauseTransition pausa;
+    private final Metricas metricas;
+    private Runnable pendiente;
+
+    public BusquedaUI(String panel, TareaUI tarea) {
+        this(panel, tarea, ESPERA_POR_DEFECTO);
+    }
+
+    public BusquedaUI(String panel, TareaUI tarea, Duration espera) {
+        this.tarea = tarea;
+        this.metricas = METRICAS.computeIfAbsent(panel, Metricas::new);
+        this.pausa = new PauseTransition(espera);
+        this.pausa.setOnFinished(e -> {
+            Runnable accion = pendiente;
+            pendiente = null;
+            if (accion != null) {
+                accion.run();
+            }
+        });
+    }
+
+    /**
+     * Programa la consulta para cuando el usuario deje de escribir; sustituye a la
+     * programada anteriormente. Los errores se muestran en un diálogo
+     */
+    public <T> void buscar(Callable<T> consulta, Consumer<T> alTerminar) {
+        metricas.pulsaciones.incrementAndGet();
+        pendiente = () -> lanzar(consulta, alTerminar, null);
+        pausa.playFromStart();
+    }
+
+    /**
+     * Programa la consulta para cuando el usuario deje de escribir, con su propio manejo de errores
+     */
+    public <T> void buscar(Callable<T> consulta, Consumer<T> alTerminar, Consumer<Throwable> alFallar) {
+        metricas.pulsaciones.incrementAndGet();
+        pendiente = () -> lanzar(consulta, alTerminar, alFallar);
+        pausa.playFromStart();
+    }
+
+    /**
+     * Lanza la consulta ya, descartando la búsqueda programada y la que siga en curso
+     */
+    public <T> void ejecutarAhora(Callable<T> consulta, Consumer<T> alTerminar) {
+        cancelarPendiente();
+        lanzar(consulta, alTerminar, null);
+    }
+
+    /**
+     * Lanza la consulta ya, con su propio manejo de errores
+     */
+    public <T> void ejecutarAhora(Callable<T> consulta, Consumer<T> alTerminar, Consumer<Throwable> alFallar) {
+        cancelarPendiente();
+        lanzar(consulta, alTerminar, alFallar);
+    }
+
+    /**
+     * Descarta la búsqueda programada que aún no se ha lanzado
+     */
+    public void cancelarPendiente() {
+        pausa.stop();
+        pendiente = null;
+    }
+
+    public Metricas getMetricas() {
+        return metricas;
+    }
+
+    private <T> void lanzar(Callable<T> consulta, Consumer<T> alTerminar, Consumer<Throwable> alFallar) {
+        metricas.consultas.incrementAndGet();
+        long inicio = System.nanoTime();
+
+        Consumer<T> aplicar = resultado -> {
+            metricas.registrarLatencia(System.nanoTime() - inicio);
+            alTerminar.accept(resultado);
+        };
+        if (alFallar == null) {
+            tarea.ejecutar(consulta, aplicar);
+        } else {
+            tarea.ejecutar(consulta, aplicar, error -> {
+                metricas.fallidas.incrementAndGet();
+                alFallar.accept(error);
+            });
+        }
+    }
+
+    /**
+     * Métricas registradas por un panel
+     */
+    public static Metricas obtenerMetricas(String panel) {
+        return METRICAS.get(panel);
+    }
+
+    /**
+     * Métricas de todos los paneles con búsqueda
+     */
+    public static List<Metricas> obtenerTodasLasMetricas() {
+        return new ArrayList<>(METRICAS.values());
+    }
+
+    /**
+     * Contadores de la búsqueda de un panel. Las consultas descartadas son las que
+     * quedaron obsoletas porque llegó otra más reciente antes de aplicarse
+     */
+    public static class Metricas {
+        private final String panel;
+        private final AtomicLong pulsaciones = new AtomicLong();
+        private final AtomicLong consultas = new AtomicLong();
+        private final AtomicLong aplicadas = new AtomicLong();
+        private final AtomicLong fallidas = new AtomicLong();
+        private final AtomicLong latenciaTotalNanos = new AtomicLong();
+        private final AtomicLong latenciaMaximaNanos = new AtomicLong();
+        private final AtomicLong ultimaLatenciaNanos = new AtomicLong();
+
+        Metricas(String panel) {
+            this.panel = panel;
+        }
+
+        private void registrarLatencia(long nanos) {
+            aplicadas.incrementAndGet();
+            latenciaTotalNanos.addAndGet(nanos);
+            latenciaMaximaNanos.accumulateAndGet(nanos, Math::max);
+            ultimaLatenciaNanos.set(nanos);
+        }
+
+        public String getPanel() { return panel; }
+        public long getPulsaciones() { return pulsaciones.get(); }
+        public long getConsultas() { return consultas.get(); }
+        public long getAplicadas() { return aplicadas.get(); }
+        public long getFallidas() { return fallidas.get(); }
+        public long getDescartadas() { return Math.max(0, consultas.get() - aplicadas.get() - fallidas.get()); }
+
+        public double getLatenciaMediaMs() {
+            long n = aplicadas.get();
+            return n == 0 ? 0 : latenciaTotalNanos.get() / 1_000_000.0 / n;
+        }
+
+        public double getLatenciaMaximaMs() { return latenciaMaximaNanos.get() / 1_000_000.0; }
+        public double getUltimaLatenciaMs() { return ultimaLatenciaNanos.get() / 1_000_000.0; }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %d pulsaciones, %d consultas (%d aplicadas, %d descartadas, %d con error), " +
+                    "latencia media %.1f ms, máxima %.1f ms",
+                    panel, getPulsaciones(), getConsultas(), getAplicadas(), getDescartadas(), getFallidas(),
+                    getLatenciaMediaMs(), getLatenciaMaximaMs());
+        }
+    }
+}
@@ -13,7 +13,9 @@ import javafx.scene.text.Font;
 import javafx.scene.text.FontWeight;
 
 import java.time.format.DateTimeFormatter;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.Callable;
 
 /**
  * Panel de gestión de clientes
@@ -42,6 +44,11 @@ public class ClientesPanel extends VBox {
     private TextField txtBusqueda;
     private ComboBox<String> cbFiltroBusqueda;
 
+    // Consultas y operaciones en segundo plano
+    private final TareaUI tareaBusqueda = new TareaUI();
+    private final BusquedaUI busqueda = new BusquedaUI("Clientes", tareaBusqueda);
+    private final TareaUI tareaGuardado = new TareaUI();
+
     // Cliente seleccionado para edición
     private Cliente clienteActual = null;
 
@@ -216,7 +223,7 @@ public class ClientesPanel extends VBox {
         txtBusqueda = new TextField();
         txtBusqueda.setPromptText("Ingrese texto de búsqueda");
         txtBusqueda.setPrefWidth(300);
-        txtBusqueda.textProperty().addListener((obs, old, newVal) -> filtrarClientes());
+        txtBusqueda.textProperty().addListener((obs, old, newVal) -> programarBusqueda());
 
         Button btnBuscar = new Button("🔍 Buscar");
         btnBuscar.setOnAction(e -> filtrarClientes());
@@ -224,7 +231,7 @@ public class ClientesPanel extends VBox {
         Button btnActualizar = new Button("🔄 Actualizar");
         btnActualizar.setOnAction(e -> cargarClientes());
 
-        panelBusqueda.getChildren().addAll(lblBusqueda, cbFiltroBusqueda, txtBusqueda, btnBuscar, btnActualizar);
+        panelBusqueda.getChildren().addAll(lblBusqueda, cbFiltroBusqueda, txtBusqueda, btnBuscar, btnActualizar, tareaBusqueda.crearIndicador());
 
         // Tabla de clientes
         tablaClientes = new TableView<>();
@@ -330,6 +337,9 @@ public class ClientesPanel extends VBox {
      * Guardar o actualizar cliente
      */
     private void guardarCliente() {
+        if (tareaGuardado.isOcupado()) {
+            return;
+        }
         try {
             // Crear o actualizar cliente
             Cliente cliente = clienteActual != null ? clienteActual : new Cliente();
@@ -345,17 +355,17 @@ public class ClientesPanel extends VBox {
             cliente.setCodigoPostal(txtCodigoPostal.getText().trim().isEmpty() ? null : txtCodigoPostal.getText().trim());
             cliente.setObservaciones(txtObservaciones.getText().trim().isEmpty() ? null : txtObservaciones.getText().trim());
 
-            // Guardar
-            if (clienteActual == null) {
-                clienteService.registrarCliente(cliente);
-                mostrarMensaje("Cliente registrado exitosamente", Alert.AlertType.INFORMATION);
-            } else {
-                clienteService.actualizarCliente(cliente);
-                mostrarMensaje("Cliente actualizado exitosamente", Alert.AlertType.INFORMATION);
-            }
-
-            limpiarFormulario();
-            cargarClientes();
+            // Guardar en segundo plano
+            boolean nuevo = clienteActual == null;
+            tareaGuardado.escribir(
+                () -> nuevo ? clienteService.registrarCliente(cliente) : clienteService.actualizarCliente(cliente),
+                guardado -> {
+                    mostrarMensaje(nuevo ? "Cliente registrado exitosamente" : "Cliente actualizado exitosamente",
+                            Alert.AlertType.INFORMATION);
+                    limpiarFormulario();
+                    cargarClientes();
+                },
+                e -> mostrarMensaje("Error: " + e.getMessage(), Alert.AlertType.ERROR));
 
         } catch (Exception e) {
             mostrarMensaje("Error: " + e.getMessage(), Alert.AlertType.ERROR);
@@ -394,13 +404,16 @@ public class ClientesPanel extends VBox {
 
         Optional<ButtonType> result = confirmacion.showAndWait();
         if (result.isPresent() && result.get() == ButtonType.OK) {
-            try {
-                clienteService.eliminarCliente(cliente.getId());
-                mostrarMensaje("Cliente eliminado exitosamente", Alert.AlertType.INFORMATION);
-                cargarClientes();
-            } catch (Exception e) {
-                mostrarMensaje("Error al eliminar: " + e.getMessage(), Alert.AlertType.ERROR);
-            }
+            tareaGuardado.escribir(
+                () -> {
+                    clienteService.eliminarCliente(cliente.getId());
+                    return null;
+                },
+                r -> {
+                    mostrarMensaje("Cliente eliminado exitosamente", Alert.AlertType.INFORMATION);
+                    cargarClientes();
+                },
+                e -> mostrarMensaje("Error al eliminar: " + e.getMessage(), Alert.AlertType.ERROR));
         }
     }
 
@@ -426,50 +439,69 @@ public class ClientesPanel extends VBox {
      * Cargar todos los clientes
      */
     private void cargarClientes() {
-        listaClientes.clear();
-        listaClientes.addAll(clienteService.obtenerClientesActivos());
-        actualizarEstadisticas();
+        mostrarClientes(clienteService::obtenerClientesActivos);
     }
 
     /**
-     * Filtrar clientes según criterio de búsqueda
+     * Filtrar clientes según criterio de búsqueda (botón Buscar: consulta inmediata)
      */
     private void filtrarClientes() {
-        String busqueda = txtBusqueda.getText().trim();
+        mostrarClientes(consultaClientes());
+    }
+
+    /**
+     * Búsqueda mientras se escribe: se lanza cuando el usuario deja de teclear
+     */
+    private void programarBusqueda() {
+        busqueda.buscar(consultaClientes(), this::aplicarClientes, this::mostrarErrorBusqueda);
+    }
+
+    /**
+     * Consulta que corresponde al texto y al filtro actuales
+     */
+    private Callable<List<Cliente>> consultaClientes() {
+        String texto = txtBusqueda.getText().trim();
         String filtro = cbFiltroBusqueda.getValue();
 
-        listaClientes.clear();
+        if (texto.isEmpty()) {
+            return clienteService::obtenerClientesActivos;
+        }
 
-        try {
-            if (busqueda.isEmpty()) {
-                listaClientes.addAll(clienteService.obtenerClientesActivos());
-            } else {
-                switch (filtro) {
-                    case "Nombre":
-                        listaClientes.addAll(clienteService.buscarPorNombre(busqueda));
-                        break;
-                    case "Documento":
-                        Optional<Cliente> cliente = clienteService.obtenerClientePorDocumento(busqueda);
-                        cliente.ifPresent(listaClientes::add);
-                        break;
-                    case "Email":
-                        listaClientes.addAll(clienteService.buscarPorEmail(busqueda));
-                        break;
-                    case "Teléfono":
-                        listaClientes.addAll(clienteService.buscarPorTelefono(busqueda));
-                        break;
-                    case "Ciudad":
-                        listaClientes.addAll(clienteService.buscarPorCiudad(busqueda));
-                        break;
-                    default:
-                        listaClientes.addAll(clienteService.busquedaGeneral(busqueda));
-                }
-            }
-        } catch (Exception e) {
-            mostrarMensaje("Error en búsqueda: " + e.getMessage(), Alert.AlertType.ERROR);
+        switch (filtro) {
+            case "Nombre":
+                return () -> clienteService.buscarPorNombre(texto);
+            case "Documento":
+                return () -> clienteService.obtenerClientePorDocumento(texto)
+                        .map(List::of)
+                        .orElse(List.of());
+            case "Email":
+                return () -> clienteService.buscarPorEmail(texto);
+            case "Teléfono":
+                return () -> clienteService.buscarPorTelefono(texto);
+            case "Ciudad":
+                return () -> clienteService.buscarPorCiudad(texto);
+            default:
+                return () -> clienteService.busquedaGeneral(texto);
         }
+    }
+
+    /**
+     * Ejecutar la consulta en segundo plano y mostrar su resultado
+     * (descarta la búsqueda en curso y la pendiente del teclado)
+     */
+    private void mostrarClientes(Callable<List<Cliente>> consulta) {
+        busqueda.ejecutarAhora(consulta, this::aplicarClientes, this::mostrarErrorBusqueda);
+    }
 
+    private void aplicarClientes(List<Cliente> clientes) {
+        listaClientes.setAll(clientes);
+        actualizarEstadisticas();
+    }
+
+    private void mostrarErrorBusqueda(Throwable e) {
+        listaClientes.clear();
         actualizarEstadisticas();
+        mostrarMensaje("Error en búsqueda: " + e.getMessage(), Alert.AlertType.ERROR);
     }
 
     /**
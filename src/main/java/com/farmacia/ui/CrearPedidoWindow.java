@@ -54,6 +54,9 @@ public class CrearPedidoWindow {
     
     private TextField txtDescuento;
 
+    // Guardado del pedido en segundo plano
+    private final TareaUI tareaGuardado = new TareaUI();
+
     public CrearPedidoWindow(ProveedorService proveedorService, PedidoService pedidoService, 
                             ProductoService productoService, Runnable onSuccess) {
         this.proveedorService = proveedorService;
@@ -118,8 +121,9 @@ public class CrearPedidoWindow {
         cbProveedor = new ComboBox<>();
         cbProveedor.setPromptText("Seleccione un proveedor");
         cbProveedor.setPrefWidth(350);
-        List<Proveedor> proveedores = proveedorService.obtenerTodosActivos();
-        cbProveedor.setItems(FXCollections.observableArrayList(proveedores));
+        TareaUI tareaProveedores = new TareaUI();
+        tareaProveedores.ejecutar(proveedorService::obtenerTodosActivos,
+            proveedores -> cbProveedor.setItems(FXCollections.observableArrayList(proveedores)));
         
         // Formato personalizado para mostrar nombre y empresa
         cbProveedor.setCellFactory(param -> new ListCell<>() {
@@ -159,7 +163,7 @@ public class CrearPedidoWindow {
         txtObservaciones.setWrapText(true);
 
         grid.add(lblProveedor, 0, 0);
-        grid.add(cbProveedor, 1, 0);
+        grid.add(new HBox(10, cbProveedor, tareaProveedores.crearIndicador()), 1, 0);
         grid.add(lblFecha, 0, 1);
         grid.add(dpFechaEntregaEstimada, 1, 1);
         grid.add(lblObs, 0, 2);
@@ -382,8 +386,9 @@ public class CrearPedidoWindow {
         // Producto
         Label lblProducto = new Label("Producto:*");
         ComboBox<Producto> cbProducto = new ComboBox<>();
-        List<Producto> productos = productoService.obtenerTodosActivos();
-        cbProducto.setItems(FXCollections.observableArrayList(productos));
+        TareaUI tareaProductos = new TareaUI();
+        tareaProductos.ejecutar(productoService::obtenerTodosActivos,
+            productos -> cbProducto.setItems(FXCollections.observableArrayList(productos)));
         cbProducto.setPromptText("Seleccione un producto");
         cbProducto.setPrefWidth(300);
         
@@ -434,7 +439,7 @@ public class CrearPedidoWindow {
         txtDescuentoItem.setPrefWidth(100);
 
         grid.add(lblProducto, 0, 0);
-        grid.add(cbProducto, 1, 0);
+        grid.add(new HBox(10, cbProducto, tareaProductos.crearIndicador()), 1, 0);
         grid.add(lblCantidad, 0, 1);
         grid.add(txtCantidad, 1, 1);
         grid.add(lblPrecio, 0, 2);
@@ -522,6 +527,9 @@ public class CrearPedidoWindow {
     }
 
     private void guardarPedido(Pedido.EstadoPedido estado) {
+        if (tareaGuardado.isOcupado()) {
+            return;
+        }
         try {
             // Validaciones
             if (cbProveedor.getValue() == null) {
@@ -559,14 +567,17 @@ public class CrearPedidoWindow {
             pedido.setDescuento(descuento);
             pedido.calcularTotal();
 
-            // Guardar
-            pedidoService.crearPedido(pedido);
-
-            mostrarExito("Pedido creado exitosamente");
-            if (onSuccess != null) {
-                onSuccess.run();
-            }
-            stage.close();
+            // Guardar en segundo plano
+            tareaGuardado.escribir(
+                () -> pedidoService.crearPedido(pedido),
+                guardado -> {
+                    mostrarExito("Pedido creado exitosamente");
+                    if (onSuccess != null) {
+                        onSuccess.run();
+                    }
+                    stage.close();
+                },
+                e -> mostrarError("Error al guardar el pedido: " + e.getMessage()));
 
         } catch (Exception e) {
             mostrarError("Error al guardar el pedido: " + e.getMessage());
@@ -16,8 +16,8 @@ import javafx.stage.Modality;
 import javafx.stage.Stage;
 
 import java.time.format.DateTimeFormatter;
-import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.Callable;
 
 public class GestionUsuariosPanel extends VBox {
     
@@ -27,6 +27,7 @@ public class GestionUsuariosPanel extends VBox {
     private TableView<Usuario> tablaUsuarios;
     private ObservableList<Usuario> listaUsuarios;
     private TextField searchField;
+    private final TareaUI tareaCarga = new TareaUI();
     
     public GestionUsuariosPanel(UsuarioService usuarioService, Usuario usuarioActual) {
         this.usuarioService = usuarioService;
@@ -122,7 +123,7 @@ public class GestionUsuariosPanel extends VBox {
         toolbar.setAlignment(Pos.CENTER_LEFT);
         toolbar.setPadding(new Insets(10));
         toolbar.setStyle("-fx-background-color: white; -fx-background-radius: 5; -fx-border-color: #ddd; -fx-border-radius: 5;");
-        toolbar.getChildren().addAll(searchField, spacer, btnNuevo, btnEditar, btnCambiarPassword, btnToggleActivo, btnRefrescar);
+        toolbar.getChildren().addAll(searchField, tareaCarga.crearIndicador(), spacer, btnNuevo, btnEditar, btnCambiarPassword, btnToggleActivo, btnRefrescar);
         
         return toolbar;
     }
@@ -210,8 +211,7 @@ public class GestionUsuariosPanel extends VBox {
     }
     
     private void cargarUsuarios() {
-        List<Usuario> usuarios = usuarioService.listarTodos();
-        listaUsuarios.setAll(usuarios);
+        tareaCarga.ejecutar(usuarioService::listarTodos, usuarios -> listaUsuarios.setAll(usuarios));
     }
     
     private void filtrarUsuarios(String filtro) {
@@ -221,25 +221,24 @@ public class GestionUsuariosPanel extends VBox {
         }
         
         String filtroLower = filtro.toLowerCase();
-        List<Usuario> usuarios = usuarioService.listarTodos();
-        List<Usuario> filtrados = usuarios.stream()
-            .filter(u -> u.getUsername().toLowerCase().contains(filtroLower) ||
-                        u.getNombreCompleto().toLowerCase().contains(filtroLower))
-            .toList();
-        
-        listaUsuarios.setAll(filtrados);
+        tareaCarga.ejecutar(
+            () -> usuarioService.listarTodos().stream()
+                .filter(u -> u.getUsername().toLowerCase().contains(filtroLower) ||
+                            u.getNombreCompleto().toLowerCase().contains(filtroLower))
+                .toList(),
+            filtrados -> listaUsuarios.setAll(filtrados));
     }
     
     private void mostrarFormularioNuevo() {
-        UsuarioFormDialog dialog = new UsuarioFormDialog(null, usuarioService);
-        dialog.showAndWait().ifPresent(usuario -> cargarUsuarios());
+        UsuarioFormDialog dialog = new UsuarioFormDialog(null, usuarioService, this::cargarUsuarios);
+        dialog.showAndWait();
     }
     
     private void editarSeleccionado() {
         Usuario seleccionado = tablaUsuarios.getSelectionModel().getSelectedItem();
         if (seleccionado != null) {
-            UsuarioFormDialog dialog = new UsuarioFormDialog(seleccionado, usuarioService);
-            dialog.showAndWait().ifPresent(usuario -> cargarUsuarios());
+            UsuarioFormDialog dialog = new UsuarioFormDialog(seleccionado, usuarioService, this::cargarUsuarios);
+            dialog.showAndWait();
         }
     }
     
@@ -270,12 +269,18 @@ public class GestionUsuariosPanel extends VBox {
         
         confirmacion.showAndWait().ifPresent(response -> {
             if (response == ButtonType.OK) {
-                if (seleccionado.getActivo()) {
-                    usuarioService.desactivarUsuario(seleccionado.getId());
-                } else {
-                    usuarioService.activarUsuario(seleccionado.getId());
-                }
-                cargarUsuarios();
+                boolean desactivar = seleccionado.getActivo();
+                new TareaUI().ejecutar(
+                    () -> {
+                        if (desactivar) {
+                            usuarioService.desactivarUsuario(seleccionado.getId());
+                        } else {
+                            usuarioService.activarUsuario(seleccionado.getId());
+                        }
+                        return null;
+                    },
+                    r -> cargarUsuarios(),
+                    e -> mostrarAlerta("Error al " + accion + " el usuario: " + e.getMessage(), Alert.AlertType.ERROR));
             }
         });
     }
@@ -294,6 +299,7 @@ public class GestionUsuariosPanel extends VBox {
         
         private final Usuario usuario; // null si es nuevo
         private final UsuarioService usuarioService;
+        private final Runnable alGuardar; // se ejecuta cuando el guardado termina bien
         
         private TextField usernameField;
         private TextField nombreField;
@@ -301,9 +307,10 @@ public class GestionUsuariosPanel extends VBox {
         private PasswordField confirmPasswordField;
         private ComboBox<Usuario.Rol> rolComboBox;
         
-        public UsuarioFormDialog(Usuario usuario, UsuarioService usuarioService) {
+        public UsuarioFormDialog(Usuario usuario, UsuarioService usuarioService, Runnable alGuardar) {
             this.usuario = usuario;
             this.usuarioService = usuarioService;
+            this.alGuardar = alGuardar;
             
             setTitle(usuario == null ? "Nuevo Usuario" : "Editar Usuario");
             setHeaderText(usuario == null ? "Crear un nuevo usuario" : "Modificar usuario: " + usuario.getUsername());
@@ -395,7 +402,8 @@ public class GestionUsuariosPanel extends VBox {
                                 return null;
                             }
                             
-                            return usuarioService.crearUsuario(username, password, nombre, rol);
+                            guardarEnSegundoPlano(() -> usuarioService.crearUsuario(username, password, nombre, rol));
+                            return null;
                             
                         } else {
                             // Editar existente
@@ -407,7 +415,8 @@ public class GestionUsuariosPanel extends VBox {
                                 return null;
                             }
                             
-                            return usuarioService.actualizarUsuario(usuario.getId(), nombre, rol, usuario.getActivo());
+                            guardarEnSegundoPlano(() -> usuarioService.actualizarUsuario(usuario.getId(), nombre, rol, usuario.getActivo()));
+                            return null;
                         }
                     } catch (Exception e) {
                         mostrarError("Error al guardar: " + e.getMessage());
@@ -418,6 +427,12 @@ public class GestionUsuariosPanel extends VBox {
             });
         }
         
+        private void guardarEnSegundoPlano(Callable<Usuario> guardado) {
+            new TareaUI().ejecutar(guardado,
+                u -> alGuardar.run(),
+                e -> mostrarError("Error al guardar: " + e.getMessage()));
+        }
+        
         private void mostrarError(String mensaje) {
             Alert alert = new Alert(Alert.AlertType.ERROR);
             alert.setTitle("Error");
@@ -477,12 +492,13 @@ public class GestionUsuariosPanel extends VBox {
                         return null;
                     }
                     
-                    try {
-                        usuarioService.cambiarPassword(usuario.getId(), nuevaPassword);
-                        mostrarInfo("Contraseña cambiada exitosamente");
-                    } catch (Exception e) {
-                        mostrarError("Error al cambiar contraseña: " + e.getMessage());
-                    }
+                    new TareaUI().ejecutar(
+                        () -> {
+                            usuarioService.cambiarPassword(usuario.getId(), nuevaPassword);
+                            return null;
+                        },
+                        r -> mostrarInfo("Contraseña cambiada exitosamente"),
+                        e -> mostrarError("Error al cambiar contraseña: " + e.getMessage()));
                 }
                 return null;
             });
@@ -2,6 +2,9 @@ package com.farmacia.ui;
 
 import com.farmacia.model.Venta;
 import com.farmacia.model.Producto;
+import com.farmacia.model.ProductoMasVendido;
+import com.farmacia.model.TotalVentasMetodoPago;
+import com.farmacia.model.TotalVentasPeriodo;
 import com.farmacia.service.VentaService;
 import com.farmacia.service.ProductoService;
 import javafx.embed.swing.SwingNode;
@@ -34,6 +37,11 @@ public class GraficosPanel extends VBox {
     private DatePicker dpFechaFin;
     private VBox contenedorGraficos;
 
+    // Consultas de cada gráfico en segundo plano (actualizar descarta las anteriores)
+    private final TareaUI tareaVentasDiarias = new TareaUI();
+    private final TareaUI tareaProductos = new TareaUI();
+    private final TareaUI tareaMetodosPago = new TareaUI();
+
     public GraficosPanel(VentaService ventaService, ProductoService productoService) {
         this.ventaService = ventaService;
         this.productoService = productoService;
@@ -102,10 +110,10 @@ public class GraficosPanel extends VBox {
     private void actualizarGraficos() {
         contenedorGraficos.getChildren().clear();
 
-        LocalDateTime fechaInicio = dpFechaInicio.getValue().atStartOfDay();
-        LocalDateTime fechaFin = dpFechaFin.getValue().atTime(23, 59, 59);
+        LocalDate fechaInicio = dpFechaInicio.getValue();
+        LocalDate fechaFin = dpFechaFin.getValue();
 
-        // Gráfico 1: Ventas por día
+        // Gráfico 1: Ventas por día (o por semana/mes en rangos largos)
         VBox graficoVentasDiarias = crearGraficoVentasDiarias(fechaInicio, fechaFin);
         
         // Gráfico 2: Productos más vendidos
@@ -117,7 +125,7 @@ public class GraficosPanel extends VBox {
         contenedorGraficos.getChildren().addAll(graficoVentasDiarias, graficoProductos, graficoMetodos);
     }
 
-    private VBox crearGraficoVentasDiarias(LocalDateTime fechaInicio, LocalDateTime fechaFin) {
+    private VBox crearGraficoVentasDiarias(LocalDate fechaInicio, LocalDate fechaFin) {
         VBox container = new VBox(10);
         container.setPadding(new Insets(15));
         container.setStyle("-fx-background-color: white; -fx-background-radius: 8; " +
@@ -128,26 +136,20 @@ public class GraficosPanel extends VBox {
 
         SwingNode swingNode = new SwingNode();
 
-        SwingUtilities.invokeLater(() -> {
+        // Consulta en segundo plano; el gráfico se crea después en el hilo de Swing
+        tareaVentasDiarias.ejecutar(() -> {
             DefaultCategoryDataset dataset = new DefaultCategoryDataset();
 
-            List<Venta> ventas = ventaService.obtenerVentasPorRango(fechaInicio, fechaFin);
-            
-            // Agrupar ventas por fecha
-            Map<LocalDate, Double> ventasPorDia = ventas.stream()
-                    .collect(Collectors.groupingBy(
-                            v -> v.getFecha().toLocalDate(),
-                            Collectors.summingDouble(v -> v.getTotal().doubleValue())
-                    ));
-
-            // Ordenar y agregar al dataset
-            DateTimeFormatter formatter = DateTimeFormatter.ofPattern("dd/MM");
-            ventasPorDia.entrySet().stream()
-                    .sorted(Map.Entry.comparingByKey())
-                    .forEach(entry -> {
-                        dataset.addValue(entry.getValue(), "Ventas (€)", entry.getKey().format(formatter));
-                    });
-
+            // Una fila por periodo, ya agrupada y con los huecos rellenos a cero
+            VentaService.Agrupacion agrupacion = ventaService.elegirAgrupacion(fechaInicio, fechaFin);
+            DateTimeFormatter formatter = DateTimeFormatter.ofPattern(
+                    agrupacion == VentaService.Agrupacion.MES ? "MM/yyyy" : "dd/MM");
+            String prefijo = agrupacion == VentaService.Agrupacion.SEMANA ? "Sem " : "";
+            for (TotalVentasPeriodo periodo : ventaService.obtenerVentasAgrupadas(fechaInicio, fechaFin, agrupacion)) {
+                dataset.addValue(periodo.getTotal().doubleValue(), "Ventas (€)", prefijo + periodo.getInicio().format(formatter));
+            }
+            return dataset;
+        }, dataset -> SwingUtilities.invokeLater(() -> {
             JFreeChart chart = ChartFactory.createLineChart(
                     null,
                     "Fecha",
@@ -162,9 +164,9 @@ public class GraficosPanel extends VBox {
             ChartPanel chartPanel = new ChartPanel(chart);
             chartPanel.setPreferredSize(new java.awt.Dimension(800, 350));
             swingNode.setContent(chartPanel);
-        });
+        }));
 
-        container.getChildren().addAll(titulo, swingNode);
+        container.getChildren().addAll(titulo, tareaVentasDiarias.crearIndicador(), swingNode);
         return container;
     }
 
@@ -179,31 +181,18 @@ public class GraficosPanel extends VBox {
 
         SwingNode swingNode = new SwingNode();
 
-        SwingUtilities.invokeLater(() -> {
+        tareaProductos.ejecutar(() -> {
             DefaultCategoryDataset dataset = new DefaultCategoryDataset();
 
-            List<Venta> ventas = ventaService.obtenerVentasActivas();
-            Map<String, Long> productosVendidos = new HashMap<>();
-            
-            ventas.forEach(venta -> {
-                venta.getDetalles().forEach(detalle -> {
-                    String nombreProducto = detalle.getProducto().getNombre();
-                    Long cantidad = (long) detalle.getCantidad();
-                    productosVendidos.merge(nombreProducto, cantidad, Long::sum);
-                });
-            });
-
-            // Top 10
-            productosVendidos.entrySet().stream()
-                    .sorted(Map.Entry.<String, Long>comparingByValue().reversed())
-                    .limit(10)
-                    .forEach(entry -> {
-                        String nombreCorto = entry.getKey().length() > 20 
-                                ? entry.getKey().substring(0, 17) + "..." 
-                                : entry.getKey();
-                        dataset.addValue(entry.getValue(), "Unidades", nombreCorto);
-                    });
-
+            // Top 10 (agregado en la base de datos)
+            for (ProductoMasVendido producto : ventaService.obtenerProductosMasVendidos(null, null, 10)) {
+                String nombreCorto = producto.getNombre().length() > 20 
+                        ? producto.getNombre().substring(0, 17) + "..." 
+                        : producto.getNombre();
+                dataset.addValue(producto.getCantidadVendida(), "Unidades", nombreCorto);
+            }
+            return dataset;
+        }, dataset -> SwingUtilities.invokeLater(() -> {
             JFreeChart chart = ChartFactory.createBarChart(
                     null,
                     "Producto",
@@ -218,9 +207,9 @@ public class GraficosPanel extends VBox {
             ChartPanel chartPanel = new ChartPanel(chart);
             chartPanel.setPreferredSize(new java.awt.Dimension(800, 350));
             swingNode.setContent(chartPanel);
-        });
+        }));
 
-        container.getChildren().addAll(titulo, swingNode);
+        container.getChildren().addAll(titulo, tareaProductos.crearIndicador(), swingNode);
         return container;
     }
 
@@ -235,21 +224,16 @@ public class GraficosPanel extends VBox {
 
         SwingNode swingNode = new SwingNode();
 
-        SwingUtilities.invokeLater(() -> {
+        tareaMetodosPago.ejecutar(() -> {
             DefaultPieDataset<String> dataset = new DefaultPieDataset<>();
 
-            List<Venta> ventas = ventaService.obtenerVentasActivas();
-            Map<String, Double> porMetodo = ventas.stream()
-                    .collect(Collectors.groupingBy(
-                            Venta::getMetodoPago,
-                            Collectors.summingDouble(v -> v.getTotal().doubleValue())
-                    ));
-
-            porMetodo.forEach((metodo, total) -> {
-                String label = String.format("%s (€%.2f)", metodo, total);
+            for (TotalVentasMetodoPago metodo : ventaService.obtenerTotalesPorMetodoPago()) {
+                double total = metodo.getTotal().doubleValue();
+                String label = String.format("%s (€%.2f)", metodo.getMetodoPago(), total);
                 dataset.setValue(label, total);
-            });
-
+            }
+            return dataset;
+        }, dataset -> SwingUtilities.invokeLater(() -> {
             JFreeChart chart = ChartFactory.createPieChart(
                     null,
                     dataset,
@@ -261,9 +245,9 @@ public class GraficosPanel extends VBox {
             ChartPanel chartPanel = new ChartPanel(chart);
             chartPanel.setPreferredSize(new java.awt.Dimension(800, 350));
             swingNode.setContent(chartPanel);
-        });
+        }));
 
-        container.getChildren().addAll(titulo, swingNode);
+        container.getChildren().addAll(titulo, tareaMetodosPago.crearIndicador(), swingNode);
         return container;
     }
 }
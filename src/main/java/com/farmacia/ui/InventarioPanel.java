@@ -1,32 +1,52 @@
 package com.farmacia.ui;
 
 import com.farmacia.model.Producto;
+import com.farmacia.service.AlertaService;
+import com.farmacia.service.ImportacionProductosService;
+import com.farmacia.service.ImportacionProductosService.FilaRechazada;
+import com.farmacia.service.ImportacionProductosService.ResultadoImportacion;
 import com.farmacia.service.ProductoService;
+import com.farmacia.service.ProductoService.VistaInventario;
+import javafx.application.Platform;
 import javafx.beans.property.SimpleStringProperty;
-import javafx.collections.FXCollections;
-import javafx.collections.ObservableList;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
 import javafx.scene.control.*;
 import javafx.scene.control.cell.PropertyValueFactory;
 import javafx.scene.layout.*;
 import javafx.scene.paint.Color;
+import javafx.stage.FileChooser;
 
+import java.io.File;
 import java.math.BigDecimal;
 import java.time.LocalDate;
-import java.util.List;
 import java.util.Optional;
 
 public class InventarioPanel {
 
     private final ProductoService productoService;
+    private final ImportacionProductosService importacionService;
+    private final AlertaService alertaService;
+    // Umbrales efectivos para el estado y el color de las filas; se leen con cada página,
+    // así que las filas que se muestran siempre los tienen
+    private volatile AlertaService.Umbrales umbrales;
     private TableView<Producto> tablaProductos;
-    private ObservableList<Producto> productosData;
+    // Filas de la tabla cargadas por páginas de 100 (filtro y orden en SQL)
+    private final ListaPaginada<Producto> productosData = new ListaPaginada<>(100, 20, 10);
+    private VistaInventario vista = VistaInventario.TODOS;
     private TextField txtBuscar;
     private BorderPane content;
-
-    public InventarioPanel(ProductoService productoService) {
+    private final TareaUI tareaCarga = new TareaUI();
+    private final BusquedaUI busqueda = new BusquedaUI("Inventario", tareaCarga);
+    private final TareaUI tareaImportacion = new TareaUI();
+    private ProgressBar barraImportacion;
+    private Label lblImportacion;
+
+    public InventarioPanel(ProductoService productoService, ImportacionProductosService importacionService,
+                           AlertaService alertaService) {
         this.productoService = productoService;
+        this.importacionService = importacionService;
+        this.alertaService = alertaService;
         inicializarContenido();
     }
 
@@ -67,7 +87,7 @@ public class InventarioPanel {
 
         Label lblBuscar = new Label("Buscar:");
         txtBuscar = new TextField();
-        txtBuscar.setPromptText("Nombre o código del producto...");
+        txtBuscar.setPromptText("Nombre, código, laboratorio o categoría...");
         txtBuscar.setPrefWidth(300);
         txtBuscar.textProperty().addListener((obs, old, newVal) -> filtrarProductos(newVal));
 
@@ -83,7 +103,7 @@ public class InventarioPanel {
         btnTodos.setStyle("-fx-background-color: #2196F3; -fx-text-fill: white;");
         btnTodos.setOnAction(e -> cargarProductos());
 
-        searchBox.getChildren().addAll(lblBuscar, txtBuscar, btnStockBajo, btnVencidos, btnTodos);
+        searchBox.getChildren().addAll(lblBuscar, txtBuscar, btnStockBajo, btnVencidos, btnTodos, tareaCarga.crearIndicador());
 
         topBox.getChildren().addAll(titulo, searchBox);
         return topBox;
@@ -137,11 +157,13 @@ public class InventarioPanel {
         colEstado.setCellValueFactory(cellData -> {
             Producto p = cellData.getValue();
             String estado = "";
-            if (p.isVencido()) {
+            if (p == null) {
+                estado = "";
+            } else if (p.isVencido()) {
                 estado = "🚫 VENCIDO";
-            } else if (p.isProximoAVencer()) {
+            } else if (umbrales.isProximoAVencer(p, LocalDate.now())) {
                 estado = "⚠️ Próximo a vencer";
-            } else if (p.isStockBajo()) {
+            } else if (umbrales.isStockBajo(p)) {
                 estado = "⚠️ Stock bajo";
             } else {
                 estado = "✓ OK";
@@ -158,9 +180,9 @@ public class InventarioPanel {
                 if (producto == null || empty) {
                     setStyle("");
                 } else {
-                    if (producto.isVencido() || producto.isStockBajo()) {
+                    if (producto.isVencido() || umbrales.isStockBajo(producto)) {
                         setStyle("-fx-background-color: #ffcccc;");
-                    } else if (producto.isProximoAVencer()) {
+                    } else if (umbrales.isProximoAVencer(producto, LocalDate.now())) {
                         setStyle("-fx-background-color: #ffe6cc;");
                     } else {
                         setStyle("");
@@ -174,8 +196,7 @@ public class InventarioPanel {
             colStock, colStockMin, colVencimiento, colLaboratorio, colEstado
         );
 
-        productosData = FXCollections.observableArrayList();
-        tablaProductos.setItems(productosData);
+        productosData.conectar(tablaProductos);
 
         centerBox.getChildren().add(tablaProductos);
         return centerBox;
@@ -202,40 +223,73 @@ public class InventarioPanel {
         btnRefrescar.setStyle("-fx-background-color: #9C27B0; -fx-text-fill: white; -fx-font-size: 14px;");
         btnRefrescar.setOnAction(e -> cargarProductos());
 
-        bottomBox.getChildren().addAll(btnNuevo, btnEditar, btnEliminar, btnRefrescar);
+        Button btnImportar = new Button("📥 Importar CSV");
+        btnImportar.setStyle("-fx-background-color: #607D8B; -fx-text-fill: white; -fx-font-size: 14px;");
+        btnImportar.setOnAction(e -> importarCatalogo());
+        btnImportar.disableProperty().bind(tareaImportacion.ocupadoProperty());
+
+        // Progreso de la importación (visible solo mientras se importa)
+        barraImportacion = new ProgressBar(0);
+        barraImportacion.setPrefWidth(150);
+        lblImportacion = new Label();
+        HBox progresoBox = new HBox(8, barraImportacion, lblImportacion);
+        progresoBox.setAlignment(Pos.CENTER_LEFT);
+        progresoBox.visibleProperty().bind(tareaImportacion.ocupadoProperty());
+        progresoBox.managedProperty().bind(tareaImportacion.ocupadoProperty());
+
+        bottomBox.getChildren().addAll(btnNuevo, btnEditar, btnEliminar, btnRefrescar, btnImportar, progresoBox);
         return bottomBox;
     }
 
     private void cargarProductos() {
-        productosData.clear();
-        List<Producto> productos = productoService.obtenerTodosActivos();
-        productosData.addAll(productos);
         txtBuscar.clear();
+        mostrarVista(VistaInventario.TODOS);
     }
 
+    // Búsqueda mientras se escribe (dentro de la vista actual): se lanza cuando el usuario deja de teclear.
+    // Con texto se usa el índice de trigramas del catálogo y la tabla pagina sobre los IDs encontrados;
+    // sin texto vuelve a la vista paginada en la base de datos
     private void filtrarProductos(String texto) {
-        if (texto == null || texto.trim().isEmpty()) {
-            cargarProductos();
+        VistaInventario vistaActual = vista;
+        if (texto == null || texto.isBlank()) {
+            busqueda.buscar(() -> productoService.contarInventario(vistaActual),
+                total -> productosData.mostrar(paginasDe(vistaActual), total));
             return;
         }
-
-        productosData.clear();
-        List<Producto> productos = productoService.buscarPorNombre(texto);
-        productosData.addAll(productos);
+        busqueda.buscar(() -> productoService.buscarIdsInventario(vistaActual, texto),
+            ids -> productosData.mostrar(conUmbrales((desde, cantidad, ordenarPor, ascendente) ->
+                productoService.obtenerPaginaBusqueda(ids, desde, cantidad, ordenarPor, ascendente)), ids.size()));
     }
 
     private void mostrarProductosStockBajo() {
-        productosData.clear();
-        List<Producto> productos = productoService.obtenerProductosConStockBajo();
-        productosData.addAll(productos);
         txtBuscar.clear();
+        mostrarVista(VistaInventario.STOCK_BAJO);
     }
 
     private void mostrarProductosVencidos() {
-        productosData.clear();
-        List<Producto> productos = productoService.obtenerProductosVencidos();
-        productosData.addAll(productos);
         txtBuscar.clear();
+        mostrarVista(VistaInventario.VENCIDOS);
+    }
+
+    // Cuenta las filas en segundo plano y deja que la tabla pida solo las páginas que muestra;
+    // una consulta nueva deja obsoleta la anterior y la búsqueda pendiente del teclado
+    private void mostrarVista(VistaInventario nuevaVista) {
+        vista = nuevaVista;
+        busqueda.ejecutarAhora(() -> productoService.contarInventario(nuevaVista),
+            total -> productosData.mostrar(paginasDe(nuevaVista), total));
+    }
+
+    private ListaPaginada.ProveedorPaginas<Producto> paginasDe(VistaInventario vistaPaginas) {
+        return conUmbrales((desde, cantidad, ordenarPor, ascendente) ->
+            productoService.obtenerPaginaInventario(vistaPaginas, desde, cantidad, ordenarPor, ascendente));
+    }
+
+    // Cada página lee también los umbrales vigentes (en segundo plano, como la página)
+    private ListaPaginada.ProveedorPaginas<Producto> conUmbrales(ListaPaginada.ProveedorPaginas<Producto> paginas) {
+        return (desde, cantidad, ordenarPor, ascendente) -> {
+            umbrales = alertaService.obtenerUmbrales();
+            return paginas.cargar(desde, cantidad, ordenarPor, ascendente);
+        };
     }
 
     private void abrirFormularioNuevo() {
@@ -270,14 +324,69 @@ public class InventarioPanel {
 
         Optional<ButtonType> resultado = confirmacion.showAndWait();
         if (resultado.isPresent() && resultado.get() == ButtonType.OK) {
-            try {
-                productoService.eliminarProducto(seleccionado.getId());
-                mostrarAlerta("Éxito", "Producto eliminado correctamente", Alert.AlertType.INFORMATION);
+            new TareaUI().ejecutar(
+                () -> {
+                    productoService.eliminarProducto(seleccionado.getId());
+                    return null;
+                },
+                r -> {
+                    mostrarAlerta("Éxito", "Producto eliminado correctamente", Alert.AlertType.INFORMATION);
+                    cargarProductos();
+                },
+                e -> mostrarAlerta("Error", "No se pudo eliminar el producto: " + e.getMessage(), Alert.AlertType.ERROR));
+        }
+    }
+
+    // Importación masiva del catálogo desde un CSV/TSV, en segundo plano y con progreso
+    private void importarCatalogo() {
+        FileChooser fileChooser = new FileChooser();
+        fileChooser.setTitle("Importar catálogo de productos");
+        fileChooser.getExtensionFilters().add(
+            new FileChooser.ExtensionFilter("Archivos CSV o TSV", "*.csv", "*.tsv", "*.txt"));
+        File archivo = fileChooser.showOpenDialog(content.getScene().getWindow());
+        if (archivo == null) {
+            return;
+        }
+
+        barraImportacion.setProgress(0);
+        lblImportacion.setText("Importando " + archivo.getName() + "...");
+        tareaImportacion.escribir(
+            () -> importacionService.importar(archivo, (filas, fraccion) -> Platform.runLater(() -> {
+                barraImportacion.setProgress(fraccion);
+                lblImportacion.setText(String.format("Importando %s... %,d filas", archivo.getName(), filas));
+            })),
+            resultado -> {
+                mostrarResultadoImportacion(resultado);
                 cargarProductos();
-            } catch (Exception e) {
-                mostrarAlerta("Error", "No se pudo eliminar el producto: " + e.getMessage(), Alert.AlertType.ERROR);
+            },
+            e -> mostrarAlerta("Error", "No se pudo importar el catálogo: " + e.getMessage(), Alert.AlertType.ERROR));
+    }
+
+    private void mostrarResultadoImportacion(ResultadoImportacion resultado) {
+        Alert alert = new Alert(resultado.getRechazadas() > 0 ? Alert.AlertType.WARNING : Alert.AlertType.INFORMATION);
+        alert.setTitle("Importación del catálogo");
+        alert.setHeaderText(null);
+        alert.setContentText(String.format(
+            "Filas leídas: %,d%nProductos nuevos: %,d%nProductos actualizados: %,d%nFilas rechazadas: %,d%nTiempo: %.1f s",
+            resultado.getFilasLeidas(), resultado.getCreados(), resultado.getActualizados(),
+            resultado.getRechazadas(), resultado.getMilisegundos() / 1000.0));
+
+        // Detalle de las filas rechazadas, desplegable
+        if (!resultado.getDetalleRechazos().isEmpty()) {
+            StringBuilder detalle = new StringBuilder();
+            for (FilaRechazada fila : resultado.getDetalleRechazos()) {
+                detalle.append(fila).append('\n');
             }
+            if (resultado.getRechazadas() > resultado.getDetalleRechazos().size()) {
+                detalle.append("... y ").append(resultado.getRechazadas() - resultado.getDetalleRechazos().size()).append(" más");
+            }
+            TextArea txtRechazos = new TextArea(detalle.toString());
+            txtRechazos.setEditable(false);
+            txtRechazos.setPrefRowCount(12);
+            alert.getDialogPane().setExpandableContent(txtRechazos);
+            alert.getDialogPane().setExpanded(true);
         }
+        alert.showAndWait();
     }
 
     private void mostrarAlerta(String titulo, String mensaje, Alert.AlertType tipo) {
@@ -1,6 +1,7 @@
 package com.farmacia.ui;
 
 import com.farmacia.model.Producto;
+import com.farmacia.service.AlertaService;
 import com.farmacia.service.ProductoService;
 import javafx.beans.property.SimpleStringProperty;
 import javafx.collections.FXCollections;
@@ -18,17 +19,24 @@ import java.math.BigDecimal;
 import java.time.LocalDate;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.Callable;
 
 public class InventarioWindow {
 
     private final ProductoService productoService;
+    private final AlertaService alertaService;
     private final Stage primaryStage;
+    // Umbrales efectivos para el estado y el color de las filas; se leen con cada consulta
+    private volatile AlertaService.Umbrales umbrales;
     private TableView<Producto> tablaProductos;
     private ObservableList<Producto> productosData;
     private TextField txtBuscar;
+    private final TareaUI tareaCarga = new TareaUI();
+    private final BusquedaUI busqueda = new BusquedaUI("Inventario (ventana)", tareaCarga);
 
-    public InventarioWindow(ProductoService productoService, Stage primaryStage) {
+    public InventarioWindow(ProductoService productoService, AlertaService alertaService, Stage primaryStage) {
         this.productoService = productoService;
+        this.alertaService = alertaService;
         this.primaryStage = primaryStage;
     }
 
@@ -74,7 +82,7 @@ public class InventarioWindow {
 
         Label lblBuscar = new Label("Buscar:");
         txtBuscar = new TextField();
-        txtBuscar.setPromptText("Nombre o código del producto...");
+        txtBuscar.setPromptText("Nombre, código, laboratorio o categoría...");
         txtBuscar.setPrefWidth(300);
         txtBuscar.textProperty().addListener((obs, old, newVal) -> filtrarProductos(newVal));
 
@@ -90,7 +98,7 @@ public class InventarioWindow {
         btnTodos.setStyle("-fx-background-color: #2196F3; -fx-text-fill: white;");
         btnTodos.setOnAction(e -> cargarProductos());
 
-        searchBox.getChildren().addAll(lblBuscar, txtBuscar, btnStockBajo, btnVencidos, btnTodos);
+        searchBox.getChildren().addAll(lblBuscar, txtBuscar, btnStockBajo, btnVencidos, btnTodos, tareaCarga.crearIndicador());
 
         topBox.getChildren().addAll(titulo, searchBox);
         return topBox;
@@ -153,7 +161,7 @@ public class InventarioWindow {
                 } else {
                     setText(item.toString());
                     Producto producto = getTableView().getItems().get(getIndex());
-                    if (producto.isStockBajo()) {
+                    if (umbrales.isStockBajo(producto)) {
                         setStyle("-fx-background-color: #ffebee; -fx-text-fill: #c62828;");
                     } else {
                         setStyle("");
@@ -181,7 +189,7 @@ public class InventarioWindow {
                     Producto producto = getTableView().getItems().get(getIndex());
                     if (producto.isVencido()) {
                         setStyle("-fx-background-color: #ffebee; -fx-text-fill: #c62828;");
-                    } else if (producto.isProximoAVencer()) {
+                    } else if (umbrales.isProximoAVencer(producto, LocalDate.now())) {
                         setStyle("-fx-background-color: #fff3e0; -fx-text-fill: #e65100;");
                     } else {
                         setStyle("");
@@ -196,9 +204,9 @@ public class InventarioWindow {
             String estado = "";
             if (p.isVencido()) {
                 estado = "⚠️ VENCIDO";
-            } else if (p.isProximoAVencer()) {
+            } else if (umbrales.isProximoAVencer(p, LocalDate.now())) {
                 estado = "⏰ Por vencer";
-            } else if (p.isStockBajo()) {
+            } else if (umbrales.isStockBajo(p)) {
                 estado = "📉 Stock bajo";
             } else {
                 estado = "✅ Normal";
@@ -250,53 +258,46 @@ public class InventarioWindow {
     }
 
     private void cargarProductos() {
-        try {
-            List<Producto> productos = productoService.obtenerTodosActivos();
-            productosData.clear();
-            productosData.addAll(productos);
-        } catch (Exception e) {
-            mostrarError("Error al cargar productos", e.getMessage());
-        }
+        mostrarProductos(productoService::obtenerTodosActivos, null);
     }
 
+    // Búsqueda mientras se escribe: se lanza cuando el usuario deja de teclear
     private void filtrarProductos(String texto) {
-        if (texto == null || texto.trim().isEmpty()) {
-            cargarProductos();
-        } else {
-            try {
-                List<Producto> productos = productoService.buscarPorNombre(texto);
-                productosData.clear();
-                productosData.addAll(productos);
-            } catch (Exception e) {
-                mostrarError("Error al buscar productos", e.getMessage());
-            }
-        }
+        Callable<List<Producto>> consulta = texto == null || texto.trim().isEmpty()
+                ? productoService::obtenerTodosActivos
+                : () -> productoService.buscarEnCatalogo(texto);
+        busqueda.buscar(conUmbrales(consulta), productos -> productosData.setAll(productos),
+            e -> mostrarError("Error al cargar productos", e.getMessage()));
     }
 
     private void mostrarProductosStockBajo() {
-        try {
-            List<Producto> productos = productoService.obtenerProductosConStockBajo();
-            productosData.clear();
-            productosData.addAll(productos);
-            if (productos.isEmpty()) {
-                mostrarInfo("Stock Bajo", "No hay productos con stock bajo.");
-            }
-        } catch (Exception e) {
-            mostrarError("Error", e.getMessage());
-        }
+        mostrarProductos(productoService::obtenerProductosConStockBajo,
+            () -> mostrarInfo("Stock Bajo", "No hay productos con stock bajo."));
     }
 
     private void mostrarProductosVencidos() {
-        try {
-            List<Producto> productos = productoService.obtenerProductosVencidos();
-            productosData.clear();
-            productosData.addAll(productos);
-            if (productos.isEmpty()) {
-                mostrarInfo("Productos Vencidos", "No hay productos vencidos.");
-            }
-        } catch (Exception e) {
-            mostrarError("Error", e.getMessage());
-        }
+        mostrarProductos(productoService::obtenerProductosVencidos,
+            () -> mostrarInfo("Productos Vencidos", "No hay productos vencidos."));
+    }
+
+    // Consulta en segundo plano; si no hay resultados se ejecuta siVacio (opcional)
+    private void mostrarProductos(Callable<List<Producto>> consulta, Runnable siVacio) {
+        busqueda.ejecutarAhora(conUmbrales(consulta),
+            productos -> {
+                productosData.setAll(productos);
+                if (productos.isEmpty() && siVacio != null) {
+                    siVacio.run();
+                }
+            },
+            e -> mostrarError("Error al cargar productos", e.getMessage()));
+    }
+
+    // La consulta lee también los umbrales vigentes (en segundo plano, como los productos)
+    private Callable<List<Producto>> conUmbrales(Callable<List<Producto>> consulta) {
+        return () -> {
+            umbrales = alertaService.obtenerUmbrales();
+            return consulta.call();
+        };
     }
 
     private void abrirFormularioProducto(Producto producto) {
@@ -319,13 +320,16 @@ public class InventarioWindow {
 
         Optional<ButtonType> resultado = confirmacion.showAndWait();
         if (resultado.isPresent() && resultado.get() == ButtonType.OK) {
-            try {
-                productoService.eliminarProducto(seleccionado.getId());
-                cargarProductos();
-                mostrarInfo("Éxito", "Producto eliminado correctamente.");
-            } catch (Exception e) {
-                mostrarError("Error al eliminar", e.getMessage());
-            }
+            new TareaUI().ejecutar(
+                () -> {
+                    productoService.eliminarProducto(seleccionado.getId());
+                    return null;
+                },
+                r -> {
+                    cargarProductos();
+                    mostrarInfo("Éxito", "Producto eliminado correctamente.");
+                },
+                e -> mostrarError("Error al eliminar", e.getMessage()));
         }
     }
 
@@ -0,0 +1,184 @@
+package com.farmacia.ui;
+
+import javafx.collections.ObservableListBase;
+import javafx.scene.control.TableColumn;
+import javafx.scene.control.TableView;
+import javafx.scene.control.cell.PropertyValueFactory;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Lista de solo lectura para un TableView que carga las filas por páginas bajo demanda.
+ *
+ * size() es el total de filas de la consulta, pero solo se guardan en memoria las
+ * páginas que la tabla llega a pedir (las filas visibles más un margen de precarga)
+ * y como mucho maxPaginas; las más antiguas se descartan y se vuelven a pedir si
+ * hacen falta. Mientras una página se carga en segundo plano sus filas valen null.
+ *
+ * El orden de las columnas no se aplica en memoria: conectar() instala una política
+ * de ordenación que pide al proveedor las filas ya ordenadas (en SQL).
+ * Debe usarse desde el hilo de JavaFX.
+ */
+public class ListaPaginada<T> extends ObservableListBase<T> {
+
+    /**
+     * Origen de las filas. Se llama en segundo plano
+     */
+    @FunctionalInterface
+    public interface ProveedorPaginas<T> {
+        List<T> cargar(int desde, int cantidad, String ordenarPor, boolean ascendente);
+    }
+
+    private final int tamanoPagina;
+    private final int margen;
+    private final Map<Integer, List<T>> paginas;
+    private final Set<Integer> pendientes = new HashSet<>();
+
+    private ProveedorPaginas<T> proveedor;
+    private int tamano = 0;
+    private String ordenarPor;
+    private boolean ascendente = true;
+    // Cambia con cada recarga; las páginas pedidas antes se descartan al llegar
+    private long generacion = 0;
+
+    public ListaPaginada(int tamanoPagina, int margen, int maxPaginas) {
+        this.tamanoPagina = tamanoPagina;
+        this.margen = margen;
+        this.paginas = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, List<T>> masAntigua) {
+                return size() > maxPaginas;
+            }
+        };
+    }
+
+    /**
+     * Muestra las filas de un proveedor nuevo con su total (contado en segundo plano)
+     */
+    public void mostrar(ProveedorPaginas<T> proveedor, long total) {
+        this.proveedor = proveedor;
+        recargar((int) Math.min(total, Integer.MAX_VALUE));
+    }
+
+    /**
+     * Descarta las páginas cargadas y vuelve a pedir las visibles con el mismo total
+     */
+    public void refrescar() {
+        recargar(tamano);
+    }
+
+    /**
+     * Usa esta lista como contenido de la tabla y ordena por columna en el proveedor.
+     * Solo se pueden ordenar las columnas con PropertyValueFactory (la propiedad es la
+     * que se pasa al proveedor); el resto se marcan como no ordenables
+     */
+    public void conectar(TableView<T> tabla) {
+        for (TableColumn<T, ?> columna : tabla.getColumns()) {
+            if (!(columna.getCellValueFactory() instanceof PropertyValueFactory)) {
+                columna.setSortable(false);
+            }
+        }
+        tabla.setItems(this);
+        tabla.setSortPolicy(t -> {
+            String propiedad = null;
+            boolean asc = true;
+            if (!t.getSortOrder().isEmpty()) {
+                TableColumn<T, ?> columna = t.getSortOrder().get(0);
+                Object fabrica = columna.getCellValueFactory();
+                propiedad = ((PropertyValueFactory<?, ?>) fabrica).getProperty();
+                asc = columna.getSortType() == TableColumn.SortType.ASCENDING;
+            }
+            if (!Objects.equals(propiedad, ordenarPor) || asc != ascendente) {
+                ordenarPor = propiedad;
+                ascendente = asc;
+                refrescar();
+            }
+            return true;
+        });
+    }
+
+    @Override
+    public T get(int indice) {
+        if (indice < 0 || indice >= tamano) {
+            throw new IndexOutOfBoundsException(indice);
+        }
+        int pagina = indice / tamanoPagina;
+        int posicion = indice % tamanoPagina;
+
+        // Precargar la página vecina cuando la fila está cerca del borde
+        if (posicion >= tamanoPagina - margen) {
+            pedir(pagina + 1);
+        } else if (posicion < margen && pagina > 0) {
+            pedir(pagina - 1);
+        }
+
+        List<T> filas = paginas.get(pagina);
+        if (filas == null) {
+            pedir(pagina);
+            return null;
+        }
+        return posicion < filas.size() ? filas.get(posicion) : null;
+    }
+
+    @Override
+    public int size() {
+        return tamano;
+    }
+
+    private void recargar(int nuevoTamano) {
+        generacion++;
+        paginas.clear();
+        pendientes.clear();
+
+        int anterior = tamano;
+        tamano = nuevoTamano;
+        beginChange();
+        if (anterior > 0) {
+            nextRemove(0, Collections.nCopies(anterior, (T) null));
+        }
+        if (tamano > 0) {
+            nextAdd(0, tamano);
+        }
+        endChange();
+    }
+
+    private void pedir(int pagina) {
+        int desde = pagina * tamanoPagina;
+        if (proveedor == null || desde >= tamano || paginas.containsKey(pagina) || !pendientes.add(pagina)) {
+            return;
+        }
+        long id = generacion;
+        ProveedorPaginas<T> origen = proveedor;
+        String propiedad = ordenarPor;
+        boolean asc = ascendente;
+
+        new TareaUI().ejecutar(() -> origen.cargar(desde, tamanoPagina, propiedad, asc),
+            filas -> {
+                if (id != generacion) {
+                    return;
+                }
+                pendientes.remove(pagina);
+                paginas.put(pagina, filas);
+
+                int hasta = Math.min(desde + filas.size(), tamano);
+                beginChange();
+                for (int i = desde; i < hasta; i++) {
+                    nextUpdate(i);
+                }
+                endChange();
+            },
+            error -> {
+                // La página queda vacía y se vuelve a pedir la próxima vez que se muestre
+                if (id == generacion) {
+                    pendientes.remove(pagina);
+                }
+                error.printStackTrace();
+            });
+    }
+}
@@ -25,6 +25,7 @@ public class LoginWindow {
     private PasswordField passwordField;
     private Label mensajeLabel;
     private Button loginButton;
+    private final TareaUI tareaLogin = new TareaUI();
     
     public LoginWindow(UsuarioService usuarioService) {
         this.usuarioService = usuarioService;
@@ -132,7 +133,7 @@ public class LoginWindow {
             "-fx-background-radius: 5;"
         );
         
-        buttonsBox.getChildren().addAll(loginButton, cancelButton);
+        buttonsBox.getChildren().addAll(loginButton, cancelButton, tareaLogin.crearIndicador());
         
         // Eventos
         loginButton.setOnAction(e -> intentarLogin());
@@ -188,37 +189,38 @@ public class LoginWindow {
         loginButton.setDisable(true);
         mensajeLabel.setVisible(false);
         
-        try {
-            // Intentar login
-            Usuario usuario = usuarioService.login(username, password);
-            
-            if (usuario != null) {
-                mostrarMensaje("✓ Inicio de sesión exitoso", true);
-                
-                // Esperar un momento antes de cerrar
-                new Thread(() -> {
-                    try {
-                        Thread.sleep(500);
-                        javafx.application.Platform.runLater(() -> {
-                            if (onLoginSuccess != null) {
-                                onLoginSuccess.accept(usuario);
-                            }
-                            stage.close();
-                        });
-                    } catch (InterruptedException e) {
-                        e.printStackTrace();
-                    }
-                }).start();
-            } else {
-                mostrarMensaje("❌ Usuario o contraseña incorrectos", false);
+        // Intentar login en segundo plano (la verificación de la contraseña es costosa)
+        tareaLogin.ejecutar(
+            () -> usuarioService.login(username, password),
+            usuario -> {
+                if (usuario != null) {
+                    mostrarMensaje("✓ Inicio de sesión exitoso", true);
+                    
+                    // Esperar un momento antes de cerrar
+                    new Thread(() -> {
+                        try {
+                            Thread.sleep(500);
+                            javafx.application.Platform.runLater(() -> {
+                                if (onLoginSuccess != null) {
+                                    onLoginSuccess.accept(usuario);
+                                }
+                                stage.close();
+                            });
+                        } catch (InterruptedException e) {
+                            e.printStackTrace();
+                        }
+                    }).start();
+                } else {
+                    mostrarMensaje("❌ Usuario o contraseña incorrectos", false);
+                    loginButton.setDisable(false);
+                    passwordField.clear();
+                    passwordField.requestFocus();
+                }
+            },
+            e -> {
+                mostrarMensaje("❌ Error al conectar: " + e.getMessage(), false);
                 loginButton.setDisable(false);
-                passwordField.clear();
-                passwordField.requestFocus();
-            }
-        } catch (Exception e) {
-            mostrarMensaje("❌ Error al conectar: " + e.getMessage(), false);
-            loginButton.setDisable(false);
-        }
+            });
     }
     
     private void mostrarMensaje(String mensaje, boolean esExito) {
@@ -18,6 +18,7 @@ public class ProductoFormWindow extends Stage {
     private final ProductoService productoService;
     private final Producto producto;
     private boolean guardado = false;
+    private final TareaUI tareaGuardado = new TareaUI();
 
     // Campos del formulario
     private TextField txtCodigo;
@@ -26,6 +27,7 @@ public class ProductoFormWindow extends Stage {
     private TextField txtPrecio;
     private TextField txtStock;
     private TextField txtStockMinimo;
+    private TextField txtDiasAvisoCaducidad;
     private TextField txtLaboratorio;
     private ComboBox<String> cmbCategoria;
     private DatePicker dpVencimiento;
@@ -54,7 +56,7 @@ public class ProductoFormWindow extends Stage {
 
         root.getChildren().addAll(titulo, grid, buttonBox);
 
-        Scene scene = new Scene(root, 600, 650);
+        Scene scene = new Scene(root, 600, 690);
         setScene(scene);
 
         // Cargar datos si es edición
@@ -143,11 +145,10 @@ public class ProductoFormWindow extends Stage {
         grid.add(txtStock, 1, row);
         row++;
 
-        // Stock Mínimo
+        // Stock Mínimo (vacío: el de la categoría o el global de las alertas)
         Label lblStockMinimo = new Label("Stock Mínimo:");
         txtStockMinimo = new TextField();
-        txtStockMinimo.setPromptText("10");
-        txtStockMinimo.setText("10");
+        txtStockMinimo.setPromptText("Según categoría");
         grid.add(lblStockMinimo, 0, row);
         grid.add(txtStockMinimo, 1, row);
         row++;
@@ -160,6 +161,14 @@ public class ProductoFormWindow extends Stage {
         grid.add(dpVencimiento, 1, row);
         row++;
 
+        // Días de aviso antes del vencimiento (vacío: los de la categoría o los globales)
+        Label lblDiasAviso = new Label("Aviso Caducidad (días):");
+        txtDiasAvisoCaducidad = new TextField();
+        txtDiasAvisoCaducidad.setPromptText("Según categoría");
+        grid.add(lblDiasAviso, 0, row);
+        grid.add(txtDiasAvisoCaducidad, 1, row);
+        row++;
+
         // Requiere Receta
         chkRequiereReceta = new CheckBox("Requiere Receta Médica");
         grid.add(chkRequiereReceta, 1, row);
@@ -186,7 +195,8 @@ public class ProductoFormWindow extends Stage {
         btnCancelar.setStyle("-fx-background-color: #757575; -fx-text-fill: white; -fx-font-size: 14px; -fx-min-width: 120px;");
         btnCancelar.setOnAction(e -> close());
 
-        buttonBox.getChildren().addAll(btnGuardar, btnCancelar);
+        btnGuardar.disableProperty().bind(tareaGuardado.ocupadoProperty());
+        buttonBox.getChildren().addAll(tareaGuardado.crearIndicador(), btnGuardar, btnCancelar);
         return buttonBox;
     }
 
@@ -196,7 +206,8 @@ public class ProductoFormWindow extends Stage {
         txtDescripcion.setText(producto.getDescripcion());
         txtPrecio.setText(producto.getPrecio() != null ? producto.getPrecio().toString() : "");
         txtStock.setText(producto.getStock() != null ? producto.getStock().toString() : "");
-        txtStockMinimo.setText(producto.getStockMinimo() != null ? producto.getStockMinimo().toString() : "10");
+        txtStockMinimo.setText(producto.getStockMinimo() != null ? producto.getStockMinimo().toString() : "");
+        txtDiasAvisoCaducidad.setText(producto.getDiasAvisoCaducidad() != null ? producto.getDiasAvisoCaducidad().toString() : "");
         txtLaboratorio.setText(producto.getLaboratorio());
         cmbCategoria.setValue(producto.getCategoria());
         dpVencimiento.setValue(producto.getFechaVencimiento());
@@ -260,8 +271,8 @@ public class ProductoFormWindow extends Stage {
                 return;
             }
 
-            // Validar stock mínimo
-            int stockMinimo = 10;
+            // Validar stock mínimo (vacío: se usa el umbral de la categoría o el global)
+            Integer stockMinimo = null;
             if (!txtStockMinimo.getText().trim().isEmpty()) {
                 try {
                     stockMinimo = Integer.parseInt(txtStockMinimo.getText().trim());
@@ -277,6 +288,23 @@ public class ProductoFormWindow extends Stage {
                 }
             }
 
+            // Validar días de aviso de caducidad (vacío: los de la categoría o los globales)
+            Integer diasAvisoCaducidad = null;
+            if (!txtDiasAvisoCaducidad.getText().trim().isEmpty()) {
+                try {
+                    diasAvisoCaducidad = Integer.parseInt(txtDiasAvisoCaducidad.getText().trim());
+                    if (diasAvisoCaducidad < 0) {
+                        mostrarError("Los días de aviso de caducidad no pueden ser negativos");
+                        txtDiasAvisoCaducidad.requestFocus();
+                        return;
+                    }
+                } catch (NumberFormatException e) {
+                    mostrarError("Los días de aviso de caducidad deben ser un número entero válido");
+                    txtDiasAvisoCaducidad.requestFocus();
+                    return;
+                }
+            }
+
             // Asignar valores al producto
             producto.setCodigo(txtCodigo.getText().trim().toUpperCase());
             producto.setNombre(txtNombre.getText().trim());
@@ -284,17 +312,28 @@ public class ProductoFormWindow extends Stage {
             producto.setPrecio(precio);
             producto.setStock(stock);
             producto.setStockMinimo(stockMinimo);
+            producto.setDiasAvisoCaducidad(diasAvisoCaducidad);
             producto.setLaboratorio(txtLaboratorio.getText().trim());
             producto.setCategoria(cmbCategoria.getValue());
             producto.setFechaVencimiento(dpVencimiento.getValue());
             producto.setRequiereReceta(chkRequiereReceta.isSelected());
 
-            // Guardar en la base de datos
-            productoService.guardarProducto(producto);
-
-            guardado = true;
-            mostrarInfo("Producto guardado correctamente");
-            close();
+            // Guardar en la base de datos (en segundo plano)
+            tareaGuardado.escribir(
+                () -> productoService.guardarProducto(producto),
+                p -> {
+                    guardado = true;
+                    mostrarInfo("Producto guardado correctamente");
+                    close();
+                },
+                e -> {
+                    if (e instanceof IllegalArgumentException || e instanceof IllegalStateException) {
+                        mostrarError(e.getMessage());
+                    } else {
+                        mostrarError("Error al guardar el producto: " + e.getMessage());
+                        e.printStackTrace();
+                    }
+                });
 
         } catch (IllegalArgumentException e) {
             mostrarError(e.getMessage());
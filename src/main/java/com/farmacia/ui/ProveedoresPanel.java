@@ -6,6 +6,7 @@ import com.farmacia.model.Proveedor;
 import com.farmacia.service.PedidoService;
 import com.farmacia.service.ProductoService;
 import com.farmacia.service.ProveedorService;
+import com.farmacia.service.ReposicionService;
 import javafx.beans.property.SimpleStringProperty;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
@@ -19,12 +20,14 @@ import javafx.scene.paint.Color;
 import java.time.format.DateTimeFormatter;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.Callable;
 
 public class ProveedoresPanel {
 
     private final ProveedorService proveedorService;
     private final PedidoService pedidoService;
     private final ProductoService productoService;
+    private final ReposicionService reposicionService;
     private BorderPane content;
     
     // Componentes para gestión de proveedores
@@ -35,11 +38,20 @@ public class ProveedoresPanel {
     // Componentes para gestión de pedidos
     private TableView<Pedido> tablaPedidos;
     private ObservableList<Pedido> pedidosData;
+
+    // Consultas y operaciones en segundo plano
+    private final TareaUI tareaProveedores = new TareaUI();
+    private final BusquedaUI busquedaProveedores = new BusquedaUI("Proveedores", tareaProveedores);
+    private final TareaUI tareaPedidos = new TareaUI();
+    private final TareaUI tareaEstadisticasProveedores = new TareaUI();
+    private final TareaUI tareaEstadisticasPedidos = new TareaUI();
     
-    public ProveedoresPanel(ProveedorService proveedorService, PedidoService pedidoService, ProductoService productoService) {
+    public ProveedoresPanel(ProveedorService proveedorService, PedidoService pedidoService, ProductoService productoService,
+                            ReposicionService reposicionService) {
         this.proveedorService = proveedorService;
         this.pedidoService = pedidoService;
         this.productoService = productoService;
+        this.reposicionService = reposicionService;
         this.proveedoresData = FXCollections.observableArrayList();
         this.pedidosData = FXCollections.observableArrayList();
         inicializarContenido();
@@ -100,7 +112,7 @@ public class ProveedoresPanel {
         btnRefrescar.setOnAction(e -> cargarProveedores());
 
         toolBar.getChildren().addAll(btnNuevoProveedor, new Separator(javafx.geometry.Orientation.VERTICAL), 
-                                     txtBuscarProveedor, btnRefrescar);
+                                     txtBuscarProveedor, btnRefrescar, tareaProveedores.crearIndicador());
 
         // Tabla de proveedores
         tablaProveedores = crearTablaProveedores();
@@ -195,19 +207,15 @@ public class ProveedoresPanel {
     }
 
     private void cargarProveedores() {
-        proveedoresData.clear();
-        List<Proveedor> proveedores = proveedorService.obtenerTodosActivos();
-        proveedoresData.addAll(proveedores);
+        busquedaProveedores.ejecutarAhora(proveedorService::obtenerTodosActivos, proveedores -> proveedoresData.setAll(proveedores));
     }
 
+    // Búsqueda mientras se escribe: se lanza cuando el usuario deja de teclear
     private void buscarProveedores(String criterio) {
-        if (criterio == null || criterio.trim().isEmpty()) {
-            cargarProveedores();
-        } else {
-            proveedoresData.clear();
-            List<Proveedor> proveedores = proveedorService.buscar(criterio);
-            proveedoresData.addAll(proveedores);
-        }
+        Callable<List<Proveedor>> consulta = criterio == null || criterio.trim().isEmpty()
+                ? proveedorService::obtenerTodosActivos
+                : () -> proveedorService.buscar(criterio);
+        busquedaProveedores.buscar(consulta, proveedores -> proveedoresData.setAll(proveedores));
     }
 
     private void mostrarFormularioProveedor(Proveedor proveedor) {
@@ -347,16 +355,14 @@ public class ProveedoresPanel {
         });
 
         Optional<Proveedor> result = dialog.showAndWait();
-        result.ifPresent(p -> {
-            try {
-                proveedorService.guardar(p);
+        result.ifPresent(p -> new TareaUI().ejecutar(
+            () -> proveedorService.guardar(p),
+            guardado -> {
                 mostrarAlerta("Éxito", "Proveedor guardado correctamente", Alert.AlertType.INFORMATION);
                 cargarProveedores();
                 actualizarEstadisticasProveedores();
-            } catch (Exception e) {
-                mostrarAlerta("Error", "Error al guardar: " + e.getMessage(), Alert.AlertType.ERROR);
-            }
-        });
+            },
+            e -> mostrarAlerta("Error", "Error al guardar: " + e.getMessage(), Alert.AlertType.ERROR)));
     }
 
     private void verDetalleProveedor(Proveedor proveedor) {
@@ -409,26 +415,30 @@ public class ProveedoresPanel {
 
         Optional<ButtonType> resultado = confirmacion.showAndWait();
         if (resultado.isPresent() && resultado.get() == ButtonType.OK) {
-            try {
-                proveedorService.desactivar(proveedor.getId());
-                mostrarAlerta("Éxito", "Proveedor eliminado correctamente", Alert.AlertType.INFORMATION);
-                cargarProveedores();
-                actualizarEstadisticasProveedores();
-            } catch (Exception e) {
-                mostrarAlerta("Error", "Error al eliminar: " + e.getMessage(), Alert.AlertType.ERROR);
-            }
+            new TareaUI().ejecutar(
+                () -> {
+                    proveedorService.desactivar(proveedor.getId());
+                    return null;
+                },
+                r -> {
+                    mostrarAlerta("Éxito", "Proveedor eliminado correctamente", Alert.AlertType.INFORMATION);
+                    cargarProveedores();
+                    actualizarEstadisticasProveedores();
+                },
+                e -> mostrarAlerta("Error", "Error al eliminar: " + e.getMessage(), Alert.AlertType.ERROR));
         }
     }
 
     private void actualizarEstadisticasProveedores() {
-        ProveedorService.EstadisticasProveedores stats = proveedorService.obtenerEstadisticas();
-        Label lblEstadisticas = (Label) content.lookup("#lblEstadisticasProveedores");
-        if (lblEstadisticas != null) {
-            lblEstadisticas.setText(String.format(
-                "📊 Total Proveedores: %d | ⭐ Excelentes (5★): %d",
-                stats.getTotalProveedores(), stats.getProveedoresExcelentes()
-            ));
-        }
+        tareaEstadisticasProveedores.ejecutar(proveedorService::obtenerEstadisticas, stats -> {
+            Label lblEstadisticas = (Label) content.lookup("#lblEstadisticasProveedores");
+            if (lblEstadisticas != null) {
+                lblEstadisticas.setText(String.format(
+                    "📊 Total Proveedores: %d | ⭐ Excelentes (5★): %d",
+                    stats.getTotalProveedores(), stats.getProveedoresExcelentes()
+                ));
+            }
+        });
     }
 
     // ==================== PANEL DE PEDIDOS ====================
@@ -452,6 +462,10 @@ public class ProveedoresPanel {
         btnNuevoPedido.setStyle("-fx-background-color: #4CAF50; -fx-text-fill: white; -fx-font-size: 14px;");
         btnNuevoPedido.setOnAction(e -> abrirFormularioNuevoPedido());
 
+        Button btnReposicion = new Button("🔁 Reposición Automática");
+        btnReposicion.setStyle("-fx-background-color: #FF9800; -fx-text-fill: white; -fx-font-size: 14px;");
+        btnReposicion.setOnAction(e -> generarReposicion());
+
         ComboBox<String> cboFiltroEstado = new ComboBox<>();
         cboFiltroEstado.getItems().addAll("Todos", "Pendientes", "Recibidos", "Cancelados");
         cboFiltroEstado.setValue("Todos");
@@ -461,8 +475,8 @@ public class ProveedoresPanel {
         btnRefrescar.setStyle("-fx-background-color: #2196F3; -fx-text-fill: white;");
         btnRefrescar.setOnAction(e -> cargarPedidos());
 
-        toolBar.getChildren().addAll(btnNuevoPedido, new Separator(javafx.geometry.Orientation.VERTICAL),
-                                     new Label("Filtrar:"), cboFiltroEstado, btnRefrescar);
+        toolBar.getChildren().addAll(btnNuevoPedido, btnReposicion, new Separator(javafx.geometry.Orientation.VERTICAL),
+                                     new Label("Filtrar:"), cboFiltroEstado, btnRefrescar, tareaPedidos.crearIndicador());
 
         // Tabla de pedidos
         tablaPedidos = crearTablaPedidos();
@@ -542,30 +556,27 @@ public class ProveedoresPanel {
     }
 
     private void cargarPedidos() {
-        pedidosData.clear();
-        List<Pedido> pedidos = pedidoService.obtenerTodosActivos();
-        pedidosData.addAll(pedidos);
+        tareaPedidos.ejecutar(pedidoService::obtenerTodosActivos, pedidos -> pedidosData.setAll(pedidos));
     }
 
     private void filtrarPedidosPorEstado(String filtro) {
-        pedidosData.clear();
-        List<Pedido> pedidos;
+        Callable<List<Pedido>> consulta;
         
         switch (filtro) {
             case "Pendientes":
-                pedidos = pedidoService.obtenerPendientes();
+                consulta = pedidoService::obtenerPendientes;
                 break;
             case "Recibidos":
-                pedidos = pedidoService.obtenerPorEstado(EstadoPedido.RECIBIDO);
+                consulta = () -> pedidoService.obtenerPorEstado(EstadoPedido.RECIBIDO);
                 break;
             case "Cancelados":
-                pedidos = pedidoService.obtenerPorEstado(EstadoPedido.CANCELADO);
+                consulta = () -> pedidoService.obtenerPorEstado(EstadoPedido.CANCELADO);
                 break;
             default:
-                pedidos = pedidoService.obtenerTodosActivos();
+                consulta = pedidoService::obtenerTodosActivos;
         }
         
-        pedidosData.addAll(pedidos);
+        tareaPedidos.ejecutar(consulta, pedidos -> pedidosData.setAll(pedidos));
     }
 
     private void verDetallePedido(Pedido pedido) {
@@ -618,26 +629,30 @@ public class ProveedoresPanel {
 
         Optional<ButtonType> resultado = confirmacion.showAndWait();
         if (resultado.isPresent() && resultado.get() == ButtonType.OK) {
-            try {
-                pedidoService.marcarComoRecibido(pedido.getId());
-                mostrarAlerta("Éxito", "Pedido marcado como recibido y stock actualizado", Alert.AlertType.INFORMATION);
-                cargarPedidos();
-                actualizarEstadisticasPedidos();
-            } catch (Exception e) {
-                mostrarAlerta("Error", "Error al marcar pedido: " + e.getMessage(), Alert.AlertType.ERROR);
-            }
+            new TareaUI().ejecutar(
+                () -> {
+                    pedidoService.marcarComoRecibido(pedido.getId());
+                    return null;
+                },
+                r -> {
+                    mostrarAlerta("Éxito", "Pedido marcado como recibido y stock actualizado", Alert.AlertType.INFORMATION);
+                    cargarPedidos();
+                    actualizarEstadisticasPedidos();
+                },
+                e -> mostrarAlerta("Error", "Error al marcar pedido: " + e.getMessage(), Alert.AlertType.ERROR));
         }
     }
 
     private void actualizarEstadisticasPedidos() {
-        PedidoService.EstadisticasPedidos stats = pedidoService.obtenerEstadisticas();
-        Label lblEstadisticas = (Label) content.lookup("#lblEstadisticasPedidos");
-        if (lblEstadisticas != null) {
-            lblEstadisticas.setText(String.format(
-                "📊 Pendientes: %d | ✅ Recibidos: %d | ❌ Cancelados: %d",
-                stats.getPedidosPendientes(), stats.getPedidosRecibidos(), stats.getPedidosCancelados()
-            ));
-        }
+        tareaEstadisticasPedidos.ejecutar(pedidoService::obtenerEstadisticas, stats -> {
+            Label lblEstadisticas = (Label) content.lookup("#lblEstadisticasPedidos");
+            if (lblEstadisticas != null) {
+                lblEstadisticas.setText(String.format(
+                    "📊 Pendientes: %d | ✅ Recibidos: %d | ❌ Cancelados: %d",
+                    stats.getPedidosPendientes(), stats.getPedidosRecibidos(), stats.getPedidosCancelados()
+                ));
+            }
+        });
     }
 
     private void abrirFormularioNuevoPedido() {
@@ -653,6 +668,42 @@ public class ProveedoresPanel {
         ventana.mostrar();
     }
 
+    // Crear pedidos en borrador con lo que hay que reponer según la velocidad de ventas
+    private void generarReposicion() {
+        TextInputDialog dialogo = new TextInputDialog(String.valueOf(ReposicionService.DIAS_COBERTURA_POR_DEFECTO));
+        dialogo.setTitle("Reposición Automática");
+        dialogo.setHeaderText("Se creará un pedido en borrador por proveedor con los productos que hay que reponer.\n" +
+                              "El proveedor y el precio son los de la última compra de cada producto.");
+        dialogo.setContentText("Días de cobertura:");
+
+        Optional<String> respuesta = dialogo.showAndWait();
+        if (respuesta.isEmpty()) {
+            return;
+        }
+        int diasCobertura;
+        try {
+            diasCobertura = Integer.parseInt(respuesta.get().trim());
+        } catch (NumberFormatException e) {
+            mostrarAlerta("Error", "Los días de cobertura deben ser un número entero", Alert.AlertType.ERROR);
+            return;
+        }
+
+        new TareaUI().ejecutar(
+            () -> reposicionService.generarPedidosBorrador(diasCobertura),
+            resultado -> {
+                if (resultado.getPedidosCreados() == 0) {
+                    mostrarAlerta("Reposición Automática", "No hay productos que reponer", Alert.AlertType.INFORMATION);
+                } else {
+                    mostrarAlerta("Reposición Automática", String.format(
+                        "Pedidos en borrador creados: %d\nProductos incluidos: %d\n\nRevíselos antes de enviarlos.",
+                        resultado.getPedidosCreados(), resultado.getLineas()), Alert.AlertType.INFORMATION);
+                }
+                cargarPedidos();
+                actualizarEstadisticasPedidos();
+            },
+            e -> mostrarAlerta("Error", "Error en la reposición automática: " + e.getMessage(), Alert.AlertType.ERROR));
+    }
+
     private void mostrarAlerta(String titulo, String mensaje, Alert.AlertType tipo) {
         Alert alert = new Alert(tipo);
         alert.setTitle(titulo);
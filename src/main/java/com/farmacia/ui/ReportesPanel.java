@@ -2,7 +2,12 @@ package com.farmacia.ui;
 
 import com.farmacia.model.Cliente;
 import com.farmacia.model.Producto;
+import com.farmacia.model.ProductoMasVendido;
+import com.farmacia.model.ResumenInventario;
+import com.farmacia.model.TotalInventarioCategoria;
+import com.farmacia.model.TotalVentasMetodoPago;
 import com.farmacia.model.Venta;
+import com.farmacia.service.AlertaService;
 import com.farmacia.service.ClienteService;
 import com.farmacia.service.ProductoService;
 import com.farmacia.service.VentaService;
@@ -24,6 +29,7 @@ import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.Callable;
 import java.util.stream.Collectors;
 
 /**
@@ -34,6 +40,7 @@ public class ReportesPanel extends VBox {
     private final VentaService ventaService;
     private final ProductoService productoService;
     private final ClienteService clienteService;
+    private final AlertaService alertaService;
 
     private final DateTimeFormatter formatter = DateTimeFormatter.ofPattern("dd/MM/yyyy");
     private final DateTimeFormatter formatterTime = DateTimeFormatter.ofPattern("dd/MM/yyyy HH:mm");
@@ -42,10 +49,15 @@ public class ReportesPanel extends VBox {
     private DatePicker dpFechaInicio;
     private DatePicker dpFechaFin;
 
-    public ReportesPanel(VentaService ventaService, ProductoService productoService, ClienteService clienteService) {
+    // Estadísticas del rango de fechas (un filtro nuevo descarta el anterior)
+    private final TareaUI tareaRango = new TareaUI();
+
+    public ReportesPanel(VentaService ventaService, ProductoService productoService, ClienteService clienteService,
+                         AlertaService alertaService) {
         this.ventaService = ventaService;
         this.productoService = productoService;
         this.clienteService = clienteService;
+        this.alertaService = alertaService;
 
         initUI();
     }
@@ -137,36 +149,38 @@ public class ReportesPanel extends VBox {
         Label lblTitulo = new Label("📅 Estadísticas del Día: " + LocalDate.now().format(formatter));
         lblTitulo.setFont(Font.font("System", FontWeight.BOLD, 16));
 
-        // Obtener estadísticas
-        VentaService.EstadisticasVentas stats = ventaService.obtenerEstadisticasDelDia();
-
-        // Grid de estadísticas
-        GridPane grid = new GridPane();
-        grid.setHgap(30);
-        grid.setVgap(15);
-        grid.setPadding(new Insets(10));
-
-        // Total ventas
-        VBox boxTotal = crearCajaEstadistica("💵 Total Ventas", 
-                String.format("€%.2f", stats.getTotalVentas()), "#4CAF50");
-        grid.add(boxTotal, 0, 0);
-
-        // Número de ventas
-        VBox boxNumero = crearCajaEstadistica("🛒 Número de Ventas", 
-                stats.getNumeroVentas().toString(), "#2196F3");
-        grid.add(boxNumero, 1, 0);
-
-        // Promedio por venta
-        VBox boxPromedio = crearCajaEstadistica("📊 Promedio por Venta", 
-                String.format("€%.2f", stats.getPromedioVenta()), "#FF9800");
-        grid.add(boxPromedio, 2, 0);
-
-        // Productos vendidos
-        VBox boxProductos = crearCajaEstadistica("📦 Productos Vendidos", 
-                stats.getTotalProductosVendidos().toString(), "#9C27B0");
-        grid.add(boxProductos, 3, 0);
-
-        panel.getChildren().addAll(lblTitulo, grid);
+        panel.getChildren().add(lblTitulo);
+
+        // Obtener estadísticas en segundo plano
+        TareaUI.cargarEn(panel, ventaService::obtenerEstadisticasDelDia, stats -> {
+            // Grid de estadísticas
+            GridPane grid = new GridPane();
+            grid.setHgap(30);
+            grid.setVgap(15);
+            grid.setPadding(new Insets(10));
+
+            // Total ventas
+            VBox boxTotal = crearCajaEstadistica("💵 Total Ventas", 
+                    String.format("€%.2f", stats.getTotalVentas()), "#4CAF50");
+            grid.add(boxTotal, 0, 0);
+
+            // Número de ventas
+            VBox boxNumero = crearCajaEstadistica("🛒 Número de Ventas", 
+                    stats.getNumeroVentas().toString(), "#2196F3");
+            grid.add(boxNumero, 1, 0);
+
+            // Promedio por venta
+            VBox boxPromedio = crearCajaEstadistica("📊 Promedio por Venta", 
+                    String.format("€%.2f", stats.getPromedioVenta()), "#FF9800");
+            grid.add(boxPromedio, 2, 0);
+
+            // Productos vendidos
+            VBox boxProductos = crearCajaEstadistica("📦 Productos Vendidos", 
+                    stats.getTotalProductosVendidos().toString(), "#9C27B0");
+            grid.add(boxProductos, 3, 0);
+
+            return grid;
+        });
         return panel;
     }
 
@@ -236,7 +250,8 @@ public class ReportesPanel extends VBox {
             onUpdate.run();
         });
 
-        filtro.getChildren().addAll(lblFiltro, dpFechaInicio, lblA, dpFechaFin, btnAplicar, btnHoy, btnSemana, btnMes);
+        filtro.getChildren().addAll(lblFiltro, dpFechaInicio, lblA, dpFechaFin, btnAplicar, btnHoy, btnSemana, btnMes,
+                tareaRango.crearIndicador());
         return filtro;
     }
 
@@ -249,38 +264,38 @@ public class ReportesPanel extends VBox {
 
         statsBox.getChildren().clear();
 
-        LocalDateTime fechaInicio = dpFechaInicio.getValue().atStartOfDay();
-        LocalDateTime fechaFin = dpFechaFin.getValue().atTime(23, 59, 59);
-
-        List<Venta> ventas = ventaService.obtenerVentasPorRango(fechaInicio, fechaFin);
-
-        // Calcular estadísticas
-        double total = ventas.stream().mapToDouble(v -> v.getTotal().doubleValue()).sum();
-        long numVentas = ventas.size();
-        double promedio = numVentas > 0 ? total / numVentas : 0;
-
-        // Mostrar estadísticas
-        Label lblResultados = new Label(String.format(
-                "📊 Resultados del %s al %s",
-                dpFechaInicio.getValue().format(formatter),
-                dpFechaFin.getValue().format(formatter)
-        ));
-        lblResultados.setFont(Font.font("System", FontWeight.BOLD, 16));
-
-        GridPane grid = new GridPane();
-        grid.setHgap(20);
-        grid.setVgap(10);
-        grid.setPadding(new Insets(10));
-
-        VBox boxTotal = crearCajaEstadistica("💵 Total Periodo", String.format("€%.2f", total), "#4CAF50");
-        VBox boxNum = crearCajaEstadistica("🛒 Ventas", String.valueOf(numVentas), "#2196F3");
-        VBox boxProm = crearCajaEstadistica("📊 Promedio", String.format("€%.2f", promedio), "#FF9800");
-
-        grid.add(boxTotal, 0, 0);
-        grid.add(boxNum, 1, 0);
-        grid.add(boxProm, 2, 0);
-
-        statsBox.getChildren().addAll(lblResultados, grid);
+        LocalDate desde = dpFechaInicio.getValue();
+        LocalDate hasta = dpFechaFin.getValue();
+
+        // Calcular estadísticas desde el resumen diario (en segundo plano)
+        tareaRango.ejecutar(() -> ventaService.obtenerEstadisticasPorRango(desde, hasta), stats -> {
+            double total = stats.getTotalVentas();
+            long numVentas = stats.getNumeroVentas();
+            double promedio = stats.getPromedioVenta();
+
+            // Mostrar estadísticas
+            Label lblResultados = new Label(String.format(
+                    "📊 Resultados del %s al %s",
+                    desde.format(formatter),
+                    hasta.format(formatter)
+            ));
+            lblResultados.setFont(Font.font("System", FontWeight.BOLD, 16));
+
+            GridPane grid = new GridPane();
+            grid.setHgap(20);
+            grid.setVgap(10);
+            grid.setPadding(new Insets(10));
+
+            VBox boxTotal = crearCajaEstadistica("💵 Total Periodo", String.format("€%.2f", total), "#4CAF50");
+            VBox boxNum = crearCajaEstadistica("🛒 Ventas", String.valueOf(numVentas), "#2196F3");
+            VBox boxProm = crearCajaEstadistica("📊 Promedio", String.format("€%.2f", promedio), "#FF9800");
+
+            grid.add(boxTotal, 0, 0);
+            grid.add(boxNum, 1, 0);
+            grid.add(boxProm, 2, 0);
+
+            statsBox.getChildren().setAll(lblResultados, grid);
+        });
     }
 
     /**
@@ -294,43 +309,28 @@ public class ReportesPanel extends VBox {
         Label lblTitulo = new Label("🏆 Top 10 Productos Más Vendidos");
         lblTitulo.setFont(Font.font("System", FontWeight.BOLD, 16));
 
-        TableView<Map.Entry<String, Long>> tabla = new TableView<>();
+        TableView<ProductoMasVendido> tabla = new TableView<>();
         
-        TableColumn<Map.Entry<String, Long>, String> colPosicion = new TableColumn<>("#");
+        TableColumn<ProductoMasVendido, String> colPosicion = new TableColumn<>("#");
         colPosicion.setCellValueFactory(data -> {
             int index = tabla.getItems().indexOf(data.getValue()) + 1;
             return new SimpleStringProperty(String.valueOf(index));
         });
         colPosicion.setPrefWidth(50);
 
-        TableColumn<Map.Entry<String, Long>, String> colProducto = new TableColumn<>("Producto");
-        colProducto.setCellValueFactory(data -> new SimpleStringProperty(data.getValue().getKey()));
+        TableColumn<ProductoMasVendido, String> colProducto = new TableColumn<>("Producto");
+        colProducto.setCellValueFactory(data -> new SimpleStringProperty(data.getValue().getNombre()));
         colProducto.setPrefWidth(400);
 
-        TableColumn<Map.Entry<String, Long>, String> colCantidad = new TableColumn<>("Cantidad Vendida");
-        colCantidad.setCellValueFactory(data -> new SimpleStringProperty(data.getValue().getValue().toString()));
+        TableColumn<ProductoMasVendido, String> colCantidad = new TableColumn<>("Cantidad Vendida");
+        colCantidad.setCellValueFactory(data -> new SimpleStringProperty(data.getValue().getCantidadVendida().toString()));
         colCantidad.setPrefWidth(150);
 
         tabla.getColumns().addAll(colPosicion, colProducto, colCantidad);
         tabla.setPrefHeight(300);
 
-        // Cargar datos
-        List<Venta> ventas = ventaService.obtenerVentasActivas();
-        Map<String, Long> productosVendidos = new HashMap<>();
-        
-        ventas.forEach(venta -> {
-            venta.getDetalles().forEach(detalle -> {
-                String nombreProducto = detalle.getProducto().getNombre();
-                productosVendidos.merge(nombreProducto, detalle.getCantidad().longValue(), Long::sum);
-            });
-        });
-
-        List<Map.Entry<String, Long>> top10 = productosVendidos.entrySet().stream()
-                .sorted(Map.Entry.<String, Long>comparingByValue().reversed())
-                .limit(10)
-                .collect(Collectors.toList());
-
-        tabla.setItems(FXCollections.observableArrayList(top10));
+        // Cargar datos (agregado en la base de datos)
+        cargarTabla(tabla, () -> ventaService.obtenerProductosMasVendidos(null, null, 10));
 
         panel.getChildren().addAll(lblTitulo, tabla);
         return panel;
@@ -347,31 +347,27 @@ public class ReportesPanel extends VBox {
         Label lblTitulo = new Label("💳 Distribución por Método de Pago");
         lblTitulo.setFont(Font.font("System", FontWeight.BOLD, 16));
 
-        GridPane grid = new GridPane();
-        grid.setHgap(30);
-        grid.setVgap(15);
-        grid.setPadding(new Insets(10));
+        panel.getChildren().add(lblTitulo);
 
         // Obtener estadísticas por método de pago
-        List<Venta> ventas = ventaService.obtenerVentasActivas();
-        Map<String, Double> porMetodo = ventas.stream()
-                .collect(Collectors.groupingBy(
-                        Venta::getMetodoPago,
-                        Collectors.summingDouble(v -> v.getTotal().doubleValue())
-                ));
-
-        int col = 0;
-        for (Map.Entry<String, Double> entry : porMetodo.entrySet()) {
-            String icono = getIconoMetodoPago(entry.getKey());
-            VBox box = crearCajaEstadistica(
-                    icono + " " + entry.getKey(),
-                    String.format("€%.2f", entry.getValue()),
-                    "#9C27B0"
-            );
-            grid.add(box, col++, 0);
-        }
-
-        panel.getChildren().addAll(lblTitulo, grid);
+        TareaUI.cargarEn(panel, ventaService::obtenerTotalesPorMetodoPago, porMetodo -> {
+            GridPane grid = new GridPane();
+            grid.setHgap(30);
+            grid.setVgap(15);
+            grid.setPadding(new Insets(10));
+
+            int col = 0;
+            for (TotalVentasMetodoPago metodo : porMetodo) {
+                String icono = getIconoMetodoPago(metodo.getMetodoPago());
+                VBox box = crearCajaEstadistica(
+                        icono + " " + metodo.getMetodoPago(),
+                        String.format("€%.2f", metodo.getTotal()),
+                        "#9C27B0"
+                );
+                grid.add(box, col++, 0);
+            }
+            return grid;
+        });
         return panel;
     }
 
@@ -421,27 +417,23 @@ public class ReportesPanel extends VBox {
         Label lblTitulo = new Label("📊 Estadísticas Generales");
         lblTitulo.setFont(Font.font("System", FontWeight.BOLD, 16));
 
-        List<Producto> productos = productoService.obtenerTodos();
-        long totalProductos = productos.size();
-        long stockTotal = productos.stream().mapToLong(Producto::getStock).sum();
-        double valorTotal = productos.stream()
-                .mapToDouble(p -> p.getPrecio().doubleValue() * p.getStock())
-                .sum();
-        long stockBajo = productos.stream().filter(Producto::isStockBajo).count();
-        long productosVencidos = productos.stream().filter(Producto::isVencido).count();
-
-        GridPane grid = new GridPane();
-        grid.setHgap(20);
-        grid.setVgap(10);
-        grid.setPadding(new Insets(10));
-
-        grid.add(crearCajaEstadistica("📦 Total Productos", String.valueOf(totalProductos), "#4CAF50"), 0, 0);
-        grid.add(crearCajaEstadistica("📊 Stock Total", String.valueOf(stockTotal), "#2196F3"), 1, 0);
-        grid.add(crearCajaEstadistica("💰 Valor Total", String.format("€%.2f", valorTotal), "#FF9800"), 2, 0);
-        grid.add(crearCajaEstadistica("⚠️ Stock Bajo", String.valueOf(stockBajo), "#f44336"), 0, 1);
-        grid.add(crearCajaEstadistica("❌ Vencidos", String.valueOf(productosVencidos), "#9C27B0"), 1, 1);
-
-        panel.getChildren().addAll(lblTitulo, grid);
+        panel.getChildren().add(lblTitulo);
+
+        // Todos los indicadores salen de una consulta agregada: no se carga el catálogo
+        TareaUI.cargarEn(panel, productoService::obtenerResumenInventario, resumen -> {
+            GridPane grid = new GridPane();
+            grid.setHgap(20);
+            grid.setVgap(10);
+            grid.setPadding(new Insets(10));
+
+            grid.add(crearCajaEstadistica("📦 Total Productos", String.valueOf(resumen.getTotalProductos()), "#4CAF50"), 0, 0);
+            grid.add(crearCajaEstadistica("📊 Stock Total", String.valueOf(resumen.getStockTotal()), "#2196F3"), 1, 0);
+            grid.add(crearCajaEstadistica("💰 Valor Total", String.format("€%.2f", resumen.getValorTotal()), "#FF9800"), 2, 0);
+            grid.add(crearCajaEstadistica("⚠️ Stock Bajo", String.valueOf(resumen.getProductosStockBajo()), "#f44336"), 0, 1);
+            grid.add(crearCajaEstadistica("❌ Vencidos", String.valueOf(resumen.getProductosVencidos()), "#9C27B0"), 1, 1);
+
+            return grid;
+        });
         return panel;
     }
 
@@ -467,7 +459,9 @@ public class ReportesPanel extends VBox {
         colStock.setPrefWidth(100);
 
         TableColumn<Producto, String> colStockMin = new TableColumn<>("Stock Mínimo");
-        colStockMin.setCellValueFactory(data -> new SimpleStringProperty(String.valueOf(data.getValue().getStockMinimo())));
+        // Sin stock mínimo propio se aplica el de la categoría o el global de las alertas
+        colStockMin.setCellValueFactory(data -> new SimpleStringProperty(data.getValue().getStockMinimo() != null
+                ? String.valueOf(data.getValue().getStockMinimo()) : "Según categoría"));
         colStockMin.setPrefWidth(100);
 
         TableColumn<Producto, String> colCategoria = new TableColumn<>("Categoría");
@@ -477,8 +471,7 @@ public class ReportesPanel extends VBox {
         tabla.getColumns().addAll(colNombre, colStock, colStockMin, colCategoria);
         tabla.setPrefHeight(250);
 
-        List<Producto> stockBajo = productoService.obtenerProductosStockBajo();
-        tabla.setItems(FXCollections.observableArrayList(stockBajo));
+        cargarTabla(tabla, productoService::obtenerProductosStockBajo);
 
         panel.getChildren().addAll(lblTitulo, tabla);
         return panel;
@@ -518,8 +511,7 @@ public class ReportesPanel extends VBox {
         tabla.getColumns().addAll(colNombre, colFecha, colStock, colLab);
         tabla.setPrefHeight(250);
 
-        List<Producto> proximosVencer = productoService.obtenerProductosProximosVencer(30);
-        tabla.setItems(FXCollections.observableArrayList(proximosVencer));
+        cargarTabla(tabla, () -> productoService.obtenerProductosProximosVencer(30));
 
         panel.getChildren().addAll(lblTitulo, tabla);
         return panel;
@@ -536,23 +528,29 @@ public class ReportesPanel extends VBox {
         Label lblTitulo = new Label("📂 Distribución por Categorías");
         lblTitulo.setFont(Font.font("System", FontWeight.BOLD, 16));
 
-        TableView<Map.Entry<String, Long>> tabla = new TableView<>();
+        TableView<TotalInventarioCategoria> tabla = new TableView<>();
 
-        TableColumn<Map.Entry<String, Long>, String> colCategoria = new TableColumn<>("Categoría");
-        colCategoria.setCellValueFactory(data -> new SimpleStringProperty(data.getValue().getKey()));
+        TableColumn<TotalInventarioCategoria, String> colCategoria = new TableColumn<>("Categoría");
+        colCategoria.setCellValueFactory(data -> new SimpleStringProperty(
+                data.getValue().getCategoria() != null ? data.getValue().getCategoria() : "Sin categoría"));
         colCategoria.setPrefWidth(300);
 
-        TableColumn<Map.Entry<String, Long>, String> colCantidad = new TableColumn<>("Cantidad de Productos");
-        colCantidad.setCellValueFactory(data -> new SimpleStringProperty(data.getValue().getValue().toString()));
+        TableColumn<TotalInventarioCategoria, String> colCantidad = new TableColumn<>("Cantidad de Productos");
+        colCantidad.setCellValueFactory(data -> new SimpleStringProperty(data.getValue().getNumeroProductos().toString()));
         colCantidad.setPrefWidth(200);
 
-        tabla.getColumns().addAll(colCategoria, colCantidad);
-        tabla.setPrefHeight(250);
+        TableColumn<TotalInventarioCategoria, String> colStock = new TableColumn<>("Stock");
+        colStock.setCellValueFactory(data -> new SimpleStringProperty(data.getValue().getStock().toString()));
+        colStock.setPrefWidth(120);
+
+        TableColumn<TotalInventarioCategoria, String> colValor = new TableColumn<>("Valor");
+        colValor.setCellValueFactory(data -> new SimpleStringProperty(String.format("€%.2f", data.getValue().getValor())));
+        colValor.setPrefWidth(150);
 
-        Map<String, Long> porCategoria = productoService.obtenerTodos().stream()
-                .collect(Collectors.groupingBy(Producto::getCategoria, Collectors.counting()));
+        tabla.getColumns().addAll(colCategoria, colCantidad, colStock, colValor);
+        tabla.setPrefHeight(250);
 
-        tabla.setItems(FXCollections.observableArrayList(porCategoria.entrySet()));
+        cargarTabla(tabla, productoService::obtenerInventarioPorCategoria);
 
         panel.getChildren().addAll(lblTitulo, tabla);
         return panel;
@@ -604,18 +602,20 @@ public class ReportesPanel extends VBox {
         Label lblTitulo = new Label("📊 Estadísticas Generales");
         lblTitulo.setFont(Font.font("System", FontWeight.BOLD, 16));
 
-        ClienteService.EstadisticasClientes stats = clienteService.obtenerEstadisticas();
+        panel.getChildren().add(lblTitulo);
 
-        GridPane grid = new GridPane();
-        grid.setHgap(30);
-        grid.setVgap(15);
-        grid.setPadding(new Insets(10));
+        TareaUI.cargarEn(panel, clienteService::obtenerEstadisticas, stats -> {
+            GridPane grid = new GridPane();
+            grid.setHgap(30);
+            grid.setVgap(15);
+            grid.setPadding(new Insets(10));
 
-        grid.add(crearCajaEstadistica("👥 Clientes Activos", String.valueOf(stats.getTotalClientes()), "#4CAF50"), 0, 0);
-        grid.add(crearCajaEstadistica("❌ Clientes Inactivos", String.valueOf(stats.getTotalInactivos()), "#f44336"), 1, 0);
-        grid.add(crearCajaEstadistica("📈 Total General", String.valueOf(stats.getTotalClientes() + stats.getTotalInactivos()), "#2196F3"), 2, 0);
+            grid.add(crearCajaEstadistica("👥 Clientes Activos", String.valueOf(stats.getTotalClientes()), "#4CAF50"), 0, 0);
+            grid.add(crearCajaEstadistica("❌ Clientes Inactivos", String.valueOf(stats.getTotalInactivos()), "#f44336"), 1, 0);
+            grid.add(crearCajaEstadistica("📈 Total General", String.valueOf(stats.getTotalClientes() + stats.getTotalInactivos()), "#2196F3"), 2, 0);
 
-        panel.getChildren().addAll(lblTitulo, grid);
+            return grid;
+        });
         return panel;
     }
 
@@ -630,25 +630,28 @@ public class ReportesPanel extends VBox {
         Label lblTitulo = new Label("📄 Distribución por Tipo de Documento");
         lblTitulo.setFont(Font.font("System", FontWeight.BOLD, 16));
 
-        Map<String, Long> porTipo = clienteService.obtenerClientesActivos().stream()
-                .collect(Collectors.groupingBy(Cliente::getTipoDocumento, Collectors.counting()));
-
-        GridPane grid = new GridPane();
-        grid.setHgap(20);
-        grid.setVgap(10);
-        grid.setPadding(new Insets(10));
-
-        int col = 0;
-        for (Map.Entry<String, Long> entry : porTipo.entrySet()) {
-            VBox box = crearCajaEstadistica(
-                    entry.getKey(),
-                    entry.getValue().toString(),
-                    "#4CAF50"
-            );
-            grid.add(box, col++, 0);
-        }
-
-        panel.getChildren().addAll(lblTitulo, grid);
+        panel.getChildren().add(lblTitulo);
+
+        TareaUI.cargarEn(panel,
+                () -> clienteService.obtenerClientesActivos().stream()
+                        .collect(Collectors.groupingBy(Cliente::getTipoDocumento, Collectors.counting())),
+                porTipo -> {
+                    GridPane grid = new GridPane();
+                    grid.setHgap(20);
+                    grid.setVgap(10);
+                    grid.setPadding(new Insets(10));
+
+                    int col = 0;
+                    for (Map.Entry<String, Long> entry : porTipo.entrySet()) {
+                        VBox box = crearCajaEstadistica(
+                                entry.getKey(),
+                                entry.getValue().toString(),
+                                "#4CAF50"
+                        );
+                        grid.add(box, col++, 0);
+                    }
+                    return grid;
+                });
         return panel;
     }
 
@@ -686,8 +689,7 @@ public class ReportesPanel extends VBox {
         tabla.getColumns().addAll(colNombre, colDocumento, colTelefono, colFecha);
         tabla.setPrefHeight(300);
 
-        List<Cliente> ultimos = clienteService.obtenerUltimosClientes();
-        tabla.setItems(FXCollections.observableArrayList(ultimos));
+        cargarTabla(tabla, clienteService::obtenerUltimosClientes);
 
         panel.getChildren().addAll(lblTitulo, tabla);
         return panel;
@@ -719,13 +721,12 @@ public class ReportesPanel extends VBox {
         tabla.getColumns().addAll(colCiudad, colCantidad);
         tabla.setPrefHeight(250);
 
-        Map<String, Long> porCiudad = clienteService.obtenerClientesActivos().stream()
+        cargarTabla(tabla, () -> clienteService.obtenerClientesActivos().stream()
                 .collect(Collectors.groupingBy(
                         c -> c.getCiudad() != null && !c.getCiudad().isEmpty() ? c.getCiudad() : "Sin especificar",
                         Collectors.counting()
-                ));
-
-        tabla.setItems(FXCollections.observableArrayList(porCiudad.entrySet()));
+                ))
+                .entrySet());
 
         panel.getChildren().addAll(lblTitulo, tabla);
         return panel;
@@ -782,141 +783,159 @@ public class ReportesPanel extends VBox {
      * Exportar reporte de ventas
      */
     private void exportarVentas() {
-        try {
-            File file = seleccionarArchivoDestino("reporte_ventas.csv");
-            if (file == null) return;
-
-            try (FileWriter writer = new FileWriter(file)) {
-                // Encabezados
-                writer.write("ID,Fecha,Cliente,Subtotal,Descuento,Total,Metodo Pago,Estado\n");
-
-                // Datos
-                List<Venta> ventas = ventaService.obtenerVentasActivas();
-                for (Venta venta : ventas) {
-                    writer.write(String.format("%d,%s,%s,%.2f,%.2f,%.2f,%s,%s\n",
-                            venta.getId(),
-                            venta.getFecha().format(formatterTime),
-                            escaparCSV(venta.getCliente()),
-                            venta.getSubtotal(),
-                            venta.getDescuento(),
-                            venta.getTotal(),
-                            venta.getMetodoPago(),
-                            venta.getActivo() ? "Activa" : "Anulada"
-                    ));
-                }
+        File file = seleccionarArchivoDestino("reporte_ventas.csv");
+        if (file == null) return;
+
+        exportarEnSegundoPlano(file, "Reporte exportado exitosamente a:\n", writer -> {
+            // Encabezados
+            writer.write("ID,Fecha,Cliente,Subtotal,Descuento,Total,Metodo Pago,Estado\n");
+
+            // Datos
+            List<Venta> ventas = ventaService.obtenerVentasActivas();
+            for (Venta venta : ventas) {
+                writer.write(String.format("%d,%s,%s,%.2f,%.2f,%.2f,%s,%s\n",
+                        venta.getId(),
+                        venta.getFecha().format(formatterTime),
+                        escaparCSV(venta.getCliente()),
+                        venta.getSubtotal(),
+                        venta.getDescuento(),
+                        venta.getTotal(),
+                        venta.getMetodoPago(),
+                        venta.getActivo() ? "Activa" : "Anulada"
+                ));
             }
-
-            mostrarMensaje("Reporte exportado exitosamente a:\n" + file.getAbsolutePath(), Alert.AlertType.INFORMATION);
-        } catch (IOException e) {
-            mostrarMensaje("Error al exportar: " + e.getMessage(), Alert.AlertType.ERROR);
-        }
+        });
     }
 
     /**
      * Exportar reporte de inventario
      */
     private void exportarInventario() {
-        try {
-            File file = seleccionarArchivoDestino("reporte_inventario.csv");
-            if (file == null) return;
-
-            try (FileWriter writer = new FileWriter(file)) {
-                writer.write("Codigo,Nombre,Categoria,Laboratorio,Stock,Stock Minimo,Precio,Fecha Vencimiento,Estado\n");
-
-                List<Producto> productos = productoService.obtenerTodos();
-                for (Producto p : productos) {
-                    writer.write(String.format("%s,%s,%s,%s,%d,%d,%.2f,%s,%s\n",
-                            escaparCSV(p.getCodigo()),
-                            escaparCSV(p.getNombre()),
-                            escaparCSV(p.getCategoria()),
-                            escaparCSV(p.getLaboratorio()),
-                            p.getStock(),
-                            p.getStockMinimo(),
-                            p.getPrecio(),
-                            p.getFechaVencimiento() != null ? p.getFechaVencimiento().format(formatter) : "N/A",
-                            p.isStockBajo() ? "Stock Bajo" : (p.isVencido() ? "Vencido" : "Normal")
-                    ));
-                }
+        File file = seleccionarArchivoDestino("reporte_inventario.csv");
+        if (file == null) return;
+
+        exportarEnSegundoPlano(file, "Reporte exportado exitosamente a:\n", writer -> {
+            writer.write("Codigo,Nombre,Categoria,Laboratorio,Stock,Stock Minimo,Precio,Fecha Vencimiento,Estado\n");
+
+            List<Producto> productos = productoService.obtenerTodos();
+            // Stock bajo con el umbral efectivo (producto, categoría o global), como los KPI
+            AlertaService.Umbrales umbrales = alertaService.obtenerUmbrales();
+            LocalDate hoy = LocalDate.now();
+            for (Producto p : productos) {
+                writer.write(String.format("%s,%s,%s,%s,%d,%s,%.2f,%s,%s\n",
+                        escaparCSV(p.getCodigo()),
+                        escaparCSV(p.getNombre()),
+                        escaparCSV(p.getCategoria()),
+                        escaparCSV(p.getLaboratorio()),
+                        p.getStock(),
+                        p.getStockMinimo() != null ? p.getStockMinimo() : "",
+                        p.getPrecio(),
+                        p.getFechaVencimiento() != null ? p.getFechaVencimiento().format(formatter) : "N/A",
+                        umbrales.isStockBajo(p) ? "Stock Bajo" : (p.isVencido(hoy) ? "Vencido" : "Normal")
+                ));
             }
-
-            mostrarMensaje("Reporte exportado exitosamente a:\n" + file.getAbsolutePath(), Alert.AlertType.INFORMATION);
-        } catch (IOException e) {
-            mostrarMensaje("Error al exportar: " + e.getMessage(), Alert.AlertType.ERROR);
-        }
+        });
     }
 
     /**
      * Exportar reporte de clientes
      */
     private void exportarClientes() {
-        try {
-            File file = seleccionarArchivoDestino("reporte_clientes.csv");
-            if (file == null) return;
-
-            try (FileWriter writer = new FileWriter(file)) {
-                writer.write("ID,Nombre,Apellido,Tipo Doc,Documento,Telefono,Email,Ciudad,CP,Fecha Registro\n");
-
-                List<Cliente> clientes = clienteService.obtenerClientesActivos();
-                for (Cliente c : clientes) {
-                    writer.write(String.format("%d,%s,%s,%s,%s,%s,%s,%s,%s,%s\n",
-                            c.getId(),
-                            escaparCSV(c.getNombre()),
-                            escaparCSV(c.getApellido()),
-                            c.getTipoDocumento(),
-                            c.getDocumento(),
-                            c.getTelefono() != null ? escaparCSV(c.getTelefono()) : "",
-                            c.getEmail() != null ? escaparCSV(c.getEmail()) : "",
-                            c.getCiudad() != null ? escaparCSV(c.getCiudad()) : "",
-                            c.getCodigoPostal() != null ? c.getCodigoPostal() : "",
-                            c.getFechaRegistro().format(formatterTime)
-                    ));
-                }
+        File file = seleccionarArchivoDestino("reporte_clientes.csv");
+        if (file == null) return;
+
+        exportarEnSegundoPlano(file, "Reporte exportado exitosamente a:\n", writer -> {
+            writer.write("ID,Nombre,Apellido,Tipo Doc,Documento,Telefono,Email,Ciudad,CP,Fecha Registro\n");
+
+            List<Cliente> clientes = clienteService.obtenerClientesActivos();
+            for (Cliente c : clientes) {
+                writer.write(String.format("%d,%s,%s,%s,%s,%s,%s,%s,%s,%s\n",
+                        c.getId(),
+                        escaparCSV(c.getNombre()),
+                        escaparCSV(c.getApellido()),
+                        c.getTipoDocumento(),
+                        c.getDocumento(),
+                        c.getTelefono() != null ? escaparCSV(c.getTelefono()) : "",
+                        c.getEmail() != null ? escaparCSV(c.getEmail()) : "",
+                        c.getCiudad() != null ? escaparCSV(c.getCiudad()) : "",
+                        c.getCodigoPostal() != null ? c.getCodigoPostal() : "",
+                        c.getFechaRegistro().format(formatterTime)
+                ));
             }
-
-            mostrarMensaje("Reporte exportado exitosamente a:\n" + file.getAbsolutePath(), Alert.AlertType.INFORMATION);
-        } catch (IOException e) {
-            mostrarMensaje("Error al exportar: " + e.getMessage(), Alert.AlertType.ERROR);
-        }
+        });
     }
 
     /**
      * Exportar reporte completo
      */
     private void exportarReporteCompleto() {
-        try {
-            File file = seleccionarArchivoDestino("reporte_completo.csv");
-            if (file == null) return;
-
-            try (FileWriter writer = new FileWriter(file)) {
-                writer.write("=== REPORTE COMPLETO DE FARMACIA ===\n");
-                writer.write("Fecha: " + LocalDateTime.now().format(formatterTime) + "\n\n");
-
-                // Estadísticas de ventas
-                writer.write("=== VENTAS ===\n");
-                VentaService.EstadisticasVentas statsVentas = ventaService.obtenerEstadisticasDelDia();
-                writer.write(String.format("Total del Dia: %.2f EUR\n", statsVentas.getTotalVentas()));
-                writer.write(String.format("Numero de Ventas: %d\n", statsVentas.getNumeroVentas()));
-                writer.write(String.format("Promedio por Venta: %.2f EUR\n\n", statsVentas.getPromedioVenta()));
-
-                // Estadísticas de inventario
-                writer.write("=== INVENTARIO ===\n");
-                List<Producto> productos = productoService.obtenerTodos();
-                writer.write(String.format("Total Productos: %d\n", productos.size()));
-                writer.write(String.format("Stock Total: %d\n", productos.stream().mapToLong(Producto::getStock).sum()));
-                writer.write(String.format("Productos Stock Bajo: %d\n", productos.stream().filter(Producto::isStockBajo).count()));
-                writer.write(String.format("Productos Vencidos: %d\n\n", productos.stream().filter(Producto::isVencido).count()));
-
-                // Estadísticas de clientes
-                writer.write("=== CLIENTES ===\n");
-                ClienteService.EstadisticasClientes statsClientes = clienteService.obtenerEstadisticas();
-                writer.write(String.format("Clientes Activos: %d\n", statsClientes.getTotalClientes()));
-                writer.write(String.format("Clientes Inactivos: %d\n", statsClientes.getTotalInactivos()));
-            }
+        File file = seleccionarArchivoDestino("reporte_completo.csv");
+        if (file == null) return;
+
+        exportarEnSegundoPlano(file, "Reporte completo exportado exitosamente a:\n", writer -> {
+            writer.write("=== REPORTE COMPLETO DE FARMACIA ===\n");
+            writer.write("Fecha: " + LocalDateTime.now().format(formatterTime) + "\n\n");
+
+            // Estadísticas de ventas
+            writer.write("=== VENTAS ===\n");
+            VentaService.EstadisticasVentas statsVentas = ventaService.obtenerEstadisticasDelDia();
+            writer.write(String.format("Total del Dia: %.2f EUR\n", statsVentas.getTotalVentas()));
+            writer.write(String.format("Numero de Ventas: %d\n", statsVentas.getNumeroVentas()));
+            writer.write(String.format("Promedio por Venta: %.2f EUR\n\n", statsVentas.getPromedioVenta()));
+
+            // Estadísticas de inventario
+            writer.write("=== INVENTARIO ===\n");
+            ResumenInventario resumen = productoService.obtenerResumenInventario();
+            writer.write(String.format("Total Productos: %d\n", resumen.getTotalProductos()));
+            writer.write(String.format("Stock Total: %d\n", resumen.getStockTotal()));
+            writer.write(String.format("Productos Stock Bajo: %d\n", resumen.getProductosStockBajo()));
+            writer.write(String.format("Productos Vencidos: %d\n\n", resumen.getProductosVencidos()));
+
+            // Estadísticas de clientes
+            writer.write("=== CLIENTES ===\n");
+            ClienteService.EstadisticasClientes statsClientes = clienteService.obtenerEstadisticas();
+            writer.write(String.format("Clientes Activos: %d\n", statsClientes.getTotalClientes()));
+            writer.write(String.format("Clientes Inactivos: %d\n", statsClientes.getTotalInactivos()));
+        });
+    }
 
-            mostrarMensaje("Reporte completo exportado exitosamente a:\n" + file.getAbsolutePath(), Alert.AlertType.INFORMATION);
-        } catch (IOException e) {
-            mostrarMensaje("Error al exportar: " + e.getMessage(), Alert.AlertType.ERROR);
-        }
+    /**
+     * Escribir un reporte en segundo plano (consultas y escritura del archivo)
+     */
+    private void exportarEnSegundoPlano(File file, String mensajeExito, EscrituraReporte escritura) {
+        new TareaUI().ejecutar(
+                () -> {
+                    try (FileWriter writer = new FileWriter(file)) {
+                        escritura.escribir(writer);
+                    }
+                    return file;
+                },
+                f -> mostrarMensaje(mensajeExito + f.getAbsolutePath(), Alert.AlertType.INFORMATION),
+                e -> mostrarMensaje("Error al exportar: " + e.getMessage(), Alert.AlertType.ERROR));
+    }
+
+    /**
+     * Contenido de un reporte exportado
+     */
+    @FunctionalInterface
+    private interface EscrituraReporte {
+        void escribir(FileWriter writer) throws IOException;
+    }
+
+    /**
+     * Cargar los datos de una tabla en segundo plano
+     */
+    private <T> void cargarTabla(TableView<T> tabla, Callable<? extends Collection<T>> consulta) {
+        tabla.setPlaceholder(new ProgressIndicator());
+        new TareaUI().ejecutar(consulta,
+                datos -> {
+                    tabla.setPlaceholder(new Label("Sin datos"));
+                    tabla.setItems(FXCollections.observableArrayList(datos));
+                },
+                e -> {
+                    tabla.setPlaceholder(new Label("Error al cargar los datos"));
+                    mostrarMensaje("Error al cargar los datos: " + e.getMessage(), Alert.AlertType.ERROR);
+                });
     }
 
     /**
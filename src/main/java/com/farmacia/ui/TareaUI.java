@@ -0,0 +1,184 @@
+package com.farmacia.ui;
+
+import javafx.application.Platform;
+import javafx.beans.property.ReadOnlyBooleanProperty;
+import javafx.beans.property.ReadOnlyBooleanWrapper;
+import javafx.scene.Node;
+import javafx.scene.control.Alert;
+import javafx.scene.control.ProgressIndicator;
+import javafx.scene.layout.Pane;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Ejecuta llamadas a los servicios fuera del hilo de JavaFX (en hilos virtuales)
+ * y entrega el resultado de vuelta con Platform.runLater.
+ *
+ * Cada instancia es una "ranura": lanzar una tarea nueva deja obsoleta la anterior
+ * y solo se aplica el resultado de la más reciente. La tarea obsoleta no se
+ * interrumpe (podría estar en mitad de una operación JDBC), solo se descarta.
+ * Las escrituras (escribir) no entran en ese juego: nunca se descartan, y su
+ * resultado o su error siempre se entregan.
+ * Los métodos de instancia deben llamarse desde el hilo de JavaFX.
+ */
+public class TareaUI {
+
+    private static final ExecutorService EJECUTOR = Executors.newVirtualThreadPerTaskExecutor();
+
+    private final ReadOnlyBooleanWrapper ocupado = new ReadOnlyBooleanWrapper(false);
+    private long generacion = 0;
+    private Future<?> tareaActual;
+    private boolean leyendo = false;
+    private int escriturasPendientes = 0;
+
+    /**
+     * Ejecuta una carga en segundo plano; los errores se muestran en un diálogo
+     */
+    public <T> void ejecutar(Callable<T> trabajo, Consumer<T> alTerminar) {
+        ejecutar(trabajo, alTerminar, "Error al cargar los datos");
+    }
+
+    /**
+     * Ejecuta el trabajo en segundo plano; los errores se muestran en un diálogo con el mensaje indicado
+     */
+    public <T> void ejecutar(Callable<T> trabajo, Consumer<T> alTerminar, String mensajeError) {
+        ejecutar(trabajo, alTerminar, error -> mostrarError(mensajeError, error));
+    }
+
+    /**
+     * Ejecuta el trabajo en segundo plano, sustituyendo a la tarea en curso de esta ranura
+     */
+    public <T> void ejecutar(Callable<T> trabajo, Consumer<T> alTerminar, Consumer<Throwable> alFallar) {
+        long id = ++generacion;
+        if (tareaActual != null) {
+            tareaActual.cancel(false);
+        }
+        leyendo = true;
+        actualizarOcupado();
+
+        tareaActual = EJECUTOR.submit(() -> {
+            try {
+                T resultado = trabajo.call();
+                Platform.runLater(() -> {
+                    if (id == generacion) {
+                        leyendo = false;
+                        actualizarOcupado();
+                        alTerminar.accept(resultado);
+                    }
+                });
+            } catch (Throwable e) {
+                Platform.runLater(() -> {
+                    if (id == generacion) {
+                        leyendo = false;
+                        actualizarOcupado();
+                        alFallar.accept(e);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Ejecuta una escritura en segundo plano. Ninguna tarea posterior la sustituye ni la
+     * cancela: su resultado o su error siempre se entregan. La carga en curso de la ranura
+     * se descarta, porque su resultado sería anterior a la escritura
+     */
+    public <T> void escribir(Callable<T> trabajo, Consumer<T> alTerminar, Consumer<Throwable> alFallar) {
+        cancelar();
+        escriturasPendientes++;
+        actualizarOcupado();
+
+        EJECUTOR.submit(() -> {
+            try {
+                T resultado = trabajo.call();
+                Platform.runLater(() -> {
+                    escriturasPendientes--;
+                    actualizarOcupado();
+                    alTerminar.accept(resultado);
+                });
+            } catch (Throwable e) {
+                Platform.runLater(() -> {
+                    escriturasPendientes--;
+                    actualizarOcupado();
+                    alFallar.accept(e);
+                });
+            }
+        });
+    }
+
+    /**
+     * Descarta la carga en curso (su resultado ya no se aplicará); las escrituras siguen
+     */
+    public void cancelar() {
+        generacion++;
+        if (tareaActual != null) {
+            tareaActual.cancel(false);
+        }
+        leyendo = false;
+        actualizarOcupado();
+    }
+
+    private void actualizarOcupado() {
+        ocupado.set(leyendo || escriturasPendientes > 0);
+    }
+
+    public ReadOnlyBooleanProperty ocupadoProperty() {
+        return ocupado.getReadOnlyProperty();
+    }
+
+    public boolean isOcupado() {
+        return ocupado.get();
+    }
+
+    /**
+     * Crea un indicador de carga visible solo mientras esta ranura tiene una tarea en curso
+     */
+    public ProgressIndicator crearIndicador() {
+        ProgressIndicator indicador = new ProgressIndicator();
+        indicador.setMaxSize(24, 24);
+        indicador.setPrefSize(24, 24);
+        indicador.visibleProperty().bind(ocupado);
+        indicador.managedProperty().bind(ocupado);
+        return indicador;
+    }
+
+    /**
+     * Ejecuta una tarea suelta en segundo plano (no sustituye a ninguna otra)
+     */
+    public static <T> void enSegundoPlano(Callable<T> trabajo, Consumer<T> alTerminar) {
+        new TareaUI().ejecutar(trabajo, alTerminar);
+    }
+
+    /**
+     * Muestra un indicador de carga dentro del contenedor y lo reemplaza por el
+     * nodo construido con el resultado cuando la tarea termina
+     */
+    public static <T> void cargarEn(Pane contenedor, Callable<T> trabajo, Function<T, Node> constructor) {
+        ProgressIndicator indicador = new ProgressIndicator();
+        indicador.setMaxSize(40, 40);
+        contenedor.getChildren().add(indicador);
+        new TareaUI().ejecutar(trabajo,
+            resultado -> {
+                contenedor.getChildren().remove(indicador);
+                contenedor.getChildren().add(constructor.apply(resultado));
+            },
+            error -> {
+                contenedor.getChildren().remove(indicador);
+                mostrarError("Error al cargar los datos", error);
+            });
+    }
+
+    private static void mostrarError(String mensaje, Throwable error) {
+        System.out.println("⚠ " + mensaje + ": " + error);
+        Alert alert = new Alert(Alert.AlertType.ERROR);
+        alert.setTitle("Error");
+        alert.setHeaderText(null);
+        alert.setContentText(mensaje + ": " + error.getMessage());
+        alert.show();
+    }
+}
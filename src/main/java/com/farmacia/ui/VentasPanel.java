@@ -19,7 +19,9 @@ import javafx.scene.paint.Color;
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.List;
 import java.util.Optional;
 
@@ -46,6 +48,26 @@ public class VentasPanel {
     private DatePicker dpFechaInicio;
     private DatePicker dpFechaFin;
     
+    // Paginación del historial completo (se carga la siguiente página al hacer scroll)
+    private static final int TAMANO_PAGINA_HISTORIAL = 100;
+    private boolean modoHistorialCompleto = false;
+    private boolean hayMasVentas = false;
+    
+    // Tareas en segundo plano (consultas del historial, estadísticas y operaciones de venta)
+    private final TareaUI tareaHistorial = new TareaUI();
+    private final TareaUI tareaEstadisticas = new TareaUI();
+    private final TareaUI tareaVenta = new TareaUI();
+    
+    // Versión del catálogo con la que se cargó el combo de productos
+    private long versionProductosCombo = -1;
+    
+    // Lector de códigos de barras: los códigos se encolan y se resuelven en memoria
+    // contra la caché del catálogo, sin consultar la base de datos
+    private TextField txtEscaneo;
+    private Label lblEstadoEscaneo;
+    private final Deque<String> escaneosPendientes = new ArrayDeque<>();
+    private final TareaUI tareaCatalogo = new TareaUI();
+    
     public VentasPanel(VentaService ventaService, ProductoService productoService, Usuario usuarioActual) {
         this.ventaService = ventaService;
         this.productoService = productoService;
@@ -86,6 +108,9 @@ public class VentasPanel {
         Label titulo = new Label("💰 Nueva Venta");
         titulo.setStyle("-fx-font-size: 20px; -fx-font-weight: bold;");
 
+        // Lector de códigos de barras
+        HBox scanBox = crearPanelEscaneo();
+
         // Panel de búsqueda de productos
         HBox searchBox = crearPanelBusquedaProducto();
 
@@ -95,11 +120,85 @@ public class VentasPanel {
         // Panel de totales y datos de venta
         HBox bottomBox = crearPanelTotales();
 
-        vbox.getChildren().addAll(titulo, searchBox, carritoBox, bottomBox);
+        vbox.getChildren().addAll(titulo, scanBox, searchBox, carritoBox, bottomBox);
 
         return vbox;
     }
 
+    private HBox crearPanelEscaneo() {
+        HBox hbox = new HBox(10);
+        hbox.setAlignment(Pos.CENTER_LEFT);
+
+        Label lblEscaneo = new Label("📷 Código de barras:");
+        txtEscaneo = new TextField();
+        txtEscaneo.setPrefWidth(250);
+        txtEscaneo.setPromptText("Escanee o escriba el código + Enter");
+        
+        // El lector envía el código seguido de Enter; cada código se encola al momento
+        // para que una ráfaga de lecturas no pierda ninguna
+        txtEscaneo.setOnAction(e -> {
+            String codigo = txtEscaneo.getText().trim();
+            txtEscaneo.clear();
+            if (!codigo.isEmpty()) {
+                escaneosPendientes.add(codigo);
+                procesarEscaneos();
+            }
+        });
+
+        lblEstadoEscaneo = new Label();
+        lblEstadoEscaneo.setStyle("-fx-font-weight: bold;");
+
+        hbox.getChildren().addAll(lblEscaneo, txtEscaneo, tareaCatalogo.crearIndicador(), lblEstadoEscaneo);
+        return hbox;
+    }
+
+    // Resolver los códigos encolados. Si el catálogo aún no está en memoria se carga
+    // en segundo plano y la cola se procesa al terminar
+    private void procesarEscaneos() {
+        if (!productoService.isCatalogoCargado()) {
+            if (!tareaCatalogo.isOcupado()) {
+                tareaCatalogo.ejecutar(() -> {
+                    productoService.precargarCatalogo();
+                    return null;
+                }, r -> procesarEscaneos(), "Error al cargar el catálogo");
+            }
+            return;
+        }
+
+        while (!escaneosPendientes.isEmpty()) {
+            String codigo = escaneosPendientes.poll();
+            Optional<Producto> encontrado = productoService.buscarEnCatalogoPorCodigo(codigo);
+            if (encontrado.isEmpty()) {
+                // Sin diálogos: un Alert modal se quedaría con las lecturas siguientes
+                mostrarEstadoEscaneo("❌ Código no encontrado: " + codigo, false);
+                continue;
+            }
+
+            Producto producto = encontrado.get();
+            if (cantidadEnCarrito(producto) + 1 > producto.getStock()) {
+                mostrarEstadoEscaneo("❌ Stock insuficiente: " + producto.getNombre() + " (Disponible: " + producto.getStock() + ")", false);
+                continue;
+            }
+
+            agregarAlCarrito(producto, 1);
+            mostrarEstadoEscaneo("✓ " + producto.getNombre(), true);
+        }
+    }
+
+    private int cantidadEnCarrito(Producto producto) {
+        for (ItemVenta item : carritoData) {
+            if (item.getProducto().getId().equals(producto.getId())) {
+                return item.getCantidad();
+            }
+        }
+        return 0;
+    }
+
+    private void mostrarEstadoEscaneo(String mensaje, boolean correcto) {
+        lblEstadoEscaneo.setText(mensaje);
+        lblEstadoEscaneo.setTextFill(correcto ? Color.web("#4CAF50") : Color.web("#f44336"));
+    }
+
     private HBox crearPanelBusquedaProducto() {
         HBox hbox = new HBox(10);
         hbox.setAlignment(Pos.CENTER_LEFT);
@@ -109,9 +208,22 @@ public class VentasPanel {
         cboProducto.setPrefWidth(400);
         cboProducto.setPromptText("Seleccione un producto...");
         
-        // Cargar productos activos
-        List<Producto> productos = productoService.obtenerTodosActivos();
-        cboProducto.getItems().addAll(productos);
+        // Cargar productos activos en segundo plano; al desplegar la lista se recargan
+        // si el catálogo ha cambiado desde entonces (ventas, pedidos, ediciones)
+        TareaUI tareaProductos = new TareaUI();
+        Runnable cargarProductos = () -> {
+            long version = productoService.getVersionCatalogo();
+            tareaProductos.ejecutar(productoService::obtenerTodosActivos, productos -> {
+                versionProductosCombo = version;
+                cboProducto.getItems().setAll(productos);
+            });
+        };
+        cargarProductos.run();
+        cboProducto.setOnShowing(e -> {
+            if (!tareaProductos.isOcupado() && versionProductosCombo != productoService.getVersionCatalogo()) {
+                cargarProductos.run();
+            }
+        });
         
         // Configurar cómo se muestran los productos
         cboProducto.setCellFactory(lv -> new ListCell<Producto>() {
@@ -169,7 +281,7 @@ public class VentasPanel {
             }
         });
 
-        hbox.getChildren().addAll(lblBuscar, cboProducto, new Label("Cantidad:"), txtCantidad, btnAgregar);
+        hbox.getChildren().addAll(lblBuscar, cboProducto, tareaProductos.crearIndicador(), new Label("Cantidad:"), txtCantidad, btnAgregar);
 
         return hbox;
     }
@@ -373,7 +485,7 @@ public class VentasPanel {
         lblEstadisticas.setStyle("-fx-font-size: 14px; -fx-font-weight: bold; -fx-text-fill: #4CAF50;");
         lblEstadisticas.setId("lblEstadisticas");
 
-        filtrosBox.getChildren().addAll(lblFiltros, btnHoy, btnTodas, new Label("     "), lblEstadisticas);
+        filtrosBox.getChildren().addAll(lblFiltros, btnHoy, btnTodas, tareaHistorial.crearIndicador(), new Label("     "), lblEstadisticas);
 
         // Tabla de ventas
         tablaVentas = new TableView<>();
@@ -459,6 +571,19 @@ public class VentasPanel {
         tablaVentas.getColumns().addAll(colId, colFecha, colCliente, colMetodoPago, colUsuario, colTotal, colEstado, colAcciones);
         tablaVentas.setItems(ventasData);
 
+        // Al acercarse al final de la tabla, cargar la siguiente página del historial
+        tablaVentas.skinProperty().addListener((obs, oldSkin, newSkin) -> {
+            for (javafx.scene.Node node : tablaVentas.lookupAll(".scroll-bar")) {
+                if (node instanceof ScrollBar scrollBar && scrollBar.getOrientation() == javafx.geometry.Orientation.VERTICAL) {
+                    scrollBar.valueProperty().addListener((o, oldVal, newVal) -> {
+                        if (newVal.doubleValue() >= scrollBar.getMax() * 0.9) {
+                            cargarSiguientePaginaVentas();
+                        }
+                    });
+                }
+            }
+        });
+
         vbox.getChildren().addAll(titulo, filtrosBox, tablaVentas);
 
         // Cargar ventas del día por defecto
@@ -513,6 +638,9 @@ public class VentasPanel {
             mostrarAlerta("Advertencia", "El carrito está vacío", Alert.AlertType.WARNING);
             return;
         }
+        if (tareaVenta.isOcupado()) {
+            return;
+        }
 
         try {
             // Crear venta
@@ -538,20 +666,26 @@ public class VentasPanel {
                 venta.agregarDetalle(detalle);
             }
 
-            // Guardar venta (pasar usuario actual)
-            Venta ventaGuardada = ventaService.crearVenta(venta, usuarioActual);
-
-            mostrarAlerta("Éxito", 
-                "Venta registrada correctamente\n" +
-                "ID: " + ventaGuardada.getId() + "\n" +
-                "Total: €" + String.format("%.2f", ventaGuardada.getTotal()), 
-                Alert.AlertType.INFORMATION);
-
-            // Limpiar formulario
-            limpiarFormularioVenta();
-            
-            // Recargar historial si está visible
-            cargarVentasDelDia();
+            // Guardar venta en segundo plano (pasar usuario actual)
+            tareaVenta.escribir(
+                () -> ventaService.crearVenta(venta, usuarioActual),
+                ventaGuardada -> {
+                    mostrarAlerta("Éxito", 
+                        "Venta registrada correctamente\n" +
+                        "ID: " + ventaGuardada.getId() + "\n" +
+                        "Total: €" + String.format("%.2f", ventaGuardada.getTotal()), 
+                        Alert.AlertType.INFORMATION);
+
+                    // Limpiar formulario
+                    limpiarFormularioVenta();
+                    
+                    // Recargar historial si está visible
+                    cargarVentasDelDia();
+                },
+                e -> {
+                    mostrarAlerta("Error", "Error al registrar la venta: " + e.getMessage(), Alert.AlertType.ERROR);
+                    e.printStackTrace();
+                });
 
         } catch (Exception e) {
             mostrarAlerta("Error", "Error al registrar la venta: " + e.getMessage(), Alert.AlertType.ERROR);
@@ -583,28 +717,45 @@ public class VentasPanel {
     }
 
     private void cargarVentasDelDia() {
+        modoHistorialCompleto = false;
         ventasData.clear();
-        List<Venta> ventas = ventaService.obtenerVentasDelDia();
-        ventasData.addAll(ventas);
+        tareaHistorial.ejecutar(ventaService::obtenerVentasDelDia, ventas -> ventasData.setAll(ventas));
         actualizarEstadisticas();
     }
 
     private void cargarTodasLasVentas() {
+        modoHistorialCompleto = true;
+        hayMasVentas = true;
         ventasData.clear();
-        List<Venta> ventas = ventaService.obtenerTodasActivas();
-        ventasData.addAll(ventas);
+        tareaHistorial.cancelar();
+        cargarSiguientePaginaVentas();
         actualizarEstadisticas();
     }
 
-    private void actualizarEstadisticas() {
-        VentaService.EstadisticasVentas stats = ventaService.obtenerEstadisticasDelDia();
-        Label lblEstadisticas = (Label) content.lookup("#lblEstadisticas");
-        if (lblEstadisticas != null) {
-            lblEstadisticas.setText(String.format(
-                "💰 Total del día: €%.2f | 📊 Ventas: %d",
-                stats.getTotalVentas(), stats.getCantidadVentas()
-            ));
+    private void cargarSiguientePaginaVentas() {
+        // El scroll puede pedir la página varias veces mientras se carga
+        if (!modoHistorialCompleto || !hayMasVentas || tareaHistorial.isOcupado()) {
+            return;
         }
+        Venta ultima = ventasData.isEmpty() ? null : ventasData.get(ventasData.size() - 1);
+        tareaHistorial.ejecutar(
+            () -> ventaService.obtenerPaginaHistorial(ultima, TAMANO_PAGINA_HISTORIAL),
+            pagina -> {
+                hayMasVentas = pagina.size() == TAMANO_PAGINA_HISTORIAL;
+                ventasData.addAll(pagina);
+            });
+    }
+
+    private void actualizarEstadisticas() {
+        tareaEstadisticas.ejecutar(ventaService::obtenerEstadisticasDelDia, stats -> {
+            Label lblEstadisticas = (Label) content.lookup("#lblEstadisticas");
+            if (lblEstadisticas != null) {
+                lblEstadisticas.setText(String.format(
+                    "💰 Total del día: €%.2f | 📊 Ventas: %d",
+                    stats.getTotalVentas(), stats.getCantidadVentas()
+                ));
+            }
+        });
     }
 
     private void verDetalleVenta(Venta venta) {
@@ -642,6 +793,9 @@ public class VentasPanel {
     }
 
     private void anularVenta(Venta venta) {
+        if (tareaVenta.isOcupado()) {
+            return;
+        }
         Alert confirmacion = new Alert(Alert.AlertType.CONFIRMATION);
         confirmacion.setTitle("Confirmar Anulación");
         confirmacion.setHeaderText("¿Anular esta venta?");
@@ -653,13 +807,16 @@ public class VentasPanel {
 
         Optional<ButtonType> resultado = confirmacion.showAndWait();
         if (resultado.isPresent() && resultado.get() == ButtonType.OK) {
-            try {
-                ventaService.anularVenta(venta.getId());
-                mostrarAlerta("Éxito", "Venta anulada correctamente", Alert.AlertType.INFORMATION);
-                cargarVentasDelDia();
-            } catch (Exception e) {
-                mostrarAlerta("Error", "Error al anular la venta: " + e.getMessage(), Alert.AlertType.ERROR);
-            }
+            tareaVenta.escribir(
+                () -> {
+                    ventaService.anularVenta(venta.getId());
+                    return null;
+                },
+                r -> {
+                    mostrarAlerta("Éxito", "Venta anulada correctamente", Alert.AlertType.INFORMATION);
+                    cargarVentasDelDia();
+                },
+                e -> mostrarAlerta("Error", "Error al anular la venta: " + e.getMessage(), Alert.AlertType.ERROR));
         }
     }
 
@@ -0,0 +1,88 @@
+package com.farmacia.repository;
+
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.SpringBootConfiguration;
+import org.springframework.boot.autoconfigure.domain.EntityScan;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Las consultas de ventas de un día filtran por el rango semiabierto [desde, hasta) y
+ * deben resolverse con el índice idx_ventas_activo_fecha, no recorriendo toda la tabla.
+ * Se captura el SQL que genera Hibernate para cada consulta y se pasa por EXPLAIN en H2.
+ */
+@DataJpaTest(properties = "spring.jpa.properties.hibernate.session_factory.statement_inspector="
+        + "com.farmacia.repository.VentaRepositoryTest$ConsultasCapturadas")
+class VentaRepositoryTest {
+
+    private static final String INDICE = "IDX_VENTAS_ACTIVO_FECHA";
+
+    @Autowired
+    private VentaRepository ventaRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private final LocalDateTime desde = LocalDate.of(2026, 1, 15).atStartOfDay();
+    private final LocalDateTime hasta = desde.plusDays(1);
+
+    @BeforeEach
+    void limpiarConsultas() {
+        ConsultasCapturadas.SQL.clear();
+    }
+
+    @Test
+    void ventasEntreUsaElIndice() {
+        ventaRepository.findVentasEntre(desde, hasta);
+        assertThat(plan()).contains(INDICE);
+    }
+
+    @Test
+    void totalVentasEntreUsaElIndice() {
+        ventaRepository.calcularTotalVentasEntre(desde, hasta);
+        assertThat(plan()).contains(INDICE);
+    }
+
+    @Test
+    void contarVentasEntreUsaElIndice() {
+        ventaRepository.contarVentasEntre(desde, hasta);
+        assertThat(plan()).contains(INDICE);
+    }
+
+    // Plan de H2 para la última consulta de Hibernate, con los mismos parámetros
+    private String plan() {
+        assertThat(ConsultasCapturadas.SQL).isNotEmpty();
+        String sql = ConsultasCapturadas.SQL.get(ConsultasCapturadas.SQL.size() - 1);
+        return jdbcTemplate.queryForObject("EXPLAIN " + sql, String.class, desde, hasta).toUpperCase();
+    }
+
+    // Solo entidades y repositorios: FarmaciaApplication arranca también servicios e interfaz
+    @SpringBootConfiguration
+    @EntityScan("com.farmacia.model")
+    @EnableJpaRepositories("com.farmacia.repository")
+    static class Configuracion {
+    }
+
+    // Guarda el SQL de cada sentencia que prepara Hibernate
+    public static class ConsultasCapturadas implements StatementInspector {
+
+        static final List<String> SQL = new CopyOnWriteArrayList<>();
+
+        @Override
+        public String inspect(String sql) {
+            SQL.add(sql);
+            return sql;
+        }
+    }
+}
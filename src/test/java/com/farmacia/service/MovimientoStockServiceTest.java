@@ -0,0 +1,81 @@
+package com.farmacia.service;
+
+import com.farmacia.model.MovimientoStock;
+import com.farmacia.model.MovimientoStock.TipoMovimiento;
+import com.farmacia.repository.MovimientoStockRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.SpringBootConfiguration;
+import org.springframework.boot.autoconfigure.domain.EntityScan;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
+
+import java.time.LocalDateTime;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Stock en una fecha: último snapshot con corte no posterior más los movimientos desde él.
+ */
+@DataJpaTest
+@Import(MovimientoStockService.class)
+class MovimientoStockServiceTest {
+
+    private static final Long PRODUCTO = 1L;
+    private static final LocalDateTime DIA = LocalDateTime.of(2026, 3, 10, 0, 0);
+
+    @Autowired
+    private MovimientoStockService movimientoStockService;
+
+    @Autowired
+    private MovimientoStockRepository movimientoRepository;
+
+    @Test
+    void sinSnapshotsSumaTodoElLibro() {
+        mover(DIA.plusHours(9), 10);
+        mover(DIA.plusHours(11), -3);
+
+        assertThat(movimientoStockService.obtenerStockEnFecha(PRODUCTO, DIA.plusHours(8))).isEqualTo(0);
+        assertThat(movimientoStockService.obtenerStockEnFecha(PRODUCTO, DIA.plusHours(10))).isEqualTo(10);
+        assertThat(movimientoStockService.obtenerStockEnFecha(PRODUCTO, DIA.plusHours(12))).isEqualTo(7);
+    }
+
+    @Test
+    void partiendoDelUltimoSnapshotAnterior() {
+        mover(DIA.plusHours(9), 10);
+        mover(DIA.plusHours(11), -3);
+        movimientoStockService.crearSnapshots(DIA.plusHours(12));
+        mover(DIA.plusHours(13), 5);
+        // Otro producto no cuenta
+        movimientoRepository.save(movimiento(2L, DIA.plusHours(13), 100));
+        movimientoStockService.crearSnapshots(DIA.plusHours(14));
+        mover(DIA.plusHours(15), -2);
+        // Un movimiento anterior al corte que se ha borrado del libro después del snapshot
+        // demuestra que se parte del snapshot y no de la suma de todo el histórico
+        movimientoRepository.deleteAll(movimientoRepository.findMovimientosEntre(PRODUCTO, DIA, DIA.plusHours(10)));
+
+        assertThat(movimientoStockService.obtenerStockEnFecha(PRODUCTO, DIA.plusHours(12))).isEqualTo(7);
+        assertThat(movimientoStockService.obtenerStockEnFecha(PRODUCTO, DIA.plusHours(13).plusMinutes(30))).isEqualTo(12);
+        assertThat(movimientoStockService.obtenerStockEnFecha(PRODUCTO, DIA.plusHours(14))).isEqualTo(12);
+        assertThat(movimientoStockService.obtenerStockEnFecha(PRODUCTO, DIA.plusHours(16))).isEqualTo(10);
+    }
+
+    private void mover(LocalDateTime fecha, int cantidad) {
+        movimientoRepository.save(movimiento(PRODUCTO, fecha, cantidad));
+    }
+
+    private static MovimientoStock movimiento(Long productoId, LocalDateTime fecha, int cantidad) {
+        MovimientoStock movimiento = new MovimientoStock(productoId,
+                cantidad > 0 ? TipoMovimiento.AJUSTE : TipoMovimiento.VENTA, cantidad, null);
+        movimiento.setFecha(fecha);
+        return movimiento;
+    }
+
+    // Solo entidades, repositorios y el servicio probado
+    @SpringBootConfiguration
+    @EntityScan("com.farmacia.model")
+    @EnableJpaRepositories("com.farmacia.repository")
+    static class Configuracion {
+    }
+}